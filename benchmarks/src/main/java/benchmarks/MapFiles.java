@@ -0,0 +1,40 @@
+/**
+ * Locating the bundled map files for the benchmarks
+ */
+package benchmarks;
+
+import java.io.File;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The benchmarks read the maps in data/maps.  They are looked for under
+ * the directory named by the roadgraph.data system property, or else
+ * under the working directory and its parent, so the jar can be run from
+ * the project directory or from benchmarks/.
+ *
+ */
+public final class MapFiles
+{
+	private MapFiles() {}
+
+	/**
+	 * Find a map file
+	 * @param name The file name, such as san_diego.map
+	 * @return The path to load it from
+	 * @throws IllegalStateException If the file cannot be found
+	 */
+	public static String resolve(String name)
+	{
+		String data = System.getProperty("roadgraph.data");
+		String[] roots = data != null ? new String[] {data} : new String[] {"data", "../data"};
+		for (String root : roots) {
+			File file = new File(new File(root, "maps"), name);
+			if (file.isFile()) {
+				return file.getPath();
+			}
+		}
+		throw new IllegalStateException("Cannot find maps/" + name
+				+ "; run from the project directory or set -Droadgraph.data");
+	}
+}
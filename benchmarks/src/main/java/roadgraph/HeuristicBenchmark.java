@@ -0,0 +1,98 @@
+/**
+ * JMH benchmark of the priority queues and A* heuristics
+ */
+package roadgraph;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.MapFiles;
+import util.GraphLoader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Times A* with every priority queue and every heuristic on the two
+ * largest maps, over the same queries as SearchBenchmark.  The heuristic
+ * ZERO is Dijkstra; the landmark heuristics use 8 landmarks chosen by
+ * either strategy.  Compare the gc.alloc.rate.norm column of -prof gc
+ * between the queues to see what each costs per query.  The radix queue
+ * refuses EQUIRECTANGULAR, which is not known to be consistent, so JMH
+ * reports that combination as failed and goes on with the others.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicBenchmark
+{
+	private static final int LANDMARKS = 8;
+
+	@Param({"hollywood_large.map", "san_diego.map"})
+	public String map;
+
+	@Param({"BINARY_HEAP", "FOUR_ARY_HEAP", "RADIX"})
+	public QueueType queue;
+
+	@Param({"ZERO", "HAVERSINE", "EQUIRECTANGULAR", "LANDMARKS_FARTHEST", "LANDMARKS_AVOID"})
+	public String heuristic;
+
+	private CSRGraph graph;
+	private Heuristic h;
+	private SearchContext ctx;
+	private int[][] pairs;
+	private int next;
+
+	@Setup
+	public void load()
+	{
+		MapGraph mapGraph = new MapGraph();
+		GraphLoader.loadRoadMap(MapFiles.resolve(map), mapGraph);
+		graph = mapGraph.getCSRGraph();
+		switch (heuristic) {
+		case "ZERO":
+			h = Heuristic.ZERO;
+			break;
+		case "HAVERSINE":
+			h = new HaversineHeuristic();
+			break;
+		case "EQUIRECTANGULAR":
+			h = new EquirectangularHeuristic();
+			break;
+		case "LANDMARKS_FARTHEST":
+			h = new LandmarkHeuristic(LandmarkIndex.build(graph, LANDMARKS, LandmarkIndex.Strategy.FARTHEST));
+			break;
+		case "LANDMARKS_AVOID":
+			h = new LandmarkHeuristic(LandmarkIndex.build(graph, LANDMARKS, LandmarkIndex.Strategy.AVOID));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown heuristic " + heuristic);
+		}
+		CSRSearch.checkMonotone(queue, h);
+		ctx = new SearchContext(graph.getNumVertices());
+		ctx.setQueueType(queue);
+		pairs = SearchBenchmark.randomPairs(graph, SearchBenchmark.QUERIES);
+	}
+
+	@Benchmark
+	public int[] aStarSearch()
+	{
+		int[] q = pairs[next];
+		next = (next + 1) & (SearchBenchmark.QUERIES - 1);
+		return CSRSearch.aStarSearch(graph, q[0], q[1], ctx, null, h, SearchBenchmark.NO_HOOK);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * JMH benchmark of the searches
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.MapFiles;
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Times one query of each search behind the MapGraph methods the graders
+ * call: bfs, dijkstra and aStarSearch, and the *WithWorks variants with
+ * MapGraph.ROADWORKS of the longest roads closed, then the bidirectional
+ * searches and the contraction hierarchy.  The searches are called on
+ * CSRSearch and friends directly, so neither the console output of the
+ * MapGraph methods nor the conversion of the path to GeographicPoints
+ * is timed.
+ *
+ * Each map gets a fixed set of random queries drawn with the same seed,
+ * so runs on different builds answer the same questions; every
+ * invocation takes the next query of the set.  Throughput is queries per
+ * microsecond, the sample mode gives latency percentiles, and -prof gc
+ * gives the bytes allocated per query.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark
+{
+	private static final long SEED = 42;
+
+	/** Queries per set; a power of two so the next one is a mask away */
+	static final int QUERIES = 1024;
+
+	static final Consumer<GeographicPoint> NO_HOOK = (x) -> {};
+
+	@Param({"san_diego.map", "hollywood_large.map", "new_york.map", "utc.map"})
+	public String map;
+
+	private CSRGraph graph;
+	private BitSet works;
+	private ContractionHierarchy hierarchy;
+	private Heuristic heuristic;
+	private SearchContext forward;
+	private SearchContext backward;
+	private int[][] pairs;
+	private int next;
+
+	@Setup
+	public void load()
+	{
+		MapGraph mapGraph = new MapGraph();
+		GraphLoader.loadRoadMap(MapFiles.resolve(map), mapGraph);
+		graph = mapGraph.getCSRGraph();
+		// The roadworks the *WithWorks methods close
+		RoadClosures closures = mapGraph.getRoadClosures();
+		works = closures.snapshot().withClosed(closures.longestEdges(2 * MapGraph.ROADWORKS)).bits();
+		hierarchy = new ContractionHierarchy(graph);
+		heuristic = new HaversineHeuristic();
+		forward = new SearchContext(graph.getNumVertices());
+		backward = new SearchContext(graph.getNumVertices());
+		pairs = randomPairs(graph, QUERIES);
+	}
+
+	/**
+	 * Pick query endpoints uniformly among the vertices, the same ones
+	 * for every run
+	 * @param g The graph
+	 * @param count The number of queries
+	 * @return The start and goal vertex ids of each query
+	 */
+	static int[][] randomPairs(CSRGraph g, int count)
+	{
+		Random random = new Random(SEED);
+		int[][] pairs = new int[count][2];
+		for (int[] pair : pairs) {
+			pair[0] = random.nextInt(g.getNumVertices());
+			pair[1] = random.nextInt(g.getNumVertices());
+		}
+		return pairs;
+	}
+
+	// The next query of the set
+	private int[] nextQuery()
+	{
+		int[] pair = pairs[next];
+		next = (next + 1) & (QUERIES - 1);
+		return pair;
+	}
+
+	@Benchmark
+	public int[] bfs()
+	{
+		int[] q = nextQuery();
+		return CSRSearch.bfs(graph, q[0], q[1], forward, null, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] dijkstra()
+	{
+		int[] q = nextQuery();
+		return CSRSearch.dijkstra(graph, q[0], q[1], forward, null, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] aStarSearch()
+	{
+		int[] q = nextQuery();
+		return CSRSearch.aStarSearch(graph, q[0], q[1], forward, null, heuristic, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] dijkstraWithWorks()
+	{
+		int[] q = nextQuery();
+		return CSRSearch.dijkstra(graph, q[0], q[1], forward, works, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] aStarSearchWithWorks()
+	{
+		int[] q = nextQuery();
+		return CSRSearch.aStarSearch(graph, q[0], q[1], forward, works, heuristic, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] bidirectionalDijkstra()
+	{
+		int[] q = nextQuery();
+		return BidirectionalSearch.dijkstra(graph, q[0], q[1], forward, backward, null, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] bidirectionalAStar()
+	{
+		int[] q = nextQuery();
+		return BidirectionalSearch.aStarSearch(graph, q[0], q[1], forward, backward, null,
+				heuristic, NO_HOOK);
+	}
+
+	@Benchmark
+	public int[] contractionHierarchy()
+	{
+		int[] q = nextQuery();
+		return hierarchy.route(q[0], q[1], forward, backward, NO_HOOK);
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * JMH benchmark of reading road maps
+ */
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.MapFiles;
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Times GraphLoader.loadRoadMap on every map in data/maps with 1, 2 and
+ * 4 threads, building a fresh MapGraph and road segment map each time,
+ * to see how loading scales.  Setup checks that the threads build the
+ * same graph as one thread does.  Throughput is maps per millisecond,
+ * the sample mode gives the latency percentiles, and -prof gc gives the
+ * bytes allocated per load.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark
+{
+	@Param({
+		"hollywood_large.map", "hollywood_small.map", "new_york.map", "newbury_small.map",
+		"newbury_verysmall.map", "san_diego.map", "ucsd.map", "utc.map"
+	})
+	public String map;
+
+	@Param({"1", "2", "4"})
+	public int threads;
+
+	private String file;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void start()
+	{
+		file = MapFiles.resolve(map);
+		pool = new ForkJoinPool(threads);
+		ForkJoinPool single = new ForkJoinPool(1);
+		long expected = load(single).getCSRGraph().fingerprint();
+		single.shutdown();
+		if (load(pool).getCSRGraph().fingerprint() != expected) {
+			throw new IllegalStateException(map + " loads a different graph with " + threads
+					+ " threads");
+		}
+	}
+
+	@TearDown
+	public void stop()
+	{
+		pool.shutdown();
+	}
+
+	private MapGraph load(ForkJoinPool threadPool)
+	{
+		MapGraph graph = new MapGraph();
+		GraphLoader.loadRoadMap(file, graph, new HashMap<GeographicPoint,HashSet<RoadSegment>>(),
+				null, threadPool);
+		return graph;
+	}
+
+	@Benchmark
+	public MapGraph loadRoadMap()
+	{
+		return load(pool);
+	}
+}
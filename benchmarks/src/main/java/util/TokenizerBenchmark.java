@@ -0,0 +1,91 @@
+/**
+ * JMH benchmark of splitting road file lines
+ */
+package util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.MapFiles;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Parses a whole map file with the regular expression splitter
+ * (GraphLoader.splitInputString) and with RoadLineTokenizer.  The file is
+ * read into memory in setup so only parsing is timed, and setup checks
+ * that both give the same lines.  Throughput is files per millisecond;
+ * multiply by the line count in the setup message for lines per
+ * millisecond.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark
+{
+	@Param({"hollywood_large.map", "san_diego.map", "new_york.map"})
+	public String map;
+
+	private byte[] bytes;
+
+	@Setup
+	public void read() throws IOException
+	{
+		bytes = Files.readAllBytes(Paths.get(MapFiles.resolve(map)));
+		// RoadLineInfo.equals compares the points, name and type
+		List<RoadLineInfo> expected = regex();
+		if (!expected.equals(tokenizer())) {
+			throw new IllegalStateException(map + ": the tokenizer and the regular expression disagree");
+		}
+		System.out.println(map + ": " + expected.size() + " lines");
+	}
+
+	@Benchmark
+	public List<RoadLineInfo> regex() throws IOException
+	{
+		List<RoadLineInfo> lines = new ArrayList<RoadLineInfo>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+		String nextLine;
+		while ((nextLine = reader.readLine()) != null) {
+			lines.add(GraphLoader.splitInputString(nextLine));
+		}
+		return lines;
+	}
+
+	@Benchmark
+	public List<RoadLineInfo> tokenizer() throws IOException
+	{
+		List<RoadLineInfo> lines = new ArrayList<RoadLineInfo>();
+		RoadLineTokenizer tokenizer = new RoadLineTokenizer(new ByteArrayInputStream(bytes));
+		RoadLineInfo line;
+		while ((line = tokenizer.next()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+}
@@ -2,10 +2,13 @@ package application;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import geography.GeographicPoint;
+import geography.RoadSegmentIndex;
 import util.GraphLoader;
+import util.GraphSnapshot;
 
 /**
  * Class to wrap the graph, current .map file map, and 
@@ -19,6 +22,7 @@ public class DataSet {
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
     private HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads;
+    private RoadSegmentIndex roadIndex;
 	boolean currentlyDisplayed;
 
 	public DataSet (String path) {
@@ -32,7 +36,10 @@ public class DataSet {
     	this.graph = graph;
     }
 
-    public void setRoads(HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads) { this.roads = roads; }
+    public void setRoads(HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads) {
+    	this.roads = roads;
+    	this.roadIndex = null;
+    }
     public roadgraph.MapGraph getGraph(){ return graph; }
     
     /** Return the intersections in this graph.
@@ -54,12 +61,71 @@ public class DataSet {
     
     public HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  getRoads() { return this.roads; }
 
+    /** Return a spatial index over the road segments, built the first time
+     * it is asked for.  Each road appears once even though the road map
+     * lists it under both of its end points (and under both directions
+     * when it is two way).
+     * @return The index, or null if the roads have not been loaded
+     */
+    public synchronized RoadSegmentIndex getRoadIndex() {
+    	if (roadIndex == null && roads != null) {
+    		Set<geography.RoadSegment> distinct = new LinkedHashSet<geography.RoadSegment>();
+    		for (HashSet<geography.RoadSegment> segments : roads.values()) {
+    			distinct.addAll(segments);
+    		}
+    		roadIndex = new RoadSegmentIndex(distinct);
+    	}
+    	return roadIndex;
+    }
+
+    /** Find the intersection a click on the map selects: the click is
+     * snapped onto the closest road, and the end of that road nearer the
+     * click along it is chosen, so the click does not have to hit a
+     * marker exactly.
+     * @param latitude The latitude of the click
+     * @param longitude The longitude of the click
+     * @return The intersection, or null if there are no roads
+     */
+    public GeographicPoint intersectionNear(double latitude, double longitude) {
+    	RoadSegmentIndex index = getRoadIndex();
+    	RoadSegmentIndex.Match match = index == null ? null : index.nearest(latitude, longitude);
+    	if (match == null) {
+    		return null;
+    	}
+    	geography.RoadSegment road = match.getSegment();
+    	return 2 * match.getOffset() <= road.getLength() ? road.getStartPoint() : road.getEndPoint();
+    }
+
+    /** Return the intersections at the ends of the roads that lie at least
+     * partly inside a window, from the spatial index rather than by
+     * scanning every road.
+     * @param south The southern edge of the window
+     * @param west The western edge of the window
+     * @param north The northern edge of the window
+     * @param east The eastern edge of the window
+     * @return The intersections, which include every one inside the window
+     *   that a road meets; empty if the roads have not been loaded
+     */
+    public Set<GeographicPoint> intersectionsInView(double south, double west, double north, double east) {
+    	Set<GeographicPoint> inView = new HashSet<GeographicPoint>();
+    	RoadSegmentIndex index = getRoadIndex();
+    	if (index != null) {
+    		for (geography.RoadSegment road : index.query(south, west, north, east)) {
+    			inView.add(road.getStartPoint());
+    			inView.add(road.getEndPoint());
+    		}
+    	}
+    	return inView;
+    }
+
     public void initializeGraph() {
         graph = new roadgraph.MapGraph();
         roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
+        roadIndex = null;
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+        // Use the binary snapshot of the map when there is an up to date one
+    	GraphLoader.loadRoadMap(GraphSnapshot.freshestFile(filePath), graph, roads, intersections);
     }
 
 	public String getFilePath() {
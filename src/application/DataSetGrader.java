@@ -0,0 +1,117 @@
+/**
+ * Checks the map clicks and viewport queries of a data set
+ */
+package application;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.Grader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the spatial queries MarkerManager makes of a DataSet.  A
+ * click right on an intersection must select that intersection, and a
+ * click on a road near one of its ends must select that end.  The
+ * intersections in a window must include every one inside it.
+ *
+ */
+public class DataSetGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map", "san_diego.map"};
+
+	private static final int CLICKS = 200;
+
+	public DataSetGrader()
+	{
+		super(3 * MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new DataSetGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			DataSet data = new DataSet("data/maps/" + map);
+			data.initializeGraph();
+			GeographicPoint[] points = data.getIntersections().toArray(new GeographicPoint[0]);
+			Random random = new Random(points.length);
+
+			check(CLICKS + " clicks on intersections", () -> clickIntersections(data, points, random));
+
+			check(CLICKS + " clicks on roads near an end", () -> clickRoads(data, random));
+
+			check(CLICKS + " windows", () -> windows(data, points, random));
+		}
+	}
+
+	// Click exactly on random intersections
+	private static String clickIntersections(DataSet data, GeographicPoint[] points, Random random)
+	{
+		for (int i = 0; i < CLICKS; i++) {
+			GeographicPoint p = points[random.nextInt(points.length)];
+			GeographicPoint selected = data.intersectionNear(p.getX(), p.getY());
+			if (!p.equals(selected)) {
+				return "A click on " + p + " selected " + selected + ".";
+			}
+		}
+		return null;
+	}
+
+	// Click a tenth of the way along the first or last leg of a road.  The
+	// click may land on another road that overlaps it, but whatever is
+	// selected must be as close to the click as the end it is next to.
+	private static String clickRoads(DataSet data, Random random)
+	{
+		RoadSegment[] roads = data.getRoadIndex().query(-90, -180, 90, 180).toArray(new RoadSegment[0]);
+		for (int i = 0; i < CLICKS; i++) {
+			RoadSegment road = roads[random.nextInt(roads.length)];
+			boolean nearStart = random.nextBoolean();
+			GeographicPoint end = nearStart ? road.getStartPoint() : road.getEndPoint();
+			GeographicPoint other = nearStart ? road.getEndPoint() : road.getStartPoint();
+			List<GeographicPoint> shape = road.getPoints(end, other);
+			GeographicPoint next = shape.get(1);
+			double lat = end.getX() + 0.1 * (next.getX() - end.getX());
+			double lon = end.getY() + 0.1 * (next.getY() - end.getY());
+
+			GeographicPoint selected = data.intersectionNear(lat, lon);
+			GeographicPoint click = new GeographicPoint(lat, lon);
+			if (selected == null || click.distance(selected) > click.distance(end) + 1e-9) {
+				return "A click at " + click + " on " + road.getRoadName() + " selected " + selected
+						+ "; expected " + end + ".";
+			}
+		}
+		return null;
+	}
+
+	// Every intersection inside a random window must be listed in view
+	private static String windows(DataSet data, GeographicPoint[] points, Random random)
+	{
+		for (int i = 0; i < CLICKS; i++) {
+			GeographicPoint a = points[random.nextInt(points.length)];
+			GeographicPoint b = points[random.nextInt(points.length)];
+			double south = Math.min(a.getX(), b.getX());
+			double north = Math.max(a.getX(), b.getX());
+			double west = Math.min(a.getY(), b.getY());
+			double east = Math.max(a.getY(), b.getY());
+			Set<GeographicPoint> inView = data.intersectionsInView(south, west, north, east);
+			for (GeographicPoint p : points) {
+				boolean inside = p.getX() >= south && p.getX() <= north && p.getY() >= west && p.getY() <= east;
+				if (inside && !inView.contains(p) && data.getRoads().containsKey(p)) {
+					return p + " is inside the window " + south + ", " + west + " to " + north + ", " + east
+							+ " but not in view.";
+				}
+			}
+		}
+		return null;
+	}
+}
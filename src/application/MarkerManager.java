@@ -8,9 +8,12 @@ package application;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
+import gmapsfx.javascript.event.MapStateEventType;
 import gmapsfx.javascript.event.UIEventType;
 import gmapsfx.javascript.object.Animation;
 import gmapsfx.javascript.object.GoogleMap;
@@ -44,6 +47,7 @@ public class MarkerManager {
     private RouteVisualization rv;
     private Button vButton;
     private boolean selectMode = true;
+    private boolean mapEventsRegistered = false;
 
     public MarkerManager() {
     	markerMap = new HashMap<geography.GeographicPoint, Marker>();
@@ -226,10 +230,72 @@ public class MarkerManager {
 //            marker.setZIndex(DEFAULT_Z);
         }
         map.fitBounds(bounds);
+        if(!mapEventsRegistered) {
+            registerMapEvents();
+            mapEventsRegistered = true;
+        }
         // System.out.println("End of display Intersections");
 
     }
 
+    /**
+     * Let a click anywhere on the map select the intersection
+     * DataSet.intersectionNear finds for it, so the user does not have to
+     * hit a marker exactly.  Once the map stops moving, only the markers
+     * of the intersections in view are shown.
+     */
+    private void registerMapEvents() {
+        map.addUIEventHandler(UIEventType.click, (JSObject o) -> {
+            if(!selectMode || dataSet == null) {
+                return;
+            }
+            LatLong ll = new LatLong((JSObject) o.getMember("latLng"));
+            geography.GeographicPoint point = dataSet.intersectionNear(ll.getLatitude(), ll.getLongitude());
+            Marker marker = point == null ? null : markerMap.get(point);
+            if(marker != null) {
+                selectMarker(point, marker);
+            }
+        });
+        map.addStateEventHandler(MapStateEventType.idle, () -> {
+            // While a route is shown only its markers are visible
+            if(selectMode && dataSet != null && markerPositions != null) {
+                showMarkersInView();
+            }
+        });
+    }
+
+    /**
+     * Get the intersections at the ends of the roads that lie at least
+     * partly inside the area the map currently shows, from the data set's
+     * spatial index rather than by scanning every road.
+     *
+     * @return The intersections in view, or an empty set if no data set
+     *   is displayed
+     */
+    public Set<geography.GeographicPoint> getIntersectionsInView() {
+        if(dataSet == null) {
+            return new HashSet<geography.GeographicPoint>();
+        }
+        LatLongBounds view = map.getBounds();
+        LatLong sw = view.getSouthWest();
+        LatLong ne = view.getNorthEast();
+        return dataSet.intersectionsInView(sw.getLatitude(), sw.getLongitude(),
+                ne.getLatitude(), ne.getLongitude());
+    }
+
+    // Show the markers of the displayed data set that are in view and
+    // hide the others, except the start, destination and selection
+    private void showMarkersInView() {
+        Set<geography.GeographicPoint> inView = getIntersectionsInView();
+        for(geography.GeographicPoint point : markerPositions) {
+            Marker marker = markerMap.get(point);
+            if(marker != null && marker != startMarker && marker != destinationMarker
+               && marker != selectedMarker) {
+                marker.setVisible(inView.contains(point));
+            }
+        }
+    }
+
 
     private void registerEvents(Marker marker, geography.GeographicPoint point) {
         /*map.addUIEventHandler(marker, UIEventType.mouseover, (JSObject o) -> {
@@ -244,15 +310,7 @@ public class MarkerManager {
         map.addUIEventHandler(marker, UIEventType.click, (JSObject o) -> {
             //System.out.println("Clicked Marker : " + point.toString());
             if(selectMode) {
-                	if(selectedMarker != null && selectedMarker != startMarker
-                	   && selectedMarker != destinationMarker) {
-                		selectedMarker.setIcon(markerURL);
-//                		selectedMarker.setZIndex(DEFAULT_Z);
-                	}
-            	selectManager.setPoint(point, marker);
-                selectedMarker = marker;
-                selectedMarker.setIcon(SELECTED_URL);
-//                selectedMarker.setZIndex(SELECT_Z);
+                selectMarker(point, marker);
 
                 // re add markers to map
                 // slightly glitchy
@@ -261,6 +319,19 @@ public class MarkerManager {
         });
     }
 
+    // Make the marker of point the selected one
+    private void selectMarker(geography.GeographicPoint point, Marker marker) {
+        if(selectedMarker != null && selectedMarker != startMarker
+           && selectedMarker != destinationMarker) {
+            selectedMarker.setIcon(markerURL);
+//            selectedMarker.setZIndex(DEFAULT_Z);
+        }
+        selectManager.setPoint(point, marker);
+        selectedMarker = marker;
+        selectedMarker.setIcon(SELECTED_URL);
+//        selectedMarker.setZIndex(SELECT_Z);
+    }
+
     public void disableVisButton(boolean value) {
     	if(vButton != null) {
 	    	vButton.setDisable(value);
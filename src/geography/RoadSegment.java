@@ -108,6 +108,21 @@ public class RoadSegment {
 
 	// get the length of the road segment
 	public double getLength() { return this.length; }
+
+	// get the first end point of the road segment
+	public GeographicPoint getStartPoint() { return this.point1; }
+
+	// get the second end point of the road segment
+	public GeographicPoint getEndPoint() { return this.point2; }
+
+	// get the points between the two end points, in order from the start
+	public List<GeographicPoint> getGeometryPoints() { return Collections.unmodifiableList(this.geometryPoints); }
+
+	// get the name of the road
+	public String getRoadName() { return this.roadName; }
+
+	// get the type of the road
+	public String getRoadType() { return this.roadType; }
 	
 	
 	// given one end, return the other.
@@ -0,0 +1,532 @@
+/**
+ * Spatial index over the geometry of road segments
+ */
+package geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A packed R-tree over RoadSegment polylines.  It answers two kinds of
+ * query: the segment nearest to a location, together with the point on
+ * the segment's geometry closest to it, so a GPS position can be snapped
+ * onto the middle of a road rather than to the nearest intersection; and
+ * the segments whose bounding boxes meet a latitude/longitude window, so
+ * only the roads in a viewport need to be fetched.
+ *
+ * The tree is bulk loaded with Sort-Tile-Recursive: the boxes of one
+ * level are sorted by longitude, cut into vertical slices, each slice is
+ * sorted by latitude and consecutive runs of NODE_SIZE boxes become the
+ * nodes of the next level up.  Every node is full except the last of each
+ * slice, and the nodes are stored level by level in flat arrays with the
+ * root last.
+ *
+ * Distances are the great circle distances GeographicPoint.distance
+ * computes.  The closest point on each piece of a polyline is found in a
+ * local flat projection around the query and its distance is then
+ * measured exactly.  Nodes are visited closest box first and skipped once
+ * their haversine lower bound is farther than the best match so far.
+ *
+ */
+public final class RoadSegmentIndex
+{
+	/** Radius of the earth in km, as used by GeographicPoint.distance */
+	private static final double R = 6373;
+	/** The most children a node has */
+	private static final int NODE_SIZE = 16;
+
+	/** The indexed segments in leaf order */
+	private final RoadSegment[] segments;
+	/** The points of segment i, in radians, are at pointStart[i] .. pointStart[i+1]-1 */
+	private final int[] pointStart;
+	private final double[] pointLat;
+	private final double[] pointLon;
+
+	/** Bounding box of each node, in radians */
+	private double[] minLat;
+	private double[] maxLat;
+	private double[] minLon;
+	private double[] maxLon;
+	/** Node i covers children childStart[i] .. childEnd[i]-1: segments for
+	 *  leaves, nodes otherwise */
+	private int[] childStart;
+	private int[] childEnd;
+	private boolean[] leaf;
+	private int nodeCount;
+
+	/**
+	 * Build the index
+	 * @param roads The segments to index; a segment listed twice is indexed twice
+	 */
+	public RoadSegmentIndex(Collection<RoadSegment> roads)
+	{
+		int n = roads.size();
+		RoadSegment[] input = roads.toArray(new RoadSegment[n]);
+
+		// Bounding boxes of the segments, in input order
+		double[][] polylines = new double[n][];
+		double[] segMinLat = new double[n];
+		double[] segMaxLat = new double[n];
+		double[] segMinLon = new double[n];
+		double[] segMaxLon = new double[n];
+		for (int i = 0; i < n; i++) {
+			polylines[i] = polyline(input[i]);
+			double[] p = polylines[i];
+			segMinLat[i] = segMinLon[i] = Double.POSITIVE_INFINITY;
+			segMaxLat[i] = segMaxLon[i] = Double.NEGATIVE_INFINITY;
+			for (int j = 0; j < p.length; j += 2) {
+				segMinLat[i] = Math.min(segMinLat[i], p[j]);
+				segMaxLat[i] = Math.max(segMaxLat[i], p[j]);
+				segMinLon[i] = Math.min(segMinLon[i], p[j + 1]);
+				segMaxLon[i] = Math.max(segMaxLon[i], p[j + 1]);
+			}
+		}
+
+		// Put the segments in STR order; they are the children of the leaves
+		int[] order = strOrder(segMinLat, segMaxLat, segMinLon, segMaxLon, 0, n);
+		segments = new RoadSegment[n];
+		pointStart = new int[n + 1];
+		int points = 0;
+		for (int i = 0; i < n; i++) {
+			points += polylines[i].length / 2;
+		}
+		pointLat = new double[points];
+		pointLon = new double[points];
+		double[] leafMinLat = new double[n];
+		double[] leafMaxLat = new double[n];
+		double[] leafMinLon = new double[n];
+		double[] leafMaxLon = new double[n];
+		int p = 0;
+		for (int i = 0; i < n; i++) {
+			int s = order[i];
+			segments[i] = input[s];
+			pointStart[i] = p;
+			double[] line = polylines[s];
+			for (int j = 0; j < line.length; j += 2, p++) {
+				pointLat[p] = line[j];
+				pointLon[p] = line[j + 1];
+			}
+			leafMinLat[i] = segMinLat[s];
+			leafMaxLat[i] = segMaxLat[s];
+			leafMinLon[i] = segMinLon[s];
+			leafMaxLon[i] = segMaxLon[s];
+		}
+		pointStart[n] = p;
+
+		// A first guess at the number of nodes; the arrays grow if needed
+		int capacity = n / (NODE_SIZE - 1) + 8;
+		minLat = new double[capacity];
+		maxLat = new double[capacity];
+		minLon = new double[capacity];
+		maxLon = new double[capacity];
+		childStart = new int[capacity];
+		childEnd = new int[capacity];
+		leaf = new boolean[capacity];
+
+		int levelStart = 0;
+		int levelEnd = pack(leafMinLat, leafMaxLat, leafMinLon, leafMaxLon, 0, n, true);
+		while (levelEnd - levelStart > 1) {
+			reorderNodes(levelStart, levelEnd);
+			int next = pack(minLat, maxLat, minLon, maxLon, levelStart, levelEnd, false);
+			levelStart = levelEnd;
+			levelEnd = next;
+		}
+	}
+
+	// The points of a segment from start to end as lat, lon pairs in radians
+	private static double[] polyline(RoadSegment segment)
+	{
+		List<GeographicPoint> geometry = segment.getGeometryPoints();
+		double[] line = new double[2 * (geometry.size() + 2)];
+		int i = 0;
+		line[i++] = Math.toRadians(segment.getStartPoint().getX());
+		line[i++] = Math.toRadians(segment.getStartPoint().getY());
+		for (GeographicPoint point : geometry) {
+			line[i++] = Math.toRadians(point.getX());
+			line[i++] = Math.toRadians(point.getY());
+		}
+		line[i++] = Math.toRadians(segment.getEndPoint().getX());
+		line[i++] = Math.toRadians(segment.getEndPoint().getY());
+		return line;
+	}
+
+	// The Sort-Tile-Recursive order of the boxes lo..hi-1, as a permutation
+	// of their positions
+	private static int[] strOrder(double[] loLat, double[] hiLat, double[] loLon, double[] hiLon,
+			int lo, int hi)
+	{
+		int count = hi - lo;
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = lo + i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(loLon[a] + hiLon[a], loLon[b] + hiLon[b]));
+		int nodes = (count + NODE_SIZE - 1) / NODE_SIZE;
+		int slices = (int) Math.ceil(Math.sqrt(nodes));
+		int sliceSize = slices * NODE_SIZE;
+		for (int start = 0; start < count; start += sliceSize) {
+			Arrays.sort(order, start, Math.min(count, start + sliceSize),
+					(a, b) -> Double.compare(loLat[a] + hiLat[a], loLat[b] + hiLat[b]));
+		}
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	// Permute the nodes lo..hi-1 into STR order, so the children of each
+	// node of the next level are contiguous
+	private void reorderNodes(int lo, int hi)
+	{
+		int[] order = strOrder(minLat, maxLat, minLon, maxLon, lo, hi);
+		double[] oldMinLat = Arrays.copyOfRange(minLat, lo, hi);
+		double[] oldMaxLat = Arrays.copyOfRange(maxLat, lo, hi);
+		double[] oldMinLon = Arrays.copyOfRange(minLon, lo, hi);
+		double[] oldMaxLon = Arrays.copyOfRange(maxLon, lo, hi);
+		int[] oldStart = Arrays.copyOfRange(childStart, lo, hi);
+		int[] oldEnd = Arrays.copyOfRange(childEnd, lo, hi);
+		boolean[] oldLeaf = Arrays.copyOfRange(leaf, lo, hi);
+		for (int i = 0; i < order.length; i++) {
+			int from = order[i] - lo;
+			minLat[lo + i] = oldMinLat[from];
+			maxLat[lo + i] = oldMaxLat[from];
+			minLon[lo + i] = oldMinLon[from];
+			maxLon[lo + i] = oldMaxLon[from];
+			childStart[lo + i] = oldStart[from];
+			childEnd[lo + i] = oldEnd[from];
+			leaf[lo + i] = oldLeaf[from];
+		}
+	}
+
+	// Group the boxes lo..hi-1, already in STR order, into new nodes of at
+	// most NODE_SIZE children and return the new node count.  An empty
+	// index gets a single empty leaf.
+	private int pack(double[] loLat, double[] hiLat, double[] loLon, double[] hiLon,
+			int lo, int hi, boolean leaves)
+	{
+		int count = hi - lo;
+		int nodes = (count + NODE_SIZE - 1) / NODE_SIZE;
+		int sliceSize = Math.max(1, (int) Math.ceil(Math.sqrt(nodes))) * NODE_SIZE;
+		int start = lo;
+		do {
+			// Nodes do not straddle slices
+			int sliceEnd = lo + ((start - lo) / sliceSize + 1) * sliceSize;
+			int end = Math.min(Math.min(start + NODE_SIZE, sliceEnd), hi);
+			ensureCapacity(nodeCount + 1);
+			int node = nodeCount++;
+			double latLo = Double.POSITIVE_INFINITY, latHi = Double.NEGATIVE_INFINITY;
+			double lonLo = Double.POSITIVE_INFINITY, lonHi = Double.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				latLo = Math.min(latLo, loLat[i]);
+				latHi = Math.max(latHi, hiLat[i]);
+				lonLo = Math.min(lonLo, loLon[i]);
+				lonHi = Math.max(lonHi, hiLon[i]);
+			}
+			minLat[node] = latLo;
+			maxLat[node] = latHi;
+			minLon[node] = lonLo;
+			maxLon[node] = lonHi;
+			childStart[node] = start;
+			childEnd[node] = end;
+			leaf[node] = leaves;
+			start = end;
+		} while (start < hi);
+		return nodeCount;
+	}
+
+	private void ensureCapacity(int size)
+	{
+		if (size > minLat.length) {
+			int capacity = size * 2;
+			minLat = Arrays.copyOf(minLat, capacity);
+			maxLat = Arrays.copyOf(maxLat, capacity);
+			minLon = Arrays.copyOf(minLon, capacity);
+			maxLon = Arrays.copyOf(maxLon, capacity);
+			childStart = Arrays.copyOf(childStart, capacity);
+			childEnd = Arrays.copyOf(childEnd, capacity);
+			leaf = Arrays.copyOf(leaf, capacity);
+		}
+	}
+
+	/**
+	 * Get the number of segments in the index
+	 * @return The number of segments
+	 */
+	public int size()
+	{
+		return segments.length;
+	}
+
+	/**
+	 * Find the segments whose bounding boxes meet a window.  The window
+	 * may not cross the 180th meridian.
+	 * @param south The smallest latitude of the window
+	 * @param west The smallest longitude of the window
+	 * @param north The largest latitude of the window
+	 * @param east The largest longitude of the window
+	 * @return The segments, each as often as it was indexed
+	 */
+	public List<RoadSegment> query(double south, double west, double north, double east)
+	{
+		double latLo = Math.toRadians(south);
+		double latHi = Math.toRadians(north);
+		double lonLo = Math.toRadians(west);
+		double lonHi = Math.toRadians(east);
+		List<RoadSegment> result = new ArrayList<RoadSegment>();
+		if (segments.length == 0) {
+			return result;
+		}
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = nodeCount - 1;
+		while (top > 0) {
+			int node = stack[--top];
+			if (minLat[node] > latHi || maxLat[node] < latLo
+					|| minLon[node] > lonHi || maxLon[node] < lonLo) {
+				continue;
+			}
+			if (leaf[node]) {
+				for (int i = childStart[node]; i < childEnd[node]; i++) {
+					if (meetsWindow(i, latLo, latHi, lonLo, lonHi)) {
+						result.add(segments[i]);
+					}
+				}
+			}
+			else {
+				for (int c = childStart[node]; c < childEnd[node]; c++) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = c;
+				}
+			}
+		}
+		return result;
+	}
+
+	// Whether the bounding box of segment i meets the window: some point is
+	// at or below each upper limit and some point at or above each lower one
+	private boolean meetsWindow(int i, double latLo, double latHi, double lonLo, double lonHi)
+	{
+		boolean south = false, north = false, west = false, east = false;
+		for (int p = pointStart[i]; p < pointStart[i + 1]; p++) {
+			south |= pointLat[p] <= latHi;
+			north |= pointLat[p] >= latLo;
+			west |= pointLon[p] <= lonHi;
+			east |= pointLon[p] >= lonLo;
+		}
+		return south && north && west && east;
+	}
+
+	/**
+	 * Find the segment closest to a location and the point on it that is
+	 * closest to the location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @return The closest match, or null if the index is empty
+	 */
+	public Match nearest(double latitude, double longitude)
+	{
+		if (segments.length == 0) {
+			return null;
+		}
+		double qLat = Math.toRadians(latitude);
+		double qLon = Math.toRadians(longitude);
+		double cosQ = Math.cos(qLat);
+
+		double bestDist = Double.POSITIVE_INFINITY;
+		int bestSegment = -1;
+		int bestPiece = -1;
+		double bestLat = 0, bestLon = 0;
+
+		// Best first: a min-heap of nodes on the distance to their boxes
+		int[] heapNode = new int[32];
+		double[] heapDist = new double[32];
+		int size = 0;
+		heapNode[size] = nodeCount - 1;
+		heapDist[size++] = 0;
+		double[] closest = new double[2];
+		while (size > 0) {
+			int node = heapNode[0];
+			double nodeDist = heapDist[0];
+			size--;
+			heapNode[0] = heapNode[size];
+			heapDist[0] = heapDist[size];
+			siftDown(heapNode, heapDist, size);
+			if (nodeDist > bestDist) {
+				break;
+			}
+			if (leaf[node]) {
+				for (int i = childStart[node]; i < childEnd[node]; i++) {
+					for (int p = pointStart[i]; p < pointStart[i + 1] - 1; p++) {
+						closestOnPiece(qLat, qLon, cosQ, p, closest);
+						double d = distance(qLat, qLon, cosQ, closest[0], closest[1]);
+						if (d < bestDist) {
+							bestDist = d;
+							bestSegment = i;
+							bestPiece = p;
+							bestLat = closest[0];
+							bestLon = closest[1];
+						}
+					}
+				}
+			}
+			else {
+				for (int c = childStart[node]; c < childEnd[node]; c++) {
+					double d = boxDistance(qLat, qLon, cosQ, c);
+					if (d > bestDist) {
+						continue;
+					}
+					if (size == heapNode.length) {
+						heapNode = Arrays.copyOf(heapNode, size * 2);
+						heapDist = Arrays.copyOf(heapDist, size * 2);
+					}
+					heapNode[size] = c;
+					heapDist[size] = d;
+					siftUp(heapNode, heapDist, size++);
+				}
+			}
+		}
+
+		// The distance along the segment to the matched point
+		double offset = 0;
+		for (int p = pointStart[bestSegment]; p < bestPiece; p++) {
+			offset += distance(pointLat[p], pointLon[p], Math.cos(pointLat[p]),
+					pointLat[p + 1], pointLon[p + 1]);
+		}
+		offset += distance(pointLat[bestPiece], pointLon[bestPiece],
+				Math.cos(pointLat[bestPiece]), bestLat, bestLon);
+		return new Match(segments[bestSegment],
+				new GeographicPoint(Math.toDegrees(bestLat), Math.toDegrees(bestLon)),
+				bestDist, offset);
+	}
+
+	// The point of the piece from point p to point p+1 closest to the
+	// query, found in an equirectangular projection centred on the query
+	private void closestOnPiece(double qLat, double qLon, double cosQ, int p, double[] closest)
+	{
+		double ax = lonGap(pointLon[p], qLon) * cosQ;
+		double ay = pointLat[p] - qLat;
+		double bx = lonGap(pointLon[p + 1], qLon) * cosQ;
+		double by = pointLat[p + 1] - qLat;
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : -(ax * dx + ay * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		closest[0] = pointLat[p] + t * (pointLat[p + 1] - pointLat[p]);
+		closest[1] = pointLon[p] + t * lonGap(pointLon[p + 1], pointLon[p]);
+	}
+
+	// The signed longitude difference a - b, taken the short way round
+	private static double lonGap(double a, double b)
+	{
+		double d = a - b;
+		if (d > Math.PI) {
+			d -= 2 * Math.PI;
+		}
+		else if (d < -Math.PI) {
+			d += 2 * Math.PI;
+		}
+		return d;
+	}
+
+	private static double haversine(double sinHalfDLat, double cosProduct, double sinHalfDLon)
+	{
+		double a = sinHalfDLat * sinHalfDLat + cosProduct * sinHalfDLon * sinHalfDLon;
+		return 2 * R * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	// Great circle distance in km between two points given in radians
+	private static double distance(double lat1, double lon1, double cosLat1, double lat2, double lon2)
+	{
+		return haversine(Math.sin((lat2 - lat1) / 2), cosLat1 * Math.cos(lat2),
+				Math.sin((lon2 - lon1) / 2));
+	}
+
+	// A lower bound on the distance from the query to anything in the box
+	// of node i
+	private double boxDistance(double qLat, double qLon, double cosQ, int i)
+	{
+		double dLat = Math.max(0, Math.max(minLat[i] - qLat, qLat - maxLat[i]));
+		double dLon = Math.max(0, Math.max(minLon[i] - qLon, qLon - maxLon[i]));
+		dLon = Math.min(dLon, 2 * Math.PI - dLon);
+		if (dLat == 0 && dLon == 0) {
+			return 0;
+		}
+		double minCos = Math.max(0, Math.min(Math.cos(minLat[i]), Math.cos(maxLat[i])));
+		return haversine(Math.sin(dLat / 2), cosQ * minCos, Math.sin(dLon / 2));
+	}
+
+	private static void siftUp(int[] nodes, double[] dist, int i)
+	{
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (dist[parent] <= dist[i]) {
+				return;
+			}
+			swap(nodes, dist, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] nodes, double[] dist, int size)
+	{
+		int i = 0;
+		while (true) {
+			int smallest = i;
+			for (int c = 2 * i + 1; c <= 2 * i + 2 && c < size; c++) {
+				if (dist[c] < dist[smallest]) {
+					smallest = c;
+				}
+			}
+			if (smallest == i) {
+				return;
+			}
+			swap(nodes, dist, i, smallest);
+			i = smallest;
+		}
+	}
+
+	private static void swap(int[] nodes, double[] dist, int i, int j)
+	{
+		int n = nodes[i]; nodes[i] = nodes[j]; nodes[j] = n;
+		double d = dist[i]; dist[i] = dist[j]; dist[j] = d;
+	}
+
+	/**
+	 * A location snapped onto a road segment
+	 */
+	public static final class Match
+	{
+		private final RoadSegment segment;
+		private final GeographicPoint point;
+		private final double distance;
+		private final double offset;
+
+		Match(RoadSegment segment, GeographicPoint point, double distance, double offset)
+		{
+			this.segment = segment;
+			this.point = point;
+			this.distance = distance;
+			this.offset = offset;
+		}
+
+		// get the segment the location snapped onto
+		public RoadSegment getSegment() { return segment; }
+
+		// get the point on the segment's geometry closest to the location
+		public GeographicPoint getPoint() { return point; }
+
+		// get the distance in km from the location to the point
+		public double getDistance() { return distance; }
+
+		// get the distance in km along the geometry from the segment's start point to the point
+		public double getOffset() { return offset; }
+	}
+}
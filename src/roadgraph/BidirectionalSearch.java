@@ -0,0 +1,164 @@
+/**
+ * Bidirectional Dijkstra and A* on the CSR form of a MapGraph
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Point-to-point search that grows one shortest path tree forward from
+ * the start and one backward from the goal (over the incoming edges of
+ * the CSR graph) until they meet.  Each side only has to cover about
+ * half the distance, so on long routes far fewer vertices are settled.
+ *
+ * The A* variant uses the average potential
+ *   p(v) = (h(v, goal) - h(start, v)) / 2
+ * forward and -p(v) backward, which keeps both searches consistent.
+ * With these keys the search can stop as soon as the smallest forward
+ * key plus the smallest backward key is at least the best path seen.
+ *
+ */
+public class BidirectionalSearch
+{
+	private BidirectionalSearch() {}
+
+	/** Find the path from start to goal using bidirectional Dijkstra
+	 *
+	 * @param g The graph to search
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of the forward search, which is
+	 *   also left holding the number of vertices settled by both sides
+	 * @param backward The scratch state of the backward search
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 */
+	public static int[] dijkstra(CSRGraph g, int start, int goal, SearchContext forward,
+			SearchContext backward, BitSet closed, Consumer<GeographicPoint> nodeSearched)
+	{
+		return aStarSearch(g, start, goal, forward, backward, closed, Heuristic.ZERO, nodeSearched);
+	}
+
+	/** Find the path from start to goal using bidirectional A*
+	 *
+	 * @param g The graph to search
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of the forward search, which is
+	 *   also left holding the number of vertices settled by both sides
+	 * @param backward The scratch state of the backward search
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param heuristic A consistent estimate of the distance between two vertices
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 * @throws IllegalArgumentException If the contexts use a radix queue
+	 *   and the heuristic is not known to be consistent
+	 */
+	public static int[] aStarSearch(CSRGraph g, int start, int goal, SearchContext forward,
+			SearchContext backward, BitSet closed, Heuristic heuristic,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		int n = g.numVertices;
+		CSRSearch.checkMonotone(forward.getQueueType(), heuristic);
+		CSRSearch.checkMonotone(backward.getQueueType(), heuristic);
+		if (start == goal) {
+			forward.reset(n);
+			return new int[] {start};
+		}
+		forward.reset(n);
+		backward.reset(n);
+		VertexQueue fwdQueue = forward.getQueue(n);
+		VertexQueue bwdQueue = backward.getQueue(n);
+		boolean informed = heuristic != Heuristic.ZERO;
+
+		forward.update(start, 0, start);
+		fwdQueue.push(start, potential(g, heuristic, informed, start, start, goal));
+		backward.update(goal, 0, goal);
+		bwdQueue.push(goal, -potential(g, heuristic, informed, goal, start, goal));
+
+		// Length of the best path seen so far and the vertex where its halves meet
+		double best = Double.POSITIVE_INFINITY;
+		int meet = -1;
+
+		while (!fwdQueue.isEmpty() && !bwdQueue.isEmpty()) {
+			if (fwdQueue.minKey() + bwdQueue.minKey() >= best) {
+				break;
+			}
+			// Advance whichever side has the smaller key
+			boolean fromStart = fwdQueue.minKey() <= bwdQueue.minKey();
+			SearchContext ctx = fromStart ? forward : backward;
+			SearchContext other = fromStart ? backward : forward;
+			VertexQueue queue = fromStart ? fwdQueue : bwdQueue;
+
+			int curr = queue.pollMin();
+			ctx.settle(curr);
+			nodeSearched.accept(g.getPoint(curr));
+			double dCurr = ctx.getDistance(curr);
+
+			EdgeCursor edges = fromStart ? ctx.getCursor().open(g, curr, closed)
+					: ctx.getCursor().openIncoming(g, curr, closed);
+			while (edges.next()) {
+				int next = edges.target();
+				double dNext = dCurr + edges.weight();
+				if (dNext < ctx.getDistance(next)) {
+					double p = potential(g, heuristic, informed, next, start, goal);
+					double key = fromStart ? dNext + p : dNext - p;
+					if (Double.isNaN(key) || key == Double.POSITIVE_INFINITY) {
+						// The heuristic knows next cannot be on a path from start to goal
+						continue;
+					}
+					ctx.update(next, dNext, curr);
+					queue.push(next, key);
+					// A path through this edge joins up with the other side
+					if (other.isReached(next) && dNext + other.getDistance(next) < best) {
+						best = dNext + other.getDistance(next);
+						meet = next;
+					}
+				}
+			}
+		}
+
+		forward.addSettled(backward.getSettledCount());
+		if (meet < 0) {
+			return null;
+		}
+		return joinPath(forward, backward, start, goal, meet);
+	}
+
+	// The forward potential of v: half the estimate left to the goal
+	// minus half the estimate already covered from the start
+	private static double potential(CSRGraph g, Heuristic heuristic, boolean informed,
+			int v, int start, int goal)
+	{
+		if (!informed) {
+			return 0;
+		}
+		return (heuristic.estimate(g, v, goal) - heuristic.estimate(g, start, v)) / 2;
+	}
+
+	// Forward parents lead from meet back to start, backward parents lead
+	// from meet on to goal.
+	private static int[] joinPath(SearchContext forward, SearchContext backward,
+			int start, int goal, int meet)
+	{
+		int[] head = forward.reconstructPath(start, meet);
+		int tail = 0;
+		for (int v = meet; v != goal; v = backward.getParent(v)) {
+			tail++;
+		}
+		int[] path = new int[head.length + tail];
+		System.arraycopy(head, 0, path, 0, head.length);
+		int i = head.length;
+		for (int v = meet; v != goal; ) {
+			v = backward.getParent(v);
+			path[i++] = v;
+		}
+		return path;
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Checks bidirectional search routes against Dijkstra
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for BidirectionalSearch.  Bidirectional Dijkstra runs on every
+ * graph, closed roads and changed weights included.  Bidirectional A*
+ * runs through RoutingEngine, which only uses the straight line
+ * heuristic while no edge weighs less than its length and otherwise
+ * falls back to bidirectional Dijkstra; both must agree with Dijkstra.
+ *
+ */
+public class BidirectionalSearchGrader extends DijkstraEquivalenceGrader
+{
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new BidirectionalSearchGrader());
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		SearchContext forward = new SearchContext();
+		SearchContext backward = new SearchContext();
+		return new Technique("Bidirectional Dijkstra",
+				(start, goal) -> BidirectionalSearch.dijkstra(g, start, goal, forward, backward, null, (x) -> {}),
+				null);
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		return new Technique("Bidirectional A*", (start, goal) -> engine.route(start, goal,
+				RoutingEngine.Algorithm.BIDIRECTIONAL_A_STAR, closures).getVertexIds(), null);
+	}
+}
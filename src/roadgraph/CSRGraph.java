@@ -0,0 +1,507 @@
+/**
+ * A frozen, array-backed copy of a MapGraph
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A read-only snapshot of a MapGraph in compressed sparse row (CSR) form.
+ * Vertices are numbered 0..n-1 and the outgoing edges of vertex v occupy
+ * the slots offsets[v] .. offsets[v+1]-1 of the edge arrays, so a search
+ * can walk the adjacency with plain int/double reads instead of chasing
+ * MapNode and MapEdge objects.  The slot of an edge is its edge id.
+ * The incoming edges of every vertex are indexed the same way, so the
+ * graph can also be searched backwards from a goal.
+ *
+ */
+public final class CSRGraph
+{
+	/** Number of vertices and (directed) edges */
+	final int numVertices;
+	final int numEdges;
+
+	/** Edge slots of vertex v are offsets[v] .. offsets[v+1]-1 */
+	final int[] offsets;
+	/** Target vertex of every edge slot */
+	final int[] targets;
+	/** Length in km of every edge slot */
+	final double[] lengths;
+	/** Index into the string table of the road name / type of each edge */
+	final int[] roadNames;
+	final int[] roadTypes;
+
+	/** Source vertex of every edge slot */
+	final int[] sources;
+	/** The edges into vertex v are inEdges[inOffsets[v] .. inOffsets[v+1]-1],
+	 * given as forward edge slots, for searching the graph backwards */
+	final int[] inOffsets;
+	final int[] inEdges;
+
+	/** Coordinates of every vertex */
+	final double[] latitudes;
+	final double[] longitudes;
+
+	/** The original points, so paths can be handed back as GeographicPoints */
+	private final GeographicPoint[] points;
+	/** Shared table of road names and types */
+	private final String[] strings;
+	/** Lookup from a point to its vertex id */
+	private final HashMap<GeographicPoint,Integer> ids;
+	/** The graph with the original lengths: this one, unless reweighted */
+	private final CSRGraph unweighted;
+	/** Numbers the graphs in the order they were built, so a RouteCache
+	 * can tell a newer graph from an older one; shared by reweighted copies */
+	final long serial;
+	private static final AtomicLong SERIALS = new AtomicLong();
+
+	private CSRGraph(GeographicPoint[] points, int[] offsets, int[] targets,
+			double[] lengths, int[] roadNames, int[] roadTypes, String[] strings)
+	{
+		this.numVertices = points.length;
+		this.numEdges = targets.length;
+		this.points = points;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.lengths = lengths;
+		this.roadNames = roadNames;
+		this.roadTypes = roadTypes;
+		this.strings = strings;
+		this.unweighted = this;
+		this.serial = SERIALS.incrementAndGet();
+
+		// Reverse adjacency: bucket every edge slot by its target
+		sources = new int[numEdges];
+		inOffsets = new int[numVertices + 1];
+		inEdges = new int[numEdges];
+		for (int v = 0; v < numVertices; v++) {
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				sources[e] = v;
+				inOffsets[targets[e] + 1]++;
+			}
+		}
+		for (int v = 0; v < numVertices; v++) {
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		int[] fill = Arrays.copyOf(inOffsets, numVertices);
+		for (int e = 0; e < numEdges; e++) {
+			inEdges[fill[targets[e]]++] = e;
+		}
+
+		latitudes = new double[numVertices];
+		longitudes = new double[numVertices];
+		ids = new HashMap<GeographicPoint,Integer>(numVertices * 2);
+		for (int v = 0; v < numVertices; v++) {
+			latitudes[v] = points[v].getX();
+			longitudes[v] = points[v].getY();
+			ids.put(points[v], v);
+		}
+	}
+
+	// A view of base with different edge lengths; everything else is shared
+	private CSRGraph(CSRGraph base, double[] lengths)
+	{
+		this.numVertices = base.numVertices;
+		this.numEdges = base.numEdges;
+		this.points = base.points;
+		this.offsets = base.offsets;
+		this.targets = base.targets;
+		this.lengths = lengths;
+		this.roadNames = base.roadNames;
+		this.roadTypes = base.roadTypes;
+		this.strings = base.strings;
+		this.sources = base.sources;
+		this.inOffsets = base.inOffsets;
+		this.inEdges = base.inEdges;
+		this.latitudes = base.latitudes;
+		this.longitudes = base.longitudes;
+		this.ids = base.ids;
+		this.unweighted = base.unweighted;
+		this.serial = base.serial;
+	}
+
+	/**
+	 * Get a graph with the same vertices and edges but other edge
+	 * lengths.  The arrays of this graph are shared, not copied.
+	 * @param newLengths The length of every edge slot, which must not be
+	 *   changed afterwards
+	 * @return The reweighted graph
+	 */
+	CSRGraph withLengths(double[] newLengths)
+	{
+		if (newLengths.length != numEdges) {
+			throw new IllegalArgumentException("Expected " + numEdges + " lengths, got "
+					+ newLengths.length);
+		}
+		return new CSRGraph(this, newLengths);
+	}
+
+	/**
+	 * Get the graph this one was reweighted from by withLengths
+	 * @return The graph with the lengths read from the map, which is this
+	 *   graph itself unless it was reweighted
+	 */
+	CSRGraph unweighted()
+	{
+		return unweighted;
+	}
+
+	/**
+	 * Build the CSR form of a set of MapNodes.  Vertices are numbered in
+	 * (latitude, longitude) order so neighbouring intersections tend to
+	 * get neighbouring ids, and the edges of a vertex are ordered by
+	 * target, length, road name, road type and finally the order they
+	 * were added in, so the layout, and with it every edge id, does not
+	 * depend on hash iteration order.
+	 * @param nodes The nodes of the graph
+	 * @param edgeOrder If not null, receives the MapEdge stored in every
+	 *   slot, in slot order
+	 * @return The frozen graph
+	 */
+	static CSRGraph fromNodes(Collection<MapNode> nodes, List<MapEdge> edgeOrder)
+	{
+		MapNode[] sorted = nodes.toArray(new MapNode[nodes.size()]);
+		Arrays.sort(sorted, new Comparator<MapNode>() {
+			@Override
+			public int compare(MapNode a, MapNode b) {
+				int c = Double.compare(a.getLocation().getX(), b.getLocation().getX());
+				return c != 0 ? c : Double.compare(a.getLocation().getY(), b.getLocation().getY());
+			}
+		});
+
+		HashMap<GeographicPoint,Integer> index = new HashMap<GeographicPoint,Integer>(sorted.length * 2);
+		GeographicPoint[] points = new GeographicPoint[sorted.length];
+		int edgeCount = 0;
+		for (int v = 0; v < sorted.length; v++) {
+			points[v] = sorted[v].getLocation();
+			index.put(points[v], v);
+			edgeCount += sorted[v].getEdges().size();
+		}
+
+		int[] offsets = new int[sorted.length + 1];
+		int[] targets = new int[edgeCount];
+		double[] lengths = new double[edgeCount];
+		int[] roadNames = new int[edgeCount];
+		int[] roadTypes = new int[edgeCount];
+		HashMap<String,Integer> stringIds = new HashMap<String,Integer>();
+		List<String> strings = new ArrayList<String>();
+
+		int slot = 0;
+		for (int v = 0; v < sorted.length; v++) {
+			offsets[v] = slot;
+			List<MapEdge> out = new ArrayList<MapEdge>(sorted[v].getEdges());
+			out.sort(new Comparator<MapEdge>() {
+				@Override
+				public int compare(MapEdge a, MapEdge b) {
+					int c = Integer.compare(index.get(a.getEndPoint()), index.get(b.getEndPoint()));
+					if (c == 0) c = Double.compare(a.getLength(), b.getLength());
+					if (c == 0) c = a.getRoadName().compareTo(b.getRoadName());
+					if (c == 0) c = a.getRoadType().compareTo(b.getRoadType());
+					if (c == 0) c = Integer.compare(a.getLoadOrder(), b.getLoadOrder());
+					return c;
+				}
+			});
+			for (MapEdge e : out) {
+				targets[slot] = index.get(e.getEndPoint());
+				lengths[slot] = e.getLength();
+				roadNames[slot] = intern(e.getRoadName(), stringIds, strings);
+				roadTypes[slot] = intern(e.getRoadType(), stringIds, strings);
+				if (edgeOrder != null) {
+					edgeOrder.add(e);
+				}
+				slot++;
+			}
+		}
+		offsets[sorted.length] = slot;
+
+		return new CSRGraph(points, offsets, targets, lengths, roadNames, roadTypes,
+				strings.toArray(new String[strings.size()]));
+	}
+
+	/**
+	 * Build a graph from arrays laid out the way this class keeps them,
+	 * such as read back from a snapshot of one
+	 * @param points The location of every vertex
+	 * @param offsets The first edge slot of every vertex, followed by the
+	 *   number of edges
+	 * @param targets The target vertex of every edge slot
+	 * @param lengths The length in km of every edge slot
+	 * @param roadNames The index into strings of the road name of every slot
+	 * @param roadTypes The index into strings of the road type of every slot
+	 * @param strings The table of road names and types
+	 * @return The frozen graph, which keeps the arrays; they must not be
+	 *   changed afterwards
+	 * @throws IllegalArgumentException If the arrays do not describe a graph
+	 */
+	public static CSRGraph fromArrays(GeographicPoint[] points, int[] offsets, int[] targets,
+			double[] lengths, int[] roadNames, int[] roadTypes, String[] strings)
+	{
+		int n = points.length;
+		int m = targets.length;
+		if (offsets.length != n + 1 || lengths.length != m || roadNames.length != m
+				|| roadTypes.length != m) {
+			throw new IllegalArgumentException("The vertex and edge arrays differ in length");
+		}
+		if (offsets[0] != 0 || offsets[n] != m) {
+			throw new IllegalArgumentException("The edge offsets do not cover the edges");
+		}
+		for (int v = 0; v < n; v++) {
+			if (points[v] == null || offsets[v] > offsets[v + 1]) {
+				throw new IllegalArgumentException("Vertex " + v + " is not valid");
+			}
+		}
+		for (int e = 0; e < m; e++) {
+			if (targets[e] < 0 || targets[e] >= n || roadNames[e] < 0 || roadNames[e] >= strings.length
+					|| roadTypes[e] < 0 || roadTypes[e] >= strings.length || !(lengths[e] >= 0)) {
+				throw new IllegalArgumentException("Edge " + e + " is not valid");
+			}
+		}
+		return new CSRGraph(points, offsets, targets, lengths, roadNames, roadTypes, strings);
+	}
+
+	// Return the index of s in the string table, adding it if needed
+	private static int intern(String s, HashMap<String,Integer> stringIds, List<String> strings)
+	{
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Get the number of vertices in the graph
+	 * @return The number of vertices
+	 */
+	public int getNumVertices()
+	{
+		return numVertices;
+	}
+
+	/**
+	 * Get the number of directed edges in the graph
+	 * @return The number of edges
+	 */
+	public int getNumEdges()
+	{
+		return numEdges;
+	}
+
+	/**
+	 * Get the vertex id of a location
+	 * @param location The location of the intersection
+	 * @return Its vertex id, or -1 if the location is not a vertex
+	 */
+	public int getId(GeographicPoint location)
+	{
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the location of a vertex
+	 * @param v The vertex id
+	 * @return The location of the vertex
+	 */
+	public GeographicPoint getPoint(int v)
+	{
+		return points[v];
+	}
+
+	/**
+	 * Get the latitude of a vertex
+	 * @param v The vertex id
+	 * @return The latitude of the vertex in degrees
+	 */
+	public double getLatitude(int v)
+	{
+		return latitudes[v];
+	}
+
+	/**
+	 * Get the longitude of a vertex
+	 * @param v The vertex id
+	 * @return The longitude of the vertex in degrees
+	 */
+	public double getLongitude(int v)
+	{
+		return longitudes[v];
+	}
+
+	/**
+	 * Get the first edge slot of a vertex
+	 * @param v The vertex id
+	 * @return The id of the first outgoing edge of v
+	 */
+	public int firstEdge(int v)
+	{
+		return offsets[v];
+	}
+
+	/**
+	 * Get the slot just past the last edge of a vertex
+	 * @param v The vertex id
+	 * @return One more than the id of the last outgoing edge of v
+	 */
+	public int endEdge(int v)
+	{
+		return offsets[v + 1];
+	}
+
+	/**
+	 * Get the first incoming edge position of a vertex.  The incoming
+	 * edges of v are getInEdge(i) for firstInEdge(v) <= i < endInEdge(v).
+	 * @param v The vertex id
+	 * @return The first position in the incoming edge list of v
+	 */
+	public int firstInEdge(int v)
+	{
+		return inOffsets[v];
+	}
+
+	/**
+	 * Get the position just past the last incoming edge of a vertex
+	 * @param v The vertex id
+	 * @return One more than the last position in the incoming edge list of v
+	 */
+	public int endInEdge(int v)
+	{
+		return inOffsets[v + 1];
+	}
+
+	/**
+	 * Get an incoming edge
+	 * @param i A position in an incoming edge list
+	 * @return The id of the edge at that position
+	 */
+	public int getInEdge(int i)
+	{
+		return inEdges[i];
+	}
+
+	/**
+	 * Get the vertex an edge leaves
+	 * @param e The edge id
+	 * @return The id of the source vertex of e
+	 */
+	public int getSource(int e)
+	{
+		return sources[e];
+	}
+
+	/**
+	 * Get the vertex an edge enters
+	 * @param e The edge id
+	 * @return The id of the target vertex of e
+	 */
+	public int getTarget(int e)
+	{
+		return targets[e];
+	}
+
+	/**
+	 * Get the length of an edge, or its weight if this graph was
+	 * reweighted
+	 * @param e The edge id
+	 * @return The length of e in km
+	 */
+	public double getLength(int e)
+	{
+		return lengths[e];
+	}
+
+	/**
+	 * Get the name of the road an edge belongs to
+	 * @param e The edge id
+	 * @return The road name
+	 */
+	public String getRoadName(int e)
+	{
+		return strings[roadNames[e]];
+	}
+
+	/**
+	 * Get the type of the road an edge belongs to
+	 * @param e The edge id
+	 * @return The road type, such as "residential"
+	 */
+	public String getRoadType(int e)
+	{
+		return strings[roadTypes[e]];
+	}
+
+	/**
+	 * Compute a hash of the vertices, adjacency and edge lengths, so that
+	 * data precomputed for this graph and saved to disk can check it is
+	 * being loaded for the same graph.
+	 * @return A 64 bit fingerprint of the graph
+	 */
+	public long fingerprint()
+	{
+		long h = 1125899906842597L;
+		h = 31 * h + numVertices;
+		h = 31 * h + numEdges;
+		for (int v = 0; v < numVertices; v++) {
+			h = 31 * h + Double.doubleToLongBits(latitudes[v]);
+			h = 31 * h + Double.doubleToLongBits(longitudes[v]);
+			h = 31 * h + offsets[v + 1];
+		}
+		for (int e = 0; e < numEdges; e++) {
+			h = 31 * h + targets[e];
+			h = 31 * h + Double.doubleToLongBits(lengths[e]);
+		}
+		return h;
+	}
+
+	/**
+	 * Compute the length of a path, taking the shortest edge wherever two
+	 * consecutive vertices are joined by more than one road.
+	 * @param path The vertex ids, from start to goal
+	 * @return The length in km, or infinity if path is null or two
+	 *   consecutive vertices are not joined by an edge
+	 */
+	public double pathLength(int[] path)
+	{
+		if (path == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double length = 0;
+		for (int i = 0; i + 1 < path.length; i++) {
+			double shortest = Double.POSITIVE_INFINITY;
+			for (int e = offsets[path[i]]; e < offsets[path[i] + 1]; e++) {
+				if (targets[e] == path[i + 1]) {
+					shortest = Math.min(shortest, lengths[e]);
+				}
+			}
+			length += shortest;
+		}
+		return length;
+	}
+
+	/**
+	 * Convert a path of vertex ids into the list of intersections
+	 * the search methods of MapGraph return.
+	 * @param path The vertex ids, from start to goal
+	 * @return A new list of the locations of those vertices, which the
+	 *   caller may change, or null if path is null
+	 */
+	public List<GeographicPoint> toPoints(int[] path)
+	{
+		if (path == null) {
+			return null;
+		}
+		return new ArrayList<GeographicPoint>(new RoutePath(this, path).getPoints());
+	}
+}
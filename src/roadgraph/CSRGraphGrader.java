@@ -0,0 +1,161 @@
+/**
+ * Checks the CSR form of a graph against its nodes
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for CSRGraph.  On every map, the CSR form must have the
+ * vertices of the MapGraph with their coordinates, and every vertex must
+ * have the outgoing edges of its MapNode, with the same targets, lengths
+ * and road names and types.  The incoming edge lists must hold every
+ * edge exactly once, under its target.
+ *
+ */
+public class CSRGraphGrader extends Grader
+{
+	public CSRGraphGrader()
+	{
+		super(7);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new CSRGraphGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		runTest(load("ucsd.map"), "MAP: Intersections around UCSD");
+
+		runTest(grid(24), "MAP: Grid of equal-length roads");
+
+		runTest(load("hollywood_small.map"), "MAP: Hollywood (small)");
+
+		runTest(load("newbury_small.map"), "MAP: Newbury (small)");
+
+		runTest(load("utc.map"), "MAP: UTC");
+
+		runTest(load("san_diego.map"), "MAP: San Diego");
+
+		runTest(load("hollywood_large.map"), "MAP: Hollywood (large)");
+	}
+
+	/** Compare the CSR form of one map with its nodes.
+	 * @param map The map
+	 * @param desc A description of the map
+	 */
+	public void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+
+		check("CSR form against the MapGraph adjacency", () -> judge(map, map.getCSRGraph()));
+	}
+
+	/** Compare a CSR graph with the nodes of a map.
+	 * @param map The map
+	 * @param g Its CSR form
+	 * @return What is wrong with g, or null if it matches the map
+	 */
+	public static String judge(MapGraph map, CSRGraph g)
+	{
+		if (g.getNumVertices() != map.getNumVertices() || g.getNumEdges() != map.getNumEdges()) {
+			return "CSR graph has " + g.getNumVertices() + " vertices and " + g.getNumEdges()
+					+ " edges; expected " + map.getNumVertices() + " and " + map.getNumEdges() + ".";
+		}
+
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			GeographicPoint p = g.getPoint(v);
+			MapNode node = map.getNode(p);
+			if (node == null) {
+				return "Vertex " + v + " at " + p + " is not an intersection of the map.";
+			}
+			if (g.getId(p) != v) {
+				return "Vertex " + v + " at " + p + " has id " + g.getId(p) + ".";
+			}
+			if (g.getLatitude(v) != p.getX() || g.getLongitude(v) != p.getY()) {
+				return "Vertex " + v + " at " + p + " has coordinates " + g.getLatitude(v) + ", " + g.getLongitude(v) + ".";
+			}
+
+			List<String> expected = new ArrayList<String>();
+			for (MapEdge e : node.getEdges()) {
+				expected.add(describe(e.getEndPoint(), e.getLength(), e.getRoadName(), e.getRoadType()));
+			}
+			List<String> actual = new ArrayList<String>();
+			for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+				if (g.getSource(e) != v) {
+					return "Edge " + e + " of vertex " + v + " has source " + g.getSource(e) + ".";
+				}
+				actual.add(describe(g.getPoint(g.getTarget(e)), g.getLength(e), g.getRoadName(e), g.getRoadType(e)));
+			}
+			Collections.sort(expected);
+			Collections.sort(actual);
+			if (!actual.equals(expected)) {
+				return "Vertex " + v + " at " + p + " has edges " + actual + "; expected " + expected + ".";
+			}
+		}
+
+		int[] seen = new int[g.getNumEdges()];
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			for (int i = g.firstInEdge(v); i < g.endInEdge(v); i++) {
+				int e = g.getInEdge(i);
+				if (g.getTarget(e) != v) {
+					return "Incoming edge " + e + " of vertex " + v + " has target " + g.getTarget(e) + ".";
+				}
+				seen[e]++;
+			}
+		}
+		for (int e = 0; e < g.getNumEdges(); e++) {
+			if (seen[e] != 1) {
+				return "Edge " + e + " is in " + seen[e] + " incoming edge lists.";
+			}
+		}
+		return null;
+	}
+
+	/** Compare two CSR graphs slot by slot.
+	 * @param expected The graph as it should be
+	 * @param actual The graph to check
+	 * @return The first difference, or null if the graphs are the same
+	 */
+	public static String compare(CSRGraph expected, CSRGraph actual)
+	{
+		if (actual.getNumVertices() != expected.getNumVertices() || actual.getNumEdges() != expected.getNumEdges()) {
+			return "Graph has " + actual.getNumVertices() + " vertices and " + actual.getNumEdges()
+					+ " edges; expected " + expected.getNumVertices() + " and " + expected.getNumEdges() + ".";
+		}
+		for (int v = 0; v < expected.getNumVertices(); v++) {
+			if (!actual.getPoint(v).equals(expected.getPoint(v))) {
+				return "Vertex " + v + " is at " + actual.getPoint(v) + "; expected " + expected.getPoint(v) + ".";
+			}
+			if (actual.firstEdge(v) != expected.firstEdge(v) || actual.endEdge(v) != expected.endEdge(v)) {
+				return "Vertex " + v + " has edges " + actual.firstEdge(v) + " to " + actual.endEdge(v)
+						+ "; expected " + expected.firstEdge(v) + " to " + expected.endEdge(v) + ".";
+			}
+		}
+		for (int e = 0; e < expected.getNumEdges(); e++) {
+			String a = describe(actual.getPoint(actual.getTarget(e)), actual.getLength(e),
+					actual.getRoadName(e), actual.getRoadType(e));
+			String b = describe(expected.getPoint(expected.getTarget(e)), expected.getLength(e),
+					expected.getRoadName(e), expected.getRoadType(e));
+			if (!a.equals(b)) {
+				return "Edge " + e + " goes to " + a + "; expected " + b + ".";
+			}
+		}
+		return null;
+	}
+
+	// An edge as the grader compares it
+	private static String describe(GeographicPoint target, double length, String roadName, String roadType)
+	{
+		return target + " " + length + " km on " + roadName + " (" + roadType + ")";
+	}
+}
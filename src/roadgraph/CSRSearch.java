@@ -0,0 +1,290 @@
+/**
+ * Search algorithms that run on the CSR form of a MapGraph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * BFS, Dijkstra and A* over a CSRGraph.  Vertices are int ids and the
+ * adjacency is read out of the CSR arrays with the context's EdgeCursor,
+ * so expanding a vertex allocates nothing.  Paths come back as arrays of
+ * vertex ids from start to goal (both included), or null when the goal
+ * cannot be reached.  The per-vertex state lives in a SearchContext the
+ * caller supplies, so the graph itself is never written to.
+ *
+ */
+public class CSRSearch
+{
+	private CSRSearch() {}
+
+	/** Find the path from start to goal using breadth first search
+	 *
+	 * @param g The graph to search
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param nodeSearched A hook for visualization, called for every vertex removed from the queue
+	 * @return The vertex ids of the shortest (unweighted) path, or null if there is none
+	 */
+	public static int[] bfs(CSRGraph g, int start, int goal, SearchContext ctx,
+			BitSet closed, Consumer<GeographicPoint> nodeSearched)
+	{
+		ctx.reset(g.numVertices);
+		int[] queue = ctx.getFifo();
+		int head = 0;
+		int tail = 0;
+		ctx.update(start, 0, start);
+		queue[tail++] = start;
+
+		while (head < tail) {
+			int curr = queue[head++];
+			ctx.settle(curr);
+			nodeSearched.accept(g.getPoint(curr));
+			if (curr == goal) {
+				return ctx.reconstructPath(start, goal);
+			}
+			for (EdgeCursor edges = ctx.getCursor().open(g, curr, closed); edges.next(); ) {
+				int n = edges.target();
+				if (!ctx.isReached(n)) {
+					ctx.update(n, ctx.getDistance(curr) + 1, curr, edges.edge());
+					queue[tail++] = n;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Find the path from start to goal using Dijkstra's algorithm
+	 *
+	 * @param g The graph to search
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 */
+	public static int[] dijkstra(CSRGraph g, int start, int goal, SearchContext ctx,
+			BitSet closed, Consumer<GeographicPoint> nodeSearched)
+	{
+		return aStarSearch(g, start, goal, ctx, closed, Heuristic.ZERO, nodeSearched);
+	}
+
+	/** Find the path from start to goal using A* search.  Vertices are
+	 * settled in order of distance from start plus the heuristic's
+	 * estimate of the distance left, so with an admissible heuristic the
+	 * path is the shortest one and far fewer vertices are settled than
+	 * with Dijkstra.  The number settled is left in ctx.
+	 *
+	 * @param g The graph to search
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param heuristic Estimates the remaining distance to goal
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 * @throws IllegalArgumentException If ctx uses a radix queue and the
+	 *   heuristic is not consistent
+	 */
+	public static int[] aStarSearch(CSRGraph g, int start, int goal, SearchContext ctx,
+			BitSet closed, Heuristic heuristic, Consumer<GeographicPoint> nodeSearched)
+	{
+		return search(g, start, goal, ctx, closed, heuristic, nodeSearched) ?
+				ctx.reconstructPath(start, goal) : null;
+	}
+
+	/**
+	 * Compute the distance from source to every vertex it can reach.
+	 * The distances and parents are left in ctx.
+	 * @param g The graph to search
+	 * @param source The id of the source vertex
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 */
+	static void sweep(CSRGraph g, int source, SearchContext ctx, BitSet closed)
+	{
+		search(g, source, -1, ctx, closed, Heuristic.ZERO, (x) -> {});
+	}
+
+	/**
+	 * Compute the shortest paths from source to every vertex at most
+	 * maxDistance away, with one Dijkstra search that stops at that radius.
+	 * @param g The graph to search
+	 * @param source The id of the source vertex
+	 * @param maxDistance The radius in km; infinity for the whole graph
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @return The tree of shortest paths
+	 */
+	public static ShortestPathTree shortestPathTree(CSRGraph g, int source, double maxDistance,
+			SearchContext ctx, BitSet closed)
+	{
+		ctx.reset(g.numVertices);
+		VertexQueue toExplore = ctx.getQueue(g.numVertices);
+		ctx.update(source, 0, source);
+		toExplore.push(source, 0);
+		int[] order = new int[g.numVertices];
+		int count = 0;
+
+		while (!toExplore.isEmpty() && toExplore.minKey() <= maxDistance) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			order[count++] = curr;
+			double dCurr = ctx.getDistance(curr);
+			for (EdgeCursor edges = ctx.getCursor().open(g, curr, closed); edges.next(); ) {
+				int n = edges.target();
+				double dn = dCurr + edges.weight();
+				if (dn < ctx.getDistance(n)) {
+					ctx.update(n, dn, curr, edges.edge());
+					toExplore.push(n, dn);
+				}
+			}
+		}
+
+		double[] distance = new double[g.numVertices];
+		int[] parent = new int[g.numVertices];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		Arrays.fill(parent, -1);
+		for (int i = 0; i < count; i++) {
+			int v = order[i];
+			distance[v] = ctx.getDistance(v);
+			parent[v] = ctx.getParent(v);
+		}
+		return new ShortestPathTree(g, source, maxDistance, distance, parent,
+				Arrays.copyOf(order, count));
+	}
+
+	/**
+	 * Compute the distances from source to a set of targets with one
+	 * Dijkstra search that stops as soon as every target is settled.
+	 * The distances are left in ctx; a target that was not settled
+	 * cannot be reached.
+	 * @param g The graph to search
+	 * @param source The id of the source vertex
+	 * @param isTarget Marks the target vertex ids
+	 * @param targetCount The number of vertices marked in isTarget
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 */
+	static void oneToMany(CSRGraph g, int source, boolean[] isTarget, int targetCount,
+			SearchContext ctx, BitSet closed)
+	{
+		ctx.reset(g.numVertices);
+		VertexQueue toExplore = ctx.getQueue(g.numVertices);
+		ctx.update(source, 0, source);
+		toExplore.push(source, 0);
+		int remaining = targetCount;
+
+		while (remaining > 0 && !toExplore.isEmpty()) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			if (isTarget[curr]) {
+				remaining--;
+			}
+			double dCurr = ctx.getDistance(curr);
+			for (EdgeCursor edges = ctx.getCursor().open(g, curr, closed); edges.next(); ) {
+				int n = edges.target();
+				double dn = dCurr + edges.weight();
+				if (dn < ctx.getDistance(n)) {
+					ctx.update(n, dn, curr, edges.edge());
+					toExplore.push(n, dn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the distance from every vertex to target by running
+	 * Dijkstra backwards over the incoming edges.  The distances are left
+	 * in ctx, and the parent of a vertex is the next vertex towards target.
+	 * @param g The graph to search
+	 * @param target The id of the target vertex
+	 * @param ctx The scratch state to search with
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 */
+	static void reverseSweep(CSRGraph g, int target, SearchContext ctx, BitSet closed)
+	{
+		ctx.reset(g.numVertices);
+		VertexQueue toExplore = ctx.getQueue(g.numVertices);
+		ctx.update(target, 0, target);
+		toExplore.push(target, 0);
+
+		while (!toExplore.isEmpty()) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			double dCurr = ctx.getDistance(curr);
+			for (EdgeCursor edges = ctx.getCursor().openIncoming(g, curr, closed); edges.next(); ) {
+				int n = edges.target();
+				double dn = dCurr + edges.weight();
+				if (dn < ctx.getDistance(n)) {
+					ctx.update(n, dn, curr, edges.edge());
+					toExplore.push(n, dn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Make sure a queue type can run A* with a heuristic.  A radix queue
+	 * needs keys that never go below the last one polled, which only a
+	 * consistent heuristic guarantees.
+	 * @param queueType The queue the search would use
+	 * @param heuristic The heuristic it would use
+	 * @throws IllegalArgumentException If the two cannot work together
+	 */
+	static void checkMonotone(QueueType queueType, Heuristic heuristic)
+	{
+		if (queueType == QueueType.RADIX && !heuristic.isConsistent()) {
+			throw new IllegalArgumentException("A radix queue needs a consistent heuristic");
+		}
+	}
+
+	// A* towards goal (Dijkstra when the heuristic is ZERO, and a full
+	// sweep when goal is -1).  Every vertex is in the queue at most once;
+	// a shorter path lowers its key in place.  Returns whether the goal
+	// was settled.
+	private static boolean search(CSRGraph g, int start, int goal, SearchContext ctx,
+			BitSet closed, Heuristic heuristic, Consumer<GeographicPoint> nodeSearched)
+	{
+		checkMonotone(ctx.getQueueType(), heuristic);
+		ctx.reset(g.numVertices);
+		VertexQueue toExplore = ctx.getQueue(g.numVertices);
+		boolean informed = heuristic != Heuristic.ZERO && goal >= 0;
+
+		ctx.update(start, 0, start);
+		toExplore.push(start, 0);
+
+		while (!toExplore.isEmpty()) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			nodeSearched.accept(g.getPoint(curr));
+			if (curr == goal) {
+				return true;
+			}
+			double dCurr = ctx.getDistance(curr);
+			for (EdgeCursor edges = ctx.getCursor().open(g, curr, closed); edges.next(); ) {
+				int n = edges.target();
+				double gn = dCurr + edges.weight();
+				if (gn < ctx.getDistance(n)) {
+					double fn = informed ? gn + heuristic.estimate(g, n, goal) : gn;
+					if (fn == Double.POSITIVE_INFINITY) {
+						// The heuristic knows the goal cannot be reached from n
+						continue;
+					}
+					ctx.update(n, gn, curr, edges.edge());
+					toExplore.push(n, fn);
+				}
+			}
+		}
+		return false;
+	}
+}
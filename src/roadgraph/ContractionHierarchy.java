@@ -0,0 +1,603 @@
+/**
+ * Contraction Hierarchies over the CSR form of a MapGraph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A Contraction Hierarchy (CH) for fast point-to-point queries on a
+ * static road graph.
+ *
+ * Preprocessing contracts the vertices one at a time from least to most
+ * important.  Contracting v removes it from the graph and, for every
+ * pair of neighbours u -> v -> w whose shortest path runs through v,
+ * adds a shortcut u -> w of the same length.  A local "witness" search
+ * decides whether a shortcut is needed.  Vertices are ordered by edge
+ * difference (shortcuts added minus edges removed) plus the number of
+ * neighbours already contracted.  Each round picks every vertex whose
+ * priority is lower than all of its neighbours'.  These vertices are
+ * never adjacent, so their witness searches run in parallel.
+ *
+ * A query runs Dijkstra upward (towards higher ranks) from the start and
+ * backward-upward from the goal.  The shortest path always has the form
+ * up-then-down, so the two searches meet at its highest vertex after
+ * settling only a few hundred vertices.  The shortcuts on the path are
+ * then unpacked into the original road edges.
+ *
+ * Roadworks and other closures are not applied: the hierarchy is only
+ * valid for the lengths it was built with.
+ *
+ */
+public final class ContractionHierarchy
+{
+	/** Witness searches give up after settling this many vertices */
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final CSRGraph graph;
+	/** rank[v] is the position at which v was contracted */
+	final int[] rank;
+
+	/** Arcs v -> w with rank[w] > rank[v], searched forward from the start */
+	final int[] upOffsets;
+	final int[] upTargets;
+	final double[] upWeights;
+	final int[] upArcs;
+	/** Arcs u -> v with rank[u] > rank[v], stored at v and searched
+	 * backward from the goal */
+	final int[] downOffsets;
+	final int[] downSources;
+	final double[] downWeights;
+	final int[] downArcs;
+
+	/** How to unpack every arc: an original arc maps to an edge of the
+	 * graph (arcEdge >= 0), a shortcut to the two arcs it replaces */
+	private final int[] arcEdge;
+	private final int[] arcFirst;
+	private final int[] arcSecond;
+	private final int numShortcuts;
+
+	/**
+	 * Build the hierarchy for a graph.  The witness searches of each
+	 * round run on the common fork-join pool.
+	 * @param g The graph to preprocess
+	 */
+	public ContractionHierarchy(CSRGraph g)
+	{
+		graph = g;
+		Builder b = new Builder(g);
+		b.contractAll();
+
+		rank = b.rank;
+		int n = g.numVertices;
+		upOffsets = new int[n + 1];
+		downOffsets = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			upOffsets[v + 1] = upOffsets[v] + b.upSize[v];
+			downOffsets[v + 1] = downOffsets[v] + b.downSize[v];
+		}
+		upTargets = new int[upOffsets[n]];
+		upWeights = new double[upOffsets[n]];
+		upArcs = new int[upOffsets[n]];
+		downSources = new int[downOffsets[n]];
+		downWeights = new double[downOffsets[n]];
+		downArcs = new int[downOffsets[n]];
+		for (int v = 0; v < n; v++) {
+			for (int i = 0; i < b.upSize[v]; i++) {
+				int a = b.up[v][i];
+				upTargets[upOffsets[v] + i] = b.to[a];
+				upWeights[upOffsets[v] + i] = b.weight[a];
+				upArcs[upOffsets[v] + i] = a;
+			}
+			for (int i = 0; i < b.downSize[v]; i++) {
+				int a = b.down[v][i];
+				downSources[downOffsets[v] + i] = b.from[a];
+				downWeights[downOffsets[v] + i] = b.weight[a];
+				downArcs[downOffsets[v] + i] = a;
+			}
+		}
+		arcEdge = Arrays.copyOf(b.edge, b.arcs);
+		arcFirst = Arrays.copyOf(b.first, b.arcs);
+		arcSecond = Arrays.copyOf(b.second, b.arcs);
+		numShortcuts = b.shortcuts;
+	}
+
+	/**
+	 * Get the graph this hierarchy was built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the number of shortcuts added during preprocessing
+	 * @return The number of shortcuts
+	 */
+	public int getNumShortcuts()
+	{
+		return numShortcuts;
+	}
+
+	/**
+	 * Get the position at which a vertex was contracted
+	 * @param v The vertex id
+	 * @return Its rank; higher ranks are more important vertices
+	 */
+	public int getRank(int v)
+	{
+		return rank[v];
+	}
+
+	/** Find the shortest path from start to goal
+	 *
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of the upward search from start,
+	 *   which is also left holding the number of vertices settled by both sides
+	 * @param backward The scratch state of the upward search from goal
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 */
+	public int[] route(int start, int goal, SearchContext forward, SearchContext backward,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		int meet = search(start, goal, forward, backward, nodeSearched);
+		if (meet < 0) {
+			return null;
+		}
+		int[] edges = unpack(start, goal, meet, forward, backward);
+		int[] path = new int[edges.length + 1];
+		path[0] = start;
+		for (int i = 0; i < edges.length; i++) {
+			path[i + 1] = graph.targets[edges[i]];
+		}
+		return path;
+	}
+
+	/**
+	 * Find the length of the shortest path from start to goal
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of the upward search from start
+	 * @param backward The scratch state of the upward search from goal
+	 * @return The distance in km, or infinity if goal cannot be reached
+	 */
+	public double distance(int start, int goal, SearchContext forward, SearchContext backward)
+	{
+		int meet = search(start, goal, forward, backward, (x) -> {});
+		if (meet < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return forward.getDistance(meet) + backward.getDistance(meet);
+	}
+
+	/**
+	 * Settle every vertex one side of a query can reach: upward from a
+	 * start, or backward-upward from a goal.  Used by the many-to-many
+	 * search in DistanceMatrix.  The distances are left in ctx.
+	 * @param source The start or goal vertex id
+	 * @param up true to follow upward arcs, false to follow downward arcs backwards
+	 * @param ctx The scratch state to search with
+	 * @return The settled vertices, in the order they were settled
+	 */
+	IntList upwardSweep(int source, boolean up, SearchContext ctx)
+	{
+		return upwardSweep(source, up, ctx, null);
+	}
+
+	// The same, but vertices with stopAt[v] >= 0 are settled and not
+	// searched past, as TransitNodeRouting does at its transit nodes
+	IntList upwardSweep(int source, boolean up, SearchContext ctx, int[] stopAt)
+	{
+		int n = graph.numVertices;
+		ctx.reset(n);
+		VertexQueue queue = ctx.getQueue(n);
+		ctx.update(source, 0, source);
+		queue.push(source, 0);
+		int[] offsets = up ? upOffsets : downOffsets;
+		int[] ends = up ? upTargets : downSources;
+		double[] weights = up ? upWeights : downWeights;
+		IntList settled = new IntList();
+		while (!queue.isEmpty()) {
+			int curr = queue.pollMin();
+			ctx.settle(curr);
+			settled.add(curr);
+			if (stopAt != null && stopAt[curr] >= 0) {
+				continue;
+			}
+			double dCurr = ctx.getDistance(curr);
+			for (int i = offsets[curr]; i < offsets[curr + 1]; i++) {
+				int next = ends[i];
+				double dNext = dCurr + weights[i];
+				if (dNext < ctx.getDistance(next)) {
+					ctx.update(next, dNext, curr);
+					queue.push(next, dNext);
+				}
+			}
+		}
+		return settled;
+	}
+
+	// Run the two upward searches until neither can improve on the best
+	// meeting point.  Returns that vertex, or -1 if they never meet.
+	private int search(int start, int goal, SearchContext forward, SearchContext backward,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		int n = graph.numVertices;
+		forward.reset(n);
+		backward.reset(n);
+		VertexQueue fwdQueue = forward.getQueue(n);
+		VertexQueue bwdQueue = backward.getQueue(n);
+		forward.update(start, 0, start);
+		fwdQueue.push(start, 0);
+		backward.update(goal, 0, goal);
+		bwdQueue.push(goal, 0);
+
+		double best = start == goal ? 0 : Double.POSITIVE_INFINITY;
+		int meet = start == goal ? start : -1;
+		while (true) {
+			boolean fwdOpen = !fwdQueue.isEmpty() && fwdQueue.minKey() < best;
+			boolean bwdOpen = !bwdQueue.isEmpty() && bwdQueue.minKey() < best;
+			if (!fwdOpen && !bwdOpen) {
+				break;
+			}
+			boolean up = fwdOpen && (!bwdOpen || fwdQueue.minKey() <= bwdQueue.minKey());
+			SearchContext ctx = up ? forward : backward;
+			SearchContext other = up ? backward : forward;
+			VertexQueue queue = up ? fwdQueue : bwdQueue;
+			int[] offsets = up ? upOffsets : downOffsets;
+			int[] ends = up ? upTargets : downSources;
+			double[] weights = up ? upWeights : downWeights;
+			int[] arcs = up ? upArcs : downArcs;
+
+			int curr = queue.pollMin();
+			ctx.settle(curr);
+			nodeSearched.accept(graph.getPoint(curr));
+			double dCurr = ctx.getDistance(curr);
+			for (int i = offsets[curr]; i < offsets[curr + 1]; i++) {
+				int next = ends[i];
+				double dNext = dCurr + weights[i];
+				if (dNext < ctx.getDistance(next)) {
+					ctx.update(next, dNext, curr, arcs[i]);
+					queue.push(next, dNext);
+					if (other.isReached(next) && dNext + other.getDistance(next) < best) {
+						best = dNext + other.getDistance(next);
+						meet = next;
+					}
+				}
+			}
+		}
+		forward.addSettled(backward.getSettledCount());
+		return meet;
+	}
+
+	// Expand the arcs from start up to meet and from meet down to goal
+	// into the edges of the original graph, in path order.
+	private int[] unpack(int start, int goal, int meet, SearchContext forward,
+			SearchContext backward)
+	{
+		IntList upArcsOnPath = new IntList();
+		for (int v = meet; v != start; v = forward.getParent(v)) {
+			upArcsOnPath.add(forward.getParentEdge(v));
+		}
+		IntList edges = new IntList();
+		IntList stack = new IntList();
+		for (int i = upArcsOnPath.size - 1; i >= 0; i--) {
+			unpackArc(upArcsOnPath.items[i], edges, stack);
+		}
+		for (int v = meet; v != goal; v = backward.getParent(v)) {
+			unpackArc(backward.getParentEdge(v), edges, stack);
+		}
+		return Arrays.copyOf(edges.items, edges.size);
+	}
+
+	// Append the original edges an arc stands for
+	private void unpackArc(int arc, IntList edges, IntList stack)
+	{
+		stack.add(arc);
+		while (stack.size > 0) {
+			int a = stack.items[--stack.size];
+			if (arcEdge[a] >= 0) {
+				edges.add(arcEdge[a]);
+			}
+			else {
+				stack.add(arcSecond[a]);
+				stack.add(arcFirst[a]);
+			}
+		}
+	}
+
+	// A growable array of ints
+	static final class IntList
+	{
+		int[] items = new int[8];
+		int size;
+
+		void add(int x)
+		{
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = x;
+		}
+
+		// Remove the first occurrence of x by moving the last item into its place
+		void removeValue(int x)
+		{
+			for (int i = 0; i < size; i++) {
+				if (items[i] == x) {
+					items[i] = items[--size];
+					return;
+				}
+			}
+		}
+	}
+
+	// The shortcuts needed to contract one vertex: arcs u -> w made of
+	// the arcs first (u -> v) and second (v -> w)
+	private static final class Shortcuts
+	{
+		final IntList first = new IntList();
+		final IntList second = new IntList();
+	}
+
+	// The mutable state of preprocessing.  Arcs live in a pool of parallel
+	// arrays; each uncontracted vertex keeps lists of its live arcs to
+	// other uncontracted vertices.
+	private static final class Builder
+	{
+		final CSRGraph g;
+		final int n;
+
+		int arcs;
+		int shortcuts;
+		int[] from;
+		int[] to;
+		double[] weight;
+		int[] edge;
+		int[] first;
+		int[] second;
+
+		final IntList[] out;
+		final IntList[] in;
+		final boolean[] contracted;
+		/** The vertices being contracted in the current round */
+		final boolean[] chosenNow;
+		final int[] rank;
+		final int[] contractedNeighbors;
+		final int[] priority;
+		final boolean[] dirty;
+
+		/** Arcs to higher / from higher ranked vertices, fixed at contraction */
+		final int[][] up;
+		final int[] upSize;
+		final int[][] down;
+		final int[] downSize;
+
+		final ThreadLocal<SearchContext> witness;
+
+		Builder(CSRGraph g)
+		{
+			this.g = g;
+			n = g.numVertices;
+			int capacity = Math.max(16, g.numEdges * 2);
+			from = new int[capacity];
+			to = new int[capacity];
+			weight = new double[capacity];
+			edge = new int[capacity];
+			first = new int[capacity];
+			second = new int[capacity];
+			out = new IntList[n];
+			in = new IntList[n];
+			for (int v = 0; v < n; v++) {
+				out[v] = new IntList();
+				in[v] = new IntList();
+			}
+			contracted = new boolean[n];
+			chosenNow = new boolean[n];
+			rank = new int[n];
+			contractedNeighbors = new int[n];
+			priority = new int[n];
+			dirty = new boolean[n];
+			Arrays.fill(dirty, true);
+			up = new int[n][];
+			upSize = new int[n];
+			down = new int[n][];
+			downSize = new int[n];
+			witness = ThreadLocal.withInitial(() -> new SearchContext(n));
+
+			// Start with the original edges, keeping only the shortest of
+			// parallel edges and dropping loops
+			for (int v = 0; v < n; v++) {
+				for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+					int w = g.targets[e];
+					if (w != v) {
+						addArc(v, w, g.lengths[e], e, -1, -1);
+					}
+				}
+			}
+			shortcuts = 0;
+		}
+
+		// Add an arc u -> w unless an arc at least as short already exists,
+		// in which case it replaces that one
+		void addArc(int u, int w, double length, int e, int a, int b)
+		{
+			IntList outs = out[u];
+			for (int i = 0; i < outs.size; i++) {
+				int c = outs.items[i];
+				if (to[c] == w) {
+					if (weight[c] <= length) {
+						return;
+					}
+					outs.removeValue(c);
+					in[w].removeValue(c);
+					break;
+				}
+			}
+			if (arcs == from.length) {
+				int capacity = arcs * 2;
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				weight = Arrays.copyOf(weight, capacity);
+				edge = Arrays.copyOf(edge, capacity);
+				first = Arrays.copyOf(first, capacity);
+				second = Arrays.copyOf(second, capacity);
+			}
+			from[arcs] = u;
+			to[arcs] = w;
+			weight[arcs] = length;
+			edge[arcs] = e;
+			first[arcs] = a;
+			second[arcs] = b;
+			out[u].add(arcs);
+			in[w].add(arcs);
+			arcs++;
+			if (e < 0) {
+				shortcuts++;
+			}
+		}
+
+		void contractAll()
+		{
+			int[] remaining = IntStream.range(0, n).toArray();
+			int nextRank = 0;
+			while (remaining.length > 0) {
+				IntStream.of(remaining).parallel().filter(v -> dirty[v]).forEach(v -> {
+					priority[v] = findShortcuts(v).first.size - out[v].size - in[v].size
+							+ contractedNeighbors[v];
+					dirty[v] = false;
+				});
+				int[] chosen = IntStream.of(remaining).parallel()
+						.filter(this::isLocalMinimum).toArray();
+				// The chosen vertices are contracted together, so a witness
+				// path through one of them would be gone once it is
+				// contracted; the searches for this round avoid them all
+				for (int v : chosen) {
+					chosenNow[v] = true;
+				}
+				Shortcuts[] found = new Shortcuts[chosen.length];
+				IntStream.range(0, chosen.length).parallel()
+						.forEach(i -> found[i] = findShortcuts(chosen[i]));
+				for (int i = 0; i < chosen.length; i++) {
+					contract(chosen[i], found[i]);
+					rank[chosen[i]] = nextRank++;
+					chosenNow[chosen[i]] = false;
+				}
+				remaining = IntStream.of(remaining).filter(v -> !contracted[v]).toArray();
+			}
+		}
+
+		// Whether v comes before all of its uncontracted neighbours
+		boolean isLocalMinimum(int v)
+		{
+			for (IntList arcsOfV : new IntList[] {out[v], in[v]}) {
+				for (int i = 0; i < arcsOfV.size; i++) {
+					int a = arcsOfV.items[i];
+					int u = from[a] == v ? to[a] : from[a];
+					if (priority[u] < priority[v] || (priority[u] == priority[v] && u < v)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		// The shortcuts contracting v needs right now.  Only reads the graph.
+		Shortcuts findShortcuts(int v)
+		{
+			Shortcuts result = new Shortcuts();
+			SearchContext ctx = witness.get();
+			for (int i = 0; i < in[v].size; i++) {
+				int a = in[v].items[i];
+				int u = from[a];
+				double maxDist = 0;
+				for (int j = 0; j < out[v].size; j++) {
+					int b = out[v].items[j];
+					if (to[b] != u) {
+						maxDist = Math.max(maxDist, weight[a] + weight[b]);
+					}
+				}
+				if (maxDist == 0) {
+					continue;
+				}
+				witnessSearch(u, v, maxDist, ctx);
+				for (int j = 0; j < out[v].size; j++) {
+					int b = out[v].items[j];
+					int w = to[b];
+					if (w != u && ctx.getDistance(w) > weight[a] + weight[b]) {
+						result.first.add(a);
+						result.second.add(b);
+					}
+				}
+			}
+			return result;
+		}
+
+		// Dijkstra from u that avoids v and the other vertices contracted in
+		// this round, and stops past maxDist
+		void witnessSearch(int u, int v, double maxDist, SearchContext ctx)
+		{
+			ctx.reset(n);
+			VertexQueue queue = ctx.getQueue(n);
+			ctx.update(u, 0, u);
+			queue.push(u, 0);
+			while (!queue.isEmpty() && queue.minKey() <= maxDist
+					&& ctx.getSettledCount() < WITNESS_SETTLE_LIMIT) {
+				int x = queue.pollMin();
+				ctx.settle(x);
+				double dx = ctx.getDistance(x);
+				for (int i = 0; i < out[x].size; i++) {
+					int c = out[x].items[i];
+					int y = to[c];
+					double dy = dx + weight[c];
+					if (y != v && !chosenNow[y] && dy <= maxDist && dy < ctx.getDistance(y)) {
+						ctx.update(y, dy, x);
+						queue.push(y, dy);
+					}
+				}
+			}
+		}
+
+		// Add v's shortcuts, then move its arcs out of the dynamic graph
+		// into its final upward lists
+		void contract(int v, Shortcuts found)
+		{
+			for (int i = 0; i < found.first.size; i++) {
+				int a = found.first.items[i];
+				int b = found.second.items[i];
+				addArc(from[a], to[b], weight[a] + weight[b], -1, a, b);
+			}
+			up[v] = Arrays.copyOf(out[v].items, out[v].size);
+			upSize[v] = out[v].size;
+			down[v] = Arrays.copyOf(in[v].items, in[v].size);
+			downSize[v] = in[v].size;
+			for (int a : up[v]) {
+				in[to[a]].removeValue(a);
+				touch(to[a]);
+			}
+			for (int a : down[v]) {
+				out[from[a]].removeValue(a);
+				touch(from[a]);
+			}
+			out[v] = null;
+			in[v] = null;
+			contracted[v] = true;
+		}
+
+		// A neighbour of a contracted vertex needs a new priority
+		void touch(int u)
+		{
+			contractedNeighbors[u]++;
+			dirty[u] = true;
+		}
+	}
+}
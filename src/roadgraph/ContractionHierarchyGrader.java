@@ -0,0 +1,39 @@
+/**
+ * Checks contraction hierarchy routes against Dijkstra
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the contraction hierarchy.  The hierarchy only knows the
+ * edge lengths, so RoutingEngine falls back to another search around
+ * closed roads and with changed weights, and must still agree with
+ * Dijkstra.
+ *
+ */
+public class ContractionHierarchyGrader extends DijkstraEquivalenceGrader
+{
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new ContractionHierarchyGrader());
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		ContractionHierarchy ch = new ContractionHierarchy(g);
+		SearchContext forward = new SearchContext();
+		SearchContext backward = new SearchContext();
+		return new Technique("Contraction hierarchy",
+				(start, goal) -> ch.route(start, goal, forward, backward, (x) -> {}),
+				(start, goal) -> ch.distance(start, goal, forward, backward));
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		return new Technique("Engine", (start, goal) -> engine.route(start, goal,
+				RoutingEngine.Algorithm.CONTRACTION_HIERARCHY, closures).getVertexIds(), null);
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * A form of a graph built from its CSR form on first use
+ */
+package roadgraph;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A structure derived from one CSRGraph, such as a contraction hierarchy,
+ * built the first time it is asked for.  The first thread to ask builds
+ * it without holding any lock; threads asking for the same graph
+ * meanwhile wait for that build instead of starting their own, while
+ * everything else on the owner stays available.  Asking for another
+ * graph starts a new build and drops the old form.  If a build fails,
+ * its exception reaches every thread that waited for it, and the next
+ * request builds again.
+ *
+ * @param <T> The type of the derived structure
+ */
+final class DerivedForm<T>
+{
+	// The graph a form is for and the form itself, done once built
+	private static final class Entry<T>
+	{
+		final CSRGraph graph;
+		final CompletableFuture<T> form = new CompletableFuture<T>();
+
+		Entry(CSRGraph graph)
+		{
+			this.graph = graph;
+		}
+	}
+
+	private final Function<CSRGraph,T> build;
+	private volatile Entry<T> entry;
+
+	/**
+	 * @param build Builds the form of a graph
+	 */
+	DerivedForm(Function<CSRGraph,T> build)
+	{
+		this.build = build;
+	}
+
+	/**
+	 * Get the form of a graph, building it, or waiting for the thread
+	 * already building it, if it is not there yet
+	 * @param g The graph
+	 * @return The form of g
+	 */
+	T get(CSRGraph g)
+	{
+		Entry<T> e = entry;
+		boolean mine = false;
+		if (e == null || e.graph != g) {
+			synchronized (this) {
+				e = entry;
+				if (e == null || e.graph != g) {
+					e = new Entry<T>(g);
+					entry = e;
+					mine = true;
+				}
+			}
+		}
+		if (mine) {
+			try {
+				e.form.complete(build.apply(g));
+			}
+			catch (RuntimeException | Error ex) {
+				e.form.completeExceptionally(ex);
+				synchronized (this) {
+					if (entry == e) {
+						entry = null;
+					}
+				}
+				throw ex;
+			}
+		}
+		try {
+			return e.form.join();
+		}
+		catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Use a form built elsewhere, such as read from a file
+	 * @param g The graph it is the form of
+	 * @param form The form
+	 */
+	synchronized void set(CSRGraph g, T form)
+	{
+		Entry<T> e = new Entry<T>(g);
+		e.form.complete(form);
+		entry = e;
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * Checks a routing technique against Dijkstra
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The common part of the graders that check a routing technique against
+ * CSRSearch.dijkstra.  The maps are the bundled ones plus a grid of roads
+ * that all have the same length, where most pairs of intersections are
+ * joined by many shortest paths.  Each map gets three tests of random
+ * queries: on the graph as loaded, with the longest roads and some others
+ * closed, and with a quarter of the edges made slower or faster.  A
+ * grader only says how to prepare its technique for a graph, and how to
+ * ask a RoutingEngine for the same answers.  The technique is prepared
+ * again on every changed graph, where a closed road has infinite length,
+ * so techniques that only know the lengths are checked too.
+ *
+ */
+public abstract class DijkstraEquivalenceGrader extends Grader
+{
+	/** Finds the path between two vertices */
+	public interface PathQuery
+	{
+		/**
+		 * @param start The id of the starting vertex
+		 * @param goal The id of the goal vertex
+		 * @return The vertex ids of the path, or null if there is none
+		 * @throws IllegalStateException If the answer is wrong for
+		 *   another reason, given in the message
+		 */
+		int[] route(int start, int goal);
+	}
+
+	/** Finds the length of the shortest path between two vertices */
+	public interface DistanceQuery
+	{
+		/**
+		 * @param start The id of the starting vertex
+		 * @param goal The id of the goal vertex
+		 * @return The distance, or infinity if there is no path
+		 */
+		double distance(int start, int goal);
+	}
+
+	/** The queries one technique answers on one graph */
+	public static final class Technique
+	{
+		final String name;
+		final PathQuery paths;
+		final DistanceQuery distances;
+
+		/**
+		 * @param name What answers, for the feedback
+		 * @param paths Finds paths, or null if the technique does not
+		 * @param distances Finds distances, or null if the technique does not
+		 */
+		public Technique(String name, PathQuery paths, DistanceQuery distances)
+		{
+			this.name = name;
+			this.paths = paths;
+			this.distances = distances;
+		}
+	}
+
+	private static final int QUERIES = 200;
+
+	protected DijkstraEquivalenceGrader()
+	{
+		this(0);
+	}
+
+	/**
+	 * @param extraTests The number of tests a subclass runs after the
+	 *   ones on the maps
+	 */
+	protected DijkstraEquivalenceGrader(int extraTests)
+	{
+		super(21 + extraTests);
+	}
+
+	/** Prepare the technique under test for a graph.
+	 * @param g The graph; its edge lengths may be weights, and closed
+	 *   roads have infinite length
+	 * @return The queries to check
+	 */
+	protected abstract Technique prepare(CSRGraph g);
+
+	/** Ask an engine for the answers of the technique under test.
+	 * @param engine The engine, routing with its current edge weights
+	 * @param closures The roads the engine is to avoid
+	 * @return The queries to check, or null if the engine cannot answer
+	 *   them around closed roads
+	 */
+	protected abstract Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures);
+
+	/** Run the three tests on one map.
+	 * @param map The map
+	 * @param desc A description of the map
+	 */
+	public void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+
+		CSRGraph g = map.getCSRGraph();
+		Random random = new Random(g.fingerprint());
+
+		try (RoutingEngine engine = new RoutingEngine(g)) {
+			begin(QUERIES + " random queries");
+			end(judge(g, null, g, random, prepare(g), engine(engine, RoadClosures.Snapshot.NONE)));
+
+			// Close the longest roads, which most long routes take, and
+			// some others at random
+			int[] closed = new RoadClosures(g).longestEdges(g.getNumEdges() / 20 + 1);
+			EdgeWeights.Batch batch = new EdgeWeights(g).batch();
+			for (int e : closed) {
+				batch.set(e, Double.POSITIVE_INFINITY);
+			}
+			RoadClosures.Snapshot closures = RoadClosures.Snapshot.NONE.withClosed(closed);
+			for (int k = 0; k < g.getNumEdges() / 20; k++) {
+				int e = random.nextInt(g.getNumEdges());
+				batch.set(e, Double.POSITIVE_INFINITY);
+				closures = closures.withClosed(new int[] {e});
+			}
+			CSRGraph withClosures = batch.apply().getGraph();
+			begin(QUERIES + " random queries with " + closures.getClosedCount() + " closed roads");
+			end(judge(g, closures.bits(), withClosures, random, prepare(withClosures),
+					engine(engine, closures)));
+
+			// Make roads slower and faster, some of them below their length
+			batch = engine.getEdgeWeights().batch();
+			for (int k = 0; k < g.getNumEdges() / 4; k++) {
+				batch.multiply(random.nextInt(g.getNumEdges()), 0.5 + 2.5 * random.nextDouble());
+			}
+			int reweighted = batch.size();
+			CSRGraph weighted = batch.apply().getGraph();
+			begin(QUERIES + " random queries with " + reweighted + " reweighted roads");
+			end(judge(weighted, null, weighted, random, prepare(weighted),
+					engine(engine, RoadClosures.Snapshot.NONE)));
+		}
+	}
+
+	/** Compare techniques with Dijkstra on random queries.
+	 * @param g The graph Dijkstra searches
+	 * @param closed The closed edges, or null if every edge is open
+	 * @param lengths The graph that measures the paths found
+	 * @param random Picks the queries
+	 * @param techniques The techniques to check; null ones are skipped
+	 * @return What the first wrong answer was, or null if all were right
+	 */
+	public static String judge(CSRGraph g, BitSet closed, CSRGraph lengths, Random random,
+			Technique... techniques)
+	{
+		SearchContext ctx = new SearchContext();
+		for (int q = 0; q < QUERIES; q++) {
+			int start = random.nextInt(g.getNumVertices());
+			int goal = random.nextInt(g.getNumVertices());
+			CSRSearch.dijkstra(g, start, goal, ctx, closed, (x) -> {});
+			double expected = ctx.getDistance(goal);
+
+			String error = null;
+			for (int k = 0; k < techniques.length && error == null; k++) {
+				Technique t = techniques[k];
+				if (t == null) {
+					continue;
+				}
+				try {
+					if (t.paths != null) {
+						error = checkPath(t.name, lengths, start, goal, expected,
+								t.paths.route(start, goal));
+					}
+					if (error == null && t.distances != null) {
+						error = checkDistance(t.name, start, goal, expected,
+								t.distances.distance(start, goal));
+					}
+				}
+				catch (IllegalStateException e) {
+					error = e.getMessage();
+				}
+			}
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	/** Compare a path with the length Dijkstra found.
+	 * @param name What found the path
+	 * @param g The graph whose lengths count
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param expected The length of the shortest path
+	 * @param path The vertex ids of the path, or null if none was found
+	 * @return What is wrong with the path, or null if it is right
+	 */
+	public static String checkPath(String name, CSRGraph g, int start, int goal, double expected,
+			int[] path)
+	{
+		String query = " from " + start + " to " + goal;
+		if (path == null) {
+			return Double.isInfinite(expected) ? null :
+					name + " found no path" + query + "; expected one of length " + expected + ".";
+		}
+		if (path[0] != start || path[path.length - 1] != goal) {
+			return name + " path" + query + " runs from " + path[0] + " to " + path[path.length - 1] + ".";
+		}
+		double length = g.pathLength(path);
+		if (!same(length, expected)) {
+			return name + " path" + query + " has length " + length + "; expected " + expected + ".";
+		}
+		return null;
+	}
+
+	/** Compare a distance with the one Dijkstra found.
+	 * @param name What found the distance
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param expected The length of the shortest path
+	 * @param distance The distance found
+	 * @return What is wrong with the distance, or null if it is right
+	 */
+	public static String checkDistance(String name, int start, int goal, double expected,
+			double distance)
+	{
+		if (same(distance, expected)) {
+			return null;
+		}
+		return name + " distance from " + start + " to " + goal + " was " + distance + "; expected " + expected + ".";
+	}
+
+	// Equal up to rounding in the sums
+	private static boolean same(double a, double b)
+	{
+		return a == b || Math.abs(a - b) <= 1e-9 * Math.max(1, Math.abs(b));
+	}
+
+	@Override
+	protected void runTests()
+	{
+		runTest(load("ucsd.map"), "MAP: Intersections around UCSD");
+
+		runTest(grid(24), "MAP: Grid of equal-length roads");
+
+		runTest(load("hollywood_small.map"), "MAP: Hollywood (small)");
+
+		runTest(load("newbury_small.map"), "MAP: Newbury (small)");
+
+		runTest(load("utc.map"), "MAP: UTC");
+
+		runTest(load("san_diego.map"), "MAP: San Diego");
+
+		runTest(load("hollywood_large.map"), "MAP: Hollywood (large)");
+	}
+}
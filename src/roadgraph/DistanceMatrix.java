@@ -0,0 +1,176 @@
+/**
+ * Many-to-many shortest path distances
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Computes the table of shortest path distances between every source
+ * and every target of a query, as dispatch needs, far faster than one
+ * point-to-point search per pair.
+ *
+ * oneToMany runs a single Dijkstra search per source that stops once
+ * every target is settled.  withHierarchy uses the bucket algorithm over
+ * a ContractionHierarchy: a backward-upward search from each target
+ * leaves (target, distance) entries in a bucket at every vertex it
+ * settles, then an upward search from each source scans the buckets of
+ * the vertices it settles.  Every shortest path has a highest vertex
+ * that both searches reach, so the smallest sum found is the distance.
+ *
+ * Both run the searches of the different sources (and targets) in
+ * parallel on a ForkJoinPool.  Rows are sources, columns are targets,
+ * and unreachable pairs are infinite.
+ *
+ */
+public final class DistanceMatrix
+{
+	private DistanceMatrix() {}
+
+	/**
+	 * Compute the distances with one Dijkstra search per source
+	 * @param g The graph to search
+	 * @param sources The source vertex ids
+	 * @param targets The target vertex ids
+	 * @param closed Edge ids that may not be used, or null if every edge is open
+	 * @param queueType The priority queue the searches use
+	 * @param pool The threads to search with
+	 * @return matrix[i][j] is the distance in km from sources[i] to targets[j]
+	 */
+	public static double[][] oneToMany(CSRGraph g, int[] sources, int[] targets, BitSet closed,
+			QueueType queueType, ForkJoinPool pool)
+	{
+		checkVertices(g, sources);
+		checkVertices(g, targets);
+		boolean[] isTarget = new boolean[g.numVertices];
+		int targetCount = 0;
+		for (int t : targets) {
+			if (!isTarget[t]) {
+				isTarget[t] = true;
+				targetCount++;
+			}
+		}
+		final int distinctTargets = targetCount;
+		double[][] matrix = new double[sources.length][];
+		ThreadLocal<SearchContext> contexts = context(queueType);
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, sources.length).parallel().forEach(i -> {
+				SearchContext ctx = contexts.get();
+				CSRSearch.oneToMany(g, sources[i], isTarget, distinctTargets, ctx, closed);
+				double[] row = new double[targets.length];
+				for (int j = 0; j < targets.length; j++) {
+					row[j] = ctx.getDistance(targets[j]);
+				}
+				matrix[i] = row;
+			});
+		}));
+		return matrix;
+	}
+
+	/**
+	 * Compute the distances with the bucket algorithm over a contraction
+	 * hierarchy.  Roadworks are ignored, as in every hierarchy query.
+	 * @param ch The hierarchy of the graph to search
+	 * @param sources The source vertex ids
+	 * @param targets The target vertex ids
+	 * @param queueType The priority queue the searches use
+	 * @param pool The threads to search with
+	 * @return matrix[i][j] is the distance in km from sources[i] to targets[j]
+	 */
+	public static double[][] withHierarchy(ContractionHierarchy ch, int[] sources, int[] targets,
+			QueueType queueType, ForkJoinPool pool)
+	{
+		CSRGraph g = ch.getGraph();
+		checkVertices(g, sources);
+		checkVertices(g, targets);
+		int n = g.numVertices;
+		ThreadLocal<SearchContext> contexts = context(queueType);
+
+		// The search space of each target: its vertices and their distances
+		int[][] spaceVertices = new int[targets.length][];
+		double[][] spaceDistances = new double[targets.length][];
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, targets.length).parallel().forEach(j -> {
+				SearchContext ctx = contexts.get();
+				ContractionHierarchy.IntList settled = ch.upwardSweep(targets[j], false, ctx);
+				int[] vertices = new int[settled.size];
+				double[] distances = new double[settled.size];
+				for (int k = 0; k < settled.size; k++) {
+					vertices[k] = settled.items[k];
+					distances[k] = ctx.getDistance(vertices[k]);
+				}
+				spaceVertices[j] = vertices;
+				spaceDistances[j] = distances;
+			});
+		}));
+
+		// Turn them into buckets: the entries of v are bucketStart[v] .. bucketStart[v+1]-1
+		int[] bucketStart = new int[n + 1];
+		for (int[] vertices : spaceVertices) {
+			for (int v : vertices) {
+				bucketStart[v + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			bucketStart[v + 1] += bucketStart[v];
+		}
+		int[] bucketTarget = new int[bucketStart[n]];
+		double[] bucketDistance = new double[bucketStart[n]];
+		int[] fill = new int[n];
+		for (int j = 0; j < targets.length; j++) {
+			for (int k = 0; k < spaceVertices[j].length; k++) {
+				int v = spaceVertices[j][k];
+				int slot = bucketStart[v] + fill[v]++;
+				bucketTarget[slot] = j;
+				bucketDistance[slot] = spaceDistances[j][k];
+			}
+		}
+
+		double[][] matrix = new double[sources.length][];
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, sources.length).parallel().forEach(i -> {
+				SearchContext ctx = contexts.get();
+				ContractionHierarchy.IntList settled = ch.upwardSweep(sources[i], true, ctx);
+				double[] row = new double[targets.length];
+				Arrays.fill(row, Double.POSITIVE_INFINITY);
+				for (int k = 0; k < settled.size; k++) {
+					int v = settled.items[k];
+					double dv = ctx.getDistance(v);
+					for (int b = bucketStart[v]; b < bucketStart[v + 1]; b++) {
+						double d = dv + bucketDistance[b];
+						if (d < row[bucketTarget[b]]) {
+							row[bucketTarget[b]] = d;
+						}
+					}
+				}
+				matrix[i] = row;
+			});
+		}));
+		return matrix;
+	}
+
+	// One search context per thread for a single matrix computation
+	private static ThreadLocal<SearchContext> context(QueueType queueType)
+	{
+		return ThreadLocal.withInitial(() -> {
+			SearchContext ctx = new SearchContext();
+			ctx.setQueueType(queueType);
+			return ctx;
+		});
+	}
+
+	private static void checkVertices(CSRGraph g, int[] ids)
+	{
+		for (int v : ids) {
+			if (v < 0 || v >= g.numVertices) {
+				throw new IllegalArgumentException("Vertex " + v + " is not in the graph");
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Checks distance matrices against Dijkstra
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for DistanceMatrix and RoutingEngine.distanceMatrix.  Every
+ * entry of a table must be the distance Dijkstra finds for its pair.
+ * The sources and targets are random, with a target repeated and a
+ * source that is also a target.  oneToMany is checked with every queue,
+ * and again around closed roads.  withHierarchy is checked on the
+ * lengths.  Last, the engine is asked for both kinds of table after its
+ * edge weights change, when the hierarchy no longer applies.
+ *
+ */
+public class DistanceMatrixGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int SOURCES = 20;
+
+	private static final int TARGETS = 30;
+
+	public DistanceMatrixGrader()
+	{
+		super(4 * (MAP_FILES.length + 1));
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new DistanceMatrixGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			runTest(load(map), "MAP: " + map);
+		}
+		runTest(grid(24), "MAP: Grid of 24 by 24 intersections");
+	}
+
+	// The four tests on one map
+	private void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+		CSRGraph g = map.getCSRGraph();
+		Random random = new Random(g.fingerprint());
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		check(SOURCES + " by " + TARGETS + " table with every queue", () -> {
+			int[] sources = vertices(g, SOURCES, random);
+			int[] targets = vertices(g, TARGETS, random);
+			mix(sources, targets);
+			for (QueueType queue : QueueType.values()) {
+				String error = compare("oneToMany on " + queue, g, null, sources, targets,
+						DistanceMatrix.oneToMany(g, sources, targets, null, queue, pool));
+				if (error != null) {
+					return error;
+				}
+			}
+			return null;
+		});
+
+		check(SOURCES + " by " + TARGETS + " table over the hierarchy", () -> {
+			int[] sources = vertices(g, SOURCES, random);
+			int[] targets = vertices(g, TARGETS, random);
+			mix(sources, targets);
+			return compare("withHierarchy", g, null, sources, targets, DistanceMatrix.withHierarchy(
+					new ContractionHierarchy(g), sources, targets, QueueType.FOUR_ARY_HEAP, pool));
+		});
+
+		check(SOURCES + " by " + TARGETS + " table around closed roads", () -> {
+			int[] sources = vertices(g, SOURCES, random);
+			int[] targets = vertices(g, TARGETS, random);
+			mix(sources, targets);
+			BitSet closed = new BitSet(g.getNumEdges());
+			for (int e : new RoadClosures(g).longestEdges(g.getNumEdges() / 20 + 1)) {
+				closed.set(e);
+			}
+			for (int k = 0; k < g.getNumEdges() / 20; k++) {
+				closed.set(random.nextInt(g.getNumEdges()));
+			}
+			return compare("oneToMany", g, closed, sources, targets,
+					DistanceMatrix.oneToMany(g, sources, targets, closed, QueueType.FOUR_ARY_HEAP, pool));
+		});
+
+		check("Engine tables with reweighted roads", () -> {
+			try (RoutingEngine engine = new RoutingEngine(g)) {
+				EdgeWeights.Batch batch = engine.getEdgeWeights().batch();
+				for (int k = 0; k < g.getNumEdges() / 4; k++) {
+					batch.multiply(random.nextInt(g.getNumEdges()), 0.5 + 2.5 * random.nextDouble());
+				}
+				CSRGraph weighted = batch.apply().getGraph();
+				int[] sources = vertices(g, SOURCES, random);
+				int[] targets = vertices(g, TARGETS, random);
+				mix(sources, targets);
+				for (RoutingEngine.Algorithm algorithm : new RoutingEngine.Algorithm[] {
+						RoutingEngine.Algorithm.DIJKSTRA, RoutingEngine.Algorithm.CONTRACTION_HIERARCHY}) {
+					String error = compare("Engine " + algorithm, weighted, null, sources, targets,
+							engine.distanceMatrix(points(g, sources), points(g, targets), algorithm));
+					if (error != null) {
+						return error;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	// Compare every entry of a table with Dijkstra
+	private static String compare(String name, CSRGraph g, BitSet closed, int[] sources, int[] targets,
+			double[][] matrix)
+	{
+		if (matrix.length != sources.length) {
+			return name + " has " + matrix.length + " rows; expected " + sources.length + ".";
+		}
+		SearchContext ctx = new SearchContext();
+		for (int i = 0; i < sources.length; i++) {
+			if (matrix[i].length != targets.length) {
+				return name + " row " + i + " has " + matrix[i].length + " entries; expected "
+						+ targets.length + ".";
+			}
+			for (int j = 0; j < targets.length; j++) {
+				CSRSearch.dijkstra(g, sources[i], targets[j], ctx, closed, (x) -> {});
+				String error = DijkstraEquivalenceGrader.checkDistance(name, sources[i], targets[j],
+						ctx.getDistance(targets[j]), matrix[i][j]);
+				if (error != null) {
+					return error;
+				}
+			}
+		}
+		return null;
+	}
+
+	// Repeat the first target and make the first source a target too
+	private static void mix(int[] sources, int[] targets)
+	{
+		targets[1] = targets[0];
+		sources[0] = targets[2];
+	}
+
+	private static int[] vertices(CSRGraph g, int count, Random random)
+	{
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = random.nextInt(g.getNumVertices());
+		}
+		return ids;
+	}
+
+	private static List<GeographicPoint> points(CSRGraph g, int[] ids)
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(ids.length);
+		for (int v : ids) {
+			points.add(g.getPoint(v));
+		}
+		return points;
+	}
+}
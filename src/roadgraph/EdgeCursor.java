@@ -0,0 +1,121 @@
+/**
+ * Allocation-free iteration over the edges of a vertex
+ */
+package roadgraph;
+
+import java.util.BitSet;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Walks the outgoing (or incoming) edges of one vertex of a CSRGraph and
+ * gives the edge id, the vertex at the other end and the weight of each,
+ * read straight from the CSR arrays.  One cursor is reused for every
+ * vertex a search expands, so expanding a vertex allocates nothing and
+ * costs one step per edge, parallel edges included: every edge is seen
+ * with its own weight.
+ *
+ * Closed edges are skipped when the cursor is opened with a set of
+ * them, so the searches need no test of their own.
+ *
+ *   EdgeCursor edges = ctx.getCursor();
+ *   for (edges.open(g, v, closed); edges.next(); ) {
+ *       relax(v, edges.target(), edges.weight(), edges.edge());
+ *   }
+ *
+ * A cursor is not thread-safe; each SearchContext keeps one.
+ *
+ */
+public final class EdgeCursor
+{
+	private int[] ids;
+	private int[] ends;
+	private double[] lengths;
+	private BitSet closed;
+	private int pos;
+	private int end;
+	private int edge = -1;
+
+	/**
+	 * Start on the outgoing edges of a vertex
+	 * @param g The graph
+	 * @param v The vertex id
+	 * @param closed Edge ids to skip, or null if every edge is open
+	 * @return This cursor, before the first edge
+	 */
+	public EdgeCursor open(CSRGraph g, int v, BitSet closed)
+	{
+		this.ids = null;
+		this.ends = g.targets;
+		this.lengths = g.lengths;
+		this.closed = closed;
+		this.pos = g.offsets[v] - 1;
+		this.end = g.offsets[v + 1];
+		this.edge = -1;
+		return this;
+	}
+
+	/**
+	 * Start on the incoming edges of a vertex, for searches that run
+	 * backwards; target() is then the vertex each edge comes from
+	 * @param g The graph
+	 * @param v The vertex id
+	 * @param closed Edge ids to skip, or null if every edge is open
+	 * @return This cursor, before the first edge
+	 */
+	public EdgeCursor openIncoming(CSRGraph g, int v, BitSet closed)
+	{
+		this.ids = g.inEdges;
+		this.ends = g.sources;
+		this.lengths = g.lengths;
+		this.closed = closed;
+		this.pos = g.inOffsets[v] - 1;
+		this.end = g.inOffsets[v + 1];
+		this.edge = -1;
+		return this;
+	}
+
+	/**
+	 * Move to the next open edge
+	 * @return false once there are no more edges
+	 */
+	public boolean next()
+	{
+		while (++pos < end) {
+			int e = ids == null ? pos : ids[pos];
+			if (closed == null || !closed.get(e)) {
+				edge = e;
+				return true;
+			}
+		}
+		edge = -1;
+		return false;
+	}
+
+	/**
+	 * Get the id of the current edge
+	 * @return The edge id
+	 */
+	public int edge()
+	{
+		return edge;
+	}
+
+	/**
+	 * Get the vertex at the other end of the current edge
+	 * @return The target of an outgoing edge, the source of an incoming one
+	 */
+	public int target()
+	{
+		return ends[edge];
+	}
+
+	/**
+	 * Get the weight of the current edge
+	 * @return The edge length of the graph the cursor was opened on
+	 */
+	public double weight()
+	{
+		return lengths[edge];
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Checks the edge cursor against the adjacency of the graph
+ */
+package roadgraph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for EdgeCursor.  Opened on a vertex, a cursor must give every
+ * outgoing edge in the order of the graph, parallel edges included, each
+ * with its own target and length; opened on the incoming edges it must
+ * give every edge that ends at the vertex with the vertex it comes from.
+ * Closed edges must be skipped and nothing else, and a cursor opened on
+ * a reweighted graph must give the new weights.  Once the edges run out
+ * the cursor must stay at edge -1.  One cursor is reused for every
+ * vertex, as the searches reuse it, and walking the whole graph with it
+ * must not allocate.
+ *
+ */
+public class EdgeCursorGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int WALKS = 20;
+
+	// What a walk may allocate, for the counter itself
+	private static final long ALLOCATION_SLACK = 1024;
+
+	public EdgeCursorGrader()
+	{
+		super(4 * (MAP_FILES.length + 1) + 1);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new EdgeCursorGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			runTest(load(map), "MAP: " + map);
+		}
+		runTest(grid(24), "MAP: Grid of 24 by 24 intersections");
+
+		section("CURSOR: Allocation on " + MAP_FILES[0]);
+		CSRGraph ucsd = load(MAP_FILES[0]).getCSRGraph();
+		check("Walking every edge " + WALKS + " times allocates nothing", () -> judgeAllocation(ucsd));
+	}
+
+	// The four tests on one map
+	private void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+		CSRGraph g = map.getCSRGraph();
+		Random random = new Random(g.fingerprint());
+		EdgeCursor cursor = new SearchContext().getCursor();
+
+		check("Outgoing edges of every vertex", () -> judge(g, null, cursor, false));
+
+		check("Incoming edges of every vertex", () -> judge(g, null, cursor, true));
+
+		BitSet closed = new BitSet(g.getNumEdges());
+		for (int k = 0; k < g.getNumEdges() / 10; k++) {
+			closed.set(random.nextInt(g.getNumEdges()));
+		}
+		for (int e : new RoadClosures(g).longestEdges(g.getNumEdges() / 20 + 1)) {
+			closed.set(e);
+		}
+
+		check("Edges around closed roads", () -> {
+			String error = judge(g, closed, cursor, false);
+			return error != null ? error : judge(g, closed, cursor, true);
+		});
+
+		check("Edges of a reweighted graph around closed roads", () -> {
+			EdgeWeights.Batch batch = new EdgeWeights(g).batch();
+			for (int k = 0; k < g.getNumEdges() / 4; k++) {
+				batch.multiply(random.nextInt(g.getNumEdges()), 0.5 + 2.5 * random.nextDouble());
+			}
+			CSRGraph weighted = batch.apply().getGraph();
+			String error = judge(weighted, closed, cursor, false);
+			return error != null ? error : judge(weighted, closed, cursor, true);
+		});
+	}
+
+	// Walk the edges of every vertex with the cursor and compare them, in
+	// order, with a scan of the adjacency that skips the closed edges
+	private static String judge(CSRGraph g, BitSet closed, EdgeCursor cursor, boolean incoming)
+	{
+		String way = incoming ? "incoming" : "outgoing";
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			if (incoming) {
+				cursor.openIncoming(g, v, closed);
+			}
+			else {
+				cursor.open(g, v, closed);
+			}
+			int first = incoming ? g.firstInEdge(v) : g.firstEdge(v);
+			int end = incoming ? g.endInEdge(v) : g.endEdge(v);
+			for (int i = first; i < end; i++) {
+				int e = incoming ? g.getInEdge(i) : i;
+				if (closed != null && closed.get(e)) {
+					continue;
+				}
+				int other = incoming ? g.getSource(e) : g.getTarget(e);
+				if (!cursor.next()) {
+					return "The " + way + " edges of " + v + " stop before edge " + e + ".";
+				}
+				if (cursor.edge() != e || cursor.target() != other || cursor.weight() != g.getLength(e)) {
+					return "The " + way + " edges of " + v + " give edge " + cursor.edge() + " to "
+							+ cursor.target() + " weighing " + cursor.weight() + "; expected edge " + e
+							+ " to " + other + " weighing " + g.getLength(e) + ".";
+				}
+			}
+			if (cursor.next()) {
+				return "The " + way + " edges of " + v + " go on to edge " + cursor.edge() + ".";
+			}
+			if (cursor.next() || cursor.edge() != -1) {
+				return "After the " + way + " edges of " + v + " the cursor is at edge " + cursor.edge() + ".";
+			}
+		}
+		return null;
+	}
+
+	// Count the bytes this thread allocates while walking every edge both
+	// ways, where the virtual machine can count them
+	private static String judgeAllocation(CSRGraph g)
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long id = Thread.currentThread().getId();
+		EdgeCursor cursor = new SearchContext().getCursor();
+		BitSet closed = new BitSet(g.getNumEdges());
+		closed.set(g.getNumEdges() / 2, g.getNumEdges());
+		// Once to load every class the walk needs
+		double total = walk(g, cursor, closed);
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int w = 0; w < WALKS; w++) {
+			total += walk(g, cursor, closed);
+		}
+		long bytes = threads.getThreadAllocatedBytes(id) - before;
+		if (bytes > ALLOCATION_SLACK) {
+			return "Walking every edge " + WALKS + " times allocated " + bytes + " bytes.";
+		}
+		return total > 0 ? null : "The walks found no edge weights.";
+	}
+
+	private static double walk(CSRGraph g, EdgeCursor cursor, BitSet closed)
+	{
+		double total = 0;
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			for (cursor.open(g, v, closed); cursor.next(); ) {
+				total += cursor.weight() + cursor.target();
+			}
+			for (cursor.openIncoming(g, v, null); cursor.next(); ) {
+				total += cursor.weight() + cursor.target();
+			}
+		}
+		return total;
+	}
+}
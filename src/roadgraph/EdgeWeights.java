@@ -0,0 +1,294 @@
+/**
+ * Live edge weights, such as traffic, kept apart from the graph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The weights the searches use for the edges of a CSRGraph, which start
+ * as the edge lengths and can be scaled (a jam doubling the cost of a
+ * road) or replaced outright.  The graph is never changed.  The current
+ * weights are an immutable Snapshot: a primitive array over edge ids with
+ * a version number, and a graph that shares every array of the original
+ * except the lengths, which are these weights.  Searching that graph
+ * costs exactly what searching the original does.
+ *
+ * Updates are gathered in a Batch and applied by copy-on-write with a
+ * compare-and-set, so a whole batch becomes visible as one version and
+ * readers never wait: a query takes the snapshot once and keeps using
+ * it however the weights change meanwhile.
+ *
+ * A* and landmark searches assume that no weight is below the length of
+ * its edge.  A weight below it can make them miss the shortest path, so
+ * every snapshot says whether it has one (isAtLeastLengths), and MapGraph
+ * and RoutingEngine search such weights without the heuristic, as
+ * Dijkstra, which is exact whatever the weights.  Contraction
+ * hierarchies are built on the lengths and must not be used once the
+ * weights differ.
+ *
+ */
+public final class EdgeWeights
+{
+	private final CSRGraph graph;
+	private final AtomicReference<Snapshot> current;
+
+	/**
+	 * Start with every weight equal to the edge length
+	 * @param graph The graph whose edges are weighted
+	 */
+	public EdgeWeights(CSRGraph graph)
+	{
+		this.graph = graph;
+		this.current = new AtomicReference<Snapshot>(new Snapshot(0, graph, graph.lengths, true, true));
+	}
+
+	/**
+	 * Get the graph the weights apply to
+	 * @return The graph with the original lengths
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the weights in force now
+	 * @return The current snapshot, which never changes
+	 */
+	public Snapshot snapshot()
+	{
+		return current.get();
+	}
+
+	/**
+	 * Start a set of changes to apply together
+	 * @return An empty batch
+	 */
+	public Batch batch()
+	{
+		return new Batch();
+	}
+
+	/**
+	 * Scale the weights of some edges from their lengths, as one change
+	 * @param edges The edge ids
+	 * @param multipliers The factor for each edge, 1 to restore it
+	 * @return The snapshot with the changes applied
+	 */
+	public Snapshot update(int[] edges, double[] multipliers)
+	{
+		if (edges.length != multipliers.length) {
+			throw new IllegalArgumentException("Expected " + edges.length + " multipliers, got "
+					+ multipliers.length);
+		}
+		Batch batch = new Batch();
+		for (int i = 0; i < edges.length; i++) {
+			batch.multiply(edges[i], multipliers[i]);
+		}
+		return batch.apply();
+	}
+
+	/**
+	 * Set every weight back to the edge length
+	 * @return The snapshot with the original lengths
+	 */
+	public Snapshot reset()
+	{
+		while (true) {
+			Snapshot old = current.get();
+			Snapshot next = new Snapshot(old.version + 1, graph, graph.lengths, true, true);
+			if (current.compareAndSet(old, next)) {
+				return next;
+			}
+		}
+	}
+
+	private void checkWeight(int e, double w)
+	{
+		if (e < 0 || e >= graph.numEdges) {
+			throw new IllegalArgumentException("Edge " + e + " is not in the graph");
+		}
+		if (!(w >= 0)) {
+			throw new IllegalArgumentException("Edge " + e + " cannot weigh " + w);
+		}
+	}
+
+	/**
+	 * Changes to the weights that are published together by apply().
+	 * They take effect in the order they were added, so a later change
+	 * to an edge wins.  A batch belongs to one thread.
+	 */
+	public final class Batch
+	{
+		private int[] edges = new int[16];
+		/** The new weight, or the factor where isFactor is true */
+		private double[] values = new double[16];
+		private boolean[] isFactor = new boolean[16];
+		private int size;
+
+		private Batch() {}
+
+		/**
+		 * Scale the weight of an edge from its length
+		 * @param e The edge id
+		 * @param multiplier The factor, e.g. 2 for a road taking twice as long
+		 * @return This batch
+		 */
+		public Batch multiply(int e, double multiplier)
+		{
+			checkWeight(e, multiplier);
+			if (Double.isInfinite(multiplier)) {
+				throw new IllegalArgumentException("Use set to make edge " + e + " unusable");
+			}
+			return add(e, multiplier, true);
+		}
+
+		/**
+		 * Replace the weight of an edge
+		 * @param e The edge id
+		 * @param weight The new weight; infinity makes the edge unusable
+		 * @return This batch
+		 */
+		public Batch set(int e, double weight)
+		{
+			checkWeight(e, weight);
+			return add(e, weight, false);
+		}
+
+		/**
+		 * Set the weight of an edge back to its length
+		 * @param e The edge id
+		 * @return This batch
+		 */
+		public Batch restore(int e)
+		{
+			return multiply(e, 1);
+		}
+
+		/**
+		 * Get the number of changes in the batch
+		 * @return The number of changes added since the last apply
+		 */
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Publish the changes as one version and empty the batch
+		 * @return The snapshot with the changes applied
+		 */
+		public Snapshot apply()
+		{
+			while (true) {
+				Snapshot old = current.get();
+				double[] weights = old.weights.clone();
+				for (int i = 0; i < size; i++) {
+					int e = edges[i];
+					weights[e] = isFactor[i] ? graph.lengths[e] * values[i] : values[i];
+				}
+				boolean original = Arrays.equals(weights, graph.lengths);
+				boolean atLeastLengths = true;
+				for (int e = 0; e < weights.length && atLeastLengths; e++) {
+					atLeastLengths = weights[e] >= graph.lengths[e];
+				}
+				Snapshot next = new Snapshot(old.version + 1, graph,
+						original ? graph.lengths : weights, original, atLeastLengths);
+				if (current.compareAndSet(old, next)) {
+					size = 0;
+					return next;
+				}
+			}
+		}
+
+		private Batch add(int e, double value, boolean factor)
+		{
+			if (size == edges.length) {
+				edges = Arrays.copyOf(edges, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+				isFactor = Arrays.copyOf(isFactor, 2 * size);
+			}
+			edges[size] = e;
+			values[size] = value;
+			isFactor[size] = factor;
+			size++;
+			return this;
+		}
+	}
+
+	/**
+	 * One version of the weights.  Snapshots are immutable.
+	 */
+	public static final class Snapshot
+	{
+		private final long version;
+		private final double[] weights;
+		private final CSRGraph weighted;
+		private final boolean original;
+		private final boolean atLeastLengths;
+
+		Snapshot(long version, CSRGraph graph, double[] weights, boolean original,
+				boolean atLeastLengths)
+		{
+			this.version = version;
+			this.weights = weights;
+			this.weighted = original ? graph : graph.withLengths(weights);
+			this.original = original;
+			this.atLeastLengths = atLeastLengths;
+		}
+
+		/**
+		 * Get the version, which goes up by one with every change
+		 * published by the EdgeWeights this came from
+		 * @return The version number
+		 */
+		public long getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * Get the weight of an edge
+		 * @param e The edge id
+		 * @return The weight the searches use for e
+		 */
+		public double getWeight(int e)
+		{
+			return weights[e];
+		}
+
+		/**
+		 * Check whether every weight is the length of its edge, in which
+		 * case getGraph() is the original graph
+		 * @return true if no weight differs from its length
+		 */
+		public boolean isOriginal()
+		{
+			return original;
+		}
+
+		/**
+		 * Check whether no weight is below the length of its edge, so the
+		 * A* and landmark heuristics, which estimate by length, still never
+		 * overestimate
+		 * @return true if every weight is at least its edge length
+		 */
+		public boolean isAtLeastLengths()
+		{
+			return atLeastLengths;
+		}
+
+		/**
+		 * Get the graph to search with these weights
+		 * @return A graph whose edge lengths are the weights
+		 */
+		public CSRGraph getGraph()
+		{
+			return weighted;
+		}
+	}
+}
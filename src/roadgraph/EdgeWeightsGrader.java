@@ -0,0 +1,260 @@
+/**
+ * Checks live edge weights and the searches that use them
+ */
+package roadgraph;
+
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for EdgeWeights.  New weights are the lengths, and each batch
+ * publishes exactly one version in which its later changes win, without
+ * touching the snapshots taken before.  The flags of a snapshot must
+ * follow its weights, bad weights must be refused, and the graph of a
+ * snapshot must be the original with the weights for lengths.  Threads
+ * applying batches at once must not lose each other's changes.  On every
+ * map, the searches of MapGraph must find the paths Dijkstra finds with
+ * the weights, some of them below the lengths.
+ *
+ */
+public class EdgeWeightsGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int THREADS = 8;
+
+	private static final int ROUNDS = 200;
+
+	private static final int QUERIES = 50;
+
+	public EdgeWeightsGrader()
+	{
+		super(6 + MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new EdgeWeightsGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		CSRGraph ucsd = load("ucsd.map").getCSRGraph();
+		section("WEIGHTS: Versions and contents on " + MAP_FILES[0]);
+
+		check("New weights are the lengths", () -> {
+			EdgeWeights.Snapshot s = new EdgeWeights(ucsd).snapshot();
+			if (s.getVersion() != 0 || !s.isOriginal() || !s.isAtLeastLengths() || s.getGraph() != ucsd) {
+				return "New weights are at version " + s.getVersion() + ", original " + s.isOriginal()
+						+ ", at least the lengths " + s.isAtLeastLengths() + ".";
+			}
+			return differences(ucsd, s, new double[0][]);
+		});
+
+		check("A batch is one version and its later changes win", () -> {
+			EdgeWeights weights = new EdgeWeights(ucsd);
+			EdgeWeights.Snapshot before = weights.snapshot();
+			EdgeWeights.Batch batch = weights.batch().multiply(3, 2).set(5, 7.5).multiply(3, 4);
+			EdgeWeights.Snapshot s = batch.apply();
+			if (s.getVersion() != 1 || batch.size() != 0 || weights.snapshot() != s) {
+				return "The batch gave version " + s.getVersion() + " and kept " + batch.size() + " changes.";
+			}
+			String error = differences(ucsd, s, new double[][] {{3, 4 * ucsd.getLength(3)}, {5, 7.5}});
+			if (error == null) {
+				error = differences(ucsd, before, new double[0][]);
+			}
+			if (error == null) {
+				s = batch.restore(3).restore(5).apply();
+				if (s.getVersion() != 2 || !s.isOriginal() || s.getGraph() != ucsd) {
+					error = "Restoring every edge gave version " + s.getVersion() + ", original "
+							+ s.isOriginal() + ".";
+				}
+			}
+			return error;
+		});
+
+		check("The flags follow the weights", () -> {
+			EdgeWeights weights = new EdgeWeights(ucsd);
+			EdgeWeights.Snapshot s = weights.update(new int[] {2}, new double[] {0.5});
+			if (s.isOriginal() || s.isAtLeastLengths()) {
+				return "A weight below its length is called original " + s.isOriginal()
+						+ ", at least the lengths " + s.isAtLeastLengths() + ".";
+			}
+			s = weights.batch().restore(2).set(4, Double.POSITIVE_INFINITY).apply();
+			if (s.isOriginal() || !s.isAtLeastLengths()) {
+				return "An unusable edge is called original " + s.isOriginal()
+						+ ", at least the lengths " + s.isAtLeastLengths() + ".";
+			}
+			s = weights.reset();
+			if (s.getVersion() != 3 || !s.isOriginal() || s.getGraph() != ucsd) {
+				return "reset gave version " + s.getVersion() + ", original " + s.isOriginal() + ".";
+			}
+			return null;
+		});
+
+		check("Bad weights are refused", () -> {
+			EdgeWeights weights = new EdgeWeights(ucsd);
+			Check[] bad = {
+				() -> { weights.batch().set(0, -1); return null; },
+				() -> { weights.batch().set(0, Double.NaN); return null; },
+				() -> { weights.batch().multiply(0, Double.POSITIVE_INFINITY); return null; },
+				() -> { weights.batch().set(ucsd.getNumEdges(), 1); return null; },
+				() -> { weights.update(new int[] {0, 1}, new double[] {2}); return null; }
+			};
+			for (int i = 0; i < bad.length; i++) {
+				try {
+					bad[i].run();
+					return "Bad change " + i + " was accepted.";
+				}
+				catch (IllegalArgumentException e) {
+					// Refused, as it should be
+				}
+			}
+			return weights.snapshot().getVersion() == 0 ? null : "A refused change was published.";
+		});
+
+		check("The weighted graph is the original with new lengths", () -> {
+			EdgeWeights weights = new EdgeWeights(ucsd);
+			EdgeWeights.Batch batch = weights.batch();
+			for (int e = 0; e < ucsd.getNumEdges(); e += 2) {
+				batch.multiply(e, 1.5);
+			}
+			CSRGraph w = batch.apply().getGraph();
+			if (w.unweighted() != ucsd || w.getNumVertices() != ucsd.getNumVertices()
+					|| w.getNumEdges() != ucsd.getNumEdges()) {
+				return "The weighted graph does not have the vertices and edges of the original.";
+			}
+			for (int v = 0; v < ucsd.getNumVertices(); v++) {
+				if (w.firstEdge(v) != ucsd.firstEdge(v) || !w.getPoint(v).equals(ucsd.getPoint(v))) {
+					return "Vertex " + v + " differs in the weighted graph.";
+				}
+			}
+			for (int e = 0; e < ucsd.getNumEdges(); e++) {
+				double expected = e % 2 == 0 ? 1.5 * ucsd.getLength(e) : ucsd.getLength(e);
+				if (w.getTarget(e) != ucsd.getTarget(e) || w.getLength(e) != expected) {
+					return "Edge " + e + " leads to " + w.getTarget(e) + " with length " + w.getLength(e)
+							+ "; expected " + ucsd.getTarget(e) + " with " + expected + ".";
+				}
+			}
+			return null;
+		});
+
+		check(THREADS + " threads applying batches at once", () -> concurrentBatches(ucsd));
+
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			MapGraph graph = load(map);
+
+			check(QUERIES + " queries with reweighted roads", () -> {
+				CSRGraph g = graph.getCSRGraph();
+				Random random = new Random(g.fingerprint());
+				EdgeWeights.Batch batch = graph.getEdgeWeights().batch();
+				for (int k = 0; k < g.getNumEdges() / 4; k++) {
+					batch.multiply(random.nextInt(g.getNumEdges()), 0.5 + 2.5 * random.nextDouble());
+				}
+				CSRGraph weighted = batch.apply().getGraph();
+				return judge(graph, weighted, random);
+			});
+		}
+	}
+
+	// Multiply disjoint edges by the round number from several threads,
+	// a batch per round; the last round of every thread must be in force
+	private String concurrentBatches(CSRGraph g) throws InterruptedException
+	{
+		EdgeWeights weights = new EdgeWeights(g);
+		int each = g.getNumEdges() / THREADS;
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int first = t * each;
+			threads[t] = new Thread(() -> {
+				EdgeWeights.Batch batch = weights.batch();
+				for (int r = 1; r <= ROUNDS; r++) {
+					for (int e = first; e < first + each; e++) {
+						batch.multiply(e, r);
+					}
+					batch.apply();
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		EdgeWeights.Snapshot s = weights.snapshot();
+		if (s.getVersion() != THREADS * ROUNDS) {
+			return "After " + THREADS * ROUNDS + " batches the version is " + s.getVersion() + ".";
+		}
+		for (int e = 0; e < THREADS * each; e++) {
+			if (s.getWeight(e) != ROUNDS * g.getLength(e)) {
+				return "Edge " + e + " weighs " + s.getWeight(e) + "; expected " + ROUNDS * g.getLength(e) + ".";
+			}
+		}
+		return null;
+	}
+
+	// Compare the weights of a snapshot with the lengths, except for the
+	// listed (edge, weight) pairs
+	private static String differences(CSRGraph g, EdgeWeights.Snapshot s, double[][] changed)
+	{
+		for (int e = 0; e < g.getNumEdges(); e++) {
+			double expected = g.getLength(e);
+			for (double[] change : changed) {
+				if (change[0] == e) {
+					expected = change[1];
+				}
+			}
+			if (s.getWeight(e) != expected || s.getGraph().getLength(e) != expected) {
+				return "Edge " + e + " weighs " + s.getWeight(e) + "; expected " + expected + ".";
+			}
+		}
+		return null;
+	}
+
+	// Compare the searches of a MapGraph with Dijkstra on the weights
+	private static String judge(MapGraph graph, CSRGraph weighted, Random random)
+	{
+		SearchContext ctx = new SearchContext();
+		for (int q = 0; q < QUERIES; q++) {
+			int start = random.nextInt(weighted.getNumVertices());
+			int goal = random.nextInt(weighted.getNumVertices());
+			CSRSearch.dijkstra(weighted, start, goal, ctx, null, (x) -> {});
+			double expected = ctx.getDistance(goal);
+			GeographicPoint from = weighted.getPoint(start);
+			GeographicPoint to = weighted.getPoint(goal);
+
+			String error = checkPath("dijkstra", weighted, start, goal, expected, graph.dijkstra(from, to));
+			if (error == null) {
+				error = checkPath("aStarSearch", weighted, start, goal, expected, graph.aStarSearch(from, to));
+			}
+			if (error == null) {
+				error = checkPath("bidirectionalDijkstra", weighted, start, goal, expected,
+						graph.bidirectionalDijkstra(from, to));
+			}
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	private static String checkPath(String name, CSRGraph g, int start, int goal, double expected,
+			List<GeographicPoint> points)
+	{
+		int[] path = null;
+		if (points != null) {
+			path = new int[points.size()];
+			for (int i = 0; i < path.length; i++) {
+				path[i] = g.getId(points.get(i));
+			}
+		}
+		return DijkstraEquivalenceGrader.checkPath(name, g, start, goal, expected, path);
+	}
+}
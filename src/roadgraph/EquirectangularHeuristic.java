@@ -0,0 +1,48 @@
+/**
+ * Fast flat-earth distance heuristic
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Estimates the remaining distance by treating the earth as flat
+ * between the two points (an equirectangular projection), which costs
+ * one cosine and one square root instead of the trigonometry in
+ * GeographicPoint.distance.  The east-west component uses the latitude
+ * furthest from the equator and the result is shrunk by a small margin,
+ * so that at city scale it stays below the great circle distance and
+ * therefore admissible.
+ *
+ * It is not consistent in general.  The east-west scale depends on the
+ * latitude of v as well as the goal, so moving v north or south changes
+ * the estimate by more than the distance moved once the two are far
+ * enough apart in longitude.  A search on a RadixQueue, which needs a
+ * consistent heuristic, refuses it; use HaversineHeuristic there.
+ *
+ */
+public class EquirectangularHeuristic implements Heuristic
+{
+	/** Radius of the earth in km, as in GeographicPoint */
+	private static final double R = 6373;
+
+	/** Safety factor keeping the projection below the great circle */
+	private static final double MARGIN = 0.999;
+
+	@Override
+	public double estimate(CSRGraph g, int v, int goal)
+	{
+		double lat1 = g.latitudes[v];
+		double lat2 = g.latitudes[goal];
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(g.longitudes[goal] - g.longitudes[v])
+				* Math.cos(Math.toRadians(Math.max(Math.abs(lat1), Math.abs(lat2))));
+		return MARGIN * R * Math.sqrt(dLat * dLat + dLon * dLon);
+	}
+
+	@Override
+	public boolean isConsistent()
+	{
+		return false;
+	}
+}
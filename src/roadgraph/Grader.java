@@ -0,0 +1,194 @@
+/**
+ * Common skeleton of the graders of the routing code
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The part every grader of the routing code shares, in the format of the
+ * course graders: numbered tests that each pass or fail with a reason,
+ * then a score line and the feedback.  A grader runs its tests in
+ * runTests, announcing each one with begin and reporting it with end, or
+ * doing both with check.
+ *
+ */
+public abstract class Grader implements Runnable
+{
+	/** One test, which says what is wrong or returns null if nothing is */
+	public interface Check
+	{
+		/**
+		 * @return What went wrong, or null if the test passed
+		 * @throws Exception If the code under test failed; the test fails
+		 *   with the exception
+		 */
+		String run() throws Exception;
+	}
+
+	public String feedback;
+
+	public int correct;
+
+	private final int tests;
+
+	private int number;
+
+	/**
+	 * @param tests The number of tests the grader runs
+	 */
+	protected Grader(int tests)
+	{
+		this.tests = tests;
+	}
+
+	/** Format readable feedback */
+	public static String printOutput(double score, String feedback)
+	{
+		return "Score: " + score + "\nFeedback: " + feedback;
+	}
+
+	/** Format test number and description */
+	public static String appendFeedback(int num, String test)
+	{
+		return "\n** Test #" + num + ": " + test + "...";
+	}
+
+	/** Run a grader on its own thread, giving up on it after 60 seconds.
+	 * @param grader The grader to run
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public static void grade(Grader grader) throws InterruptedException
+	{
+		// Infinite loop detection
+		Thread thread = new Thread(grader);
+		thread.setDaemon(true);
+		thread.start();
+		thread.join(60000);
+		if (thread.isAlive()) {
+			System.out.println(printOutput((double)grader.correct / grader.tests, grader.feedback + "\nYour program entered an infinite loop."));
+		}
+	}
+
+	/** Run every test of the grader.
+	 * @throws Exception If a test could not be set up
+	 */
+	protected abstract void runTests() throws Exception;
+
+	/** Start a group of tests, such as the tests on one map.
+	 * @param desc A description of the group
+	 */
+	protected void section(String desc)
+	{
+		feedback += "\n\n" + desc;
+	}
+
+	/** Start the next test.
+	 * @param test A description of the test
+	 */
+	protected void begin(String test)
+	{
+		feedback += appendFeedback(++number, test);
+	}
+
+	/** Report the outcome of the test begun last.
+	 * @param error What went wrong, or null if the test passed
+	 */
+	protected void end(String error)
+	{
+		if (error == null) {
+			feedback += "PASSED.";
+			correct++;
+		}
+		else {
+			feedback += "FAILED. " + error;
+		}
+	}
+
+	/** Run one test from start to end.
+	 * @param test A description of the test
+	 * @param check The test
+	 */
+	protected void check(String test, Check check)
+	{
+		begin(test);
+		String error;
+		try {
+			error = check.run();
+		}
+		catch (Exception e) {
+			error = "Threw " + e + ".";
+		}
+		end(error);
+	}
+
+	/** Load one of the bundled maps.
+	 * @param file The file in data/maps
+	 * @return The map
+	 */
+	public static MapGraph load(String file)
+	{
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/maps/" + file, map);
+		return map;
+	}
+
+	/** Build a square grid of two-way roads that all have the same length.
+	 * The roads are longer than the straight line between their ends, so
+	 * heuristics stay admissible.
+	 * @param size The number of intersections along a side
+	 * @return The map
+	 */
+	public static MapGraph grid(int size)
+	{
+		MapGraph map = new MapGraph();
+		GeographicPoint[][] points = new GeographicPoint[size][size];
+		for (int r = 0; r < size; r++) {
+			for (int c = 0; c < size; c++) {
+				points[r][c] = new GeographicPoint(32.8 + r * 0.001, -117.2 + c * 0.001);
+				map.addVertex(points[r][c]);
+			}
+		}
+		for (int r = 0; r < size; r++) {
+			for (int c = 0; c < size; c++) {
+				if (c + 1 < size) {
+					map.addEdge(points[r][c], points[r][c + 1], "grid", "residential", 0.2);
+					map.addEdge(points[r][c + 1], points[r][c], "grid", "residential", 0.2);
+				}
+				if (r + 1 < size) {
+					map.addEdge(points[r][c], points[r + 1][c], "grid", "residential", 0.2);
+					map.addEdge(points[r + 1][c], points[r][c], "grid", "residential", 0.2);
+				}
+			}
+		}
+		return map;
+	}
+
+	/** Run the grader */
+	public void run()
+	{
+		feedback = "";
+
+		correct = 0;
+
+		number = 0;
+
+		try {
+			runTests();
+
+			if (correct == tests)
+				feedback = "All tests passed. Great job!" + feedback;
+			else
+				feedback = "Some tests failed. Check your code for errors, then try again:" + feedback;
+
+		} catch (Exception e) {
+			feedback += "\nError during runtime: " + e;
+			e.printStackTrace();
+		}
+
+		System.out.println(printOutput((double)correct / tests, feedback));
+	}
+}
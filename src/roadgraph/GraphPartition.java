@@ -0,0 +1,280 @@
+/**
+ * Multilevel partition of a road graph into geographic cells
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Splits the vertices of a CSRGraph into nested cells on several levels,
+ * the metric-independent half of customizable route planning (see
+ * PartitionOverlay).  Level 0 has the smallest cells and every cell of a
+ * level lies inside one cell of the next.
+ *
+ * The cells come from recursive bisection on the coordinates: the
+ * vertices of a cell are split at the median of the longer side of their
+ * bounding box, so each split is a straight east-west or north-south cut
+ * through roughly the middle of the area.  Bisecting d times gives 2^d
+ * cells of at most ceil(n / 2^d) vertices; every level bisects as often
+ * as its cell size needs and keeps the cells of that depth.
+ *
+ * A vertex is a boundary vertex of a level when one of its edges, in
+ * either direction, joins it to another cell of that level.  The
+ * boundary vertices of each cell are numbered from 0, which is how the
+ * overlay stores the distances between them.  The partition depends on
+ * the coordinates alone, so it is built once and serves every set of
+ * edge weights.
+ *
+ */
+public final class GraphPartition
+{
+	/** Cell sizes used when none are given, smallest level first */
+	public static final int[] DEFAULT_CELL_SIZES = {64, 512, 4096, 32768};
+
+	private final CSRGraph graph;
+	private final int levels;
+	/** cell[l][v] is the cell of vertex v on level l */
+	final int[][] cell;
+	final int[] cellCount;
+	/** The boundary vertices of cell c of level l are
+	 * boundary[l][boundaryOffsets[l][c]] .. boundary[l][boundaryOffsets[l][c+1]-1] */
+	final int[][] boundaryOffsets;
+	final int[][] boundary;
+	/** boundaryIndex[l][v] is the number of v among the boundary vertices
+	 * of its cell on level l, or -1 if v is not on the boundary */
+	final int[][] boundaryIndex;
+
+	/**
+	 * Partition a graph with the default cell sizes
+	 * @param g The graph to partition
+	 */
+	public GraphPartition(CSRGraph g)
+	{
+		this(g, DEFAULT_CELL_SIZES);
+	}
+
+	/**
+	 * Partition a graph.  Levels that would cut no more finely than the
+	 * next (such as a single cell for the whole graph) are left out.
+	 * @param g The graph to partition
+	 * @param cellSizes The largest number of vertices in a cell of each
+	 *   level, in increasing order
+	 */
+	public GraphPartition(CSRGraph g, int[] cellSizes)
+	{
+		int n = g.numVertices;
+		int[] depths = new int[cellSizes.length];
+		int count = 0;
+		for (int i = 0; i < cellSizes.length; i++) {
+			if (cellSizes[i] < 1 || (i > 0 && cellSizes[i] <= cellSizes[i - 1])) {
+				throw new IllegalArgumentException("Cell sizes must be positive and increasing");
+			}
+			int depth = 0;
+			while ((n + (1L << depth) - 1) >> depth > cellSizes[i]) {
+				depth++;
+			}
+			if (depth > 0 && (count == 0 || depth < depths[count - 1])) {
+				depths[count++] = depth;
+			}
+		}
+		graph = g;
+		levels = count;
+
+		int[] code = new int[n];
+		if (levels > 0) {
+			int[] order = new int[n];
+			for (int v = 0; v < n; v++) {
+				order[v] = v;
+			}
+			bisect(order, new double[n], code, 0, n, depths[0], 0);
+		}
+
+		cell = new int[levels][];
+		cellCount = new int[levels];
+		boundaryOffsets = new int[levels][];
+		boundary = new int[levels][];
+		boundaryIndex = new int[levels][];
+		for (int l = 0; l < levels; l++) {
+			int shift = depths[0] - depths[l];
+			cellCount[l] = 1 << depths[l];
+			cell[l] = new int[n];
+			for (int v = 0; v < n; v++) {
+				cell[l][v] = code[v] >>> shift;
+			}
+			findBoundary(l);
+		}
+	}
+
+	// Split order[lo..hi) in two at the median of the longer side and
+	// carry on until depth bits of cell code have been given out
+	private void bisect(int[] order, double[] key, int[] code, int lo, int hi, int depth, int prefix)
+	{
+		if (depth == 0 || hi - lo < 2) {
+			for (int i = lo; i < hi; i++) {
+				code[order[i]] = prefix << depth;
+			}
+			return;
+		}
+		double latLo = Double.POSITIVE_INFINITY, latHi = Double.NEGATIVE_INFINITY;
+		double lonLo = Double.POSITIVE_INFINITY, lonHi = Double.NEGATIVE_INFINITY;
+		for (int i = lo; i < hi; i++) {
+			int v = order[i];
+			latLo = Math.min(latLo, graph.latitudes[v]);
+			latHi = Math.max(latHi, graph.latitudes[v]);
+			lonLo = Math.min(lonLo, graph.longitudes[v]);
+			lonHi = Math.max(lonHi, graph.longitudes[v]);
+		}
+		// A degree of longitude shrinks with the cosine of the latitude
+		double lonScale = Math.cos(Math.toRadians((latLo + latHi) / 2));
+		boolean byLatitude = latHi - latLo >= (lonHi - lonLo) * lonScale;
+		for (int i = lo; i < hi; i++) {
+			int v = order[i];
+			key[v] = byLatitude ? graph.latitudes[v] : graph.longitudes[v];
+		}
+		int mid = (lo + hi) >>> 1;
+		select(order, key, lo, hi - 1, mid);
+		bisect(order, key, code, lo, mid, depth - 1, prefix << 1);
+		bisect(order, key, code, mid, hi, depth - 1, (prefix << 1) | 1);
+	}
+
+	// Rearrange order[lo..hi] so that order[k] has the key it would have
+	// if sorted, with no larger key before it and no smaller one after
+	private static void select(int[] order, double[] key, int lo, int hi, int k)
+	{
+		while (lo < hi) {
+			double pivot = key[order[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (key[order[i]] < pivot) i++;
+				while (key[order[j]] > pivot) j--;
+				if (i <= j) {
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	// Find and number the boundary vertices of every cell of a level
+	private void findBoundary(int l)
+	{
+		int n = graph.numVertices;
+		int[] c = cell[l];
+		boolean[] onBoundary = new boolean[n];
+		for (int e = 0; e < graph.numEdges; e++) {
+			int u = graph.sources[e];
+			int v = graph.targets[e];
+			if (c[u] != c[v]) {
+				onBoundary[u] = true;
+				onBoundary[v] = true;
+			}
+		}
+		int[] offsets = new int[cellCount[l] + 1];
+		for (int v = 0; v < n; v++) {
+			if (onBoundary[v]) {
+				offsets[c[v] + 1]++;
+			}
+		}
+		for (int k = 0; k < cellCount[l]; k++) {
+			offsets[k + 1] += offsets[k];
+		}
+		int[] vertices = new int[offsets[cellCount[l]]];
+		int[] index = new int[n];
+		Arrays.fill(index, -1);
+		int[] fill = new int[cellCount[l]];
+		for (int v = 0; v < n; v++) {
+			if (onBoundary[v]) {
+				index[v] = fill[c[v]]++;
+				vertices[offsets[c[v]] + index[v]] = v;
+			}
+		}
+		boundaryOffsets[l] = offsets;
+		boundary[l] = vertices;
+		boundaryIndex[l] = index;
+	}
+
+	/**
+	 * Get the graph this partition was built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the number of levels
+	 * @return The number of levels, 0 if the graph fits in one cell
+	 */
+	public int getLevelCount()
+	{
+		return levels;
+	}
+
+	/**
+	 * Get the number of cells on a level
+	 * @param level The level, 0 for the smallest cells
+	 * @return The number of cells
+	 */
+	public int getCellCount(int level)
+	{
+		return cellCount[level];
+	}
+
+	/**
+	 * Get the cell a vertex lies in
+	 * @param level The level, 0 for the smallest cells
+	 * @param v The vertex id
+	 * @return The cell number, from 0 to getCellCount(level) - 1
+	 */
+	public int getCell(int level, int v)
+	{
+		return cell[level][v];
+	}
+
+	/**
+	 * Check whether a vertex has an edge into another cell
+	 * @param level The level, 0 for the smallest cells
+	 * @param v The vertex id
+	 * @return true if v is a boundary vertex of its cell on that level
+	 */
+	public boolean isBoundary(int level, int v)
+	{
+		return boundaryIndex[level][v] >= 0;
+	}
+
+	/**
+	 * Get the boundary vertices of a cell
+	 * @param level The level, 0 for the smallest cells
+	 * @param c The cell number
+	 * @return A copy of their ids, in increasing order
+	 */
+	public int[] getBoundary(int level, int c)
+	{
+		return Arrays.copyOfRange(boundary[level], boundaryOffsets[level][c],
+				boundaryOffsets[level][c + 1]);
+	}
+
+	/**
+	 * Get the number of boundary vertices on a level
+	 * @param level The level, 0 for the smallest cells
+	 * @return The number of vertices with an edge into another cell
+	 */
+	public int getBoundaryCount(int level)
+	{
+		return boundary[level].length;
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Straight line distance heuristic
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Estimates the remaining distance with the great circle distance from
+ * GeographicPoint.distance.  Every road segment is at least as long as
+ * the great circle between its ends, so the estimate is admissible and
+ * consistent.
+ *
+ */
+public class HaversineHeuristic implements Heuristic
+{
+	@Override
+	public double estimate(CSRGraph g, int v, int goal)
+	{
+		return g.getPoint(v).distance(g.getPoint(goal));
+	}
+
+	@Override
+	public boolean isConsistent()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Remaining-distance estimates for A* search
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Estimates the length of the shortest path from a vertex to the goal
+ * of an A* search.  The estimate must never be larger than the real
+ * distance (admissible), otherwise A* can return a path that is not
+ * the shortest.  Implementations are shared between threads, so they
+ * must not keep any per-query state.
+ *
+ * A consistent estimate never drops by more than the length of an edge,
+ * so the keys A* polls never decrease.  Only consistent heuristics can
+ * be used with a RadixQueue, which needs monotone keys.
+ *
+ */
+public interface Heuristic
+{
+	/** Always estimates 0, which turns A* into Dijkstra's algorithm */
+	Heuristic ZERO = new Heuristic() {
+		@Override
+		public double estimate(CSRGraph g, int v, int goal)
+		{
+			return 0;
+		}
+
+		@Override
+		public boolean isConsistent()
+		{
+			return true;
+		}
+	};
+
+	/**
+	 * Estimate the distance from a vertex to the goal
+	 * @param g The graph being searched
+	 * @param v The vertex id
+	 * @param goal The id of the goal vertex
+	 * @return A lower bound on the length in km of the shortest path
+	 *   from v to goal
+	 */
+	double estimate(CSRGraph g, int v, int goal);
+
+	/**
+	 * Whether the estimate is consistent on every graph: for an edge
+	 * from u to v, estimate(u) is at most its length plus estimate(v)
+	 * @return true if consistency is guaranteed
+	 */
+	default boolean isConsistent()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Hub labels for distance queries without a search
+ */
+package roadgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A hub labeling of a CSRGraph: every vertex v has a forward label, a
+ * list of hubs h with the distance v -> h, and a backward label with the
+ * distances h -> v.  For any two vertices the labels of the start and
+ * the goal share a hub on a shortest path between them, so
+ *
+ *   d(s, t) = min over common hubs h of forward(s)[h] + backward(t)[h]
+ *
+ * and a query is one linear merge of two lists sorted by hub id, with no
+ * search and no per-query state.
+ *
+ * The labels come from a ContractionHierarchy: the forward label of v is
+ * the upward search space of v and the backward label its backward
+ * search space, which always meet at the highest vertex of a shortest
+ * path.  Entries whose distance is longer than the true distance (found
+ * by querying the unpruned labels) can never give the minimum and are
+ * pruned, which leaves most labels several times smaller.
+ *
+ * Labels are kept in primitive buffers: wrapped arrays when built, or a
+ * read-only memory mapping of the file written by save, so loading an
+ * index costs no parsing and the operating system shares its pages
+ * between processes.  Big-endian file layout:
+ *
+ * <pre>
+ *   int    magic "HUBL", int version, long graph fingerprint
+ *   int    vertices n, int forward entries f, int backward entries b
+ *   n+1 x  int forward offset
+ *   f x    int forward hub
+ *   n+1 x  int backward offset
+ *   b x    int backward hub
+ *   f x    double forward distance
+ *   b x    double backward distance
+ * </pre>
+ *
+ * Like the hierarchy, the labels hold for the edge lengths they were
+ * built with; closures and edge weights are not applied.
+ *
+ */
+public final class HubLabels
+{
+	/** "HUBL" */
+	private static final int MAGIC = 0x4855424c;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 28;
+	/** Entries are only pruned when another hub is shorter by more than
+	 * this, in km, so rounding can never remove the hub a query needs */
+	private static final double EPSILON = 1e-9;
+	/** Appended to the map file name to name the saved labels */
+	public static final String FILE_SUFFIX = ".hublabels";
+
+	private final CSRGraph graph;
+	private final IntBuffer fwdOffsets;
+	private final IntBuffer fwdHubs;
+	private final DoubleBuffer fwdDistances;
+	private final IntBuffer bwdOffsets;
+	private final IntBuffer bwdHubs;
+	private final DoubleBuffer bwdDistances;
+
+	private HubLabels(CSRGraph graph, IntBuffer fwdOffsets, IntBuffer fwdHubs,
+			DoubleBuffer fwdDistances, IntBuffer bwdOffsets, IntBuffer bwdHubs,
+			DoubleBuffer bwdDistances)
+	{
+		this.graph = graph;
+		this.fwdOffsets = fwdOffsets;
+		this.fwdHubs = fwdHubs;
+		this.fwdDistances = fwdDistances;
+		this.bwdOffsets = bwdOffsets;
+		this.bwdHubs = bwdHubs;
+		this.bwdDistances = bwdDistances;
+	}
+
+	/**
+	 * Compute the labels from a contraction hierarchy
+	 * @param ch The hierarchy of the graph to label
+	 * @param pool The threads to compute with
+	 * @return The labels
+	 */
+	public static HubLabels build(ContractionHierarchy ch, ForkJoinPool pool)
+	{
+		CSRGraph g = ch.getGraph();
+		int n = g.numVertices;
+		int[][] fwdHub = new int[n][];
+		double[][] fwdDist = new double[n][];
+		int[][] bwdHub = new int[n][];
+		double[][] bwdDist = new double[n][];
+		ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, n).parallel().forEach(v -> {
+				SearchContext ctx = contexts.get();
+				searchSpace(ch, v, true, ctx, fwdHub, fwdDist);
+				searchSpace(ch, v, false, ctx, bwdHub, bwdDist);
+			});
+		}));
+
+		// Entries v -> h that some other hub beats; decided on the unpruned
+		// labels, which give exact distances
+		int[][] fwdKeep = new int[n][];
+		int[][] bwdKeep = new int[n][];
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, n).parallel().forEach(v -> {
+				fwdKeep[v] = exactEntries(fwdHub[v], fwdDist[v], v, true, fwdHub, fwdDist, bwdHub, bwdDist);
+				bwdKeep[v] = exactEntries(bwdHub[v], bwdDist[v], v, false, fwdHub, fwdDist, bwdHub, bwdDist);
+			});
+		}));
+
+		int[] fOffsets = new int[n + 1];
+		int[] bOffsets = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			fOffsets[v + 1] = fOffsets[v] + fwdKeep[v].length;
+			bOffsets[v + 1] = bOffsets[v] + bwdKeep[v].length;
+		}
+		int[] fHubs = new int[fOffsets[n]];
+		double[] fDists = new double[fOffsets[n]];
+		int[] bHubs = new int[bOffsets[n]];
+		double[] bDists = new double[bOffsets[n]];
+		for (int v = 0; v < n; v++) {
+			for (int k = 0; k < fwdKeep[v].length; k++) {
+				fHubs[fOffsets[v] + k] = fwdHub[v][fwdKeep[v][k]];
+				fDists[fOffsets[v] + k] = fwdDist[v][fwdKeep[v][k]];
+			}
+			for (int k = 0; k < bwdKeep[v].length; k++) {
+				bHubs[bOffsets[v] + k] = bwdHub[v][bwdKeep[v][k]];
+				bDists[bOffsets[v] + k] = bwdDist[v][bwdKeep[v][k]];
+			}
+		}
+		return new HubLabels(g, IntBuffer.wrap(fOffsets), IntBuffer.wrap(fHubs),
+				DoubleBuffer.wrap(fDists), IntBuffer.wrap(bOffsets), IntBuffer.wrap(bHubs),
+				DoubleBuffer.wrap(bDists));
+	}
+
+	// The search space of one side of v, sorted by hub id
+	private static void searchSpace(ContractionHierarchy ch, int v, boolean up, SearchContext ctx,
+			int[][] hubs, double[][] distances)
+	{
+		ContractionHierarchy.IntList settled = ch.upwardSweep(v, up, ctx);
+		long[] order = new long[settled.size];
+		for (int k = 0; k < settled.size; k++) {
+			order[k] = (long) settled.items[k] << 32 | k;
+		}
+		Arrays.sort(order);
+		int[] h = new int[order.length];
+		double[] d = new double[order.length];
+		for (int k = 0; k < order.length; k++) {
+			h[k] = (int) (order[k] >>> 32);
+			d[k] = ctx.getDistance(h[k]);
+		}
+		hubs[v] = h;
+		distances[v] = d;
+	}
+
+	// The positions in v's label of the entries no shorter path beats
+	private static int[] exactEntries(int[] hubs, double[] dist, int v, boolean forward,
+			int[][] fwdHub, double[][] fwdDist, int[][] bwdHub, double[][] bwdDist)
+	{
+		int[] keep = new int[hubs.length];
+		int count = 0;
+		for (int k = 0; k < hubs.length; k++) {
+			int h = hubs[k];
+			double exact = forward
+					? merge(fwdHub[v], fwdDist[v], bwdHub[h], bwdDist[h])
+					: merge(fwdHub[h], fwdDist[h], bwdHub[v], bwdDist[v]);
+			if (dist[k] <= exact + EPSILON) {
+				keep[count++] = k;
+			}
+		}
+		return Arrays.copyOf(keep, count);
+	}
+
+	private static double merge(int[] aHubs, double[] aDist, int[] bHubs, double[] bDist)
+	{
+		double best = Double.POSITIVE_INFINITY;
+		int i = 0;
+		int j = 0;
+		while (i < aHubs.length && j < bHubs.length) {
+			if (aHubs[i] < bHubs[j]) {
+				i++;
+			} else if (aHubs[i] > bHubs[j]) {
+				j++;
+			} else {
+				best = Math.min(best, aDist[i++] + bDist[j++]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Get the graph the labels were built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Find the length of the shortest path between two vertices
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @return The distance in km, or infinity if goal cannot be reached
+	 */
+	public double distance(int start, int goal)
+	{
+		int i = fwdOffsets.get(start);
+		int iEnd = fwdOffsets.get(start + 1);
+		int j = bwdOffsets.get(goal);
+		int jEnd = bwdOffsets.get(goal + 1);
+		double best = Double.POSITIVE_INFINITY;
+		while (i < iEnd && j < jEnd) {
+			int a = fwdHubs.get(i);
+			int b = bwdHubs.get(j);
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				double d = fwdDistances.get(i++) + bwdDistances.get(j++);
+				if (d < best) {
+					best = d;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Get the size of the forward label of a vertex
+	 * @param v The vertex id
+	 * @return The number of hubs v has distances to
+	 */
+	public int getForwardLabelSize(int v)
+	{
+		return fwdOffsets.get(v + 1) - fwdOffsets.get(v);
+	}
+
+	/**
+	 * Get the size of the backward label of a vertex
+	 * @param v The vertex id
+	 * @return The number of hubs with distances to v
+	 */
+	public int getBackwardLabelSize(int v)
+	{
+		return bwdOffsets.get(v + 1) - bwdOffsets.get(v);
+	}
+
+	/**
+	 * Get the number of entries in all the labels
+	 * @return The number of forward plus backward entries
+	 */
+	public long getEntryCount()
+	{
+		return (long) fwdHubs.limit() + bwdHubs.limit();
+	}
+
+	/**
+	 * Write the labels to a file that load can map
+	 * @param file The file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save(File file) throws IOException
+	{
+		int n = graph.numVertices;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(graph.fingerprint());
+			out.writeInt(n);
+			out.writeInt(fwdHubs.limit());
+			out.writeInt(bwdHubs.limit());
+			for (int v = 0; v <= n; v++) {
+				out.writeInt(fwdOffsets.get(v));
+			}
+			for (int k = 0; k < fwdHubs.limit(); k++) {
+				out.writeInt(fwdHubs.get(k));
+			}
+			for (int v = 0; v <= n; v++) {
+				out.writeInt(bwdOffsets.get(v));
+			}
+			for (int k = 0; k < bwdHubs.limit(); k++) {
+				out.writeInt(bwdHubs.get(k));
+			}
+			for (int k = 0; k < fwdDistances.limit(); k++) {
+				out.writeDouble(fwdDistances.get(k));
+			}
+			for (int k = 0; k < bwdDistances.limit(); k++) {
+				out.writeDouble(bwdDistances.get(k));
+			}
+		}
+	}
+
+	/**
+	 * Map labels written by save into memory.  Nothing is copied: queries
+	 * read the mapped file.
+	 * @param file The file to map
+	 * @param g The graph the labels are for
+	 * @return The labels
+	 * @throws IOException If the file cannot be read, is not a hub label
+	 *   file, or was written for a different graph
+	 */
+	public static HubLabels load(File file, CSRGraph g) throws IOException
+	{
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.limit() < HEADER_BYTES || in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+			throw new IOException(file + " is not a hub label file of version " + VERSION);
+		}
+		if (in.getLong(8) != g.fingerprint()) {
+			throw new IOException(file + " was written for a different graph");
+		}
+		int n = in.getInt(16);
+		int f = in.getInt(20);
+		int b = in.getInt(24);
+		long expected = HEADER_BYTES + 4L * (2 * (n + 1) + f + b) + 8L * (f + b);
+		if (n != g.numVertices || in.limit() != expected) {
+			throw new IOException(file + " is truncated or damaged");
+		}
+		int at = HEADER_BYTES;
+		IntBuffer fOffsets = ints(in, at, n + 1);
+		at += 4 * (n + 1);
+		IntBuffer fHubs = ints(in, at, f);
+		at += 4 * f;
+		IntBuffer bOffsets = ints(in, at, n + 1);
+		at += 4 * (n + 1);
+		IntBuffer bHubs = ints(in, at, b);
+		at += 4 * b;
+		DoubleBuffer fDists = doubles(in, at, f);
+		at += 8 * f;
+		DoubleBuffer bDists = doubles(in, at, b);
+		return new HubLabels(g, fOffsets, fHubs, fDists, bOffsets, bHubs, bDists);
+	}
+
+	private static IntBuffer ints(ByteBuffer in, int at, int count)
+	{
+		ByteBuffer slice = in.duplicate();
+		slice.position(at).limit(at + 4 * count);
+		return slice.slice().asIntBuffer();
+	}
+
+	private static DoubleBuffer doubles(ByteBuffer in, int at, int count)
+	{
+		ByteBuffer slice = in.duplicate();
+		slice.position(at).limit(at + 8 * count);
+		return slice.slice().asDoubleBuffer();
+	}
+
+	/**
+	 * Map the labels saved next to a map file, or build them and save
+	 * them there if they are missing or stale
+	 * @param g The graph loaded from the map file
+	 * @param mapFile The name of the map file
+	 * @param hierarchy Gives the contraction hierarchy of g; only called
+	 *   if the labels have to be built
+	 * @param pool The threads to build with
+	 * @return The labels
+	 */
+	public static HubLabels loadOrBuild(CSRGraph g, String mapFile,
+			Supplier<ContractionHierarchy> hierarchy, ForkJoinPool pool)
+	{
+		File file = new File(mapFile + FILE_SUFFIX);
+		if (file.exists()) {
+			try {
+				return load(file, g);
+			}
+			catch (IOException e) {
+				System.out.println("Rebuilding hub labels: " + e.getMessage());
+			}
+		}
+		HubLabels labels = build(hierarchy.get(), pool);
+		try {
+			labels.save(file);
+		}
+		catch (IOException e) {
+			System.out.println("Could not save hub labels to " + file + ": " + e.getMessage());
+		}
+		return labels;
+	}
+}
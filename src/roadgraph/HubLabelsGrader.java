@@ -0,0 +1,37 @@
+/**
+ * Checks hub label distances against Dijkstra
+ */
+package roadgraph;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the hub labels, which give distances but no paths.  The
+ * labels only know the edge lengths, so RoutingEngine.distance merges
+ * its labels while the weights are the lengths and searches otherwise;
+ * it must agree with Dijkstra either way.  It has no way to avoid closed
+ * roads, so only the labels are checked around them.
+ *
+ */
+public class HubLabelsGrader extends DijkstraEquivalenceGrader
+{
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new HubLabelsGrader());
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		HubLabels labels = HubLabels.build(new ContractionHierarchy(g), ForkJoinPool.commonPool());
+		return new Technique("Hub label", null, labels::distance);
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		return closures.isEmpty() ? new Technique("Engine", null, engine::distance) : null;
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Indexed d-ary heap of vertex ids
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * An array-based d-ary min heap of vertex ids with a position index, so
+ * a vertex that is already queued can have its key decreased in place.
+ * Arity 2 gives the textbook binary heap; arity 4 gives a shallower tree
+ * whose children share a cache line, which is usually faster for
+ * Dijkstra where pushes and decrease-keys outnumber polls.
+ *
+ */
+public final class IndexedHeap implements VertexQueue
+{
+	private final int arity;
+	/** Vertex ids in heap order */
+	private int[] heap;
+	/** Key of the vertex at each heap position */
+	private double[] keys;
+	/** Heap position of every vertex, or -1 if it is not queued */
+	private int[] pos;
+	private int size;
+
+	/**
+	 * Create an empty heap
+	 * @param arity The number of children per node (2 or more)
+	 */
+	public IndexedHeap(int arity)
+	{
+		if (arity < 2) {
+			throw new IllegalArgumentException("Heap arity must be at least 2");
+		}
+		this.arity = arity;
+		heap = new int[0];
+		keys = new double[0];
+		pos = new int[0];
+	}
+
+	@Override
+	public void reset(int numVertices)
+	{
+		if (pos.length < numVertices) {
+			heap = new int[numVertices];
+			keys = new double[numVertices];
+			pos = new int[numVertices];
+			Arrays.fill(pos, -1);
+		}
+		else {
+			// Only the vertices left over from the last search are marked
+			for (int i = 0; i < size; i++) {
+				pos[heap[i]] = -1;
+			}
+		}
+		size = 0;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public boolean contains(int v)
+	{
+		return pos[v] >= 0;
+	}
+
+	@Override
+	public void push(int v, double key)
+	{
+		int i = pos[v];
+		if (i < 0) {
+			i = size++;
+		}
+		else if (key > keys[i]) {
+			throw new IllegalArgumentException("Cannot increase the key of vertex " + v);
+		}
+		siftUp(i, v, key);
+	}
+
+	@Override
+	public double minKey()
+	{
+		return keys[0];
+	}
+
+	@Override
+	public int pollMin()
+	{
+		int min = heap[0];
+		pos[min] = -1;
+		size--;
+		if (size > 0) {
+			siftDown(0, heap[size], keys[size]);
+		}
+		return min;
+	}
+
+	// Move v up from position i until its parent's key is not larger
+	private void siftUp(int i, int v, double key)
+	{
+		while (i > 0) {
+			int parent = (i - 1) / arity;
+			if (keys[parent] <= key) {
+				break;
+			}
+			place(i, heap[parent], keys[parent]);
+			i = parent;
+		}
+		place(i, v, key);
+	}
+
+	// Move v down from position i until no child has a smaller key
+	private void siftDown(int i, int v, double key)
+	{
+		while (true) {
+			int first = i * arity + 1;
+			if (first >= size) {
+				break;
+			}
+			int last = Math.min(first + arity, size);
+			int best = first;
+			for (int c = first + 1; c < last; c++) {
+				if (keys[c] < keys[best]) {
+					best = c;
+				}
+			}
+			if (keys[best] >= key) {
+				break;
+			}
+			place(i, heap[best], keys[best]);
+			i = best;
+		}
+		place(i, v, key);
+	}
+
+	private void place(int i, int v, double key)
+	{
+		heap[i] = v;
+		keys[i] = key;
+		pos[v] = i;
+	}
+}
@@ -0,0 +1,305 @@
+/**
+ * Reachable-area polygons from a shortest path tree
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Turns a ShortestPathTree into isochrones: for each distance band, the
+ * polygons covering every place on the road network that lies within
+ * that distance of the source.
+ *
+ * The area around the source is cut into a grid of square cells.  Every
+ * edge leaving a reached vertex is walked in steps of half a cell, as far
+ * as the band allows, and each cell it passes through is marked with the
+ * first band that reaches it.  The cells of a band are then grown by one
+ * cell in every direction, so that parallel streets a block apart merge
+ * into one area, and the outline of the marked cells is traced into
+ * rings.  Edges are walked as straight lines between their intersections.
+ *
+ * Rings are lists of corners in longitude/latitude order around the
+ * area: outer boundaries run counterclockwise and the boundaries of holes
+ * clockwise.  The last corner joins back to the first.
+ *
+ */
+public final class IsochroneBuilder
+{
+	/** Radius of the earth in km, as used by GeographicPoint.distance */
+	private static final double R = 6373;
+	/** Directions of the grid, counterclockwise from east */
+	private static final int[] DX = {1, 0, -1, 0};
+	private static final int[] DY = {0, 1, 0, -1};
+
+	private final double cellSize;
+
+	/**
+	 * Create a builder
+	 * @param cellSize The side of a grid cell in km; smaller cells give
+	 *   finer outlines and cost more
+	 */
+	public IsochroneBuilder(double cellSize)
+	{
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("The cell size must be positive");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Build the isochrones of a tree
+	 * @param tree The shortest paths from the source; it should reach at
+	 *   least as far as the largest band
+	 * @param bands The distances in km, in increasing order
+	 * @return One isochrone per band, in the same order
+	 */
+	public List<Isochrone> build(ShortestPathTree tree, double[] bands)
+	{
+		for (int b = 1; b < bands.length; b++) {
+			if (bands[b] < bands[b - 1]) {
+				throw new IllegalArgumentException("The bands must be in increasing order");
+			}
+		}
+		List<Isochrone> result = new ArrayList<Isochrone>(bands.length);
+		if (bands.length == 0) {
+			return result;
+		}
+		Grid grid = new Grid(tree, bands[bands.length - 1]);
+		markCells(tree, bands, grid);
+		for (int b = 0; b < bands.length; b++) {
+			boolean[] inside = grid.cellsOfBand(b);
+			int cells = 0;
+			for (boolean in : inside) {
+				if (in) {
+					cells++;
+				}
+			}
+			result.add(new Isochrone(bands[b], cells * cellSize * cellSize,
+					traceRings(grid, inside)));
+		}
+		return result;
+	}
+
+	// Mark each cell with the index of the first band that reaches it
+	private void markCells(ShortestPathTree tree, double[] bands, Grid grid)
+	{
+		CSRGraph g = tree.getGraph();
+		double largest = bands[bands.length - 1];
+		double step = cellSize / 2;
+		for (int u : tree.getReachedVertices()) {
+			double du = tree.getDistance(u);
+			if (du > largest) {
+				break;
+			}
+			grid.mark(g.getLatitude(u), g.getLongitude(u), band(bands, du));
+			for (int e = g.firstEdge(u); e < g.endEdge(u); e++) {
+				int v = g.getTarget(e);
+				double length = g.getLength(e);
+				double reach = Math.min(length, largest - du);
+				for (double s = step; s <= reach + step; s += step) {
+					double along = Math.min(s, reach);
+					double t = length == 0 ? 1 : along / length;
+					grid.mark(g.getLatitude(u) + t * (g.getLatitude(v) - g.getLatitude(u)),
+							g.getLongitude(u) + t * (g.getLongitude(v) - g.getLongitude(u)),
+							band(bands, du + along));
+				}
+			}
+		}
+	}
+
+	// The index of the first band at least d
+	private static int band(double[] bands, double d)
+	{
+		int b = Arrays.binarySearch(bands, d);
+		if (b < 0) {
+			return -b - 1;
+		}
+		// Several equal bands: take the first
+		while (b > 0 && bands[b - 1] == d) {
+			b--;
+		}
+		return b;
+	}
+
+	// Follow the boundary edges of the marked cells into closed rings
+	private static List<List<GeographicPoint>> traceRings(Grid grid, boolean[] inside)
+	{
+		int w = grid.width;
+		int h = grid.height;
+		int corners = (w + 1) * (h + 1);
+		// Boundary edges leave a corner in direction d when out[4 * corner + d]
+		boolean[] out = new boolean[4 * corners];
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				if (!inside[y * w + x]) {
+					continue;
+				}
+				// The sides of the cell in counterclockwise order, each
+				// kept when the cell across it is outside
+				if (!grid.inside(inside, x, y - 1)) out[4 * corner(w, x, y)] = true;
+				if (!grid.inside(inside, x + 1, y)) out[4 * corner(w, x + 1, y) + 1] = true;
+				if (!grid.inside(inside, x, y + 1)) out[4 * corner(w, x + 1, y + 1) + 2] = true;
+				if (!grid.inside(inside, x - 1, y)) out[4 * corner(w, x, y + 1) + 3] = true;
+			}
+		}
+
+		List<List<GeographicPoint>> rings = new ArrayList<List<GeographicPoint>>();
+		for (int start = 0; start < corners; start++) {
+			for (int d0 = 0; d0 < 4; d0++) {
+				if (!out[4 * start + d0]) {
+					continue;
+				}
+				List<GeographicPoint> ring = new ArrayList<GeographicPoint>();
+				int c = start;
+				int d = d0;
+				int previous = -1;
+				do {
+					out[4 * c + d] = false;
+					if (d != previous) {
+						ring.add(grid.cornerPoint(c % (w + 1), c / (w + 1)));
+					}
+					previous = d;
+					c = corner(w, c % (w + 1) + DX[d], c / (w + 1) + DY[d]);
+					// Where two cells touch only at a corner, turning left
+					// keeps them in separate rings
+					int next = -1;
+					for (int turn : new int[] {1, 0, 3}) {
+						int candidate = (d + turn) % 4;
+						if (out[4 * c + candidate]) {
+							next = candidate;
+							break;
+						}
+					}
+					d = next;
+				} while (d >= 0);
+				if (ring.size() > 1 && previous == d0) {
+					// The ring closes in a straight line through its start corner
+					ring.remove(0);
+				}
+				rings.add(Collections.unmodifiableList(ring));
+			}
+		}
+		return rings;
+	}
+
+	private static int corner(int w, int x, int y)
+	{
+		return y * (w + 1) + x;
+	}
+
+	// A grid of cells around the area a tree can reach, in degrees
+	private final class Grid
+	{
+		final double originLat;
+		final double originLon;
+		final double cellLat;
+		final double cellLon;
+		final int width;
+		final int height;
+		/** The first band that reaches each cell, or Integer.MAX_VALUE */
+		final int[] level;
+
+		Grid(ShortestPathTree tree, double largest)
+		{
+			CSRGraph g = tree.getGraph();
+			double centre = g.getLatitude(tree.getSource());
+			cellLat = Math.toDegrees(cellSize / R);
+			cellLon = cellLat / Math.max(Math.cos(Math.toRadians(centre)), 1e-6);
+			// Cover the reached vertices and the far ends of their edges
+			double latLo = Double.POSITIVE_INFINITY, latHi = Double.NEGATIVE_INFINITY;
+			double lonLo = Double.POSITIVE_INFINITY, lonHi = Double.NEGATIVE_INFINITY;
+			for (int u : tree.getReachedVertices()) {
+				if (tree.getDistance(u) > largest) {
+					break;
+				}
+				for (int e = g.firstEdge(u); e <= g.endEdge(u); e++) {
+					// The last pass takes u itself
+					int v = e < g.endEdge(u) ? g.getTarget(e) : u;
+					latLo = Math.min(latLo, g.getLatitude(v));
+					latHi = Math.max(latHi, g.getLatitude(v));
+					lonLo = Math.min(lonLo, g.getLongitude(v));
+					lonHi = Math.max(lonHi, g.getLongitude(v));
+				}
+			}
+			// Two spare cells on every side leave room to grow by one and
+			// keep the outline off the edge of the grid
+			originLat = latLo - 2 * cellLat;
+			originLon = lonLo - 2 * cellLon;
+			height = (int) ((latHi - originLat) / cellLat) + 3;
+			width = (int) ((lonHi - originLon) / cellLon) + 3;
+			level = new int[width * height];
+			Arrays.fill(level, Integer.MAX_VALUE);
+		}
+
+		void mark(double lat, double lon, int band)
+		{
+			int x = (int) ((lon - originLon) / cellLon);
+			int y = (int) ((lat - originLat) / cellLat);
+			int cell = y * width + x;
+			if (band < level[cell]) {
+				level[cell] = band;
+			}
+		}
+
+		// The cells within one cell of a cell reached by band b
+		boolean[] cellsOfBand(int b)
+		{
+			boolean[] inside = new boolean[width * height];
+			for (int y = 1; y < height - 1; y++) {
+				for (int x = 1; x < width - 1; x++) {
+					if (level[y * width + x] <= b) {
+						for (int dy = -1; dy <= 1; dy++) {
+							for (int dx = -1; dx <= 1; dx++) {
+								inside[(y + dy) * width + x + dx] = true;
+							}
+						}
+					}
+				}
+			}
+			return inside;
+		}
+
+		boolean inside(boolean[] inside, int x, int y)
+		{
+			return x >= 0 && y >= 0 && x < width && y < height && inside[y * width + x];
+		}
+
+		GeographicPoint cornerPoint(int x, int y)
+		{
+			return new GeographicPoint(originLat + y * cellLat, originLon + x * cellLon);
+		}
+	}
+
+	/**
+	 * The area reachable within one distance band
+	 */
+	public static final class Isochrone
+	{
+		private final double distance;
+		private final double area;
+		private final List<List<GeographicPoint>> rings;
+
+		Isochrone(double distance, double area, List<List<GeographicPoint>> rings)
+		{
+			this.distance = distance;
+			this.area = area;
+			this.rings = Collections.unmodifiableList(rings);
+		}
+
+		// get the distance in km of the band
+		public double getDistance() { return distance; }
+
+		// get the area in square km of the cells covered
+		public double getArea() { return area; }
+
+		// get the outlines of the area: outer rings counterclockwise, holes clockwise
+		public List<List<GeographicPoint>> getRings() { return rings; }
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Checks landmark (ALT) routes and bounds against Dijkstra
+ */
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for LandmarkIndex and LandmarkHeuristic.  A* with landmarks
+ * chosen to avoid each other must find the paths Dijkstra finds, and
+ * the bounds of landmarks chosen farthest-first must stay below them.
+ * The heuristic uses landmarks of the graph as loaded, as MapGraph does,
+ * while no edge weighs less than its length; otherwise the landmarks are
+ * chosen on the reweighted graph itself.  Last, a MapGraph that uses
+ * landmarks gets a new road, and must choose them again for A*.
+ *
+ */
+public class LandmarkGrader extends DijkstraEquivalenceGrader
+{
+	private static final int LANDMARKS = 8;
+
+	public LandmarkGrader()
+	{
+		super(1);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new LandmarkGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		super.runTests();
+
+		section("MAP: Intersections around UCSD, changed after useLandmarks");
+
+		check("A* on the changed map", this::changedMap);
+	}
+
+	// Add a fast road across the map once its landmarks are in use; the
+	// old landmark distances would overestimate and no longer apply
+	private String changedMap() throws IOException
+	{
+		File file = File.createTempFile("ucsd", ".map");
+		file.deleteOnExit();
+		new File(file.getPath() + LandmarkIndex.FILE_SUFFIX).deleteOnExit();
+		Files.copy(Paths.get("data/maps/ucsd.map"), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap(file.getPath(), map);
+		map.useLandmarks(file.getPath(), LANDMARKS);
+
+		CSRGraph g = map.getCSRGraph();
+		GeographicPoint from = g.getPoint(0);
+		GeographicPoint to = g.getPoint(g.getNumVertices() - 1);
+		map.addEdge(from, to, "shortcut", "motorway", from.distance(to));
+		List<GeographicPoint> path = map.aStarSearch(from, to);
+		List<GeographicPoint> expected = map.dijkstra(from, to);
+		return path.equals(expected) ? null : "A* found " + path + "; expected " + expected + ".";
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		Heuristic h;
+		if (isAtLeastLengths(g)) {
+			h = new LandmarkHeuristic(LandmarkIndex.build(g.unweighted(), LANDMARKS, LandmarkIndex.Strategy.AVOID));
+		}
+		else {
+			LandmarkIndex own = LandmarkIndex.build(g, LANDMARKS, LandmarkIndex.Strategy.AVOID);
+			h = (graph, v, goal) -> own.lowerBound(v, goal);
+		}
+		LandmarkIndex farthest = LandmarkIndex.build(g, LANDMARKS, LandmarkIndex.Strategy.FARTHEST);
+		SearchContext ctx = new SearchContext();
+		return new Technique("Landmark A*", (start, goal) -> {
+			int[] path = CSRSearch.aStarSearch(g, start, goal, ctx, null, h, (x) -> {});
+			double length = path == null ? Double.POSITIVE_INFINITY : g.pathLength(path);
+			double bound = farthest.lowerBound(start, goal);
+			if (bound > length + 1e-9 * Math.max(1, length)) {
+				throw new IllegalStateException("Landmark bound from " + start + " to " + goal + " is "
+						+ bound + ", above the path length " + length + ".");
+			}
+			return path;
+		}, null);
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		// The engine searches with the straight line distance
+		return null;
+	}
+
+	// Whether no edge of g weighs less than its length
+	private static boolean isAtLeastLengths(CSRGraph g)
+	{
+		CSRGraph lengths = g.unweighted();
+		for (int e = 0; e < g.getNumEdges(); e++) {
+			if (g.getLength(e) < lengths.getLength(e)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
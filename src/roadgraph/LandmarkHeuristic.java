@@ -0,0 +1,71 @@
+/**
+ * Precomputed landmark distance heuristic
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * An A* heuristic that estimates the distance left to the goal with the
+ * triangle inequality bounds of a LandmarkIndex.  On road networks these
+ * bounds are much tighter than the straight line distance, which knows
+ * nothing about rivers, freeways or one-way streets.
+ *
+ */
+public class LandmarkHeuristic implements Heuristic
+{
+	private final LandmarkIndex index;
+
+	/**
+	 * Choose landmarks farthest-first and compute their distances
+	 * @param g The graph the heuristic will be used on
+	 * @param count The number of landmarks
+	 */
+	public LandmarkHeuristic(CSRGraph g, int count)
+	{
+		this(LandmarkIndex.build(g, count, LandmarkIndex.Strategy.FARTHEST));
+	}
+
+	/**
+	 * Use the bounds of an existing index
+	 * @param index The landmark distances
+	 */
+	public LandmarkHeuristic(LandmarkIndex index)
+	{
+		this.index = index;
+	}
+
+	/**
+	 * Get the landmark vertices
+	 * @return The vertex ids of the landmarks
+	 */
+	public int[] getLandmarks()
+	{
+		return index.getLandmarks();
+	}
+
+	// The graph the landmark distances were computed on
+	CSRGraph getGraph()
+	{
+		return index.getGraph();
+	}
+
+	@Override
+	public double estimate(CSRGraph g, int v, int goal)
+	{
+		// Reweighted graphs share the landmarks of the graph they came
+		// from; the bounds hold as long as no edge got shorter
+		if (g.unweighted() != index.getGraph()) {
+			throw new IllegalArgumentException("Landmarks were computed for a different graph");
+		}
+		return index.lowerBound(v, goal);
+	}
+
+	// Every landmark bound is consistent by the triangle inequality, and
+	// so is their maximum
+	@Override
+	public boolean isConsistent()
+	{
+		return true;
+	}
+}
@@ -0,0 +1,435 @@
+/**
+ * Precomputed landmark distances for the ALT lower bounds
+ */
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The exact road distances from and to a few landmark vertices, which
+ * give lower bounds on the distance between any two vertices (the "ALT"
+ * technique: A*, landmarks and the triangle inequality).  For a landmark L
+ *
+ *   d(v,t) >= d(L,t) - d(L,v)   and   d(v,t) >= d(v,L) - d(t,L)
+ *
+ * and the bound is the best of these over all landmarks.  The bounds stay
+ * valid when edges get longer or are closed (roadworks), since that can
+ * only make the real distance larger.
+ *
+ * Landmarks are chosen with one of two strategies:
+ * <ul>
+ * <li>FARTHEST: each new landmark is the vertex farthest from the ones
+ *   already chosen, which spreads them around the edge of the map.</li>
+ * <li>AVOID: grow a shortest path tree from a random root and weigh every
+ *   vertex by how much the current bound underestimates its distance.  The
+ *   new landmark is the leaf reached by always walking into the heaviest
+ *   subtree that does not yet contain a landmark.</li>
+ * </ul>
+ * Vertices that can only reach a small part of the map (dead ends behind
+ * one-way roads) are passed over.
+ *
+ * An index can be saved next to its .map file and loaded at start up
+ * instead of being recomputed.
+ *
+ */
+public final class LandmarkIndex
+{
+	/** How landmarks are chosen */
+	public enum Strategy { FARTHEST, AVOID }
+
+	/** Identifies a landmark file, followed by the format version */
+	private static final int MAGIC = 0x4c4d524b;
+	private static final int VERSION = 1;
+	/** Suffix added to the name of a map file to get its landmark file */
+	public static final String FILE_SUFFIX = ".landmarks";
+
+	/** How many random vertices to try when looking for a well connected start */
+	private static final int SEED_TRIES = 16;
+
+	private final CSRGraph graph;
+	private final Strategy strategy;
+	/** The number of landmarks asked for; small graphs may have fewer */
+	private final int requested;
+	private final int[] landmarks;
+	/** fromLandmark[i][v] is the road distance from landmark i to v */
+	private final double[][] fromLandmark;
+	/** toLandmark[i][v] is the road distance from v to landmark i */
+	private final double[][] toLandmark;
+
+	private LandmarkIndex(CSRGraph g, Strategy strategy, int requested, int[] landmarks,
+			double[][] fromLandmark, double[][] toLandmark)
+	{
+		this.graph = g;
+		this.strategy = strategy;
+		this.requested = requested;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Choose landmarks and compute their distances to and from every vertex
+	 * @param g The graph
+	 * @param count The number of landmarks
+	 * @param strategy How to choose them
+	 * @return The index
+	 */
+	public static LandmarkIndex build(CSRGraph g, int count, Strategy strategy)
+	{
+		int n = g.getNumVertices();
+		SearchContext ctx = new SearchContext(n);
+		List<Integer> chosen = new ArrayList<Integer>();
+		List<double[]> from = new ArrayList<double[]>();
+		List<double[]> to = new ArrayList<double[]>();
+		if (n == 0) {
+			return new LandmarkIndex(g, strategy, count, new int[0], new double[0][], new double[0][]);
+		}
+
+		// Start from the distances of a well connected seed vertex; the
+		// first landmark is the vertex farthest from it.
+		Random random = new Random(n);
+		int seed = findSeed(g, ctx, random);
+		CSRSearch.sweep(g, seed, ctx, null);
+		int minReach = ctx.getSettledCount() / 2;
+		double[] closest = distances(ctx, n);
+		// Vertices already tried, either as a landmark or rejected because
+		// they reach too little of the map
+		boolean[] tried = new boolean[n];
+
+		int next = farthest(closest, tried);
+		while (chosen.size() < count && next >= 0) {
+			tried[next] = true;
+			CSRSearch.sweep(g, next, ctx, null);
+			if (ctx.getSettledCount() >= minReach) {
+				double[] dist = distances(ctx, n);
+				for (int v = 0; v < n; v++) {
+					closest[v] = Math.min(closest[v], dist[v]);
+				}
+				CSRSearch.reverseSweep(g, next, ctx, null);
+				chosen.add(next);
+				from.add(dist);
+				to.add(distances(ctx, n));
+			}
+			if (strategy == Strategy.FARTHEST || chosen.isEmpty()) {
+				next = farthest(closest, tried);
+			}
+			else {
+				next = avoid(g, ctx, random, seed, tried, from, to);
+				if (next < 0) {
+					next = farthest(closest, tried);
+				}
+			}
+		}
+
+		int[] ids = new int[chosen.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = chosen.get(i);
+		}
+		return new LandmarkIndex(g, strategy, count, ids, from.toArray(new double[from.size()][]),
+				to.toArray(new double[to.size()][]));
+	}
+
+	// Copy the distances a sweep left in ctx
+	private static double[] distances(SearchContext ctx, int n)
+	{
+		double[] dist = new double[n];
+		for (int v = 0; v < n; v++) {
+			dist[v] = ctx.getDistance(v);
+		}
+		return dist;
+	}
+
+	// Find a vertex that reaches at least half of the graph, so that the
+	// landmarks are not all stuck in a small piece cut off by one-way roads.
+	private static int findSeed(CSRGraph g, SearchContext ctx, Random random)
+	{
+		int best = 0;
+		int bestReach = -1;
+		for (int tries = 0; tries < SEED_TRIES && bestReach < g.getNumVertices() / 2; tries++) {
+			int v = random.nextInt(g.getNumVertices());
+			CSRSearch.sweep(g, v, ctx, null);
+			if (ctx.getSettledCount() > bestReach) {
+				bestReach = ctx.getSettledCount();
+				best = v;
+			}
+		}
+		return best;
+	}
+
+	// The untried vertex with the largest finite distance, or -1 if there is none
+	private static int farthest(double[] closest, boolean[] tried)
+	{
+		int best = -1;
+		for (int v = 0; v < closest.length; v++) {
+			if (!tried[v] && closest[v] < Double.POSITIVE_INFINITY
+					&& (best < 0 || closest[v] > closest[best])) {
+				best = v;
+			}
+		}
+		return best;
+	}
+
+	// One step of the avoid strategy: the leaf at the end of the heaviest
+	// landmark-free branch of a shortest path tree, or -1 if there is none
+	private static int avoid(CSRGraph g, SearchContext ctx, Random random, int seed,
+			boolean[] tried, List<double[]> from, List<double[]> to)
+	{
+		int n = g.getNumVertices();
+		int root = seed;
+		for (int tries = 0; tries < SEED_TRIES; tries++) {
+			int v = random.nextInt(n);
+			if (!tried[v]) {
+				root = v;
+				break;
+			}
+		}
+		CSRSearch.sweep(g, root, ctx, null);
+		double[][] fromArray = from.toArray(new double[from.size()][]);
+		double[][] toArray = to.toArray(new double[to.size()][]);
+
+		// Children lists of the shortest path tree, in CSR form
+		int[] childOffsets = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			if (v != root && ctx.isReached(v)) {
+				childOffsets[ctx.getParent(v) + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			childOffsets[v + 1] += childOffsets[v];
+		}
+		int[] children = new int[childOffsets[n]];
+		int[] fill = Arrays.copyOf(childOffsets, n);
+		for (int v = 0; v < n; v++) {
+			if (v != root && ctx.isReached(v)) {
+				children[fill[ctx.getParent(v)]++] = v;
+			}
+		}
+
+		// Post-order walk: the size of a subtree is the sum of the bound
+		// errors of its vertices, or 0 if it holds a tried vertex
+		double[] size = new double[n];
+		int[] order = new int[childOffsets[n] + 1];
+		int count = 0;
+		order[count++] = root;
+		for (int i = 0; i < count; i++) {
+			int v = order[i];
+			for (int c = childOffsets[v]; c < childOffsets[v + 1]; c++) {
+				order[count++] = children[c];
+			}
+		}
+		boolean[] blocked = new boolean[n];
+		for (int i = count - 1; i >= 0; i--) {
+			int v = order[i];
+			double error = ctx.getDistance(v) - bound(fromArray, toArray, root, v);
+			size[v] += Math.max(0, error);
+			blocked[v] |= tried[v];
+			if (blocked[v]) {
+				size[v] = 0;
+			}
+			if (v != root) {
+				int p = ctx.getParent(v);
+				size[p] += size[v];
+				blocked[p] |= blocked[v];
+			}
+		}
+
+		int v = root;
+		while (true) {
+			int next = -1;
+			for (int c = childOffsets[v]; c < childOffsets[v + 1]; c++) {
+				int child = children[c];
+				if (!blocked[child] && (next < 0 || size[child] > size[next])) {
+					next = child;
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			v = next;
+		}
+		return tried[v] ? -1 : v;
+	}
+
+	/**
+	 * Get the graph this index was built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the strategy the landmarks were chosen with
+	 * @return The strategy
+	 */
+	public Strategy getStrategy()
+	{
+		return strategy;
+	}
+
+	/**
+	 * Get the landmark vertices
+	 * @return The vertex ids of the landmarks
+	 */
+	public int[] getLandmarks()
+	{
+		return landmarks.clone();
+	}
+
+	/**
+	 * Get a lower bound on the length of the shortest path from v to t
+	 * @param v The id of the first vertex
+	 * @param t The id of the second vertex
+	 * @return The best landmark bound in km, or infinity if a landmark
+	 *   shows that t cannot be reached from v
+	 */
+	public double lowerBound(int v, int t)
+	{
+		return bound(fromLandmark, toLandmark, v, t);
+	}
+
+	private static double bound(double[][] from, double[][] to, int v, int t)
+	{
+		double best = 0;
+		for (int i = 0; i < from.length; i++) {
+			// d(v,t) >= d(L,t) - d(L,v)
+			double lt = from[i][t];
+			double lv = from[i][v];
+			if (lt == Double.POSITIVE_INFINITY) {
+				if (lv < Double.POSITIVE_INFINITY) {
+					// The landmark reaches v but not t, so neither does v
+					return Double.POSITIVE_INFINITY;
+				}
+			}
+			else if (lt - lv > best) {
+				best = lt - lv;
+			}
+			// d(v,t) >= d(v,L) - d(t,L)
+			double vl = to[i][v];
+			double tl = to[i][t];
+			if (vl == Double.POSITIVE_INFINITY) {
+				if (tl < Double.POSITIVE_INFINITY) {
+					// t reaches the landmark but v does not, so v cannot reach t
+					return Double.POSITIVE_INFINITY;
+				}
+			}
+			else if (vl - tl > best) {
+				best = vl - tl;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Write the index to a file
+	 * @param file The file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(graph.fingerprint());
+			out.writeInt(strategy.ordinal());
+			out.writeInt(requested);
+			out.writeInt(graph.getNumVertices());
+			out.writeInt(landmarks.length);
+			for (int i = 0; i < landmarks.length; i++) {
+				out.writeInt(landmarks[i]);
+				for (double d : fromLandmark[i]) {
+					out.writeDouble(d);
+				}
+				for (double d : toLandmark[i]) {
+					out.writeDouble(d);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read an index written by save
+	 * @param file The file to read
+	 * @param g The graph the index is for
+	 * @return The index
+	 * @throws IOException If the file cannot be read, is not a landmark
+	 *   file, or was written for a different graph
+	 */
+	public static LandmarkIndex load(File file, CSRGraph g) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a landmark file of version " + VERSION);
+			}
+			if (in.readLong() != g.fingerprint()) {
+				throw new IOException(file + " was written for a different graph");
+			}
+			Strategy strategy = Strategy.values()[in.readInt()];
+			int requested = in.readInt();
+			int n = in.readInt();
+			int count = in.readInt();
+			int[] ids = new int[count];
+			double[][] from = new double[count][n];
+			double[][] to = new double[count][n];
+			for (int i = 0; i < count; i++) {
+				ids[i] = in.readInt();
+				for (int v = 0; v < n; v++) {
+					from[i][v] = in.readDouble();
+				}
+				for (int v = 0; v < n; v++) {
+					to[i][v] = in.readDouble();
+				}
+			}
+			return new LandmarkIndex(g, strategy, requested, ids, from, to);
+		}
+	}
+
+	/**
+	 * Load the index saved next to a map file, or build it and save it
+	 * there if it is missing, stale or was built with other settings.
+	 * @param g The graph loaded from the map file
+	 * @param mapFile The name of the map file
+	 * @param count The number of landmarks
+	 * @param strategy How to choose them
+	 * @return The index
+	 */
+	public static LandmarkIndex loadOrBuild(CSRGraph g, String mapFile, int count, Strategy strategy)
+	{
+		File file = new File(mapFile + FILE_SUFFIX);
+		if (file.exists()) {
+			try {
+				LandmarkIndex index = load(file, g);
+				if (index.strategy == strategy && index.requested == count) {
+					return index;
+				}
+			}
+			catch (IOException e) {
+				System.out.println("Rebuilding landmarks: " + e.getMessage());
+			}
+		}
+		LandmarkIndex index = build(g, count, strategy);
+		try {
+			index.save(file);
+		}
+		catch (IOException e) {
+			System.out.println("Could not save landmarks to " + file + ": " + e.getMessage());
+		}
+		return index;
+	}
+}
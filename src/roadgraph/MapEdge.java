@@ -28,9 +28,9 @@ class MapEdge implements Comparable<MapEdge>
 	
 	/** The length of the road segment, in km */
 	private double length;
-	
-	/**Wether there are roadworks or not*/
-	private boolean roadWorks;
+
+	/** The number of edges added to the graph before this one */
+	private int loadOrder;
 	
 	static final double DEFAULT_LENGTH = 0.01;
 	
@@ -75,22 +75,6 @@ class MapEdge implements Comparable<MapEdge>
 		end = n2;
 		this.roadType = roadType;
 		this.length = length;
-		this.roadWorks = false;
-	}
-	
-	/**
-	 * return the boolean for the roadworks
-	 * @return return the boolean for the roadworks
-	 */
-	boolean getRoadWorks() {
-		return roadWorks;
-	}
-	
-	/**
-	 * Sets roadworks to true
-	 */
-	void setRoadWorkstoTrue() {
-		this.roadWorks = true;
 	}
 	
 	/**
@@ -137,6 +121,33 @@ class MapEdge implements Comparable<MapEdge>
 		return roadName;
 	}
 
+	/**
+	 * Get the road's type
+	 * @return the type of the road that this edge is on
+	 */
+	public String getRoadType()
+	{
+		return roadType;
+	}
+
+	/**
+	 * Get the position of this edge in the order the graph was built
+	 * @return The number of edges added to the graph before this one
+	 */
+	int getLoadOrder()
+	{
+		return loadOrder;
+	}
+
+	/**
+	 * Record the position of this edge in the order the graph was built
+	 * @param loadOrder The number of edges added to the graph before this one
+	 */
+	void setLoadOrder(int loadOrder)
+	{
+		this.loadOrder = loadOrder;
+	}
+
 	/**
 	 * Given one of the nodes involved in this edge, get the other one
 	 * @param node The node on one side of this edge
@@ -162,7 +173,7 @@ class MapEdge implements Comparable<MapEdge>
 		toReturn += "\n\t" + start.getLocation();
 		toReturn += "\n\t" + end.getLocation();
 		toReturn += "\nRoad name: " + roadName + " Road type: " + roadType +
-				" Segment length: " + String.format("%.3g", length) + "km" + " RoadWorks: " + getRoadWorks();
+				" Segment length: " + String.format("%.3g", length) + "km";
 		
 		return toReturn;
 	}
@@ -10,14 +10,13 @@ package roadgraph;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.ArrayList;
-import java.util.Collections;
 
 import geography.GeographicPoint;
 import util.GraphLoader;
@@ -35,6 +34,51 @@ public class MapGraph{
 	// that contain those nodes.
 	private HashMap<GeographicPoint,MapNode> pointNodeMap;
 	private HashSet<MapEdge> edges;
+	// Frozen CSR copy of the graph, built on first use and dropped
+	// whenever a vertex or edge is added.
+	private volatile CSRGraph csr;
+	// Contraction hierarchy of csr, built on the first CH query.  These
+	// derived forms are built outside the lock on this graph, so a long
+	// preprocessing run does not hold up the other lazy getters.
+	private final DerivedForm<ContractionHierarchy> hierarchy =
+			new DerivedForm<ContractionHierarchy>(ContractionHierarchy::new);
+	// Hub labels of csr, for distance-only queries
+	private final DerivedForm<HubLabels> hubLabels = new DerivedForm<HubLabels>(
+			(g) -> HubLabels.build(getHierarchy(g), ForkJoinPool.commonPool()));
+	// Transit nodes of the hierarchy, for long queries
+	private final DerivedForm<TransitNodeRouting> transitNodes = new DerivedForm<TransitNodeRouting>(
+			(g) -> new TransitNodeRouting(getHierarchy(g), ForkJoinPool.commonPool()));
+	// Multilevel partition of csr and its overlay customized for the
+	// current edge weights, for customizable route planning
+	private final DerivedForm<GraphPartition> partition =
+			new DerivedForm<GraphPartition>(GraphPartition::new);
+	private final DerivedForm<PartitionOverlay> overlay = new DerivedForm<PartitionOverlay>(
+			(w) -> new PartitionOverlay(getGraphPartition(), w, ForkJoinPool.commonPool()));
+	// Spatial index of the vertices of csr, for snapping coordinates
+	private final DerivedForm<VertexIndex> vertexIndex = new DerivedForm<VertexIndex>(VertexIndex::new);
+	// Closed edges of csr, such as roadworks
+	private volatile RoadClosures closures;
+	// Live weights of the edges of csr, such as traffic
+	private volatile EdgeWeights weights;
+	// Recent paths of dijkstra and aStarSearch, or null to always search
+	private volatile RouteCache routeCache;
+	// Per-thread search state, so queries never write to the nodes and
+	// several threads can search the same graph at once.
+	private final ThreadLocal<SearchContext> searchContext =
+			ThreadLocal.withInitial(SearchContext::new);
+	// Second per-thread state for the backward half of bidirectional searches
+	private final ThreadLocal<SearchContext> backwardContext =
+			ThreadLocal.withInitial(SearchContext::new);
+	// The priority queue dijkstra and aStarSearch run on
+	private volatile QueueType queueType = QueueType.FOUR_ARY_HEAP;
+	// The remaining-distance estimate aStarSearch uses
+	private volatile Heuristic heuristic = new HaversineHeuristic();
+	// The heuristic of useLandmarks while it is the one in use, and how
+	// many landmarks it asked for
+	private volatile LandmarkHeuristic landmarks;
+	private volatile int landmarkCount;
+	// The hook the searches get when nothing watches them
+	private static final Consumer<GeographicPoint> NO_HOOK = (x) -> {};
 	
 	/** 
 	 * Number of roadworks:
@@ -67,6 +111,13 @@ public class MapGraph{
 		return pointNodeMap.keySet();
 	}
 	
+	// The node of an intersection, or null if there is none; for checking
+	// derived forms of the graph against the nodes
+	MapNode getNode(GeographicPoint location)
+	{
+		return pointNodeMap.get(location);
+	}
+
 	/**
 	 * Get the number of road segments in the graph
 	 * @return The number of edges in the graph.
@@ -76,30 +127,461 @@ public class MapGraph{
 		return edges.size();
 	}
 
-	/*TODO week6: Method that takes the main(longer) roads and changes the boolean Roadworks to true. 
-	 * For example, SetWorks(2) sets works on the 2 longest roads of the map. If the roadworks inserted are
-	 * bigger than the number of streets, it lets you know.
+	/**
+	 * Get the frozen compressed-sparse-row form of this graph, which the
+	 * searches in CSRSearch run on.  It is built once after loading and
+	 * reused until the graph changes.
+	 * @return The CSR form of the graph
+	 */
+	public CSRGraph getCSRGraph()
+	{
+		CSRGraph g = csr;
+		if (g == null) {
+			synchronized (this) {
+				g = csr;
+				if (g == null) {
+					g = CSRGraph.fromNodes(pointNodeMap.values(), null);
+					csr = g;
+				}
+			}
+		}
+		return g;
+	}
+
+	/**
+	 * Use a CSR form built elsewhere, such as read from a snapshot, so
+	 * that getCSRGraph does not build it again from the nodes.  Like a
+	 * built one it is dropped when the graph changes.
+	 * @param g A graph with the same vertices and edges as this one
+	 * @throws IllegalArgumentException If g has other vertices or another
+	 *   number of edges
+	 */
+	public synchronized void setCSRGraph(CSRGraph g)
+	{
+		if (g.getNumVertices() != getNumVertices() || g.getNumEdges() != getNumEdges()) {
+			throw new IllegalArgumentException("The CSR graph has " + g.getNumVertices()
+					+ " vertices and " + g.getNumEdges() + " edges, not " + getNumVertices()
+					+ " and " + getNumEdges());
+		}
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			if (!pointNodeMap.containsKey(g.getPoint(v))) {
+				throw new IllegalArgumentException(g.getPoint(v) + " is not in the graph");
+			}
+		}
+		csr = g;
+	}
+
+	/**
+	 * Get the contraction hierarchy of this graph, preprocessing it on
+	 * first use.  Like the CSR form it is dropped when the graph changes.
+	 * @return The contraction hierarchy
+	 */
+	public ContractionHierarchy getContractionHierarchy()
+	{
+		return getHierarchy(getCSRGraph());
+	}
+
+	// The hierarchy of one version of the graph, which the labels and
+	// transit nodes of that version are computed from
+	private ContractionHierarchy getHierarchy(CSRGraph g)
+	{
+		return hierarchy.get(g);
+	}
+
+	/**
+	 * Get the hub labels of this graph, computing them from the
+	 * contraction hierarchy on first use.  Like the CSR form they are
+	 * dropped when the graph changes.
+	 * @return The hub labels
+	 */
+	public HubLabels getHubLabels()
+	{
+		return hubLabels.get(getCSRGraph());
+	}
+
+	/**
+	 * Get the transit node routing of this graph, computing it from the
+	 * contraction hierarchy on first use.  Like the CSR form it is
+	 * dropped when the graph changes.
+	 * @return The transit node routing
+	 */
+	public TransitNodeRouting getTransitNodeRouting()
+	{
+		return transitNodes.get(getCSRGraph());
+	}
+
+	/**
+	 * Map the hub labels saved next to the map file into memory, or
+	 * compute them and save them there if they are missing or stale.
+	 * @param mapFile The file this graph was loaded from
+	 */
+	public void useHubLabels(String mapFile)
+	{
+		CSRGraph g = getCSRGraph();
+		HubLabels labels = HubLabels.loadOrBuild(g, mapFile, () -> getHierarchy(g),
+				ForkJoinPool.commonPool());
+		if (g == csr) {
+			hubLabels.set(g, labels);
+		}
+	}
+
+	/**
+	 * Get the multilevel partition of this graph, building it on first
+	 * use.  Like the CSR form it is dropped when the graph changes.
+	 * @return The partition
+	 */
+	public GraphPartition getGraphPartition()
+	{
+		return partition.get(getCSRGraph());
+	}
+
+	/**
+	 * Get the overlay of the partition for the edge weights in force now.
+	 * It is customized again, on the common pool, the first time it is
+	 * asked for after the weights change.
+	 * @return The customized overlay
+	 */
+	public PartitionOverlay getPartitionOverlay()
+	{
+		return overlay.get(weightedGraph());
+	}
+
+	/**
+	 * Get the spatial index of the vertices, building it on first use.
+	 * Like the CSR form it is dropped when the graph changes.
+	 * @return The vertex index
+	 */
+	public VertexIndex getVertexIndex()
+	{
+		return vertexIndex.get(getCSRGraph());
+	}
+
+	/**
+	 * Get the road closures of this graph.  They are kept by edge id, so
+	 * like the CSR form they start again (all open) when the graph changes.
+	 * @return The road closures
+	 */
+	public RoadClosures getRoadClosures()
+	{
+		RoadClosures rc = closures;
+		CSRGraph g = getCSRGraph();
+		if (rc == null || rc.getGraph() != g) {
+			synchronized (this) {
+				rc = closures;
+				if (rc == null || rc.getGraph() != g) {
+					rc = new RoadClosures(g);
+					closures = rc;
+				}
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * Get the live edge weights of this graph, which dijkstra, aStarSearch
+	 * and the bidirectional searches use instead of the road lengths.
+	 * Like the closures they start again (every weight the length) when
+	 * the graph changes.
+	 * @return The edge weights
+	 */
+	public EdgeWeights getEdgeWeights()
+	{
+		EdgeWeights w = weights;
+		CSRGraph g = getCSRGraph();
+		if (w == null || w.getGraph() != g) {
+			synchronized (this) {
+				w = weights;
+				if (w == null || w.getGraph() != g) {
+					w = new EdgeWeights(g);
+					weights = w;
+				}
+			}
+		}
+		return w;
+	}
+
+	// The graph weighted with the edge weights in force now
+	private CSRGraph weightedGraph()
+	{
+		return getEdgeWeights().snapshot().getGraph();
+	}
+
+	// The heuristic to search the weights of w with: h while no weight is
+	// below its length, otherwise none, since h could overestimate and
+	// A* would then miss the shortest path
+	private static Heuristic boundedBy(EdgeWeights.Snapshot w, Heuristic h)
+	{
+		return w.isAtLeastLengths() ? h : Heuristic.ZERO;
+	}
+
+	/**
+	 * Close the road from one intersection to the next, in that direction
+	 * @param from The start of the road
+	 * @param to The end of the road
+	 * @return The closures now in force
+	 */
+	public RoadClosures.Snapshot closeRoad(GeographicPoint from, GeographicPoint to)
+	{
+		return getRoadClosures().closeRoad(from, to);
+	}
+
+	/**
+	 * Reopen the road from one intersection to the next
+	 * @param from The start of the road
+	 * @param to The end of the road
+	 * @return The closures now in force
+	 */
+	public RoadClosures.Snapshot reopenRoad(GeographicPoint from, GeographicPoint to)
+	{
+		return getRoadClosures().reopenRoad(from, to);
+	}
+
+	/**
+	 * Find the intersection closest to a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @return The closest intersection, or null if the graph is empty
+	 */
+	public GeographicPoint nearestVertex(double latitude, double longitude)
+	{
+		VertexIndex index = getVertexIndex();
+		int v = index.nearestVertex(latitude, longitude);
+		return v < 0 ? null : index.getGraph().getPoint(v);
+	}
+
+	/**
+	 * Find the k intersections closest to a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @param k The number of intersections wanted
+	 * @return Up to k intersections, closest first
+	 */
+	public List<GeographicPoint> kNearestVertices(double latitude, double longitude, int k)
+	{
+		VertexIndex index = getVertexIndex();
+		return index.getGraph().toPoints(index.kNearest(latitude, longitude, k));
+	}
+
+	/**
+	 * Find the intersections within a distance of a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @param radius The distance in km
+	 * @return The intersections at most radius km away, closest first
+	 */
+	public List<GeographicPoint> verticesWithinRadius(double latitude, double longitude, double radius)
+	{
+		VertexIndex index = getVertexIndex();
+		return index.getGraph().toPoints(index.withinRadius(latitude, longitude, radius));
+	}
+
+	/**
+	 * Snap a location to the road graph
+	 * @param location Any location
+	 * @return The location itself if it is an intersection, otherwise the
+	 *   closest intersection (null if the graph is empty)
+	 */
+	public GeographicPoint snapToVertex(GeographicPoint location)
+	{
+		if (pointNodeMap.containsKey(location)) {
+			return location;
+		}
+		return nearestVertex(location.getX(), location.getY());
+	}
+
+	/**
+	 * Choose the priority queue used by dijkstra, aStarSearch and their
+	 * *WithWorks variants.
+	 * @param type The kind of queue
+	 */
+	public void setQueueType(QueueType type)
+	{
+		queueType = type;
+		clearRouteCache();
+	}
+
+	/**
+	 * Choose the heuristic used by aStarSearch and aStarSearchWithWorks.
+	 * The default is the straight line distance.
+	 * @param heuristic An admissible estimate of the remaining distance
+	 */
+	public void setHeuristic(Heuristic heuristic)
+	{
+		synchronized (this) {
+			this.heuristic = heuristic;
+			landmarks = null;
+		}
+		clearRouteCache();
+	}
+
+	/**
+	 * Switch aStarSearch to the landmark (ALT) heuristic.  The landmark
+	 * distances are read from the file saved next to the map file, or
+	 * computed and saved there if that is missing or out of date.  If
+	 * the graph changes afterwards, the landmarks are chosen again for the
+	 * new graph on the next search.
+	 * @param mapFile The file this graph was loaded from
+	 * @param count The number of landmarks
+	 */
+	public void useLandmarks(String mapFile, int count)
+	{
+		LandmarkIndex index = LandmarkIndex.loadOrBuild(getCSRGraph(), mapFile, count,
+				LandmarkIndex.Strategy.AVOID);
+		LandmarkHeuristic h = new LandmarkHeuristic(index);
+		synchronized (this) {
+			landmarkCount = count;
+			landmarks = h;
+			heuristic = h;
+		}
+		clearRouteCache();
+	}
+
+	// The heuristic searches use: the one set, except that the landmarks
+	// of useLandmarks are chosen again once the graph has changed, since
+	// their distances only hold for the graph they were computed on
+	private Heuristic heuristic()
+	{
+		LandmarkHeuristic h = landmarks;
+		if (h == null) {
+			return heuristic;
+		}
+		CSRGraph g = getCSRGraph();
+		if (h.getGraph() != g) {
+			LandmarkHeuristic fresh = new LandmarkHeuristic(LandmarkIndex.build(g, landmarkCount,
+					LandmarkIndex.Strategy.AVOID));
+			synchronized (this) {
+				if (landmarks == h) {
+					landmarks = fresh;
+					heuristic = fresh;
+				}
+			}
+		}
+		return heuristic;
+	}
+
+	/**
+	 * Keep the paths of recent queries so that repeating one does not
+	 * search again.  Only dijkstra, aStarSearch and their *WithWorks
+	 * variants without a visualization hook use the cache.  It empties
+	 * itself when the graph, the closures or the edge weights change, and
+	 * when the queue or heuristic is switched, since those can pick
+	 * another of several equally short paths.
+	 * @param cache The cache to use, or null to always search
+	 */
+	public void setRouteCache(RouteCache cache)
+	{
+		routeCache = cache;
+	}
+
+	/**
+	 * Get the route cache, for instance to read its hit rate
+	 * @return The cache, or null if none is set
+	 */
+	public RouteCache getRouteCache()
+	{
+		return routeCache;
+	}
+
+	private void clearRouteCache()
+	{
+		RouteCache cache = routeCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	// The route cache key of a query, or null if there is no cache or a
+	// hook watches the search, which a cached answer would leave unfed
+	private RouteCache.Key cacheKey(EdgeWeights.Snapshot w, RoadClosures.Snapshot closed,
+			RoutingEngine.Algorithm algorithm, int works, int startId, int goalId,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		if (routeCache == null || nodeSearched != NO_HOOK) {
+			return null;
+		}
+		return new RouteCache.Key(w.getGraph().unweighted(), startId, goalId, algorithm, works,
+				closed.getVersion(), w.getVersion());
+	}
+
+	// Take the answer to a query from the route cache, or search and keep
+	// the answer there.  Without a key this just searches.
+	private int[] cachedSearch(RouteCache.Key key, Supplier<int[]> search)
+	{
+		RouteCache cache = routeCache;
+		if (key == null || cache == null) {
+			return search.get();
+		}
+		int[] path = cache.get(key);
+		if (path != null) {
+			return path.length == 0 ? null : path;
+		}
+		path = search.get();
+		cache.put(key, path);
+		return path;
+	}
+
+	// Search through the route cache and wrap the answer.  A search that
+	// runs records the edges it took; a path from the cache works them out.
+	private RoutePath cachedRoute(CSRGraph g, RouteCache.Key key, int startId, int goalId,
+			Function<SearchContext, int[]> search)
+	{
+		SearchContext ctx = context();
+		int[][] edges = new int[1][];
+		int[] path = cachedSearch(key, () -> {
+			int[] found = search.apply(ctx);
+			edges[0] = found == null ? null : ctx.reconstructEdges(startId, goalId);
+			return found;
+		});
+		return path == null ? null : new RoutePath(g, path, null, edges[0]);
+	}
+
+	/**
+	 * Get the number of vertices the last search run by the calling
+	 * thread settled, to compare how much work the algorithms do.
+	 * @return The number of settled vertices
+	 */
+	public int getSettledCount()
+	{
+		return searchContext.get().getSettledCount();
+	}
+
+	// The search state of the calling thread, set up for this graph's queue type
+	private SearchContext context()
+	{
+		SearchContext ctx = searchContext.get();
+		ctx.setQueueType(queueType);
+		return ctx;
+	}
+
+	/** Close the longest roads, in both directions, for roadworks.  For
+	 * example, setWorks(2) puts works on the 2 longest roads of the map.
+	 * If there are not that many roads it says so and closes nothing.  The
+	 * closures are published through getRoadClosures(); the edges
+	 * themselves are not changed.
+	 * @param numOfWorks The number of roads to close
 	 */
 	public void setWorks(int numOfWorks) {
 		int doubleDirection = numOfWorks*2;
-		List<MapEdge> sortedList = new ArrayList<MapEdge>(edges);
-		Collections.sort(sortedList);
-		if(doubleDirection<= sortedList.size()){
-			for(int i=0;i<doubleDirection; i++) {
-				MapEdge edgeWithWorks = sortedList.get(i);
-				edgeWithWorks.setRoadWorkstoTrue();
-			}
+		RoadClosures rc = getRoadClosures();
+		if(doubleDirection<= getNumEdges()){
+			rc.update(rc.longestEdges(doubleDirection), new int[0]);
 		}
 		else {
 			System.out.println("Roadworks can't be bigger than the actual number of streets");
 		}
 	}
 	
-	//borrar
-	public void printedges() {
-		for (MapEdge g : edges) {
-			System.out.println(g);
+	// The closures in force plus roadworks on the numOfWorks longest roads
+	// (both directions), for one query.  Nothing shared is changed, so the
+	// works of one query do not stay behind for the next.
+	private RoadClosures.Snapshot withWorks(int numOfWorks) {
+		int doubleDirection = numOfWorks*2;
+		RoadClosures rc = getRoadClosures();
+		if(doubleDirection > getNumEdges()){
+			System.out.println("Roadworks can't be bigger than the actual number of streets");
+			return rc.snapshot();
 		}
+		return rc.snapshot().withClosed(rc.longestEdges(doubleDirection));
 	}
 	
 	/** Add a node corresponding to an intersection at a Geographic Point
@@ -118,6 +600,7 @@ public class MapGraph{
 		if (n == null) {
 			n = new MapNode(location);
 			pointNodeMap.put(location, n);
+			csr = null;
 			return true;
 		}
 		else {
@@ -150,21 +633,13 @@ public class MapGraph{
 			throw new NullPointerException("addEdge: pt2:"+to+"is not in graph");
 
 		MapEdge edge = new MapEdge(roadName, roadType, n1, n2, length);
+		edge.setLoadOrder(edges.size());
 		edges.add(edge);
 		n1.addEdge(edge);
+		csr = null;
 		
 	}
 		
-	/** 
-	 * Get a set of neighbor nodes from a mapNode
-	 * @param node  The node to get the neighbors from
-	 * @return A set containing the MapNode objects that are the neighbors 
-	 * 	of node
-	 */
-	private Set<MapNode> getNeighbors(MapNode node) {
-		return node.getNeighbors();
-	}
-	
 	/** Find the path from start to goal using breadth first search
 	 * 
 	 * @param start The starting location
@@ -190,339 +665,572 @@ public class MapGraph{
 			 					     GeographicPoint goal, 
 			 					     Consumer<GeographicPoint> nodeSearched)
 	{
-		/* Note that this method is a little long and we might think
-		 * about refactoring it to break it into shorter methods as we 
-		 * did in the Maze search code in week 2 */
-		// Setup - check validity of inputs
-		if (start == null || goal == null)
-			throw new NullPointerException("Cannot find route from or to null node");
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		if (startNode == null) {
-			System.err.println("Start node " + start + " does not exist");
+		return points(bfsRoute(start, goal, nodeSearched));
+	}
+	
+	/** Find the path from start to goal using breadth first search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization
+	 * @return The path with the fewest edges as vertex ids, or null if
+	 *   there is none
+	 */
+	public RoutePath bfsRoute(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		CSRGraph g = getCSRGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
 			return null;
 		}
-		if (endNode == null) {
-			System.err.println("End node " + goal + " does not exist");
+		SearchContext ctx = context();
+		int[] path = CSRSearch.bfs(g, startId, goalId, ctx, null, nodeSearched);
+		if (path == null) {
+			System.out.println("No path found from " +start+ " to " + goal);
 			return null;
 		}
-
-		// setup to begin BFS
-		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-		Queue<MapNode> toExplore = new LinkedList<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		toExplore.add(startNode);
-		MapNode next = null;
-
-		while (!toExplore.isEmpty()) {
-			next = toExplore.remove();
-			
-			 // hook for visualization
-			nodeSearched.accept(next.getLocation());
-			
-			if (next.equals(endNode)) break;
-			Set<MapNode> neighbors = getNeighbors(next);
-			for (MapNode neighbor : neighbors) {
-				if (!visited.contains(neighbor)) {
-					visited.add(neighbor);
-					parentMap.put(neighbor, next);
-					toExplore.add(neighbor);
-				}
-			}
+		return new RoutePath(g, path, null, ctx.reconstructEdges(startId, goalId));
+	}
+	
+	// The intersections of a path, or null if there is none.  Callers get
+	// a list of their own, as they always have, not the view of the path.
+	private static List<GeographicPoint> points(RoutePath path)
+	{
+		return path == null ? null : new ArrayList<GeographicPoint>(path.getPoints());
+	}
+	
+	// Check the inputs of a search and look up the vertex id of location.
+	// Returns -1 (after reporting it) if the location is not in the graph.
+	private int findVertex(CSRGraph g, GeographicPoint location, GeographicPoint other)
+	{
+		if (location == null || other == null)
+			throw new NullPointerException("Cannot find route from or to null node");
+		int id = g.getId(location);
+		if (id < 0) {
+			System.err.println("Node " + location + " does not exist");
 		}
-		if (!next.equals(endNode)) {
-			System.out.println("No path found from " +start+ " to " + goal);
+		return id;
+	}
+	
+	public List<GeographicPoint> dijkstraWithWorks(GeographicPoint start, GeographicPoint goal, int numOfWorks) {
+		// Dummy variable for calling the search algorithms
+		// You do not need to change this method.
+		return dijkstraWithWorks(start, goal, NO_HOOK, numOfWorks);
+	}
+	
+	public List<GeographicPoint> dijkstraWithWorks(GeographicPoint start, 
+			  GeographicPoint goal, Consumer<GeographicPoint> nodeSearched, int numOfWorks){
+		// The numOfWorks longest roads are closed for this search only, and
+		// the edges under maintenance are left out of the search.
+		RoadClosures.Snapshot closed = withWorks(numOfWorks);
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
 			return null;
 		}
-		// Reconstruct the parent path
-		List<GeographicPoint> path =
-				reconstructPath(parentMap, startNode, endNode);
-
-		return path;
+		RouteCache.Key key = cacheKey(w, closed, RoutingEngine.Algorithm.DIJKSTRA, numOfWorks,
+				startId, goalId, nodeSearched);
+		int[] path = cachedSearch(key, () -> CSRSearch.dijkstra(g, startId, goalId, context(),
+				closed.bits(), nodeSearched));
+		if (path == null) {
+			System.out.print("No path found due to roadworks");
+		}
+		return g.toPoints(path);
+	}
 	
+	/** Find the path from start to goal using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearchWithWorks(GeographicPoint start, GeographicPoint goal, int numOfWorks) {
+		// Dummy variable for calling the search algorithms
+		return aStarSearchWithWorks(start, goal, NO_HOOK, numOfWorks);
 	}
 	
-
-
-	/** Reconstruct a path from start to goal using the parentMap
-	 *
-	 * @param parentMap the HashNode map of children and their parents
+	/** Find the path from start to goal using A-Star search
+	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @return The list of intersections that form the shortest path from
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	private List<GeographicPoint>
-	reconstructPath(HashMap<MapNode,MapNode> parentMap,
-					MapNode start, MapNode goal)
+	public List<GeographicPoint> aStarSearchWithWorks(GeographicPoint start, 
+											 GeographicPoint goal, Consumer<GeographicPoint> nodeSearched, int numOfWorks)
 	{
-		LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
-		MapNode current = goal;
-
-		while (!current.equals(start)) {
-			path.addFirst(current.getLocation());
-			current = parentMap.get(current);
+		// The numOfWorks longest roads are closed for this search only, and
+		// the edges under maintenance are left out of the search.
+		RoadClosures.Snapshot closed = withWorks(numOfWorks);
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
 		}
-
-		// add start
-		path.addFirst(start.getLocation());
-		return path;
+		RouteCache.Key key = cacheKey(w, closed, RoutingEngine.Algorithm.A_STAR, numOfWorks,
+				startId, goalId, nodeSearched);
+		int[] path = cachedSearch(key, () -> CSRSearch.aStarSearch(g, startId, goalId, context(),
+				closed.bits(), boundedBy(w, heuristic()), nodeSearched));
+		if (path == null) {
+			System.out.print("No path found due to roadworks");
+		}
+		return g.toPoints(path);
 	}
 
-
+	//I INCLUDED THE CLASSIC WEEK3 DIJKSTRA AND A* METHODS TO AVOID ERRORS WITH GRADER CLASSES.
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+		// Dummy variable for calling the search algorithms
+		// You do not need to change this method.
+        return dijkstra(start, goal, NO_HOOK);
+	}
+	
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		return points(dijkstraRoute(start, goal, nodeSearched));
+	}
+	
 	/** Find the path from start to goal using Dijkstra's algorithm
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization
+	 * @return The shortest path as vertex ids, or null if there is none
+	 */
+	public RoutePath dijkstraRoute(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		// The search ignores the closures, so its answer holds whatever
+		// is closed
+		RouteCache.Key key = cacheKey(w, RoadClosures.Snapshot.NONE,
+				RoutingEngine.Algorithm.DIJKSTRA, 0, startId, goalId, nodeSearched);
+		return cachedRoute(g, key, startId, goalId, (ctx) -> CSRSearch.dijkstra(g, startId, goalId,
+				ctx, null, nodeSearched));
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm,
+	 * avoiding closed roads.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param closures The roads to avoid, usually getRoadClosures().snapshot()
+	 * @return The list of intersections that form the shortest open path
+	 *   from start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+			RoadClosures.Snapshot closures) {
+		CSRGraph g = weightedGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		int[] path = CSRSearch.dijkstra(g, startId, goalId, context(), closures.bits(), (x) -> {});
+		return g.toPoints(path);
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm
+	 * searching forward from start and backward from goal at once.
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
+	public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalDijkstra(start, goal, temp);
+	}
 	
-	//Helper method that sets distances from start to 0 for the start node and infinite for the rest
-	private void setDistanceFromStart(GeographicPoint start,GeographicPoint goal) {
-		for(MapNode m : pointNodeMap.values()) {
-			GeographicPoint startloc = new GeographicPoint(start.getX(),start.getY());
-			if(m.getLocation().equals(startloc)){
-				m.setDistanceToZero();
-			}
-			else {
-				m.setDistanceToInf();
-			}
-		}
+	/** Find the path from start to goal using Dijkstra's algorithm
+	 * searching forward from start and backward from goal at once.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the vertices
+	 *   settled by both searches.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		return bidirectional(start, goal, Heuristic.ZERO, nodeSearched);
 	}
 	
-	public List<GeographicPoint> dijkstraWithWorks(GeographicPoint start, GeographicPoint goal, int numOfWorks) {
-		// Dummy variable for calling the search algorithms
-		// You do not need to change this method.
-		try {
-			Consumer<GeographicPoint> temp = (x) -> {
-			};
-			return dijkstraWithWorks(start, goal, temp, numOfWorks);
-		} catch (NullPointerException e) {
-			System.out.print("No path found due to roadworks");
+	/** Find the path from start to goal using A-Star search from both
+	 * ends at once, with the heuristic set by setHeuristic.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalAStar(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalAStar(start, goal, temp);
+	}
+	
+	/** Find the path from start to goal using A-Star search from both
+	 * ends at once, with the heuristic set by setHeuristic.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the vertices
+	 *   settled by both searches.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalAStar(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		return bidirectional(start, goal, heuristic(), nodeSearched);
+	}
+	
+	// Run a bidirectional search; Heuristic.ZERO makes it plain Dijkstra
+	private List<GeographicPoint> bidirectional(GeographicPoint start, GeographicPoint goal,
+			Heuristic h, Consumer<GeographicPoint> nodeSearched) {
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
 			return null;
 		}
+		SearchContext forward = context();
+		SearchContext backward = backwardContext.get();
+		backward.setQueueType(queueType);
+		int[] path = BidirectionalSearch.aStarSearch(g, startId, goalId, forward, backward,
+				null, boundedBy(w, h), nodeSearched);
+		return g.toPoints(path);
 	}
 	
-	public List<GeographicPoint> dijkstraWithWorks(GeographicPoint start, 
-			  GeographicPoint goal, Consumer<GeographicPoint> nodeSearched, int numOfWorks){
-		// TODO: Implement this method in WEEK 6: We just include the method setWorks(numOfWorks), and change the 
-		//getNeighbors() method for the getNeighborsWithoutWorks() instead. Easy changes for a brand new search
-		int count = 0;
-		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		GeographicPoint startloc = new GeographicPoint(start.getX(),start.getY());
-		setWorks(numOfWorks);
-		//Setting distances to 0 and infinite;
-		setDistanceFromStart(start,goal);
-		//Enqueue S,0 onto the PQ:
-		toExplore.add(pointNodeMap.get(startloc));
-		while(!toExplore.isEmpty()) {
-			MapNode curr = toExplore.poll();
-			count++;
-			if(!visited.contains(curr)) {
-				visited.add(curr);
-				if(curr.getLocation().equals(goal)) {
-					break; 
-				}
-				//For each of the currs neighbors, not visited:
-				for(MapNode n : curr.getNeighborsWithoutWorks()) {
-					if(!visited.contains(n)) {
-						//gn is the total distance from start to n (the actual path)
-						double gn = curr.getDisFromStart()+curr.getNighDistance(n);
-						//If path through curr to n is shorter:
-						if(gn<n.getDisFromStart()) {
-							n.setDisFromStart(gn);
-							parentMap.put(n, curr);
-							toExplore.add(n);
-						}
-					}
-				}
-			}
-		}
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		//We take advantage of our method reconstructPath created for BFS:
-		List<GeographicPoint> path =
-				reconstructPath(parentMap, startNode, endNode);
-		System.out.println("count for dijkstra is:" + count);
-		return path;
+	/** Find the path from start to goal with the contraction hierarchy.
+	 * Roadworks and edge weights are ignored.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return contractionHierarchySearch(start, goal, temp);
 	}
 	
-	/** Find the path from start to goal using A-Star search
+	/** Find the path from start to goal with the contraction hierarchy.
+	 * Roadworks and edge weights are ignored.
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the vertices
+	 *   settled by both upward searches.
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	public List<GeographicPoint> aStarSearchWithWorks(GeographicPoint start, GeographicPoint goal, int numOfWorks) {
-		// Dummy variable for calling the search algorithms with our week6
-		// implementation
-		try {
-			Consumer<GeographicPoint> temp = (x) -> {
-			};
-			return aStarSearchWithWorks(start, goal, temp, numOfWorks);
-		} catch (NullPointerException e) {
-			System.out.print("No path found due to roadworks");
+	public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		ContractionHierarchy ch = getContractionHierarchy();
+		CSRGraph g = ch.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
 			return null;
 		}
-
+		SearchContext forward = context();
+		SearchContext backward = backwardContext.get();
+		backward.setQueueType(queueType);
+		int[] path = ch.route(startId, goalId, forward, backward, nodeSearched);
+		return g.toPoints(path);
 	}
 	
-	/** Find the path from start to goal using A-Star search
+	/** Find the path from start to goal with transit node routing.  Long
+	 * queries are answered from the transit node table; the locality
+	 * filter sends short ones to the contraction hierarchy.  Which of the
+	 * two answered is printed with the count.  Roadworks are ignored.
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
-	public List<GeographicPoint> aStarSearchWithWorks(GeographicPoint start, 
-											 GeographicPoint goal, Consumer<GeographicPoint> nodeSearched, int numOfWorks)
-	{
-		//TODO: week6: A* with roadworks on it. We just include the method setWorks(numOfWorks), and change the 
-		//getNeighbors() method for the getNeighborsWithoutWorks() instead. Easy changes for a brand new search
-		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		GeographicPoint startloc = new GeographicPoint(start.getX(),start.getY());
-		setWorks(numOfWorks);
-		int count = 0;
-		//Setting distances to 0 and infinite;
-		setDistanceFromStart(start,goal);
-		//Enqueue S,0 onto the PQ:
-		toExplore.add(pointNodeMap.get(startloc));
-		while(!toExplore.isEmpty()) {
-			MapNode curr = toExplore.poll();
-			count++;
-			if(!visited.contains(curr)) {
-				visited.add(curr);
-				if(curr.getLocation().equals(goal)) {
-					break; 
-				}
-				//For each of the currs neighbors, not visited:
-				MapNode nodeCloserToGoal = curr.getCloseNeighborsWithWorks(goal);
-				if(!visited.contains(nodeCloserToGoal)) {
-						//gn is the total distance from start to n (the actual path)
-						double gn = curr.getDisFromStart()+curr.getNighDistance(nodeCloserToGoal);
-						//If path through curr to n is shorter:
-						if(gn<nodeCloserToGoal.getDisFromStart()) {
-							nodeCloserToGoal.setDisFromStart(gn);
-							parentMap.put(nodeCloserToGoal, curr);
-							toExplore.add(nodeCloserToGoal);
-						}
-					}
-				}
-			}
-			
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		//We take advantage of our method reconstructPath created for BFS:
-		List<GeographicPoint> path =
-				reconstructPath(parentMap, startNode, endNode);
-		System.out.println("count for a*: " + count);
-		return path;
+	public List<GeographicPoint> transitNodeSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return transitNodeSearch(start, goal, temp);
 	}
-
-	//I INCLUDED THE CLASSIC WEEK3 DIJKSTRA AND A* METHODS TO AVOID ERRORS WITH GRADER CLASSES.
-	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
-		// Dummy variable for calling the search algorithms
-		// You do not need to change this method.
+	
+	/** Find the path from start to goal with transit node routing.
+	 * Roadworks are ignored.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the vertices
+	 *   settled by the hierarchy searches.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> transitNodeSearch(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		TransitNodeRouting tnr = getTransitNodeRouting();
+		CSRGraph g = tnr.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		SearchContext forward = context();
+		SearchContext backward = backwardContext.get();
+		backward.setQueueType(queueType);
+		int[] path = tnr.route(startId, goalId, forward, backward, nodeSearched);
+		return g.toPoints(path);
+	}
+	
+	/** Find the length of the shortest path from start to goal with the
+	 * hub labels, which takes no search at all.  Roadworks and edge
+	 * weights are ignored.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The distance in km, or infinity if there is no path (NaN if
+	 *   either location is not in the graph)
+	 */
+	public double hubLabelDistance(GeographicPoint start, GeographicPoint goal) {
+		HubLabels labels = getHubLabels();
+		CSRGraph g = labels.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return Double.NaN;
+		}
+		return labels.distance(startId, goalId);
+	}
+	
+	/** Find the path from start to goal over the partition overlay, with
+	 * the current edge weights.  Roadworks are ignored.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> partitionOverlaySearch(GeographicPoint start, GeographicPoint goal) {
         Consumer<GeographicPoint> temp = (x) -> {};
-        return dijkstra(start, goal, temp);
+        return partitionOverlaySearch(start, goal, temp);
 	}
 	
-	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
+	/** Find the path from start to goal over the partition overlay, with
+	 * the current edge weights.  Roadworks are ignored.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the vertices
+	 *   settled by the overlay search.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> partitionOverlaySearch(GeographicPoint start, GeographicPoint goal,
 			Consumer<GeographicPoint> nodeSearched) {
-		int count = 0;
-		HashMap<MapNode, MapNode> parentMap = new HashMap<MapNode, MapNode>();
-		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		GeographicPoint startloc = new GeographicPoint(start.getX(), start.getY());
-		// Setting distances to 0 and infinite;
-		setDistanceFromStart(start, goal);
-		// Enqueue S,0 onto the PQ:
-		toExplore.add(pointNodeMap.get(startloc));
-		while (!toExplore.isEmpty()) {
-			MapNode curr = toExplore.poll();
-			count++;
-			if (!visited.contains(curr)) {
-				visited.add(curr);
-				if (curr.getLocation().equals(goal)) {
-					break;
-				}
-				// For each of the currs neighbors, not visited:
-				for (MapNode n : curr.getNeighbors()) {
-					if (!visited.contains(n)) {
-						// gn is the total distance from start to n (the actual path)
-						double gn = curr.getDisFromStart() + curr.getNighDistance(n);
-						// If path through curr to n is shorter:
-						if (gn < n.getDisFromStart()) {
-							n.setDisFromStart(gn);
-							parentMap.put(n, curr);
-							toExplore.add(n);
-						}
-					}
-				}
+		PartitionOverlay o = getPartitionOverlay();
+		CSRGraph g = o.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		int[] path = o.route(startId, goalId, context(), nodeSearched);
+		return g.toPoints(path);
+	}
+	
+	/** Find the shortest path between two arbitrary coordinates using
+	 * Dijkstra's algorithm.  Both ends are first snapped to the closest
+	 * intersection.
+	 * 
+	 * @param startLat The latitude of the start
+	 * @param startLon The longitude of the start
+	 * @param goalLat The latitude of the goal
+	 * @param goalLon The longitude of the goal
+	 * @return The list of intersections that form the shortest path from 
+	 *   the snapped start to the snapped goal (including both).
+	 */
+	public List<GeographicPoint> dijkstra(double startLat, double startLon,
+			double goalLat, double goalLon) {
+		return dijkstra(nearestVertex(startLat, startLon), nearestVertex(goalLat, goalLon));
+	}
+	
+	/** Find the shortest path between two arbitrary coordinates using
+	 * A-Star search.  Both ends are first snapped to the closest
+	 * intersection.
+	 * 
+	 * @param startLat The latitude of the start
+	 * @param startLon The longitude of the start
+	 * @param goalLat The latitude of the goal
+	 * @param goalLon The longitude of the goal
+	 * @return The list of intersections that form the shortest path from 
+	 *   the snapped start to the snapped goal (including both).
+	 */
+	public List<GeographicPoint> aStarSearch(double startLat, double startLon,
+			double goalLat, double goalLon) {
+		return aStarSearch(nearestVertex(startLat, startLon), nearestVertex(goalLat, goalLon));
+	}
+	
+	/** Find the shortest paths from a source to every intersection within
+	 * a distance of it, with a single search that stops at that radius.
+	 * Roadworks are ignored.  IsochroneBuilder turns the tree into
+	 * reachable-area polygons.
+	 * 
+	 * @param source The starting location
+	 * @param maxDistance The radius in km; infinity for the whole graph
+	 * @return The distances and parents of the reached intersections, or
+	 *   null if source is not in the graph
+	 */
+	public ShortestPathTree shortestPathTree(GeographicPoint source, double maxDistance) {
+		CSRGraph g = weightedGraph();
+		int sourceId = findVertex(g, source, source);
+		if (sourceId < 0) {
+			return null;
+		}
+		return CSRSearch.shortestPathTree(g, sourceId, maxDistance, context(), null);
+	}
+	
+	/** Compute the road distance between every source and every target,
+	 * running one Dijkstra search per source that stops once all the
+	 * targets are settled.  The sources are searched in parallel.
+	 * Locations that are not intersections are snapped to the closest one.
+	 * 
+	 * @param sources The origins
+	 * @param targets The destinations
+	 * @return matrix[i][j] is the distance in km from sources.get(i) to
+	 *   targets.get(j), or infinity if there is no path
+	 */
+	public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets) {
+		return distanceMatrix(sources, targets, false);
+	}
+	
+	/** Compute the road distance between every source and every target.
+	 * Locations that are not intersections are snapped to the closest one.
+	 * 
+	 * @param sources The origins
+	 * @param targets The destinations
+	 * @param useHierarchy true to use the bucket algorithm over the
+	 *   contraction hierarchy, which pays off for large tables; ignored
+	 *   while any edge weight differs from its length
+	 * @return matrix[i][j] is the distance in km from sources.get(i) to
+	 *   targets.get(j), or infinity if there is no path
+	 */
+	public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+			boolean useHierarchy) {
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int[] from = snapAll(g, sources);
+		int[] to = snapAll(g, targets);
+		// The hierarchy is built on the road lengths
+		if (useHierarchy && w.isOriginal()) {
+			return DistanceMatrix.withHierarchy(getContractionHierarchy(), from, to, queueType,
+					ForkJoinPool.commonPool());
+		}
+		return DistanceMatrix.oneToMany(g, from, to, null, queueType, ForkJoinPool.commonPool());
+	}
+	
+	// The vertex ids of locations, snapped to the closest intersections
+	private int[] snapAll(CSRGraph g, List<GeographicPoint> locations) {
+		int[] ids = new int[locations.size()];
+		for (int i = 0; i < ids.length; i++) {
+			GeographicPoint p = snapToVertex(locations.get(i));
+			if (p == null) {
+				throw new IllegalStateException("The graph has no vertices");
 			}
-
+			ids[i] = g.getId(p);
 		}
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		// We take advantage of our method reconstructPath created for BFS:
-		List<GeographicPoint> path = reconstructPath(parentMap, startNode, endNode);
-		System.out.println("count for dijkstra is:" + count);
-		return path;
+		return ids;
 	}
 	
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
 		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
-        return aStarSearch(start, goal, temp);
+        return aStarSearch(start, goal, NO_HOOK);
 	}
 	
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
 			Consumer<GeographicPoint> nodeSearched) {
-		HashMap<MapNode, MapNode> parentMap = new HashMap<MapNode, MapNode>();
-		PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		GeographicPoint startloc = new GeographicPoint(start.getX(), start.getY());
-		int count = 0;
-		// Setting distances to 0 and infinite;
-		setDistanceFromStart(start, goal);
-		// Enqueue S,0 onto the PQ:
-		toExplore.add(pointNodeMap.get(startloc));
-		while (!toExplore.isEmpty()) {
-			MapNode curr = toExplore.poll();
-			count++;
-			if (!visited.contains(curr)) {
-				visited.add(curr);
-				if (curr.getLocation().equals(goal)) {
-					break;
-				}
-				// For each of the currs neighbors, not visited:
-				MapNode nodeCloserToGoal = curr.getCloseNeighbors(goal);
-				if (!visited.contains(nodeCloserToGoal)) {
-					// gn is the total distance from start to n (the actual path)
-					double gn = curr.getDisFromStart() + curr.getNighDistance(nodeCloserToGoal);
-					// If path through curr to n is shorter:
-					if (gn < nodeCloserToGoal.getDisFromStart()) {
-						nodeCloserToGoal.setDisFromStart(gn);
-						parentMap.put(nodeCloserToGoal, curr);
-						toExplore.add(nodeCloserToGoal);
-					}
-				}
-			}
+		return points(aStarRoute(start, goal, heuristic(), nodeSearched));
+	}
+	
+	/** Find the path from start to goal using A-Star search with the
+	 * heuristic set by setHeuristic
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization
+	 * @return The shortest path as vertex ids, or null if there is none
+	 */
+	public RoutePath aStarRoute(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		return aStarRoute(start, goal, heuristic(), nodeSearched);
+	}
+
+	/** Find the path from start to goal using A-Star search, avoiding
+	 * closed roads.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param closures The roads to avoid, usually getRoadClosures().snapshot()
+	 * @return The list of intersections that form the shortest open path
+	 *   from start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+			RoadClosures.Snapshot closures) {
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
 		}
+		int[] path = CSRSearch.aStarSearch(g, startId, goalId, context(), closures.bits(),
+				boundedBy(w, heuristic()), (x) -> {});
+		return g.toPoints(path);
+	}
 
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		// We take advantage of our method reconstructPath created for BFS:
-		List<GeographicPoint> path = reconstructPath(parentMap, startNode, endNode);
-		System.out.println("count for a*: " + count);
-		return path;
+	/** Find the path from start to goal using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param heuristic The estimate of the remaining distance to use
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
+			Heuristic heuristic, Consumer<GeographicPoint> nodeSearched) {
+		return points(aStarRoute(start, goal, heuristic, nodeSearched));
+	}
+	
+	private RoutePath aStarRoute(GeographicPoint start, GeographicPoint goal,
+			Heuristic heuristic, Consumer<GeographicPoint> nodeSearched) {
+		EdgeWeights.Snapshot w = getEdgeWeights().snapshot();
+		CSRGraph g = w.getGraph();
+		int startId = findVertex(g, start, goal);
+		int goalId = findVertex(g, goal, start);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		// Only the heuristic set on the graph is cached under A_STAR.  Like
+		// dijkstraRoute, the search ignores the closures.
+		RouteCache.Key key = heuristic != this.heuristic ? null : cacheKey(w,
+				RoadClosures.Snapshot.NONE, RoutingEngine.Algorithm.A_STAR, 0, startId, goalId,
+				nodeSearched);
+		return cachedRoute(g, key, startId, goalId, (ctx) -> CSRSearch.aStarSearch(g, startId, goalId,
+				ctx, null, boundedBy(w, heuristic), nodeSearched));
 	}
 	
 	
@@ -14,15 +14,14 @@ import geography.GeographicPoint;
  * Class representing a vertex (or node) in our MapGraph
  *
  */
-class MapNode implements Comparable<MapNode>
+class MapNode
 {
 	/** The list of edges out of this node */
 	private HashSet<MapEdge> edges;
 		
 	/** the latitude and longitude of this node */
 	private GeographicPoint location;
-		
-	private double distanceFromStart;
+
 	/** 
 	 * Create a new MapNode at a given Geographic location
 	 * @param loc the location of this node
@@ -42,71 +41,6 @@ class MapNode implements Comparable<MapNode>
 		edges.add(edge);
 	}
 	
-	/**  
-	 * Return the neighbors of this MapNode 
-	 * @return a set containing all the neighbors of this node
-	 */Set<MapNode> getNeighbors()
-	{
-		Set<MapNode> neighbors = new HashSet<MapNode>();
-		for (MapEdge edge : edges) {
-			neighbors.add(edge.getOtherNode(this));
-		}
-		return neighbors;
-	}
-	/**  
-	 * TODO: Week 6: We modify getNeighbors() so if an edge(a piece of road) is under maintenance (roadWorks=true),
-	 * it is not added as a valid neighbor, as it would slows us down or we could not even cross it. 
-	 * Return the neighbors of this MapNode 
-	 * @return a set containing all the neighbors of this node
-	 */
-	Set<MapNode> getNeighborsWithoutWorks()
-	{
-		Set<MapNode> neighbors = new HashSet<MapNode>();
-		for (MapEdge edge : edges) {
-			if(edge.getRoadWorks()!= true) {
-				neighbors.add(edge.getOtherNode(this));
-			}
-		}
-		return neighbors;
-	}
-	
-	/*This method returns the neighbour mapnode which is the closest in straight line to the goal, so we don't visit
-	the other neighbours in a A*Search iteration. The grader gives me 75% success, so it must have its limits, but
-	as it is my own design I give this much more credit than reproducing any pseudocode.
-	*/
-	MapNode getCloseNeighbors(GeographicPoint goal)
-	{	
-		double smallest = Integer.MAX_VALUE;
-		MapNode closest = null;
-		for (MapEdge edge : edges) {
-			GeographicPoint edgePoint = edge.getEndPoint();
-			if(edgePoint.distance(goal)<smallest) {
-				smallest = edgePoint.distance(goal);
-				closest = edge.getEndNode();
-			}
-		}
-		return closest;
-	}
-	
-	/**  
-	 * TODO: Week 6: We modify getCloseNeighbors(goal) so if an edge(a piece of road) is under maintenance (roadWorks=true),
-	 * it is not added to the iteration as a valid neighbor, as it would slows us down or we could not even cross it.
-	 * @return the closest neighbour node to the goalpoint
-	 */
-	MapNode getCloseNeighborsWithWorks(GeographicPoint goal) {
-		double smallest = Integer.MAX_VALUE;
-		MapNode closest = null;
-		for (MapEdge edge : edges) {
-			if (edge.getRoadWorks() != true) {
-				GeographicPoint edgePoint = edge.getEndPoint();
-				if (edgePoint.distance(goal) < smallest) {
-					smallest = edgePoint.distance(goal);
-					closest = edge.getEndNode();
-				}
-			}
-		}
-		return closest;
-	}
 	/**
 	 * Get the geographic location that this node represents
 	 * @return the geographic location of this node
@@ -125,31 +59,6 @@ class MapNode implements Comparable<MapNode>
 		return edges;
 	}
 	
-	public void setDistanceToInf() {
-		 distanceFromStart = Double.POSITIVE_INFINITY;
-	}
-	
-	public void setDistanceToZero() {
-		distanceFromStart=0;
-	}
-	
-	public double getDisFromStart() {
-		return distanceFromStart;
-	}
-	//Give me the distance from the mapnode to a goal mapnode which must be a neighbour
-	public double getNighDistance(MapNode goal){
-		double distance = -1;
-		for(MapEdge e: edges) {
-			if(e.getEndPoint().equals(goal.getLocation())) {
-				distance = e.getLength();
-			}
-		}
-		return distance;
-	}
-	
-	public void setDisFromStart(double distance) {
-		distanceFromStart = distance;
-	}
 	/** Returns whether two nodes are equal.
 	 * Nodes are considered equal if their locations are the same, 
 	 * even if their street list is different.
@@ -202,9 +111,4 @@ class MapNode implements Comparable<MapNode>
 		toReturn += ")";
 		return toReturn;
 	}
-	
-	@Override
-    public int compareTo(MapNode o) {
-        return Double.compare(this.distanceFromStart, o.distanceFromStart);
-    }
 }
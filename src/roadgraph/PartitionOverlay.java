@@ -0,0 +1,313 @@
+/**
+ * Customizable route planning over a multilevel partition
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The metric half of customizable route planning (CRP): for every cell
+ * of a GraphPartition, the shortest distance inside the cell between
+ * each pair of its boundary vertices, a clique that stands in for the
+ * whole cell.  Unlike a ContractionHierarchy this is cheap to redo, so a
+ * new overlay is customized whenever the edge weights change and the
+ * partition is kept.
+ *
+ * Customization works up the levels.  On level 0 a Dijkstra search from
+ * each boundary vertex runs over the edges inside its cell.  On a higher
+ * level it runs over the cliques of the cells one level down plus the
+ * edges between them, so it never touches the inside of a subcell.  The
+ * cells of a level are independent and are customized in parallel.
+ *
+ * A query runs Dijkstra from the start, but a vertex whose cells on
+ * levels up to k contain neither the start nor the goal is expanded with
+ * the clique of its level k cell and the edges leaving that cell, so the
+ * search crosses far-away cells in single steps.  The cliques on the
+ * path found are unpacked by searching inside their cells again.
+ *
+ * Closures can be expressed as infinite weights in EdgeWeights.
+ *
+ */
+public final class PartitionOverlay
+{
+	/** Parent edges below this mark clique arcs: CLIQUE - l is level l */
+	private static final int CLIQUE = -2;
+
+	private final GraphPartition partition;
+	private final CSRGraph graph;
+	/** The clique of cell c on level l is the matrix of b * b distances
+	 * from cliqueOffsets[l][c] in weights[l], b being the number of
+	 * boundary vertices of c; row i holds the distances from vertex i */
+	private final long[][] cliqueOffsets;
+	private final double[][] weights;
+
+	/**
+	 * Customize the cliques of a partition for a weighting of its graph
+	 * @param partition The cells
+	 * @param weighted The graph of the partition, or a reweighted view of
+	 *   it such as EdgeWeights.Snapshot.getGraph()
+	 * @param pool The threads to customize with
+	 */
+	public PartitionOverlay(GraphPartition partition, CSRGraph weighted, ForkJoinPool pool)
+	{
+		if (weighted.unweighted() != partition.getGraph().unweighted()) {
+			throw new IllegalArgumentException("The partition was built for a different graph");
+		}
+		this.partition = partition;
+		this.graph = weighted;
+		int levels = partition.getLevelCount();
+		cliqueOffsets = new long[levels][];
+		weights = new double[levels][];
+		ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+		for (int l = 0; l < levels; l++) {
+			int cells = partition.cellCount[l];
+			int[] offsets = partition.boundaryOffsets[l];
+			long[] start = new long[cells + 1];
+			for (int c = 0; c < cells; c++) {
+				long b = offsets[c + 1] - offsets[c];
+				start[c + 1] = start[c] + b * b;
+			}
+			if (start[cells] > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("The cells of level " + l + " are too large");
+			}
+			cliqueOffsets[l] = start;
+			weights[l] = new double[(int) start[cells]];
+			final int level = l;
+			pool.invoke(ForkJoinTask.adapt(() -> {
+				IntStream.range(0, cells).parallel().forEach(c ->
+						customizeCell(level, c, contexts.get()));
+			}));
+		}
+	}
+
+	// Fill the clique of one cell with a search from each boundary vertex
+	private void customizeCell(int l, int c, SearchContext ctx)
+	{
+		int first = partition.boundaryOffsets[l][c];
+		int b = partition.boundaryOffsets[l][c + 1] - first;
+		int base = (int) cliqueOffsets[l][c];
+		for (int i = 0; i < b; i++) {
+			cellSearch(l, c, partition.boundary[l][first + i], -1, ctx);
+			for (int j = 0; j < b; j++) {
+				weights[l][base + i * b + j] = ctx.getDistance(partition.boundary[l][first + j]);
+			}
+		}
+	}
+
+	// Dijkstra from source within cell c of level l, over the edges of the
+	// graph on level 0 and over the cliques of level l - 1 and the edges
+	// between their cells above.  Stops at goal, or when goal is -1 once
+	// every boundary vertex of the cell is settled.
+	private void cellSearch(int l, int c, int source, int goal, SearchContext ctx)
+	{
+		int n = graph.numVertices;
+		int[] cellOf = partition.cell[l];
+		ctx.reset(n);
+		VertexQueue toExplore = ctx.getQueue(n);
+		ctx.update(source, 0, source);
+		toExplore.push(source, 0);
+		int remaining = partition.boundaryOffsets[l][c + 1] - partition.boundaryOffsets[l][c];
+
+		while (!toExplore.isEmpty()) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			if (curr == goal) {
+				return;
+			}
+			if (goal < 0 && partition.boundaryIndex[l][curr] >= 0 && --remaining == 0) {
+				return;
+			}
+			double dCurr = ctx.getDistance(curr);
+			if (l == 0) {
+				for (int e = graph.offsets[curr]; e < graph.offsets[curr + 1]; e++) {
+					int next = graph.targets[e];
+					if (cellOf[next] == c) {
+						relax(ctx, toExplore, curr, next, dCurr + graph.lengths[e], e);
+					}
+				}
+			} else {
+				int sub = partition.cell[l - 1][curr];
+				relaxClique(ctx, toExplore, l - 1, curr, dCurr);
+				for (int e = graph.offsets[curr]; e < graph.offsets[curr + 1]; e++) {
+					int next = graph.targets[e];
+					if (cellOf[next] == c && partition.cell[l - 1][next] != sub) {
+						relax(ctx, toExplore, curr, next, dCurr + graph.lengths[e], e);
+					}
+				}
+			}
+		}
+	}
+
+	// Relax the clique arcs from a boundary vertex of its cell on level l
+	private void relaxClique(SearchContext ctx, VertexQueue toExplore, int l, int u, double du)
+	{
+		int c = partition.cell[l][u];
+		int first = partition.boundaryOffsets[l][c];
+		int b = partition.boundaryOffsets[l][c + 1] - first;
+		int row = (int) cliqueOffsets[l][c] + partition.boundaryIndex[l][u] * b;
+		double[] w = weights[l];
+		for (int j = 0; j < b; j++) {
+			relax(ctx, toExplore, u, partition.boundary[l][first + j], du + w[row + j], CLIQUE - l);
+		}
+	}
+
+	private static void relax(SearchContext ctx, VertexQueue toExplore, int from, int to,
+			double d, int edge)
+	{
+		if (d < ctx.getDistance(to) && !ctx.isSettled(to)) {
+			ctx.update(to, d, from, edge);
+			toExplore.push(to, d);
+		}
+	}
+
+	/**
+	 * Get the partition the overlay was customized on
+	 * @return The partition
+	 */
+	public GraphPartition getPartition()
+	{
+		return partition;
+	}
+
+	/**
+	 * Get the graph whose weights the overlay was customized for
+	 * @return The weighted graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the distance between two boundary vertices of a cell
+	 * @param level The level of the cell
+	 * @param from A boundary vertex of the cell
+	 * @param to Another boundary vertex of the same cell
+	 * @return The length of the shortest path from -> to that stays in the
+	 *   cell, or infinity if there is none
+	 */
+	public double getCliqueWeight(int level, int from, int to)
+	{
+		int c = partition.cell[level][from];
+		int i = partition.boundaryIndex[level][from];
+		int j = partition.boundaryIndex[level][to];
+		if (i < 0 || j < 0 || partition.cell[level][to] != c) {
+			throw new IllegalArgumentException(from + " and " + to
+					+ " are not boundary vertices of one cell");
+		}
+		int b = partition.boundaryOffsets[level][c + 1] - partition.boundaryOffsets[level][c];
+		return weights[level][(int) cliqueOffsets[level][c] + i * b + j];
+	}
+
+	/**
+	 * Find the shortest path between two vertices over the overlay
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param ctx The scratch state to search with; its settled count is
+	 *   that of the overlay search alone
+	 * @param nodeSearched A hook for visualization, called for every
+	 *   vertex the overlay search settles
+	 * @return The vertex ids from start to goal, or null if there is no path
+	 */
+	public int[] route(int start, int goal, SearchContext ctx, Consumer<GeographicPoint> nodeSearched)
+	{
+		int n = graph.numVertices;
+		ctx.reset(n);
+		VertexQueue toExplore = ctx.getQueue(n);
+		ctx.update(start, 0, start);
+		toExplore.push(start, 0);
+		boolean found = false;
+
+		while (!toExplore.isEmpty()) {
+			int curr = toExplore.pollMin();
+			ctx.settle(curr);
+			nodeSearched.accept(graph.getPoint(curr));
+			if (curr == goal) {
+				found = true;
+				break;
+			}
+			double dCurr = ctx.getDistance(curr);
+			int k = queryLevel(curr, start, goal);
+			if (k < 0) {
+				for (int e = graph.offsets[curr]; e < graph.offsets[curr + 1]; e++) {
+					relax(ctx, toExplore, curr, graph.targets[e], dCurr + graph.lengths[e], e);
+				}
+			} else {
+				// Only boundary vertices get here: the search enters a cell
+				// over an edge from outside it
+				int c = partition.cell[k][curr];
+				relaxClique(ctx, toExplore, k, curr, dCurr);
+				for (int e = graph.offsets[curr]; e < graph.offsets[curr + 1]; e++) {
+					int next = graph.targets[e];
+					if (partition.cell[k][next] != c) {
+						relax(ctx, toExplore, curr, next, dCurr + graph.lengths[e], e);
+					}
+				}
+			}
+		}
+		if (!found) {
+			return null;
+		}
+
+		// The overlay path with the arc taken into each vertex, goal first
+		ContractionHierarchy.IntList vertices = new ContractionHierarchy.IntList();
+		ContractionHierarchy.IntList arcs = new ContractionHierarchy.IntList();
+		for (int v = goal; v != start; v = ctx.getParent(v)) {
+			vertices.add(v);
+			arcs.add(ctx.getParentEdge(v));
+		}
+		int settled = ctx.getSettledCount();
+		ContractionHierarchy.IntList path = new ContractionHierarchy.IntList();
+		path.add(start);
+		for (int i = vertices.size - 1; i >= 0; i--) {
+			int from = path.items[path.size - 1];
+			unpack(from, vertices.items[i], arcs.items[i], path, ctx);
+		}
+		ctx.reset(n);
+		ctx.addSettled(settled);
+		return Arrays.copyOf(path.items, path.size);
+	}
+
+	// The highest level on which v's cell holds neither start nor goal,
+	// or -1 if there is none.  Cells nest, so v is in other cells than
+	// start and goal on every level below that one as well.
+	private int queryLevel(int v, int start, int goal)
+	{
+		for (int l = partition.getLevelCount() - 1; l >= 0; l--) {
+			int[] cellOf = partition.cell[l];
+			if (cellOf[v] != cellOf[start] && cellOf[v] != cellOf[goal]) {
+				return l;
+			}
+		}
+		return -1;
+	}
+
+	// Append the vertices after from on the arc from -> to to path
+	private void unpack(int from, int to, int arc, ContractionHierarchy.IntList path,
+			SearchContext ctx)
+	{
+		if (arc >= 0) {
+			path.add(to);
+			return;
+		}
+		int l = CLIQUE - arc;
+		cellSearch(l, partition.cell[l][from], from, to, ctx);
+		ContractionHierarchy.IntList vertices = new ContractionHierarchy.IntList();
+		ContractionHierarchy.IntList arcs = new ContractionHierarchy.IntList();
+		for (int v = to; v != from; v = ctx.getParent(v)) {
+			vertices.add(v);
+			arcs.add(ctx.getParentEdge(v));
+		}
+		for (int i = vertices.size - 1; i >= 0; i--) {
+			unpack(path.items[path.size - 1], vertices.items[i], arcs.items[i], path, ctx);
+		}
+	}
+}
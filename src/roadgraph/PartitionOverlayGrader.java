@@ -0,0 +1,54 @@
+/**
+ * Checks partition overlay routes against Dijkstra
+ */
+package roadgraph;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the partition overlay.  The graph is cut into small cells,
+ * so that the overlay has several levels, and closed and reweighted roads
+ * are customized into the same partition.  RoutingEngine follows the
+ * weights with its own overlay but falls back to another search around
+ * closed roads, and must agree with Dijkstra either way.
+ *
+ */
+public class PartitionOverlayGrader extends DijkstraEquivalenceGrader
+{
+	private static final int[] CELL_SIZES = {4, 16, 64, 256};
+
+	/** The partition of the map being graded */
+	private GraphPartition partition;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new PartitionOverlayGrader());
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		if (partition == null || partition.getGraph().unweighted() != g.unweighted()) {
+			partition = new GraphPartition(g.unweighted(), CELL_SIZES);
+		}
+		PartitionOverlay overlay = new PartitionOverlay(partition, g, ForkJoinPool.commonPool());
+		SearchContext ctx = new SearchContext();
+		return new Technique("Partition overlay",
+				(start, goal) -> overlay.route(start, goal, ctx, (x) -> {}), null);
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		return new Technique("Engine", (start, goal) -> {
+			Route route = engine.route(start, goal, RoutingEngine.Algorithm.PARTITION_OVERLAY,
+					closures);
+			if (closures.isEmpty() && route.getAlgorithm() != RoutingEngine.Algorithm.PARTITION_OVERLAY) {
+				throw new IllegalStateException("Engine answered with " + route.getAlgorithm() + " instead of its overlay.");
+			}
+			return route.getVertexIds();
+		}, null);
+	}
+}
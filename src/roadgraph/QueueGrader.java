@@ -0,0 +1,227 @@
+/**
+ * Checks the priority queues of the searches
+ */
+package roadgraph;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the vertex queues.  Each queue is driven with random
+ * pushes, decrease-keys and polls next to a java.util.PriorityQueue,
+ * and must poll the same keys; the radix queue only gets keys that never
+ * go below the last one polled.  On the maps, searches on a radix queue
+ * must find the distances searches on a heap find, up to the millimetre
+ * per edge its rounding allows.
+ *
+ */
+public class QueueGrader extends Grader
+{
+	private static final int OPERATIONS = 30000;
+
+	private static final int VERTICES = 10000;
+
+	private static final int QUERIES = 200;
+
+	public QueueGrader()
+	{
+		super(11);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new QueueGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		section("QUEUES: Random operations");
+
+		check("Binary heap against java.util.PriorityQueue",
+				() -> compare("Binary heap", new IndexedHeap(2), false, new Random(1)));
+
+		check("4-ary heap against java.util.PriorityQueue",
+				() -> compare("4-ary heap", new IndexedHeap(4), false, new Random(2)));
+
+		check("Radix queue against java.util.PriorityQueue",
+				() -> compare("Radix queue", new RadixQueue(), true, new Random(3)));
+
+		check("Radix queue refuses keys below the last one polled", this::refusesLowerKeys);
+
+		runTest(load("ucsd.map"), "MAP: Intersections around UCSD");
+
+		runTest(grid(24), "MAP: Grid of equal-length roads");
+
+		runTest(load("hollywood_small.map"), "MAP: Hollywood (small)");
+
+		runTest(load("newbury_small.map"), "MAP: Newbury (small)");
+
+		runTest(load("utc.map"), "MAP: UTC");
+
+		runTest(load("san_diego.map"), "MAP: San Diego");
+
+		runTest(load("hollywood_large.map"), "MAP: Hollywood (large)");
+	}
+
+	/** Drive a queue and a PriorityQueue of (key, vertex) pairs with the
+	 * same random operations.  Keys are whole metres, so the radix queue
+	 * orders them exactly.  The PriorityQueue cannot lower a key, so it
+	 * keeps the old pairs and skips them when they come up.
+	 * @param name The name of the queue, for the feedback
+	 * @param queue The queue to check
+	 * @param monotone Whether keys must stay at or above the last one polled
+	 * @param random Picks the operations
+	 * @return What went wrong, or null if the queues agreed
+	 */
+	public static String compare(String name, VertexQueue queue, boolean monotone, Random random)
+	{
+		queue.reset(VERTICES);
+		PriorityQueue<double[]> reference = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+		double[] key = new double[VERTICES];
+		boolean[] queued = new boolean[VERTICES];
+		boolean[] polled = new boolean[VERTICES];
+		double last = 0;
+
+		for (int op = 0; op < OPERATIONS; op++) {
+			int v = random.nextInt(VERTICES);
+			if (queue.contains(v) != queued[v]) {
+				return name + " says vertex " + v + (queued[v] ? " is not" : " is") + " queued.";
+			}
+			if (random.nextInt(3) > 0) {
+				if (polled[v]) {
+					continue;
+				}
+				// A new key, or a lower one if v is queued already
+				double low = monotone ? last : 0;
+				double high = queued[v] ? key[v] : low + 10;
+				double k = low + Math.floor(random.nextDouble() * (high - low) * 1000) / 1000;
+				queue.push(v, k);
+				key[v] = k;
+				queued[v] = true;
+				reference.add(new double[] {k, v});
+				continue;
+			}
+
+			while (!reference.isEmpty() && !isCurrent(reference.peek(), key, queued)) {
+				reference.poll();
+			}
+			if (reference.isEmpty() != queue.isEmpty()) {
+				return name + (queue.isEmpty() ? " is" : " is not") + " empty after " + op + " operations.";
+			}
+			if (reference.isEmpty()) {
+				continue;
+			}
+			double expected = reference.peek()[0];
+			if (!same(queue.minKey(), expected)) {
+				return name + " has minimum key " + queue.minKey() + "; expected " + expected + ".";
+			}
+			int u = queue.pollMin();
+			if (!queued[u] || !same(key[u], expected)) {
+				return name + " polled vertex " + u + (queued[u] ? " with key " + key[u] : ", which was not queued")
+						+ "; expected key " + expected + ".";
+			}
+			queued[u] = false;
+			polled[u] = true;
+			last = expected;
+		}
+		return null;
+	}
+
+	// Whether a (key, vertex) pair still holds the key of its vertex
+	private static boolean isCurrent(double[] pair, double[] key, boolean[] queued)
+	{
+		int v = (int)pair[1];
+		return queued[v] && key[v] == pair[0];
+	}
+
+	// Equal up to the rounding of the radix queue
+	private static boolean same(double a, double b)
+	{
+		return Math.abs(a - b) <= 1e-9;
+	}
+
+	// A radix queue must throw rather than poll out of order, and the
+	// searches must not pair it with a heuristic that is not consistent
+	private String refusesLowerKeys()
+	{
+		RadixQueue queue = new RadixQueue();
+		queue.reset(3);
+		queue.push(0, 1);
+		queue.push(1, 2);
+		queue.pollMin();
+		try {
+			queue.push(2, 0.5);
+			return "Radix queue took key 0.5 after polling key 1.";
+		}
+		catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		CSRGraph g = grid(3).getCSRGraph();
+		SearchContext ctx = new SearchContext();
+		ctx.setQueueType(QueueType.RADIX);
+		Heuristic[] inconsistent = {(graph, v, goal) -> 0, new EquirectangularHeuristic()};
+		for (Heuristic h : inconsistent) {
+			try {
+				CSRSearch.aStarSearch(g, 0, 8, ctx, null, h, (x) -> {});
+				return "A* ran on a radix queue with a heuristic that is not consistent.";
+			}
+			catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+		return null;
+	}
+
+	/** Compare searches on a radix queue and on heaps, on one map.
+	 * @param map The map
+	 * @param desc A description of the map
+	 */
+	public void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+
+		CSRGraph g = map.getCSRGraph();
+		check(QUERIES + " Dijkstra and A* queries on every queue", () -> judge(g, new Random(g.fingerprint())));
+	}
+
+	// Run Dijkstra and A* on every queue; the heaps must agree exactly,
+	// the radix queue up to 1 mm per edge of its path
+	private static String judge(CSRGraph g, Random random)
+	{
+		SearchContext[] contexts = new SearchContext[QueueType.values().length];
+		for (QueueType type : QueueType.values()) {
+			contexts[type.ordinal()] = new SearchContext();
+			contexts[type.ordinal()].setQueueType(type);
+		}
+		Heuristic[] heuristics = {Heuristic.ZERO, new HaversineHeuristic()};
+
+		for (int q = 0; q < QUERIES; q++) {
+			int start = random.nextInt(g.getNumVertices());
+			int goal = random.nextInt(g.getNumVertices());
+			for (Heuristic h : heuristics) {
+				String search = (h == Heuristic.ZERO ? "Dijkstra" : "A*") + " from " + start + " to " + goal;
+				int[] expected = CSRSearch.aStarSearch(g, start, goal, contexts[QueueType.FOUR_ARY_HEAP.ordinal()], null, h, (x) -> {});
+				for (QueueType type : QueueType.values()) {
+					int[] path = CSRSearch.aStarSearch(g, start, goal, contexts[type.ordinal()], null, h, (x) -> {});
+					if ((path == null) != (expected == null)) {
+						return search + " on " + type + (path == null ? " found no path." : " found a path where there is none.");
+					}
+					if (path == null) {
+						continue;
+					}
+					double length = g.pathLength(path);
+					double best = g.pathLength(expected);
+					double slack = type == QueueType.RADIX ? (path.length - 1) / RadixQueue.SCALE : 0;
+					if (length < best - 1e-9 * Math.max(1, best) || length > best + slack + 1e-9 * Math.max(1, best)) {
+						return search + " on " + type + " found a path of length " + length + "; expected " + best + ".";
+					}
+				}
+			}
+		}
+		return null;
+	}
+}
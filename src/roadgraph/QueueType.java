@@ -0,0 +1,37 @@
+/**
+ * The kinds of priority queue the searches can run on
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Selects the VertexQueue a SearchContext hands to Dijkstra and A*.
+ *
+ */
+public enum QueueType
+{
+	/** Indexed binary heap */
+	BINARY_HEAP,
+	/** Indexed 4-ary heap, the default */
+	FOUR_ARY_HEAP,
+	/** Radix heap over lengths scaled to whole millimetres, which
+	 * orders keys only to the millimetre and needs a consistent heuristic */
+	RADIX;
+
+	/**
+	 * Create an empty queue of this type
+	 * @return The new queue
+	 */
+	VertexQueue create()
+	{
+		switch (this) {
+		case BINARY_HEAP:
+			return new IndexedHeap(2);
+		case RADIX:
+			return new RadixQueue();
+		default:
+			return new IndexedHeap(4);
+		}
+	}
+}
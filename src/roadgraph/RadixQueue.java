@@ -0,0 +1,181 @@
+/**
+ * Radix heap of vertex ids for integer-scaled distances
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A monotone radix heap (a bucket queue with buckets of doubling width)
+ * over vertex ids.  Keys are scaled to whole units (see SCALE, which
+ * turns km into mm) and kept as longs.  Bucket i holds the vertices
+ * whose key first differs from the last polled key at bit i-1, so a
+ * push or decrease-key is O(1) and each vertex moves to a lower bucket
+ * at most 64 times per search.
+ *
+ * Like every radix heap it is only valid for monotone searches: keys
+ * never go below the last polled one.  That holds for Dijkstra and for
+ * A* with a consistent heuristic, and the searches refuse to pair it
+ * with any other (see Heuristic.isConsistent).  A key that rounds one
+ * unit below the last polled key is rounding noise and is clamped to
+ * it; a lower key is an error.
+ *
+ * The order is approximate: keys less than a millimetre apart may be
+ * polled in either order.  The distances a search records are exact
+ * sums of edge lengths, but the path it settles a vertex by can be
+ * longer than the shortest one by up to 1 mm per edge.
+ *
+ */
+public final class RadixQueue implements VertexQueue
+{
+	/** Units per km of the integer keys (millimetres) */
+	public static final double SCALE = 1e6;
+
+	private static final int BUCKETS = 65;
+
+	/** Vertex ids in every bucket, and how many there are */
+	private final int[][] buckets = new int[BUCKETS][];
+	private final int[] bucketSize = new int[BUCKETS];
+	/** Scaled key, bucket and position in the bucket of every vertex */
+	private long[] keys;
+	private int[] bucketOf;
+	private int[] slot;
+	/** The last key polled; every queued key is at least this */
+	private long last;
+	private int size;
+
+	public RadixQueue()
+	{
+		for (int b = 0; b < BUCKETS; b++) {
+			buckets[b] = new int[4];
+		}
+		keys = new long[0];
+		bucketOf = new int[0];
+		slot = new int[0];
+	}
+
+	@Override
+	public void reset(int numVertices)
+	{
+		if (bucketOf.length < numVertices) {
+			keys = new long[numVertices];
+			bucketOf = new int[numVertices];
+			slot = new int[numVertices];
+			Arrays.fill(bucketOf, -1);
+		}
+		else {
+			for (int b = 0; b < BUCKETS; b++) {
+				for (int i = 0; i < bucketSize[b]; i++) {
+					bucketOf[buckets[b][i]] = -1;
+				}
+			}
+		}
+		Arrays.fill(bucketSize, 0);
+		last = 0;
+		size = 0;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	@Override
+	public boolean contains(int v)
+	{
+		return bucketOf[v] >= 0;
+	}
+
+	@Override
+	public void push(int v, double key)
+	{
+		long k = Math.round(key * SCALE);
+		if (k < last) {
+			if (k < last - 1) {
+				throw new IllegalArgumentException("Key " + key + " of vertex " + v
+						+ " is below the last polled key " + last / SCALE);
+			}
+			k = last;
+		}
+		if (bucketOf[v] >= 0) {
+			if (k > keys[v]) {
+				throw new IllegalArgumentException("Cannot increase the key of vertex " + v);
+			}
+			remove(v);
+		}
+		else {
+			size++;
+		}
+		keys[v] = k;
+		add(v, bucketFor(k));
+	}
+
+	@Override
+	public double minKey()
+	{
+		refill();
+		return last / SCALE;
+	}
+
+	@Override
+	public int pollMin()
+	{
+		refill();
+		int v = buckets[0][--bucketSize[0]];
+		bucketOf[v] = -1;
+		size--;
+		return v;
+	}
+
+	// Make sure bucket 0 (the keys equal to last) is not empty by
+	// redistributing the lowest non-empty bucket around its minimum.
+	private void refill()
+	{
+		if (bucketSize[0] > 0) {
+			return;
+		}
+		int b = 1;
+		while (bucketSize[b] == 0) {
+			b++;
+		}
+		int[] items = buckets[b];
+		int n = bucketSize[b];
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			min = Math.min(min, keys[items[i]]);
+		}
+		last = min;
+		bucketSize[b] = 0;
+		for (int i = 0; i < n; i++) {
+			int v = items[i];
+			add(v, bucketFor(keys[v]));
+		}
+	}
+
+	private int bucketFor(long key)
+	{
+		return key == last ? 0 : 64 - Long.numberOfLeadingZeros(key ^ last);
+	}
+
+	private void add(int v, int b)
+	{
+		if (bucketSize[b] == buckets[b].length) {
+			buckets[b] = Arrays.copyOf(buckets[b], buckets[b].length * 2);
+		}
+		slot[v] = bucketSize[b];
+		bucketOf[v] = b;
+		buckets[b][bucketSize[b]++] = v;
+	}
+
+	// Take v out of its bucket by moving the bucket's last item into its slot
+	private void remove(int v)
+	{
+		int b = bucketOf[v];
+		int moved = buckets[b][--bucketSize[b]];
+		buckets[b][slot[v]] = moved;
+		slot[moved] = slot[v];
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * Closed roads, kept apart from the graph they apply to
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The set of closed edges of a CSRGraph, such as roads under works.
+ * Closures never touch the graph itself.  The current set is an
+ * immutable Snapshot (a bitset over edge ids with a version number), and
+ * every change publishes a new snapshot with the next version.  Versions
+ * count from 1, so no published snapshot shares the version 0 of
+ * Snapshot.NONE.  A query takes the snapshot once and searches with it
+ * to the end, so it always sees a consistent set however the closures
+ * change meanwhile, and two queries never see each other's state.
+ *
+ * Changes are applied by copy-on-write with a compare-and-set, so any
+ * number of threads can close and reopen roads at once.  A bulk update
+ * such as update(close, reopen) becomes visible as a single version.
+ *
+ */
+public final class RoadClosures
+{
+	private final CSRGraph graph;
+	private final AtomicReference<Snapshot> current;
+	/** Edge ids from longest to shortest, built on first use */
+	private volatile int[] byLength;
+
+	/**
+	 * Start with every edge of a graph open
+	 * @param graph The graph whose edges can be closed
+	 */
+	public RoadClosures(CSRGraph graph)
+	{
+		this.graph = graph;
+		this.current = new AtomicReference<Snapshot>(new Snapshot(1, new BitSet()));
+	}
+
+	/**
+	 * Get the graph the closures apply to
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the closures in force now
+	 * @return The current snapshot, which never changes
+	 */
+	public Snapshot snapshot()
+	{
+		return current.get();
+	}
+
+	/**
+	 * Close an edge
+	 * @param e The edge id
+	 * @return The snapshot with the edge closed
+	 */
+	public Snapshot closeEdge(int e)
+	{
+		return update(new int[] {e}, new int[0]);
+	}
+
+	/**
+	 * Reopen an edge
+	 * @param e The edge id
+	 * @return The snapshot with the edge open
+	 */
+	public Snapshot reopenEdge(int e)
+	{
+		return update(new int[0], new int[] {e});
+	}
+
+	/**
+	 * Close the road from one intersection to the next.  Only that
+	 * direction is closed; close the reverse road as well to block both.
+	 * @param from The start of the road
+	 * @param to The end of the road
+	 * @return The snapshot with every edge from -> to closed
+	 */
+	public Snapshot closeRoad(GeographicPoint from, GeographicPoint to)
+	{
+		return update(edgesBetween(from, to), new int[0]);
+	}
+
+	/**
+	 * Reopen the road from one intersection to the next
+	 * @param from The start of the road
+	 * @param to The end of the road
+	 * @return The snapshot with every edge from -> to open
+	 */
+	public Snapshot reopenRoad(GeographicPoint from, GeographicPoint to)
+	{
+		return update(new int[0], edgesBetween(from, to));
+	}
+
+	/**
+	 * Close and reopen many edges as one change.  An edge in both lists
+	 * ends up open.
+	 * @param close The edge ids to close
+	 * @param reopen The edge ids to reopen
+	 * @return The snapshot with the changes applied
+	 */
+	public Snapshot update(int[] close, int[] reopen)
+	{
+		checkEdges(close);
+		checkEdges(reopen);
+		return change(bits -> {
+			for (int e : close) {
+				bits.set(e);
+			}
+			for (int e : reopen) {
+				bits.clear(e);
+			}
+		});
+	}
+
+	/**
+	 * Reopen every edge
+	 * @return The empty snapshot
+	 */
+	public Snapshot clear()
+	{
+		return change(bits -> bits.clear());
+	}
+
+	// Apply a change to a copy of the current bits and publish it,
+	// retrying if another thread published first
+	private Snapshot change(Consumer<BitSet> edit)
+	{
+		while (true) {
+			Snapshot old = current.get();
+			BitSet bits = (BitSet) old.closed.clone();
+			edit.accept(bits);
+			Snapshot next = new Snapshot(old.version + 1, bits);
+			if (current.compareAndSet(old, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Get the longest edges, which is where roadworks are put
+	 * @param count The number of edges wanted
+	 * @return The ids of the count longest edges, longest first (equal
+	 *   lengths in id order)
+	 */
+	public int[] longestEdges(int count)
+	{
+		int[] order = byLength;
+		if (order == null) {
+			Integer[] ids = new Integer[graph.numEdges];
+			for (int e = 0; e < ids.length; e++) {
+				ids[e] = e;
+			}
+			Arrays.sort(ids, (a, b) -> Double.compare(graph.lengths[b], graph.lengths[a]));
+			order = new int[ids.length];
+			for (int e = 0; e < ids.length; e++) {
+				order[e] = ids[e];
+			}
+			byLength = order;
+		}
+		return Arrays.copyOf(order, Math.min(count, order.length));
+	}
+
+	// The edges from one vertex to another
+	private int[] edgesBetween(GeographicPoint from, GeographicPoint to)
+	{
+		int u = graph.getId(from);
+		int v = graph.getId(to);
+		if (u < 0 || v < 0) {
+			throw new IllegalArgumentException("Node " + (u < 0 ? from : to) + " does not exist");
+		}
+		int[] edges = new int[0];
+		for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+			if (graph.targets[e] == v) {
+				edges = Arrays.copyOf(edges, edges.length + 1);
+				edges[edges.length - 1] = e;
+			}
+		}
+		return edges;
+	}
+
+	private void checkEdges(int[] edges)
+	{
+		for (int e : edges) {
+			if (e < 0 || e >= graph.numEdges) {
+				throw new IllegalArgumentException("Edge " + e + " is not in the graph");
+			}
+		}
+	}
+
+	/**
+	 * One version of the closures.  Snapshots are immutable.
+	 */
+	public static final class Snapshot
+	{
+		/** Closes nothing */
+		public static final Snapshot NONE = new Snapshot(0, new BitSet());
+
+		private final long version;
+		private final BitSet closed;
+
+		Snapshot(long version, BitSet closed)
+		{
+			this.version = version;
+			this.closed = closed;
+		}
+
+		/**
+		 * Get the version, which goes up by one with every change
+		 * published by the RoadClosures this came from.  Published
+		 * versions start at 1; NONE has version 0.
+		 * @return The version number
+		 */
+		public long getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * Check whether an edge is closed
+		 * @param e The edge id
+		 * @return true if the edge may not be used
+		 */
+		public boolean isClosed(int e)
+		{
+			return closed.get(e);
+		}
+
+		/**
+		 * Check whether anything is closed
+		 * @return true if every edge is open
+		 */
+		public boolean isEmpty()
+		{
+			return closed.isEmpty();
+		}
+
+		/**
+		 * Get the number of closed edges
+		 * @return The number of closed edges
+		 */
+		public int getClosedCount()
+		{
+			return closed.cardinality();
+		}
+
+		/**
+		 * Get the closed edges
+		 * @return Their ids in increasing order
+		 */
+		public int[] getClosedEdges()
+		{
+			return closed.stream().toArray();
+		}
+
+		/**
+		 * Close more edges for one query without publishing them.  The
+		 * overlay keeps this snapshot's version.
+		 * @param edges The edge ids to close as well
+		 * @return A snapshot with both sets closed
+		 */
+		public Snapshot withClosed(int[] edges)
+		{
+			if (edges.length == 0) {
+				return this;
+			}
+			BitSet bits = (BitSet) closed.clone();
+			for (int e : edges) {
+				bits.set(e);
+			}
+			return new Snapshot(version, bits);
+		}
+
+		// The closed edges for the searches in CSRSearch, which read but
+		// never write them; null when nothing is closed
+		BitSet bits()
+		{
+			return closed.isEmpty() ? null : closed;
+		}
+	}
+}
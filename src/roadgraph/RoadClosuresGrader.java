@@ -0,0 +1,260 @@
+/**
+ * Checks road closures and the routes around them
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for RoadClosures and the roadworks searches of MapGraph.  A new
+ * set of closures is empty at version 1, after the 0 of Snapshot.NONE,
+ * and every change publishes exactly one new version without touching
+ * the snapshots taken before.  Threads closing roads at once must not
+ * lose each other's changes.  On every map, the roadworks searches must
+ * find the paths Dijkstra finds with the longest roads closed, and leave
+ * the published closures as they were; so must a search with the
+ * closures of setWorks.  The queries are between intersections the works
+ * leave connected.
+ *
+ */
+public class RoadClosuresGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int THREADS = 8;
+
+	private static final int ROUNDS = 100;
+
+	private static final int QUERIES = 50;
+
+	private static final int WORKS = 3;
+
+	public RoadClosuresGrader()
+	{
+		super(5 + 2 * MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new RoadClosuresGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		CSRGraph ucsd = load("ucsd.map").getCSRGraph();
+		section("CLOSURES: Versions and contents on " + MAP_FILES[0]);
+
+		check("A new set is empty at version 1", () -> {
+			if (RoadClosures.Snapshot.NONE.getVersion() != 0 || !RoadClosures.Snapshot.NONE.isEmpty()) {
+				return "NONE is " + describe(RoadClosures.Snapshot.NONE) + "; expected empty at version 0.";
+			}
+			RoadClosures.Snapshot s = new RoadClosures(ucsd).snapshot();
+			return s.getVersion() == 1 && s.isEmpty() ? null
+					: "A new set is " + describe(s) + "; expected empty at version 1.";
+		});
+
+		check("Every change is one version", () -> {
+			RoadClosures rc = new RoadClosures(ucsd);
+			RoadClosures.Snapshot[] steps = {
+				rc.snapshot(),
+				rc.closeEdge(3),
+				rc.update(new int[] {5, 7, 9}, new int[0]),
+				rc.reopenEdge(7),
+				rc.update(new int[] {11, 5}, new int[] {5, 3}),
+				rc.clear()
+			};
+			int[][] expected = {{}, {3}, {3, 5, 7, 9}, {3, 5, 9}, {9, 11}, {}};
+			for (int i = 0; i < steps.length; i++) {
+				if (steps[i].getVersion() != i + 1 || !Arrays.equals(steps[i].getClosedEdges(), expected[i])) {
+					return "Step " + i + " gave " + describe(steps[i]) + "; expected "
+							+ Arrays.toString(expected[i]) + " at version " + (i + 1) + ".";
+				}
+			}
+			return rc.snapshot() == steps[steps.length - 1] ? null : "The last change is not the one in force.";
+		});
+
+		check("closeRoad closes every edge one way", () -> {
+			RoadClosures rc = new RoadClosures(ucsd);
+			int e = 0;
+			int u = source(ucsd, e);
+			int v = ucsd.getTarget(e);
+			RoadClosures.Snapshot s = rc.closeRoad(ucsd.getPoint(u), ucsd.getPoint(v));
+			for (int f = 0; f < ucsd.getNumEdges(); f++) {
+				boolean forward = source(ucsd, f) == u && ucsd.getTarget(f) == v;
+				if (s.isClosed(f) != forward) {
+					return "After closing " + u + " to " + v + ", edge " + f + " from " + source(ucsd, f)
+							+ " to " + ucsd.getTarget(f) + " is " + (forward ? "open." : "closed.");
+				}
+			}
+			s = rc.reopenRoad(ucsd.getPoint(u), ucsd.getPoint(v));
+			return s.isEmpty() ? null : "Reopening " + u + " to " + v + " left " + describe(s) + ".";
+		});
+
+		check("withClosed does not publish", () -> {
+			RoadClosures rc = new RoadClosures(ucsd);
+			RoadClosures.Snapshot before = rc.closeEdge(1);
+			RoadClosures.Snapshot more = before.withClosed(new int[] {2, 4});
+			if (!Arrays.equals(more.getClosedEdges(), new int[] {1, 2, 4})) {
+				return "withClosed gave " + describe(more) + "; expected [1, 2, 4].";
+			}
+			if (rc.snapshot() != before || before.getClosedCount() != 1) {
+				return "withClosed changed the closures to " + describe(rc.snapshot()) + ".";
+			}
+			return null;
+		});
+
+		check(THREADS + " threads closing roads at once", () -> concurrentChanges(ucsd));
+
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			MapGraph graph = load(map);
+			CSRGraph g = graph.getCSRGraph();
+			Random random = new Random(g.fingerprint());
+			RoadClosures rc = graph.getRoadClosures();
+			BitSet works = new BitSet(g.getNumEdges());
+			for (int e : rc.longestEdges(2 * WORKS)) {
+				works.set(e);
+			}
+
+			check(QUERIES + " roadworks queries", () -> {
+				RoadClosures.Snapshot before = rc.snapshot();
+				String error = judge(g, works, random, (start, goal) -> graph.dijkstraWithWorks(
+						g.getPoint(start), g.getPoint(goal), WORKS), "dijkstraWithWorks");
+				if (error == null) {
+					error = judge(g, works, random, (start, goal) -> graph.aStarSearchWithWorks(
+							g.getPoint(start), g.getPoint(goal), WORKS), "aStarSearchWithWorks");
+				}
+				if (error == null && rc.snapshot() != before) {
+					error = "The roadworks searches published " + describe(rc.snapshot()) + ".";
+				}
+				return error;
+			});
+
+			check(QUERIES + " queries after setWorks", () -> {
+				graph.setWorks(WORKS);
+				RoadClosures.Snapshot closures = rc.snapshot();
+				if (!closures.bits().equals(works)) {
+					return "setWorks closed " + describe(closures) + ".";
+				}
+				return judge(g, works, random, (start, goal) -> graph.dijkstra(g.getPoint(start),
+						g.getPoint(goal), closures), "dijkstra with the closures");
+			});
+		}
+	}
+
+	// Close and reopen disjoint edges one at a time from several threads,
+	// over and over, ending with them closed; every change must count
+	private String concurrentChanges(CSRGraph g) throws InterruptedException
+	{
+		RoadClosures rc = new RoadClosures(g);
+		int each = g.getNumEdges() / THREADS;
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int first = t * each;
+			threads[t] = new Thread(() -> {
+				for (int r = 0; r < ROUNDS; r++) {
+					for (int e = first; e < first + each; e++) {
+						rc.closeEdge(e);
+						rc.reopenEdge(e);
+					}
+				}
+				for (int e = first; e < first + each; e++) {
+					rc.closeEdge(e);
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		RoadClosures.Snapshot s = rc.snapshot();
+		int closed = THREADS * each;
+		int changes = closed * (2 * ROUNDS + 1);
+		if (s.getClosedCount() != closed || s.getVersion() != 1 + changes) {
+			return "After " + changes + " changes there are " + s.getClosedCount()
+					+ " closed edges at version " + s.getVersion() + "; expected " + closed
+					+ " at version " + (1 + changes) + ".";
+		}
+		return null;
+	}
+
+	// A search through the MapGraph interface
+	private interface Search
+	{
+		List<GeographicPoint> route(int start, int goal);
+	}
+
+	// Compare a search with Dijkstra around the closed edges.  The goals
+	// are drawn from the vertices that can still be reached, since many
+	// random pairs on the small maps have no open path at all.
+	private static String judge(CSRGraph g, BitSet closed, Random random, Search search, String name)
+	{
+		SearchContext ctx = new SearchContext();
+		for (int q = 0; q < QUERIES; q++) {
+			int start = random.nextInt(g.getNumVertices());
+			int[] reached = CSRSearch.shortestPathTree(g, start, Double.POSITIVE_INFINITY, ctx, closed)
+					.getReachedVertices();
+			int goal = reached[random.nextInt(reached.length)];
+			CSRSearch.dijkstra(g, start, goal, ctx, closed, (x) -> {});
+			List<GeographicPoint> points = search.route(start, goal);
+			int[] path = null;
+			if (points != null) {
+				path = new int[points.size()];
+				for (int i = 0; i < path.length; i++) {
+					path[i] = g.getId(points.get(i));
+				}
+			}
+			String error = DijkstraEquivalenceGrader.checkPath(name, g, start, goal,
+					ctx.getDistance(goal), path);
+			if (error == null && path != null && usesClosed(g, closed, path)) {
+				error = name + " from " + start + " to " + goal + " takes a closed road.";
+			}
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	// Whether some step of a path can only be taken on a closed road
+	private static boolean usesClosed(CSRGraph g, BitSet closed, int[] path)
+	{
+		for (int i = 0; i + 1 < path.length; i++) {
+			boolean open = false;
+			for (int e = g.firstEdge(path[i]); e < g.endEdge(path[i]); e++) {
+				if (g.getTarget(e) == path[i + 1] && !closed.get(e)) {
+					open = true;
+				}
+			}
+			if (!open) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The vertex an edge leaves
+	private static int source(CSRGraph g, int e)
+	{
+		int v = 0;
+		while (g.endEdge(v) <= e) {
+			v++;
+		}
+		return v;
+	}
+
+	private static String describe(RoadClosures.Snapshot s)
+	{
+		return Arrays.toString(s.getClosedEdges()) + " at version " + s.getVersion();
+	}
+}
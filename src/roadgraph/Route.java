@@ -0,0 +1,107 @@
+/**
+ * The answer to one routing query
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * What RoutingEngine.route returns: the path, its length and how many
+ * vertices the search settled to find it.  The path is a RoutePath, so
+ * a route holds little more than the vertex ids.  Routes are immutable,
+ * so they can be handed between threads freely.
+ *
+ */
+public final class Route
+{
+	private final RoutingEngine.Algorithm algorithm;
+	private final RoutePath path;
+	private final int settledCount;
+
+	Route(CSRGraph graph, RoutingEngine.Algorithm algorithm, int[] path, BitSet closed,
+			int[] edges, int settledCount)
+	{
+		this.algorithm = algorithm;
+		this.path = path == null ? null : new RoutePath(graph, path, closed, edges);
+		this.settledCount = settledCount;
+	}
+
+	/**
+	 * Check whether a path was found
+	 * @return false if the goal cannot be reached from the start
+	 */
+	public boolean isFound()
+	{
+		return path != null;
+	}
+
+	/**
+	 * Get the algorithm that answered the query
+	 * @return The algorithm
+	 */
+	public RoutingEngine.Algorithm getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	/**
+	 * Get the path as vertex ids of the graph the engine routes on
+	 * @return A copy of the ids from start to goal, or null if there is no path
+	 */
+	public int[] getVertexIds()
+	{
+		return path == null ? null : path.getVertexIds();
+	}
+
+	/**
+	 * Get the path with its views as coordinates and road geometry
+	 * @return The path, or null if there is none
+	 */
+	public RoutePath getRoutePath()
+	{
+		return path;
+	}
+
+	/**
+	 * Get the path as intersections
+	 * @return The intersections from start to goal (both included), or
+	 *   null if there is no path
+	 */
+	public List<GeographicPoint> getPath()
+	{
+		return path == null ? null : path.getPoints();
+	}
+
+	/**
+	 * Get the length of the path.  For BFS this is the length in km of
+	 * the path with the fewest edges, which need not be the shortest.
+	 * @return The length in km, or infinity if there is no path
+	 */
+	public double getDistance()
+	{
+		return path == null ? Double.POSITIVE_INFINITY : path.getLength();
+	}
+
+	/**
+	 * Get the number of vertices the search settled
+	 * @return The number of settled vertices
+	 */
+	public int getSettledCount()
+	{
+		return settledCount;
+	}
+
+	public String toString()
+	{
+		if (path == null) {
+			return algorithm + ": no path (" + settledCount + " settled)";
+		}
+		return String.format("%s: %d vertices, %.3f km (%d settled)", algorithm,
+				path.getVertexCount(), path.getLength(), settledCount);
+	}
+}
@@ -0,0 +1,324 @@
+/**
+ * Bounded cache of recent routes
+ */
+package roadgraph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Remembers the paths of recent queries so that a repeated query (the
+ * same two intersections, algorithm and roads) costs a map lookup instead
+ * of a search.  Paths are kept as vertex id arrays, a few bytes per
+ * intersection, and the cache holds at most a fixed number of them,
+ * dropping the least recently used first.  An entry can also be given a
+ * time to live, after which it counts as a miss and is dropped.
+ *
+ * Every key names the graph, the version of the road closures and the
+ * version of the edge weights its path was found with.  The cache holds
+ * the entries of one such scope at a time: the first lookup with a newer
+ * scope empties it, so closing a road or changing a weight invalidates
+ * every cached route without anyone having to tell the cache.  A lookup
+ * with an older scope, from a query that took its snapshots before the
+ * change, misses without touching the entries, so queries still running
+ * on the old roads cannot keep emptying the cache for the new ones.  A
+ * put with a scope other than the current one is ignored, so a slow
+ * query cannot bring back a stale path either.  A search that ignores
+ * the closures is keyed with closures version 0, the version of
+ * RoadClosures.Snapshot.NONE; it belongs to the scope of any closures,
+ * so closing a road does not make its answer miss.
+ *
+ * All methods are synchronized; the lock is held only for the map
+ * operation, never during a search.
+ *
+ */
+public final class RouteCache
+{
+	/** What get returns for a query that is cached as having no path */
+	public static final int[] NO_PATH = new int[0];
+
+	private final int maxEntries;
+	private final long ttlNanos;
+	private final LinkedHashMap<Key, Cached> entries;
+	// The scope of the entries held now, null until the first lookup
+	private Key scope;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Create a cache whose entries never expire
+	 * @param maxEntries The most routes to keep
+	 */
+	public RouteCache(int maxEntries)
+	{
+		this(maxEntries, 0);
+	}
+
+	/**
+	 * Create a cache
+	 * @param maxEntries The most routes to keep
+	 * @param ttlMillis How long a route stays usable after it is put, in
+	 *   milliseconds, or 0 to keep it until it is evicted or invalidated
+	 */
+	public RouteCache(int maxEntries, long ttlMillis)
+	{
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("A route cache must hold at least one route");
+		}
+		if (ttlMillis < 0) {
+			throw new IllegalArgumentException("The time to live cannot be negative");
+		}
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttlMillis * 1000000L;
+		// Access order, so the eldest entry is the least recently used
+		this.entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest)
+			{
+				if (size() > RouteCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Look a query up
+	 * @param key The query
+	 * @return The vertex ids of the cached path, which must not be changed;
+	 *   NO_PATH if the query is cached as having no path; or null on a
+	 *   miss, which every query with an older scope than the cache's is
+	 */
+	public synchronized int[] get(Key key)
+	{
+		if (scope == null || key.newerScope(scope)) {
+			if (!entries.isEmpty()) {
+				invalidations++;
+				entries.clear();
+			}
+			scope = key;
+		}
+		else if (!key.sameScope(scope)) {
+			misses++;
+			return null;
+		}
+		Cached entry = entries.get(key);
+		if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.time > ttlNanos) {
+			entries.remove(key);
+			evictions++;
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.path;
+	}
+
+	/**
+	 * Remember the answer to a query
+	 * @param key The query, normally one that get has just missed
+	 * @param path The vertex ids of the path, or null if there is none;
+	 *   kept as is, so the caller must not change the array afterwards
+	 */
+	public synchronized void put(Key key, int[] path)
+	{
+		if (scope == null || !key.sameScope(scope)) {
+			return;
+		}
+		entries.put(key, new Cached(path == null ? NO_PATH : path, System.nanoTime()));
+	}
+
+	/**
+	 * Drop every route.  The scope is kept: queries that took their
+	 * snapshots before the last change must still miss, or they could
+	 * fill the emptied cache with paths on the old roads.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Get the number of routes held
+	 * @return The number of entries, expired ones included until they are
+	 *   next looked up
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Get the most routes the cache keeps
+	 * @return The size limit
+	 */
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+
+	/**
+	 * Get the number of lookups that found a route
+	 * @return The hits since the cache was created
+	 */
+	public synchronized long getHitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups that found nothing usable
+	 * @return The misses since the cache was created
+	 */
+	public synchronized long getMissCount()
+	{
+		return misses;
+	}
+
+	/**
+	 * Get the share of lookups that found a route
+	 * @return hits / (hits + misses), or 0 before the first lookup
+	 */
+	public synchronized double getHitRate()
+	{
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Get the number of routes dropped to make room or because they expired
+	 * @return The evictions since the cache was created
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Get the number of times the cache was emptied because the graph,
+	 * closures or weights changed
+	 * @return The invalidations since the cache was created
+	 */
+	public synchronized long getInvalidationCount()
+	{
+		return invalidations;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("RouteCache[%d/%d routes, %d hits, %d misses, %d evictions, %d invalidations]",
+				entries.size(), maxEntries, hits, misses, evictions, invalidations);
+	}
+
+	private static final class Cached
+	{
+		final int[] path;
+		final long time;
+
+		Cached(int[] path, long time)
+		{
+			this.path = path;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * A query as the cache sees it.  Keys are immutable.
+	 */
+	public static final class Key
+	{
+		private final CSRGraph graph;
+		private final int start;
+		private final int goal;
+		private final RoutingEngine.Algorithm algorithm;
+		private final int variant;
+		private final long closuresVersion;
+		private final long weightsVersion;
+		private final int hash;
+
+		/**
+		 * Describe a query
+		 * @param graph The graph searched, with its original lengths
+		 * @param start The id of the starting vertex
+		 * @param goal The id of the goal vertex
+		 * @param algorithm The search that answers the query
+		 * @param variant Anything else the answer depends on, such as the
+		 *   number of roadworks, or 0
+		 * @param closuresVersion The version of the road closures in force,
+		 *   or 0 if the search ignores the closures
+		 * @param weightsVersion The version of the edge weights in force
+		 */
+		public Key(CSRGraph graph, int start, int goal, RoutingEngine.Algorithm algorithm, int variant,
+				long closuresVersion, long weightsVersion)
+		{
+			this.graph = graph;
+			this.start = start;
+			this.goal = goal;
+			this.algorithm = algorithm;
+			this.variant = variant;
+			this.closuresVersion = closuresVersion;
+			this.weightsVersion = weightsVersion;
+			int h = start;
+			h = 31 * h + goal;
+			h = 31 * h + algorithm.ordinal();
+			h = 31 * h + variant;
+			h = 31 * h + Long.hashCode(closuresVersion);
+			h = 31 * h + Long.hashCode(weightsVersion);
+			this.hash = h;
+		}
+
+		// Whether the two keys were found with the same graph and roads
+		private boolean sameRoads(Key other)
+		{
+			return graph == other.graph && closuresVersion == other.closuresVersion
+					&& weightsVersion == other.weightsVersion;
+		}
+
+		// Whether this key's answer holds in a scope: the same graph and
+		// weights, and the same closures unless the search ignores them
+		boolean sameScope(Key scope)
+		{
+			return graph == scope.graph && weightsVersion == scope.weightsVersion
+					&& (closuresVersion == 0 || closuresVersion == scope.closuresVersion);
+		}
+
+		// Whether this key was found with a later graph, or with the same
+		// graph and later roads: no version older and one of them newer
+		boolean newerScope(Key scope)
+		{
+			if (graph != scope.graph) {
+				return graph.serial > scope.graph.serial;
+			}
+			return (closuresVersion == 0 || closuresVersion >= scope.closuresVersion)
+					&& weightsVersion >= scope.weightsVersion && !sameScope(scope);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return start == k.start && goal == k.goal && algorithm == k.algorithm
+					&& variant == k.variant && sameRoads(k);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ * Checks the route cache and the answers served from it
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for RouteCache.  A cache must hit what was put, evict the least
+ * recently used route when full, and drop routes that outlive their time
+ * to live.  A lookup with newer roads must empty it, while one with older
+ * roads must miss and leave it alone, and a route found on older roads
+ * must not be put.  A search that ignores the closures must keep hitting
+ * when a road is closed, and clear must not forget the roads.  On every
+ * map, answers served from the cache of a MapGraph or a RoutingEngine
+ * must be the ones a fresh search gives, also after the roads change.
+ *
+ */
+public class RouteCacheGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int QUERIES = 50;
+
+	private static final int[] PATH = {0, 1};
+
+	private static final RoutingEngine.Algorithm DIJKSTRA = RoutingEngine.Algorithm.DIJKSTRA;
+
+	public RouteCacheGrader()
+	{
+		super(5 + 2 * MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new RouteCacheGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		CSRGraph g = load("ucsd.map").getCSRGraph();
+		section("CACHE: Entries and scopes");
+
+		check("Hits, misses and least recently used eviction", () -> {
+			RouteCache cache = new RouteCache(3);
+			if (cache.get(key(g, 1, 0, 0)) != null) {
+				return "An empty cache hit.";
+			}
+			for (int goal = 1; goal <= 3; goal++) {
+				cache.put(key(g, goal, 0, 0), goal == 2 ? null : PATH);
+			}
+			if (cache.get(key(g, 1, 0, 0)) != PATH || cache.get(key(g, 2, 0, 0)) != RouteCache.NO_PATH) {
+				return "A route that was put was not found as it was put.";
+			}
+			// 3 is now the least recently used
+			cache.put(key(g, 4, 0, 0), PATH);
+			if (cache.get(key(g, 3, 0, 0)) != null || cache.get(key(g, 1, 0, 0)) == null || cache.size() != 3) {
+				return "The least recently used route was not the one evicted.";
+			}
+			return counts(cache, 3, 2, 1, 0);
+		});
+
+		check("Routes expire after their time to live", () -> {
+			RouteCache cache = new RouteCache(10, 50);
+			cache.get(key(g, 1, 0, 0));
+			cache.put(key(g, 1, 0, 0), PATH);
+			if (cache.get(key(g, 1, 0, 0)) == null) {
+				return "A fresh route missed.";
+			}
+			Thread.sleep(100);
+			if (cache.get(key(g, 1, 0, 0)) != null) {
+				return "A route hit after its time to live.";
+			}
+			return counts(cache, 1, 2, 1, 0);
+		});
+
+		check("Newer roads empty the cache and older ones miss", () -> {
+			RouteCache cache = new RouteCache(10);
+			cache.get(key(g, 1, 1, 1));
+			cache.put(key(g, 1, 1, 1), PATH);
+			// Newer weights empty the cache
+			if (cache.get(key(g, 2, 1, 2)) != null || cache.size() != 0) {
+				return "Newer weights left " + cache.size() + " routes.";
+			}
+			cache.put(key(g, 2, 1, 2), PATH);
+			// A query that took its snapshots before misses, without
+			// emptying the cache or putting its route
+			cache.get(key(g, 3, 1, 1));
+			cache.put(key(g, 3, 1, 1), PATH);
+			if (cache.size() != 1 || cache.get(key(g, 2, 1, 2)) != PATH) {
+				return "A query on older roads changed the cache.";
+			}
+			// Newer closures empty it too
+			cache.get(key(g, 4, 2, 2));
+			return cache.size() == 0 ? counts(cache, 1, 4, 0, 2) : "Newer closures left " + cache.size() + " routes.";
+		});
+
+		check("A search that ignores the closures keeps hitting", () -> {
+			RouteCache cache = new RouteCache(10);
+			cache.get(key(g, 1, 0, 1));
+			cache.put(key(g, 1, 0, 1), PATH);
+			// A query with closures moves the cache on to them
+			cache.get(key(g, 2, 5, 1));
+			cache.put(key(g, 2, 5, 1), PATH);
+			cache.get(key(g, 1, 0, 1));
+			cache.put(key(g, 1, 0, 1), PATH);
+			// Closing another road drops the route of the closures only
+			cache.get(key(g, 3, 6, 1));
+			cache.put(key(g, 1, 0, 1), PATH);
+			if (cache.get(key(g, 1, 0, 1)) != PATH || cache.get(key(g, 2, 5, 1)) != null) {
+				return "Routes that ignore the closures were not kept apart from the others.";
+			}
+			return null;
+		});
+
+		check("clear keeps the roads", () -> {
+			RouteCache cache = new RouteCache(10);
+			cache.get(key(g, 1, 1, 2));
+			cache.put(key(g, 1, 1, 2), PATH);
+			cache.clear();
+			cache.get(key(g, 2, 1, 1));
+			cache.put(key(g, 2, 1, 1), PATH);
+			if (cache.size() != 0) {
+				return "After clear a route on older roads was put.";
+			}
+			cache.put(key(g, 1, 1, 2), PATH);
+			return cache.get(key(g, 1, 1, 2)) == PATH ? null : "After clear a route on the same roads missed.";
+		});
+
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			MapGraph graph = load(map);
+
+			check("MapGraph answers from the cache", () -> judgeMapGraph(graph));
+
+			check("RoutingEngine answers from the cache", () -> {
+				try (RoutingEngine engine = new RoutingEngine(graph.getCSRGraph())) {
+					return judgeEngine(engine);
+				}
+			});
+		}
+	}
+
+	// Repeat queries on a MapGraph with a cache, closing a road and
+	// changing the weights in between
+	private static String judgeMapGraph(MapGraph graph)
+	{
+		RouteCache cache = new RouteCache(10 * QUERIES);
+		graph.setRouteCache(cache);
+		CSRGraph g = graph.getCSRGraph();
+		Random random = new Random(g.fingerprint());
+		int[][] queries = queries(g, random);
+
+		String error = compareMapGraph(graph, graph.getEdgeWeights().snapshot().getGraph(), queries);
+		long hits = cache.getHitCount();
+		if (error == null) {
+			error = compareMapGraph(graph, g, queries);
+		}
+		if (error == null && cache.getHitCount() - hits != 2 * QUERIES) {
+			error = "Repeating " + 2 * QUERIES + " queries hit " + (cache.getHitCount() - hits) + " times.";
+		}
+
+		// The searches ignore closures, so they still hit
+		graph.getRoadClosures().closeEdge(random.nextInt(g.getNumEdges()));
+		hits = cache.getHitCount();
+		if (error == null) {
+			error = compareMapGraph(graph, g, queries);
+		}
+		if (error == null && cache.getHitCount() - hits != 2 * QUERIES) {
+			error = "After a road was closed " + 2 * QUERIES + " queries hit "
+					+ (cache.getHitCount() - hits) + " times.";
+		}
+
+		EdgeWeights.Batch batch = graph.getEdgeWeights().batch();
+		for (int k = 0; k < g.getNumEdges() / 4; k++) {
+			batch.multiply(random.nextInt(g.getNumEdges()), 1 + 2 * random.nextDouble());
+		}
+		CSRGraph weighted = batch.apply().getGraph();
+		if (error == null) {
+			error = compareMapGraph(graph, weighted, queries);
+		}
+		graph.setRouteCache(null);
+		return error;
+	}
+
+	private static String compareMapGraph(MapGraph graph, CSRGraph weighted, int[][] queries)
+	{
+		SearchContext ctx = new SearchContext();
+		for (int[] q : queries) {
+			CSRSearch.dijkstra(weighted, q[0], q[1], ctx, null, (x) -> {});
+			double expected = ctx.getDistance(q[1]);
+			GeographicPoint from = weighted.getPoint(q[0]);
+			GeographicPoint to = weighted.getPoint(q[1]);
+			String error = DijkstraEquivalenceGrader.checkPath("Cached dijkstra", weighted, q[0], q[1],
+					expected, ids(weighted, graph.dijkstra(from, to)));
+			if (error == null) {
+				error = DijkstraEquivalenceGrader.checkPath("Cached aStarSearch", weighted, q[0], q[1],
+						expected, ids(weighted, graph.aStarSearch(from, to)));
+			}
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	// Submit repeated queries to an engine with a cache all at once,
+	// then again after the weights change
+	private static String judgeEngine(RoutingEngine engine)
+	{
+		RouteCache cache = new RouteCache(10 * QUERIES);
+		engine.setRouteCache(cache);
+		CSRGraph g = engine.getGraph();
+		Random random = new Random(g.fingerprint());
+		int[][] queries = queries(g, random);
+
+		String error = compareEngine(engine, g, queries);
+		if (error == null && cache.getHitCount() == 0) {
+			error = "No query was answered from the cache.";
+		}
+		EdgeWeights.Batch batch = engine.getEdgeWeights().batch();
+		for (int k = 0; k < g.getNumEdges() / 4; k++) {
+			batch.multiply(random.nextInt(g.getNumEdges()), 1 + 2 * random.nextDouble());
+		}
+		CSRGraph weighted = batch.apply().getGraph();
+		if (error == null) {
+			error = compareEngine(engine, weighted, queries);
+		}
+		return error;
+	}
+
+	private static String compareEngine(RoutingEngine engine, CSRGraph weighted, int[][] queries)
+	{
+		List<CompletableFuture<Route>> futures = new ArrayList<CompletableFuture<Route>>();
+		for (int round = 0; round < 3; round++) {
+			for (int[] q : queries) {
+				futures.add(engine.submit(weighted.getPoint(q[0]), weighted.getPoint(q[1]), DIJKSTRA));
+			}
+		}
+		SearchContext ctx = new SearchContext();
+		for (int i = 0; i < futures.size(); i++) {
+			int[] q = queries[i % queries.length];
+			CSRSearch.dijkstra(weighted, q[0], q[1], ctx, null, (x) -> {});
+			String error = DijkstraEquivalenceGrader.checkPath("Cached engine route", weighted, q[0], q[1],
+					ctx.getDistance(q[1]), futures.get(i).join().getVertexIds());
+			if (error != null) {
+				return error;
+			}
+		}
+		return null;
+	}
+
+	private static int[][] queries(CSRGraph g, Random random)
+	{
+		int[][] queries = new int[QUERIES][];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = new int[] {random.nextInt(g.getNumVertices()), random.nextInt(g.getNumVertices())};
+		}
+		return queries;
+	}
+
+	private static int[] ids(CSRGraph g, List<GeographicPoint> points)
+	{
+		if (points == null) {
+			return null;
+		}
+		int[] path = new int[points.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = g.getId(points.get(i));
+		}
+		return path;
+	}
+
+	// A Dijkstra query from vertex 0
+	private static RouteCache.Key key(CSRGraph g, int goal, long closures, long weights)
+	{
+		return new RouteCache.Key(g, 0, goal, DIJKSTRA, 0, closures, weights);
+	}
+
+	private static String counts(RouteCache cache, long hits, long misses, long evictions,
+			long invalidations)
+	{
+		if (cache.getHitCount() != hits || cache.getMissCount() != misses
+				|| cache.getEvictionCount() != evictions || cache.getInvalidationCount() != invalidations) {
+			return "The counts are " + cache + "; expected " + hits + " hits, " + misses + " misses, "
+					+ evictions + " evictions and " + invalidations + " invalidations.";
+		}
+		return null;
+	}
+}
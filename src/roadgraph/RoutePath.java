@@ -0,0 +1,341 @@
+/**
+ * A path through a road graph, kept as vertex ids
+ */
+package roadgraph;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The intersections of a path as an int array of vertex ids of a
+ * CSRGraph.  Four bytes per intersection is all a path costs to keep,
+ * such as in a RouteCache; everything else is a view computed when asked
+ * for.  getPoints() reads the graph's own GeographicPoint objects without
+ * copying them, the coordinate arrays are two doubles per intersection,
+ * and getGeometry() follows the shape of the roads between the
+ * intersections for drawing the path on a map.
+ *
+ * Two intersections can be joined by more than one road.  The searches
+ * relax every edge with its own weight and record the edge each vertex
+ * was reached over, and a path keeps those edges and reports the road
+ * name and type of each; its length is the sum of their weights.  A path
+ * whose edges were not recorded, such as one from a RouteCache or from a
+ * search that works on shortcuts, takes the lightest edge that is not
+ * closed between each two intersections, the first of them on a tie,
+ * which is the edge the searches record.  It works them out the first
+ * time they are needed.
+ *
+ * Paths are immutable.
+ *
+ */
+public final class RoutePath
+{
+	private final CSRGraph graph;
+	private final int[] vertices;
+	/** The edges the search could not use, or null */
+	private final BitSet closed;
+	/** edges[i] joins vertices[i] to vertices[i+1]; as recorded, or found on first use */
+	private volatile int[] edges;
+
+	/**
+	 * Wrap the vertex ids found by a search that used every edge
+	 * @param graph The graph searched; its edge lengths are the weights
+	 * @param vertices The ids from start to goal, which the path keeps
+	 *   and nobody may change afterwards
+	 */
+	RoutePath(CSRGraph graph, int[] vertices)
+	{
+		this(graph, vertices, null);
+	}
+
+	/**
+	 * Wrap the vertex ids found by a search that avoided some edges
+	 * @param graph The graph searched; its edge lengths are the weights
+	 * @param vertices The ids from start to goal, which the path keeps
+	 *   and nobody may change afterwards
+	 * @param closed The edge ids the search left out, or null
+	 */
+	RoutePath(CSRGraph graph, int[] vertices, BitSet closed)
+	{
+		this(graph, vertices, closed, null);
+	}
+
+	/**
+	 * Wrap the vertex ids found by a search together with the edges it
+	 * recorded between them
+	 * @param graph The graph searched; its edge lengths are the weights
+	 * @param vertices The ids from start to goal, which the path keeps
+	 *   and nobody may change afterwards
+	 * @param closed The edge ids the search left out, or null
+	 * @param edges The edge ids the search took, one fewer than the
+	 *   vertices, which the path keeps; or null to take the lightest open
+	 *   edges
+	 */
+	RoutePath(CSRGraph graph, int[] vertices, BitSet closed, int[] edges)
+	{
+		this.graph = graph;
+		this.vertices = vertices;
+		this.closed = closed;
+		this.edges = edges;
+	}
+
+	/**
+	 * Get the number of intersections on the path
+	 * @return The number of vertices, start and goal included
+	 */
+	public int getVertexCount()
+	{
+		return vertices.length;
+	}
+
+	/**
+	 * Get one intersection of the path as a vertex id
+	 * @param i The position, 0 for the start
+	 * @return The vertex id
+	 */
+	public int getVertex(int i)
+	{
+		return vertices[i];
+	}
+
+	/**
+	 * Get the path as vertex ids
+	 * @return A copy of the ids from start to goal
+	 */
+	public int[] getVertexIds()
+	{
+		return vertices.clone();
+	}
+
+	/**
+	 * Get the length of the path, by the weights of the graph searched
+	 * @return The length in km
+	 */
+	public double getLength()
+	{
+		int[] e = edges();
+		double length = 0;
+		for (int i = 0; i < e.length; i++) {
+			length += e[i] < 0 ? Double.POSITIVE_INFINITY : graph.lengths[e[i]];
+		}
+		return length;
+	}
+
+	/**
+	 * Get the edge the path takes from one intersection to the next
+	 * @param i The position of the first intersection, from 0 to
+	 *   getVertexCount() - 2
+	 * @return The edge id, or -1 if no open edge joins the two
+	 */
+	public int getEdge(int i)
+	{
+		return edges()[i];
+	}
+
+	/**
+	 * Get the edges of the path
+	 * @return A copy of the edge ids, one fewer than the intersections
+	 */
+	public int[] getEdgeIds()
+	{
+		return edges().clone();
+	}
+
+	/**
+	 * Get the name of the road the path takes from one intersection to
+	 * the next
+	 * @param i The position of the first intersection
+	 * @return The road name of getEdge(i), or null if no open edge
+	 *   joins the two
+	 */
+	public String getRoadName(int i)
+	{
+		int e = edges()[i];
+		return e < 0 ? null : graph.getRoadName(e);
+	}
+
+	/**
+	 * Get the type of the road the path takes from one intersection to
+	 * the next
+	 * @param i The position of the first intersection
+	 * @return The road type of getEdge(i), or null if no open edge
+	 *   joins the two
+	 */
+	public String getRoadType(int i)
+	{
+		int e = edges()[i];
+		return e < 0 ? null : graph.getRoadType(e);
+	}
+
+	/**
+	 * Get the roads the path follows, such as for directions
+	 * @return The road names in order, a road the path stays on for
+	 *   several edges listed once
+	 */
+	public List<String> getRoadNames()
+	{
+		int[] e = edges();
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < e.length; i++) {
+			if (e[i] < 0) {
+				continue;
+			}
+			String name = graph.getRoadName(e[i]);
+			if (names.isEmpty() || !names.get(names.size() - 1).equals(name)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	// The recorded edges, or else the lightest open edge between each pair
+	// of consecutive vertices.  Threads that get here at once compute the
+	// same array.
+	private int[] edges()
+	{
+		int[] e = edges;
+		if (e == null) {
+			e = new int[Math.max(0, vertices.length - 1)];
+			for (int i = 0; i < e.length; i++) {
+				int best = -1;
+				for (int f = graph.offsets[vertices[i]]; f < graph.offsets[vertices[i] + 1]; f++) {
+					if (graph.targets[f] == vertices[i + 1] && (closed == null || !closed.get(f))
+							&& (best < 0 || graph.lengths[f] < graph.lengths[best])) {
+						best = f;
+					}
+				}
+				e[i] = best;
+			}
+			edges = e;
+		}
+		return e;
+	}
+
+	/**
+	 * Get the intersections of the path
+	 * @return An unmodifiable view of them from start to goal
+	 */
+	public List<GeographicPoint> getPoints()
+	{
+		return new Points();
+	}
+
+	/**
+	 * Get the latitudes of the intersections
+	 * @return A new array of them from start to goal
+	 */
+	public double[] getLatitudes()
+	{
+		double[] lat = new double[vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			lat[i] = graph.latitudes[vertices[i]];
+		}
+		return lat;
+	}
+
+	/**
+	 * Get the longitudes of the intersections
+	 * @return A new array of them from start to goal
+	 */
+	public double[] getLongitudes()
+	{
+		double[] lon = new double[vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			lon[i] = graph.longitudes[vertices[i]];
+		}
+		return lon;
+	}
+
+	/**
+	 * Follow the shape of the roads along the path.  Between two
+	 * intersections the road segment of the edge the path takes is used:
+	 * the one with its name, type and length, or failing that the
+	 * shortest one joining them.  Where the map has no segment the path
+	 * goes straight.
+	 * @param roads The road segments that touch each intersection, as
+	 *   GraphLoader.loadRoadMap fills them in
+	 * @return The points from start to goal, intersections included once
+	 */
+	public List<GeographicPoint> getGeometry(Map<GeographicPoint, ? extends Collection<RoadSegment>> roads)
+	{
+		List<GeographicPoint> shape = new ArrayList<GeographicPoint>(2 * vertices.length);
+		for (int i = 0; i < vertices.length; i++) {
+			GeographicPoint curr = graph.getPoint(vertices[i]);
+			if (i > 0) {
+				GeographicPoint prev = graph.getPoint(vertices[i - 1]);
+				RoadSegment segment = segmentOf(roads.get(prev), prev, curr, edges()[i - 1]);
+				if (segment != null) {
+					List<GeographicPoint> inner = segment.getGeometryPoints();
+					if (segment.getStartPoint().equals(prev)) {
+						shape.addAll(inner);
+					} else {
+						for (int j = inner.size() - 1; j >= 0; j--) {
+							shape.add(inner.get(j));
+						}
+					}
+				}
+			}
+			shape.add(curr);
+		}
+		return shape;
+	}
+
+	// The segment of edge e from one intersection to the next, the
+	// shortest segment joining them if none matches e, or null if none does
+	private RoadSegment segmentOf(Collection<RoadSegment> segments, GeographicPoint from,
+			GeographicPoint to, int e)
+	{
+		if (segments == null) {
+			return null;
+		}
+		RoadSegment best = null;
+		for (RoadSegment segment : segments) {
+			boolean joins = (segment.getStartPoint().equals(from) && segment.getEndPoint().equals(to))
+					|| (segment.getStartPoint().equals(to) && segment.getEndPoint().equals(from));
+			if (!joins) {
+				continue;
+			}
+			if (e >= 0 && segment.getLength() == graph.unweighted().lengths[e]
+					&& segment.getRoadName().equals(graph.getRoadName(e))
+					&& segment.getRoadType().equals(graph.getRoadType(e))) {
+				return segment;
+			}
+			if (best == null || segment.getLength() < best.getLength()) {
+				best = segment;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RoutePath[" + vertices.length + " intersections, " + getLength() + " km]";
+	}
+
+	// The intersections, read from the graph as they are asked for
+	private final class Points extends AbstractList<GeographicPoint> implements RandomAccess
+	{
+		@Override
+		public GeographicPoint get(int i)
+		{
+			return graph.getPoint(vertices[i]);
+		}
+
+		@Override
+		public int size()
+		{
+			return vertices.length;
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/**
+ * Checks the views of RoutePath against the graph it runs through
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import util.GraphLoader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for RoutePath.  For paths found by Dijkstra, every view must
+ * agree with the graph: the ids, points and coordinates of the
+ * intersections, the edges with their road names and types, and the
+ * length.  The edges the search recorded must be the lightest open ones,
+ * also around closed roads, and the geometry must follow the segment of
+ * each edge.  The lists the searches of MapGraph return must be the
+ * caller's own, so changing one does not change a cached answer.
+ *
+ * On a small map where intersections are joined by several roads of
+ * different lengths and names, every search must take and report the
+ * shortest open road, BFS must report the road it took even when that
+ * is not the lightest, and an answer from the cache must take the same
+ * roads.  A step with no open road has no name or type.
+ *
+ */
+public class RoutePathGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int QUERIES = 50;
+
+	private static final RoutingEngine.Algorithm[] SEARCHES = {
+		RoutingEngine.Algorithm.DIJKSTRA, RoutingEngine.Algorithm.A_STAR,
+		RoutingEngine.Algorithm.BIDIRECTIONAL_DIJKSTRA, RoutingEngine.Algorithm.BIDIRECTIONAL_A_STAR
+	};
+
+	public RoutePathGrader()
+	{
+		super(4 * MAP_FILES.length + 5);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new RoutePathGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			MapGraph graph = new MapGraph();
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments =
+					new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+			GraphLoader.loadRoadMap("data/maps/" + map, graph, segments, new HashSet<GeographicPoint>());
+			CSRGraph g = graph.getCSRGraph();
+			Random random = new Random(g.fingerprint());
+
+			check(QUERIES + " paths agree with the graph", () -> {
+				for (RoutePath path : paths(g, null, random)) {
+					String error = judge(g, null, path);
+					if (error != null) {
+						return error;
+					}
+				}
+				return null;
+			});
+
+			check(QUERIES + " paths around closed roads", () -> {
+				BitSet closed = new BitSet(g.getNumEdges());
+				for (int e : new RoadClosures(g).longestEdges(g.getNumEdges() / 20 + 1)) {
+					closed.set(e);
+				}
+				for (RoutePath path : paths(g, closed, random)) {
+					String error = judge(g, closed, path);
+					if (error != null) {
+						return error;
+					}
+				}
+				return null;
+			});
+
+			check(QUERIES + " geometries follow the roads", () -> {
+				for (RoutePath path : paths(g, null, random)) {
+					String error = judgeGeometry(g, segments, path, path.getGeometry(segments));
+					if (error != null) {
+						return error;
+					}
+				}
+				return null;
+			});
+
+			check("MapGraph returns lists of the caller's own", () -> judgeLists(graph, random));
+		}
+
+		section("PARALLEL ROADS: Three intersections joined by several roads each");
+		MapGraph parallel = parallelRoads();
+		CSRGraph p = parallel.getCSRGraph();
+		int a = p.getId(A);
+		int b = p.getId(B);
+		int c = p.getId(C);
+		int main = edge(p, a, b, "Main St");
+		int back = edge(p, a, b, "Back Ln");
+		int mainOn = edge(p, b, c, "Main St");
+		int canal = edge(p, b, c, "Canal Rd");
+
+		check("Every search takes the shortest road", () -> {
+			String error = judgeRoads("dijkstraRoute", p, parallel.dijkstraRoute(A, C, (x) -> {}),
+					new int[] {main, canal});
+			if (error == null) {
+				error = judgeRoads("aStarRoute", p, parallel.aStarRoute(A, C, (x) -> {}), new int[] {main, canal});
+			}
+			try (RoutingEngine engine = new RoutingEngine(p)) {
+				for (int i = 0; error == null && i < SEARCHES.length; i++) {
+					error = judgeRoads(SEARCHES[i].toString(), p, engine.route(a, c, SEARCHES[i]).getRoutePath(),
+							new int[] {main, canal});
+				}
+			}
+			return error;
+		});
+
+		check("Every search takes the shortest open road", () -> {
+			RoadClosures.Snapshot closures = new RoadClosures(p).update(new int[] {main, canal}, new int[0]);
+			String error = null;
+			try (RoutingEngine engine = new RoutingEngine(p)) {
+				for (int i = 0; error == null && i < SEARCHES.length; i++) {
+					error = judgeRoads(SEARCHES[i] + " around closed roads", p,
+							engine.route(a, c, SEARCHES[i], closures).getRoutePath(), new int[] {back, mainOn});
+				}
+			}
+			return error;
+		});
+
+		check("BFS reports the road it took", () -> {
+			// Main St is now the slowest road to B, but it is still the
+			// first one BFS comes across
+			try (RoutingEngine engine = new RoutingEngine(p)) {
+				CSRGraph w = engine.getEdgeWeights().batch().multiply(main, 10).apply().getGraph();
+				String error = judgeRoads("BFS", w, engine.route(a, c, RoutingEngine.Algorithm.BFS).getRoutePath(),
+						new int[] {main, canal});
+				if (error == null) {
+					error = judgeRoads("DIJKSTRA on the new weights", w,
+							engine.route(a, c, RoutingEngine.Algorithm.DIJKSTRA).getRoutePath(),
+							new int[] {back, canal});
+				}
+				return error;
+			}
+		});
+
+		check("Answers from the cache take the same roads", () -> {
+			try (RoutingEngine engine = new RoutingEngine(p)) {
+				engine.setRouteCache(new RouteCache(10));
+				CSRGraph w = engine.getEdgeWeights().batch().multiply(main, 10).apply().getGraph();
+				for (RoutingEngine.Algorithm algorithm : SEARCHES) {
+					String error = judgeRoads(algorithm.toString(), w,
+							engine.route(a, c, algorithm).getRoutePath(), new int[] {back, canal});
+					Route cached = engine.route(a, c, algorithm);
+					if (error == null && cached.getSettledCount() != 0) {
+						error = algorithm + " was not answered from the cache.";
+					}
+					if (error == null) {
+						error = judgeRoads("Cached " + algorithm, w, cached.getRoutePath(), new int[] {back, canal});
+					}
+					if (error != null) {
+						return error;
+					}
+				}
+				return null;
+			}
+		});
+
+		check("A step with no open road has no name", () -> {
+			BitSet closed = new BitSet(p.getNumEdges());
+			for (int e = p.firstEdge(a); e < p.endEdge(a); e++) {
+				closed.set(e);
+			}
+			RoutePath path = new RoutePath(p, new int[] {a, b, c}, closed);
+			if (path.getEdge(0) != -1 || path.getRoadName(0) != null || path.getRoadType(0) != null) {
+				return "A step with every road closed takes edge " + path.getEdge(0) + " on "
+						+ path.getRoadName(0) + " (" + path.getRoadType(0) + ").";
+			}
+			if (!Double.isInfinite(path.getLength())
+					|| !path.getRoadNames().equals(Collections.singletonList("Canal Rd"))) {
+				return "The path is " + path.getLength() + " km on " + path.getRoadNames()
+						+ "; expected infinity on [Canal Rd].";
+			}
+			return null;
+		});
+	}
+
+	// Paths between random intersections that Dijkstra can join
+	private static List<RoutePath> paths(CSRGraph g, BitSet closed, Random random)
+	{
+		List<RoutePath> paths = new ArrayList<RoutePath>();
+		SearchContext ctx = new SearchContext();
+		while (paths.size() < QUERIES) {
+			int start = random.nextInt(g.getNumVertices());
+			int goal = random.nextInt(g.getNumVertices());
+			int[] path = CSRSearch.dijkstra(g, start, goal, ctx, closed, (x) -> {});
+			if (path != null) {
+				paths.add(new RoutePath(g, path, closed, ctx.reconstructEdges(start, goal)));
+			}
+		}
+		return paths;
+	}
+
+	// Compare every view of a path with the graph
+	private static String judge(CSRGraph g, BitSet closed, RoutePath path)
+	{
+		int[] ids = path.getVertexIds();
+		String of = "In " + path + " from " + ids[0] + ", ";
+		ids[0] = -1;
+		if (path.getVertex(0) == -1) {
+			return of + "changing getVertexIds changed the path.";
+		}
+		ids = path.getVertexIds();
+		if (path.getVertexCount() != ids.length) {
+			return of + "there are " + path.getVertexCount() + " intersections but " + ids.length + " ids.";
+		}
+
+		List<GeographicPoint> points = path.getPoints();
+		double[] lat = path.getLatitudes();
+		double[] lon = path.getLongitudes();
+		if (points.size() != ids.length || lat.length != ids.length || lon.length != ids.length) {
+			return of + "the views have " + points.size() + " points and " + lat.length + " and "
+					+ lon.length + " coordinates for " + ids.length + " intersections.";
+		}
+		for (int i = 0; i < ids.length; i++) {
+			GeographicPoint p = g.getPoint(ids[i]);
+			if (path.getVertex(i) != ids[i] || !points.get(i).equals(p) || lat[i] != p.getX() || lon[i] != p.getY()) {
+				return of + "intersection " + i + " is " + points.get(i) + "; expected " + p + ".";
+			}
+		}
+
+		int[] edges = path.getEdgeIds();
+		if (edges.length != ids.length - 1) {
+			return of + "there are " + edges.length + " edges for " + ids.length + " intersections.";
+		}
+		double length = 0;
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < edges.length; i++) {
+			int e = path.getEdge(i);
+			int lightest = lightestOpen(g, closed, ids[i], ids[i + 1]);
+			if (e != edges[i] || e != lightest) {
+				return of + "edge " + i + " is " + e + "; expected " + lightest + ".";
+			}
+			if (!path.getRoadName(i).equals(g.getRoadName(e)) || !path.getRoadType(i).equals(g.getRoadType(e))) {
+				return of + "edge " + i + " is on " + path.getRoadName(i) + " (" + path.getRoadType(i)
+						+ "); expected " + g.getRoadName(e) + " (" + g.getRoadType(e) + ").";
+			}
+			length += g.getLength(e);
+			if (names.isEmpty() || !names.get(names.size() - 1).equals(g.getRoadName(e))) {
+				names.add(g.getRoadName(e));
+			}
+		}
+		if (path.getLength() != length) {
+			return of + "the length is " + path.getLength() + "; expected " + length + ".";
+		}
+		if (!path.getRoadNames().equals(names)) {
+			return of + "the roads are " + path.getRoadNames() + "; expected " + names + ".";
+		}
+		return null;
+	}
+
+	// The lightest edge from u to v that is not closed, the first of them
+	// on a tie, or -1
+	private static int lightestOpen(CSRGraph g, BitSet closed, int u, int v)
+	{
+		int best = -1;
+		for (int e = g.firstEdge(u); e < g.endEdge(u); e++) {
+			if (g.getTarget(e) == v && (closed == null || !closed.get(e))
+					&& (best < 0 || g.getLength(e) < g.getLength(best))) {
+				best = e;
+			}
+		}
+		return best;
+	}
+
+	// The geometry must pass every intersection in order, and between
+	// two of them follow the segment of the edge where the map has one
+	private static String judgeGeometry(CSRGraph g, HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			RoutePath path, List<GeographicPoint> shape)
+	{
+		String of = "In the geometry of " + path + " from " + path.getVertex(0) + ", ";
+		int at = 0;
+		for (int i = 0; i < path.getVertexCount(); i++) {
+			GeographicPoint p = g.getPoint(path.getVertex(i));
+			int next = shape.subList(at, shape.size()).indexOf(p);
+			if (next < 0) {
+				return of + "intersection " + i + " at " + p + " is missing.";
+			}
+			next += at;
+			if (i == 0 && next != 0) {
+				return of + "the start is not the first point.";
+			}
+			if (i > 0) {
+				String error = judgeLeg(g, segments, path, i - 1, shape.subList(at + 1, next));
+				if (error != null) {
+					return of + error;
+				}
+			}
+			at = next;
+		}
+		return at == shape.size() - 1 ? null : of + "there are points after the goal.";
+	}
+
+	// The points between intersections i and i + 1 must be the inner
+	// points, in the direction of travel, of the segment with the name,
+	// type and length of the edge taken, if the map has one
+	private static String judgeLeg(CSRGraph g, HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			RoutePath path, int i, List<GeographicPoint> inner)
+	{
+		GeographicPoint from = g.getPoint(path.getVertex(i));
+		GeographicPoint to = g.getPoint(path.getVertex(i + 1));
+		int e = path.getEdge(i);
+		if (segments.get(from) == null) {
+			return inner.isEmpty() ? null : "leg " + i + " has points where the map has no road.";
+		}
+		for (RoadSegment segment : segments.get(from)) {
+			boolean forward = segment.getStartPoint().equals(from) && segment.getEndPoint().equals(to);
+			boolean backward = segment.getStartPoint().equals(to) && segment.getEndPoint().equals(from);
+			if ((forward || backward) && segment.getLength() == g.unweighted().getLength(e)
+					&& segment.getRoadName().equals(g.getRoadName(e))
+					&& segment.getRoadType().equals(g.getRoadType(e))) {
+				List<GeographicPoint> expected = new ArrayList<GeographicPoint>(segment.getGeometryPoints());
+				if (backward) {
+					Collections.reverse(expected);
+				}
+				return inner.equals(expected) ? null
+						: "leg " + i + " goes through " + inner + "; expected " + expected + ".";
+			}
+		}
+		return null;
+	}
+
+	private static final GeographicPoint A = new GeographicPoint(32.0, -117.0);
+	private static final GeographicPoint B = new GeographicPoint(32.0, -116.99);
+	private static final GeographicPoint C = new GeographicPoint(32.0, -116.98);
+
+	// A to B and B to C by several roads each, the shortest of them
+	// Main St from A and Canal Rd from B
+	private static MapGraph parallelRoads()
+	{
+		MapGraph map = new MapGraph();
+		map.addVertex(A);
+		map.addVertex(B);
+		map.addVertex(C);
+		map.addEdge(A, B, "Ring Rd", "secondary", 2.0);
+		map.addEdge(A, B, "Main St", "primary", 1.0);
+		map.addEdge(A, B, "Back Ln", "residential", 1.5);
+		map.addEdge(B, C, "Main St", "primary", 1.0);
+		map.addEdge(B, C, "Canal Rd", "tertiary", 0.5);
+		return map;
+	}
+
+	// The edge from u to v on the named road
+	private static int edge(CSRGraph g, int u, int v, String name)
+	{
+		for (int e = g.firstEdge(u); e < g.endEdge(u); e++) {
+			if (g.getTarget(e) == v && g.getRoadName(e).equals(name)) {
+				return e;
+			}
+		}
+		throw new IllegalStateException("No edge from " + u + " to " + v + " on " + name);
+	}
+
+	// A path must take the given edges and report their roads and weights
+	private static String judgeRoads(String name, CSRGraph g, RoutePath path, int[] expected)
+	{
+		if (path == null) {
+			return name + " found no path.";
+		}
+		int[] edges = path.getEdgeIds();
+		if (!Arrays.equals(edges, expected)) {
+			return name + " took edges " + Arrays.toString(edges) + "; expected " + Arrays.toString(expected) + ".";
+		}
+		double length = 0;
+		for (int i = 0; i < edges.length; i++) {
+			if (!g.getRoadName(edges[i]).equals(path.getRoadName(i))
+					|| !g.getRoadType(edges[i]).equals(path.getRoadType(i))) {
+				return name + " reports " + path.getRoadName(i) + " (" + path.getRoadType(i) + ") for edge "
+						+ edges[i] + " on " + g.getRoadName(edges[i]) + " (" + g.getRoadType(edges[i]) + ").";
+			}
+			length += g.getLength(edges[i]);
+		}
+		return path.getLength() == length ? null
+				: name + " is " + path.getLength() + " km long; expected " + length + ".";
+	}
+
+	// Change the lists the searches return, then search again through
+	// the route cache, which must not have kept them
+	private static String judgeLists(MapGraph graph, Random random)
+	{
+		CSRGraph g = graph.getCSRGraph();
+		graph.setRouteCache(new RouteCache(4));
+		try {
+			for (int q = 0; q < QUERIES; q++) {
+				GeographicPoint from = g.getPoint(random.nextInt(g.getNumVertices()));
+				GeographicPoint to = g.getPoint(random.nextInt(g.getNumVertices()));
+				List<GeographicPoint> first = graph.dijkstra(from, to);
+				if (first == null) {
+					continue;
+				}
+				List<GeographicPoint> copy = new ArrayList<GeographicPoint>(first);
+				first.add(from);
+				first.remove(0);
+				List<GeographicPoint> again = graph.dijkstra(from, to);
+				if (!again.equals(copy)) {
+					return "Changing the list dijkstra returned changed its next answer to " + again + ".";
+				}
+				List<GeographicPoint> star = graph.aStarSearch(from, to);
+				star.clear();
+				if (graph.aStarSearch(from, to).isEmpty()) {
+					return "Clearing the list aStarSearch returned cleared its next answer.";
+				}
+			}
+			return null;
+		}
+		finally {
+			graph.setRouteCache(null);
+		}
+	}
+}
@@ -0,0 +1,551 @@
+/**
+ * Headless routing over a shared road graph
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Answers routing queries from many threads at once over one frozen
+ * CSRGraph.  The graph, the contraction hierarchy and the vertex index
+ * are read only, and every thread searches with its own SearchContext,
+ * so calls never need a lock once the lazily built structures exist.
+ *
+ * route() runs the search on the calling thread.  submit() runs it on
+ * the engine's ForkJoinPool, which is created with one worker per
+ * processor unless a pool is supplied.  Nothing is printed, unlike the
+ * MapGraph search methods, which report their counts to the console.
+ *
+ * Searches weigh the edges with the engine's EdgeWeights, so live
+ * traffic can be fed in with getEdgeWeights().batch() while queries run.
+ * Each query reads the weights once and is not affected by later updates.
+ *
+ * With a RouteCache set, route() answers repeated queries from the cache.
+ *
+ * A typical server loads the map once and shares one engine:
+ *
+ *   RoutingEngine engine = new RoutingEngine(map.getCSRGraph());
+ *   Route route = engine.route(from, to, RoutingEngine.Algorithm.A_STAR);
+ *
+ */
+public final class RoutingEngine implements AutoCloseable
+{
+	/** The search algorithms the engine can run */
+	public enum Algorithm
+	{
+		BFS,
+		DIJKSTRA,
+		A_STAR,
+		BIDIRECTIONAL_DIJKSTRA,
+		BIDIRECTIONAL_A_STAR,
+		CONTRACTION_HIERARCHY,
+		PARTITION_OVERLAY,
+		TRANSIT_NODE_ROUTING
+	}
+
+	private static final Consumer<GeographicPoint> NO_HOOK = (x) -> {};
+
+	private final CSRGraph graph;
+	private final Heuristic heuristic;
+	private final QueueType queueType;
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;
+	private final EdgeWeights weights;
+	private volatile RouteCache routeCache;
+	// Built on the first query that needs them, outside the lock on the
+	// engine
+	private final DerivedForm<ContractionHierarchy> hierarchy =
+			new DerivedForm<ContractionHierarchy>(ContractionHierarchy::new);
+	private final DerivedForm<VertexIndex> vertexIndex = new DerivedForm<VertexIndex>(VertexIndex::new);
+	private final DerivedForm<HubLabels> hubLabels;
+	private final DerivedForm<TransitNodeRouting> transitNodes;
+	private final DerivedForm<GraphPartition> partition =
+			new DerivedForm<GraphPartition>(GraphPartition::new);
+	private final DerivedForm<PartitionOverlay> overlay;
+	// Per-thread search state for the forward and backward searches
+	private final ThreadLocal<SearchContext> forwardContext =
+			ThreadLocal.withInitial(SearchContext::new);
+	private final ThreadLocal<SearchContext> backwardContext =
+			ThreadLocal.withInitial(SearchContext::new);
+
+	/**
+	 * Create an engine with the straight line heuristic, the default
+	 * queue and a pool of its own
+	 * @param graph The graph to route on
+	 */
+	public RoutingEngine(CSRGraph graph)
+	{
+		this(graph, new HaversineHeuristic(), QueueType.FOUR_ARY_HEAP, null);
+	}
+
+	/**
+	 * Create an engine
+	 * @param graph The graph to route on
+	 * @param heuristic The estimate A* searches use; shared by all threads
+	 * @param queueType The priority queue the searches use
+	 * @param pool The pool submit() runs queries on, or null to create one
+	 *   that close() shuts down
+	 * @throws IllegalArgumentException If the queue is a radix queue and
+	 *   the heuristic is not consistent
+	 */
+	public RoutingEngine(CSRGraph graph, Heuristic heuristic, QueueType queueType, ForkJoinPool pool)
+	{
+		CSRSearch.checkMonotone(queueType, heuristic);
+		this.graph = graph;
+		this.heuristic = heuristic;
+		this.queueType = queueType;
+		this.ownsPool = pool == null;
+		this.pool = pool == null ? new ForkJoinPool() : pool;
+		this.weights = new EdgeWeights(graph);
+		this.hubLabels = new DerivedForm<HubLabels>((g) -> HubLabels.build(hierarchy.get(g), this.pool));
+		this.transitNodes = new DerivedForm<TransitNodeRouting>(
+				(g) -> new TransitNodeRouting(hierarchy.get(g), this.pool));
+		this.overlay = new DerivedForm<PartitionOverlay>(
+				(w) -> new PartitionOverlay(getGraphPartition(), w, this.pool));
+	}
+
+	/**
+	 * Get the graph the engine routes on
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the live weights the searches use for the edges
+	 * @return The edge weights, initially the road lengths
+	 */
+	public EdgeWeights getEdgeWeights()
+	{
+		return weights;
+	}
+
+	/**
+	 * Keep the paths of recent queries so that repeating one does not
+	 * search again.  Queries that avoid closed roads go around the cache,
+	 * since a closure snapshot's version does not say which RoadClosures
+	 * it came from; a change of the edge weights empties it.
+	 * @param cache The cache to use, or null to always search
+	 */
+	public void setRouteCache(RouteCache cache)
+	{
+		routeCache = cache;
+	}
+
+	/**
+	 * Get the route cache, for instance to read its hit rate
+	 * @return The cache, or null if none is set
+	 */
+	public RouteCache getRouteCache()
+	{
+		return routeCache;
+	}
+
+	/**
+	 * Get the contraction hierarchy of the graph, building it on first use
+	 * @return The contraction hierarchy
+	 */
+	public ContractionHierarchy getContractionHierarchy()
+	{
+		return hierarchy.get(graph);
+	}
+
+	/**
+	 * Get the transit node routing of the graph, computing it from the
+	 * contraction hierarchy on first use
+	 * @return The transit node routing
+	 */
+	public TransitNodeRouting getTransitNodeRouting()
+	{
+		return transitNodes.get(graph);
+	}
+
+	/**
+	 * Get the hub labels of the graph, computing them from the contraction
+	 * hierarchy on first use
+	 * @return The hub labels
+	 */
+	public HubLabels getHubLabels()
+	{
+		return hubLabels.get(graph);
+	}
+
+	/**
+	 * Map the hub labels saved next to a map file into memory, or compute
+	 * them and save them there if they are missing or stale.  A server
+	 * calls this at startup so the first distance query does not have to
+	 * build them.
+	 * @param mapFile The file the graph was loaded from
+	 */
+	public void useHubLabels(String mapFile)
+	{
+		hubLabels.set(graph, HubLabels.loadOrBuild(graph, mapFile, this::getContractionHierarchy, pool));
+	}
+
+	/**
+	 * Find the length of the shortest path between two vertices without
+	 * the path.  While the edge weights are the lengths this is a merge of
+	 * two hub labels; otherwise it takes a bidirectional Dijkstra search.
+	 * @param from The id of the starting vertex
+	 * @param to The id of the goal vertex
+	 * @return The distance in km, or infinity if there is no path
+	 */
+	public double distance(int from, int to)
+	{
+		checkVertex(from);
+		checkVertex(to);
+		EdgeWeights.Snapshot w = weights.snapshot();
+		if (w.isOriginal()) {
+			return getHubLabels().distance(from, to);
+		}
+		SearchContext forward = forwardContext.get();
+		forward.setQueueType(queueType);
+		SearchContext backward = backwardContext.get();
+		backward.setQueueType(queueType);
+		CSRGraph g = w.getGraph();
+		return g.pathLength(BidirectionalSearch.dijkstra(g, from, to, forward, backward, null,
+				NO_HOOK));
+	}
+
+	/**
+	 * Find the length of the shortest path between two locations.  A
+	 * location that is not an intersection is snapped to the closest one.
+	 * @param from The start
+	 * @param to The goal
+	 * @return The distance in km between the snapped locations, or
+	 *   infinity if there is no path
+	 */
+	public double distance(GeographicPoint from, GeographicPoint to)
+	{
+		return distance(snap(from), snap(to));
+	}
+
+	/**
+	 * Get the multilevel partition of the graph, building it on first use
+	 * @return The partition
+	 */
+	public GraphPartition getGraphPartition()
+	{
+		return partition.get(graph);
+	}
+
+	/**
+	 * Get the overlay of the partition for the edge weights in force now,
+	 * customizing it on the engine's pool if the weights have changed
+	 * since it was last customized.  Call this after updating the weights
+	 * so that the next PARTITION_OVERLAY query does not have to wait.
+	 * @return The customized overlay
+	 */
+	public PartitionOverlay getPartitionOverlay()
+	{
+		return getPartitionOverlay(weights.snapshot());
+	}
+
+	// The overlay for one version of the weights
+	private PartitionOverlay getPartitionOverlay(EdgeWeights.Snapshot w)
+	{
+		// A query holding weights that have changed since customizes an
+		// overlay of its own, so as not to replace that of the newest ones
+		if (w.getGraph() != weights.snapshot().getGraph()) {
+			return new PartitionOverlay(getGraphPartition(), w.getGraph(), pool);
+		}
+		return overlay.get(w.getGraph());
+	}
+
+	/**
+	 * Get the spatial index of the vertices, building it on first use
+	 * @return The vertex index
+	 */
+	public VertexIndex getVertexIndex()
+	{
+		return vertexIndex.get(graph);
+	}
+
+	/**
+	 * Find a route between two vertices on the calling thread
+	 * @param from The id of the starting vertex
+	 * @param to The id of the goal vertex
+	 * @param algorithm The search to run
+	 * @return The route, which says whether a path was found
+	 */
+	public Route route(int from, int to, Algorithm algorithm)
+	{
+		return route(from, to, algorithm, RoadClosures.Snapshot.NONE);
+	}
+
+	/**
+	 * Find a route between two vertices on the calling thread, avoiding
+	 * closed roads.  The contraction hierarchy cannot leave edges out or
+	 * reweigh them, so when something is closed or an edge weight differs
+	 * from its length CONTRACTION_HIERARCHY runs bidirectional A* instead,
+	 * and the route says so.  TRANSIT_NODE_ROUTING falls back in the same
+	 * way, and its local queries are answered by the hierarchy, which the
+	 * route reports as CONTRACTION_HIERARCHY.  PARTITION_OVERLAY follows
+	 * the weights but falls back in the same way when something is closed.
+	 * While an edge weight is below its length the heuristic could
+	 * overestimate, so A_STAR and BIDIRECTIONAL_A_STAR, fallbacks
+	 * included, run as DIJKSTRA and BIDIRECTIONAL_DIJKSTRA.  A route
+	 * taken from the route cache has a settled count of 0.
+	 * @param from The id of the starting vertex
+	 * @param to The id of the goal vertex
+	 * @param algorithm The search to run
+	 * @param closures The roads to avoid, taken once for the whole search
+	 * @return The route, which says whether a path was found
+	 */
+	public Route route(int from, int to, Algorithm algorithm, RoadClosures.Snapshot closures)
+	{
+		checkVertex(from);
+		checkVertex(to);
+		SearchContext forward = forwardContext.get();
+		forward.setQueueType(queueType);
+		SearchContext backward = backwardContext.get();
+		backward.setQueueType(queueType);
+		BitSet closed = closures.bits();
+		EdgeWeights.Snapshot w = weights.snapshot();
+		CSRGraph g = w.getGraph();
+		if ((algorithm == Algorithm.CONTRACTION_HIERARCHY || algorithm == Algorithm.TRANSIT_NODE_ROUTING)
+				&& (closed != null || !w.isOriginal())) {
+			algorithm = Algorithm.BIDIRECTIONAL_A_STAR;
+		}
+		if (algorithm == Algorithm.TRANSIT_NODE_ROUTING && getTransitNodeRouting().isLocal(from, to)) {
+			algorithm = Algorithm.CONTRACTION_HIERARCHY;
+		}
+		if (algorithm == Algorithm.PARTITION_OVERLAY && closed != null) {
+			algorithm = Algorithm.BIDIRECTIONAL_A_STAR;
+		}
+		// The heuristic estimates by length, so it can overestimate a weight
+		// below the length of its edge
+		if (!w.isAtLeastLengths()) {
+			if (algorithm == Algorithm.A_STAR) {
+				algorithm = Algorithm.DIJKSTRA;
+			}
+			else if (algorithm == Algorithm.BIDIRECTIONAL_A_STAR) {
+				algorithm = Algorithm.BIDIRECTIONAL_DIJKSTRA;
+			}
+		}
+		RouteCache cache = routeCache;
+		RouteCache.Key key = null;
+		if (cache != null && closed == null) {
+			key = new RouteCache.Key(graph, from, to, algorithm, 0, 0, w.getVersion());
+			int[] cached = cache.get(key);
+			if (cached != null) {
+				return new Route(g, algorithm, cached.length == 0 ? null : cached, null, null, 0);
+			}
+		}
+		int[] path;
+		switch (algorithm) {
+		case BFS:
+			path = CSRSearch.bfs(g, from, to, forward, closed, NO_HOOK);
+			break;
+		case DIJKSTRA:
+			path = CSRSearch.dijkstra(g, from, to, forward, closed, NO_HOOK);
+			break;
+		case A_STAR:
+			path = CSRSearch.aStarSearch(g, from, to, forward, closed, heuristic, NO_HOOK);
+			break;
+		case BIDIRECTIONAL_DIJKSTRA:
+			path = BidirectionalSearch.dijkstra(g, from, to, forward, backward, closed, NO_HOOK);
+			break;
+		case BIDIRECTIONAL_A_STAR:
+			path = BidirectionalSearch.aStarSearch(g, from, to, forward, backward, closed,
+					heuristic, NO_HOOK);
+			break;
+		case CONTRACTION_HIERARCHY:
+			path = getContractionHierarchy().route(from, to, forward, backward, NO_HOOK);
+			break;
+		case TRANSIT_NODE_ROUTING:
+			path = getTransitNodeRouting().route(from, to, forward, backward, NO_HOOK);
+			break;
+		case PARTITION_OVERLAY:
+			path = getPartitionOverlay(w).route(from, to, forward, NO_HOOK);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+		if (key != null) {
+			cache.put(key, path);
+		}
+		// The single searches record the edge of every step
+		int[] edges = null;
+		if (path != null && (algorithm == Algorithm.BFS || algorithm == Algorithm.DIJKSTRA
+				|| algorithm == Algorithm.A_STAR)) {
+			edges = forward.reconstructEdges(from, to);
+		}
+		return new Route(g, algorithm, path, closed, edges, forward.getSettledCount());
+	}
+
+	/**
+	 * Find a route between two locations on the calling thread.  A
+	 * location that is not an intersection is snapped to the closest one.
+	 * @param from The start
+	 * @param to The goal
+	 * @param algorithm The search to run
+	 * @return The route between the snapped locations
+	 */
+	public Route route(GeographicPoint from, GeographicPoint to, Algorithm algorithm)
+	{
+		return route(snap(from), snap(to), algorithm);
+	}
+
+	/**
+	 * Find a route between two locations on the calling thread, avoiding
+	 * closed roads.  A location that is not an intersection is snapped to
+	 * the closest one.
+	 * @param from The start
+	 * @param to The goal
+	 * @param algorithm The search to run
+	 * @param closures The roads to avoid
+	 * @return The route between the snapped locations
+	 */
+	public Route route(GeographicPoint from, GeographicPoint to, Algorithm algorithm,
+			RoadClosures.Snapshot closures)
+	{
+		return route(snap(from), snap(to), algorithm, closures);
+	}
+
+	/**
+	 * Find a route between two coordinates on the calling thread.  Both
+	 * are snapped to the closest intersection.
+	 * @param fromLat The latitude of the start
+	 * @param fromLon The longitude of the start
+	 * @param toLat The latitude of the goal
+	 * @param toLon The longitude of the goal
+	 * @param algorithm The search to run
+	 * @return The route between the snapped coordinates
+	 */
+	public Route route(double fromLat, double fromLon, double toLat, double toLon,
+			Algorithm algorithm)
+	{
+		VertexIndex index = getVertexIndex();
+		return route(checkSnapped(index.nearestVertex(fromLat, fromLon)),
+				checkSnapped(index.nearestVertex(toLat, toLon)), algorithm);
+	}
+
+	/**
+	 * Find a route on the engine's pool
+	 * @param from The start
+	 * @param to The goal
+	 * @param algorithm The search to run
+	 * @return A future completed with the route, or exceptionally if the
+	 *   query is invalid
+	 */
+	public CompletableFuture<Route> submit(GeographicPoint from, GeographicPoint to, Algorithm algorithm)
+	{
+		return CompletableFuture.supplyAsync(() -> route(from, to, algorithm), pool);
+	}
+
+	/**
+	 * Find many routes in parallel on the engine's pool
+	 * @param from The starts
+	 * @param to The goals, one per start
+	 * @param algorithm The search to run
+	 * @return The routes, in the order of the queries
+	 */
+	public List<Route> routeAll(List<GeographicPoint> from, List<GeographicPoint> to, Algorithm algorithm)
+	{
+		if (from.size() != to.size()) {
+			throw new IllegalArgumentException("There are " + from.size() + " starts but "
+					+ to.size() + " goals");
+		}
+		List<CompletableFuture<Route>> futures = new ArrayList<CompletableFuture<Route>>(from.size());
+		for (int i = 0; i < from.size(); i++) {
+			futures.add(submit(from.get(i), to.get(i), algorithm));
+		}
+		List<Route> routes = new ArrayList<Route>(futures.size());
+		for (CompletableFuture<Route> future : futures) {
+			routes.add(future.join());
+		}
+		return routes;
+	}
+
+	/**
+	 * Compute the distances between every source and every target on the
+	 * engine's pool.  Locations that are not intersections are snapped to
+	 * the closest one.
+	 * @param sources The origins
+	 * @param targets The destinations
+	 * @param algorithm DIJKSTRA for one search per source, or
+	 *   CONTRACTION_HIERARCHY for the bucket algorithm over the hierarchy,
+	 *   which falls back to DIJKSTRA while edge weights differ from lengths
+	 * @return matrix[i][j] is the distance in km from sources.get(i) to
+	 *   targets.get(j), or infinity if there is no path
+	 */
+	public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+			Algorithm algorithm)
+	{
+		int[] from = snapAll(sources);
+		int[] to = snapAll(targets);
+		EdgeWeights.Snapshot w = weights.snapshot();
+		switch (algorithm) {
+		case CONTRACTION_HIERARCHY:
+			if (w.isOriginal()) {
+				return DistanceMatrix.withHierarchy(getContractionHierarchy(), from, to, queueType, pool);
+			}
+			// The hierarchy only knows the lengths
+			return DistanceMatrix.oneToMany(w.getGraph(), from, to, null, queueType, pool);
+		case DIJKSTRA:
+			return DistanceMatrix.oneToMany(w.getGraph(), from, to, null, queueType, pool);
+		default:
+			throw new IllegalArgumentException("No distance matrix with " + algorithm);
+		}
+	}
+
+	private int[] snapAll(List<GeographicPoint> locations)
+	{
+		int[] ids = new int[locations.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = snap(locations.get(i));
+		}
+		return ids;
+	}
+
+	// The vertex id of a location, snapping it to the closest intersection
+	private int snap(GeographicPoint location)
+	{
+		if (location == null) {
+			throw new NullPointerException("Cannot find route from or to null node");
+		}
+		int id = graph.getId(location);
+		if (id >= 0) {
+			return id;
+		}
+		return checkSnapped(getVertexIndex().nearestVertex(location.getX(), location.getY()));
+	}
+
+	private void checkVertex(int v)
+	{
+		if (v < 0 || v >= graph.numVertices) {
+			throw new IllegalArgumentException("Vertex " + v + " is not in the graph");
+		}
+	}
+
+	private static int checkSnapped(int id)
+	{
+		if (id < 0) {
+			throw new IllegalStateException("The graph has no vertices");
+		}
+		return id;
+	}
+
+	/**
+	 * Shut the pool down if the engine created it.  Queries already
+	 * submitted still run.
+	 */
+	public void close()
+	{
+		if (ownsPool) {
+			pool.shutdown();
+		}
+	}
+}
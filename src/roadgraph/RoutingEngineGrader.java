@@ -0,0 +1,153 @@
+/**
+ * Checks that a RoutingEngine answers many threads at once as Dijkstra does
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the concurrency of RoutingEngine.  Threads that all ask a
+ * fresh engine for the same lazily built structure at once must all get
+ * the one instance.  Then random queries for every algorithm are
+ * submitted together on the engine's pool, and each must come back as
+ * long as the path Dijkstra finds on the calling thread.
+ *
+ */
+public class RoutingEngineGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int THREADS = 8;
+
+	private static final int QUERIES = 50;
+
+	public RoutingEngineGrader()
+	{
+		super(2 * MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new RoutingEngineGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			section("MAP: " + map);
+			CSRGraph g = load(map).getCSRGraph();
+
+			check(THREADS + " threads build each structure once", () -> {
+				try (RoutingEngine engine = new RoutingEngine(g)) {
+					return buildOnce(engine);
+				}
+			});
+
+			check(QUERIES + " queries per algorithm at once", () -> {
+				try (RoutingEngine engine = new RoutingEngine(g)) {
+					return concurrentQueries(engine, new Random(g.getNumVertices()));
+				}
+			});
+		}
+	}
+
+	// Ask for every lazily built structure from several threads released
+	// together, and check that they all got the same one
+	private static String buildOnce(RoutingEngine engine) throws InterruptedException
+	{
+		List<Supplier<Object>> getters = new ArrayList<Supplier<Object>>();
+		getters.add(engine::getContractionHierarchy);
+		getters.add(engine::getHubLabels);
+		getters.add(engine::getTransitNodeRouting);
+		getters.add(engine::getGraphPartition);
+		getters.add(engine::getPartitionOverlay);
+		getters.add(engine::getVertexIndex);
+
+		Object[][] seen = new Object[THREADS][getters.size()];
+		Throwable[] failures = new Throwable[THREADS];
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			int id = t;
+			threads[t] = new Thread(() -> {
+				try {
+					start.await();
+					// Each thread asks in another order
+					for (int i = 0; i < getters.size(); i++) {
+						int k = (i + id) % getters.size();
+						seen[id][k] = getters.get(k).get();
+					}
+				}
+				catch (Throwable e) {
+					failures[id] = e;
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int t = 0; t < THREADS; t++) {
+			if (failures[t] != null) {
+				return "Thread " + t + " threw " + failures[t] + ".";
+			}
+			for (int k = 0; k < getters.size(); k++) {
+				if (seen[t][k] != seen[0][k]) {
+					return "Threads 0 and " + t + " got different " + seen[0][k].getClass().getSimpleName() + "s.";
+				}
+			}
+		}
+		return null;
+	}
+
+	// Submit random queries for every algorithm at once and compare each
+	// route with Dijkstra
+	private static String concurrentQueries(RoutingEngine engine, Random random)
+	{
+		CSRGraph g = engine.getGraph();
+		int n = g.getNumVertices();
+		int[] from = new int[QUERIES];
+		int[] to = new int[QUERIES];
+		double[] expected = new double[QUERIES];
+		SearchContext ctx = new SearchContext();
+		for (int i = 0; i < QUERIES; i++) {
+			from[i] = random.nextInt(n);
+			to[i] = random.nextInt(n);
+			int[] path = CSRSearch.dijkstra(g, from[i], to[i], ctx, null, (x) -> {});
+			expected[i] = path == null ? Double.POSITIVE_INFINITY : g.pathLength(path);
+		}
+
+		List<RoutingEngine.Algorithm> algorithms = new ArrayList<RoutingEngine.Algorithm>();
+		List<CompletableFuture<Route>> futures = new ArrayList<CompletableFuture<Route>>();
+		for (RoutingEngine.Algorithm algorithm : RoutingEngine.Algorithm.values()) {
+			if (algorithm == RoutingEngine.Algorithm.BFS) {
+				continue;
+			}
+			for (int i = 0; i < QUERIES; i++) {
+				algorithms.add(algorithm);
+				futures.add(engine.submit(g.getPoint(from[i]), g.getPoint(to[i]), algorithm));
+			}
+		}
+
+		for (int q = 0; q < futures.size(); q++) {
+			int i = q % QUERIES;
+			double length = futures.get(q).join().getDistance();
+			if (Double.isInfinite(expected[i]) ? !Double.isInfinite(length)
+					: Math.abs(length - expected[i]) > 1e-9 * Math.max(1, expected[i])) {
+				return algorithms.get(q) + " from " + from[i] + " to " + to[i] + " found a path of "
+						+ length + " km; expected " + expected[i] + ".";
+			}
+		}
+		return null;
+	}
+}
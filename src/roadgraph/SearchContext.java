@@ -0,0 +1,287 @@
+/**
+ * Reusable per-thread scratch space for graph searches
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The per-vertex state of one search (tentative distance, parent and
+ * whether the vertex has been settled) kept in primitive arrays indexed
+ * by vertex id.  Instead of clearing the arrays before every query each
+ * slot carries the epoch it was written in; starting a new search just
+ * bumps the epoch, so every old value reads as "unreached" for free.
+ *
+ * A context is not thread-safe.  Each thread keeps its own (see
+ * MapGraph), which lets many queries run against one shared graph.
+ *
+ */
+public final class SearchContext
+{
+	private int epoch;
+	/** Epoch in which dist/parent of a vertex were last written */
+	private int[] reached;
+	/** Epoch in which a vertex was last settled */
+	private int[] settled;
+	private double[] dist;
+	private int[] parent;
+	/** Edge a vertex was reached over, for searches that track edges */
+	private int[] parentEdge;
+	/** Scratch FIFO for breadth first search */
+	private int[] fifo;
+	/** Priority queue for Dijkstra and A*, created on first use */
+	private QueueType queueType = QueueType.FOUR_ARY_HEAP;
+	private VertexQueue queue;
+	/** Cursor the searches walk the edges of a vertex with */
+	private final EdgeCursor cursor = new EdgeCursor();
+	private int settledCount;
+
+	/**
+	 * Create an empty context.  It grows to the size of the graph on
+	 * the first call to reset.
+	 */
+	public SearchContext()
+	{
+		this(0);
+	}
+
+	/**
+	 * Create a context for graphs of up to capacity vertices
+	 * @param capacity The number of vertices to allocate for
+	 */
+	public SearchContext(int capacity)
+	{
+		reached = new int[capacity];
+		settled = new int[capacity];
+		dist = new double[capacity];
+		parent = new int[capacity];
+		parentEdge = new int[capacity];
+		fifo = new int[capacity];
+	}
+
+	/**
+	 * Start a new search over a graph with numVertices vertices,
+	 * forgetting everything the previous search wrote.
+	 * @param numVertices The number of vertices of the graph to search
+	 */
+	public void reset(int numVertices)
+	{
+		if (reached.length < numVertices) {
+			reached = new int[numVertices];
+			settled = new int[numVertices];
+			dist = new double[numVertices];
+			parent = new int[numVertices];
+			parentEdge = new int[numVertices];
+			fifo = new int[numVertices];
+			epoch = 0;
+		}
+		if (epoch == Integer.MAX_VALUE) {
+			// Stamps would wrap around; clear them once instead
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			epoch = 0;
+		}
+		epoch++;
+		settledCount = 0;
+	}
+
+	/**
+	 * Whether a vertex has been given a distance in this search
+	 * @param v The vertex id
+	 * @return true if v has been reached
+	 */
+	public boolean isReached(int v)
+	{
+		return reached[v] == epoch;
+	}
+
+	/**
+	 * Get the tentative distance of a vertex
+	 * @param v The vertex id
+	 * @return The best distance found so far, or infinity if v has
+	 *   not been reached
+	 */
+	public double getDistance(int v)
+	{
+		return reached[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get the vertex v was reached from
+	 * @param v The vertex id, which must have been reached
+	 * @return The parent of v on the best path found so far
+	 */
+	public int getParent(int v)
+	{
+		return parent[v];
+	}
+
+	/**
+	 * Record a (better) path to a vertex
+	 * @param v The vertex id
+	 * @param distance The length of the path
+	 * @param from The previous vertex on the path
+	 */
+	public void update(int v, double distance, int from)
+	{
+		update(v, distance, from, -1);
+	}
+
+	/**
+	 * Record a (better) path to a vertex together with the edge it
+	 * arrives over
+	 * @param v The vertex id
+	 * @param distance The length of the path
+	 * @param from The previous vertex on the path
+	 * @param edge The id of the edge from the previous vertex to v
+	 */
+	public void update(int v, double distance, int from, int edge)
+	{
+		reached[v] = epoch;
+		dist[v] = distance;
+		parent[v] = from;
+		parentEdge[v] = edge;
+	}
+
+	/**
+	 * Get the edge v was reached over
+	 * @param v The vertex id, which must have been reached
+	 * @return The id of the edge recorded with v's parent, or -1
+	 */
+	public int getParentEdge(int v)
+	{
+		return parentEdge[v];
+	}
+
+	/**
+	 * Whether a vertex has been settled in this search
+	 * @param v The vertex id
+	 * @return true if v's distance is final
+	 */
+	public boolean isSettled(int v)
+	{
+		return settled[v] == epoch;
+	}
+
+	/**
+	 * Mark a vertex as settled
+	 * @param v The vertex id
+	 */
+	public void settle(int v)
+	{
+		settled[v] = epoch;
+		settledCount++;
+	}
+
+	/**
+	 * Get the number of vertices settled since the last reset
+	 * @return The number of settled vertices
+	 */
+	public int getSettledCount()
+	{
+		return settledCount;
+	}
+
+	// Add the vertices settled by a search that ran in a second context,
+	// such as the backward half of a bidirectional search
+	void addSettled(int count)
+	{
+		settledCount += count;
+	}
+
+	// The FIFO used by breadth first search, at least as long as the graph
+	int[] getFifo()
+	{
+		return fifo;
+	}
+
+	/**
+	 * Choose the priority queue used by the weighted searches
+	 * @param type The kind of queue
+	 */
+	public void setQueueType(QueueType type)
+	{
+		if (type != queueType) {
+			queueType = type;
+			queue = null;
+		}
+	}
+
+	/**
+	 * Get the kind of priority queue the weighted searches use
+	 * @return The queue type
+	 */
+	public QueueType getQueueType()
+	{
+		return queueType;
+	}
+
+	/**
+	 * Get the priority queue of this context, emptied and sized for a
+	 * graph of numVertices vertices
+	 * @param numVertices The number of vertices of the graph to search
+	 * @return The empty queue
+	 */
+	public VertexQueue getQueue(int numVertices)
+	{
+		if (queue == null) {
+			queue = queueType.create();
+		}
+		queue.reset(numVertices);
+		return queue;
+	}
+
+	/**
+	 * Get the edge cursor of this context, to expand vertices with
+	 * @return The cursor, which the next search reopens
+	 */
+	public EdgeCursor getCursor()
+	{
+		return cursor;
+	}
+
+	/**
+	 * Walk the parent links back from goal to start
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex, which must have been reached
+	 * @return The vertex ids on the path from start to goal
+	 */
+	public int[] reconstructPath(int start, int goal)
+	{
+		int hops = 0;
+		for (int v = goal; v != start; v = parent[v]) {
+			hops++;
+		}
+		int[] path = new int[hops + 1];
+		for (int v = goal, i = hops; i >= 0; v = parent[v], i--) {
+			path[i] = v;
+		}
+		return path;
+	}
+
+	/**
+	 * Walk the parent links back from goal to start, collecting the edges
+	 * the search recorded on the way
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex, which must have been reached
+	 * @return The edge ids on the path from start to goal, one fewer than
+	 *   the vertices, or null if the search did not record them all
+	 */
+	public int[] reconstructEdges(int start, int goal)
+	{
+		int hops = 0;
+		for (int v = goal; v != start; v = parent[v]) {
+			if (parentEdge[v] < 0) {
+				return null;
+			}
+			hops++;
+		}
+		int[] edges = new int[hops];
+		for (int v = goal, i = hops - 1; i >= 0; v = parent[v], i--) {
+			edges[i] = parentEdge[v];
+		}
+		return edges;
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * The result of a one-to-all shortest path search
+ */
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * The shortest paths from one source to every vertex within a radius,
+ * as primitive arrays indexed by vertex id: the distance from the source
+ * and the previous vertex on the path.  Vertices beyond the radius, or
+ * that cannot be reached, have an infinite distance and parent -1; the
+ * source is its own parent.  Trees are immutable.
+ *
+ */
+public final class ShortestPathTree
+{
+	private final CSRGraph graph;
+	private final int source;
+	private final double maxDistance;
+	private final double[] distance;
+	private final int[] parent;
+	/** The reached vertices in order of distance */
+	private final int[] order;
+
+	ShortestPathTree(CSRGraph graph, int source, double maxDistance, double[] distance,
+			int[] parent, int[] order)
+	{
+		this.graph = graph;
+		this.source = source;
+		this.maxDistance = maxDistance;
+		this.distance = distance;
+		this.parent = parent;
+		this.order = order;
+	}
+
+	/**
+	 * Get the graph the tree spans
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the root of the tree
+	 * @return The id of the source vertex
+	 */
+	public int getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * Get the radius the search stopped at
+	 * @return The largest distance in km a reached vertex may have
+	 */
+	public double getMaxDistance()
+	{
+		return maxDistance;
+	}
+
+	/**
+	 * Get the distance from the source to a vertex
+	 * @param v The vertex id
+	 * @return The distance in km, or infinity if v was not reached
+	 */
+	public double getDistance(int v)
+	{
+		return distance[v];
+	}
+
+	/**
+	 * Get the previous vertex on the shortest path to a vertex
+	 * @param v The vertex id
+	 * @return The parent of v, or -1 if v was not reached
+	 */
+	public int getParent(int v)
+	{
+		return parent[v];
+	}
+
+	/**
+	 * Get the distances of all the vertices
+	 * @return A copy of the distance array, indexed by vertex id
+	 */
+	public double[] getDistances()
+	{
+		return distance.clone();
+	}
+
+	/**
+	 * Get the parents of all the vertices
+	 * @return A copy of the parent array, indexed by vertex id
+	 */
+	public int[] getParents()
+	{
+		return parent.clone();
+	}
+
+	/**
+	 * Get the vertices in the tree
+	 * @return A copy of their ids, closest to the source first
+	 */
+	public int[] getReachedVertices()
+	{
+		return order.clone();
+	}
+
+	/**
+	 * Get the number of vertices in the tree
+	 * @return The number of reached vertices, including the source
+	 */
+	public int getReachedCount()
+	{
+		return order.length;
+	}
+
+	/**
+	 * Get the shortest path from the source to a vertex
+	 * @param v The vertex id
+	 * @return The vertex ids from the source to v, or null if v was not reached
+	 */
+	public int[] pathTo(int v)
+	{
+		if (parent[v] < 0) {
+			return null;
+		}
+		int hops = 0;
+		for (int u = v; u != source; u = parent[u]) {
+			hops++;
+		}
+		int[] path = new int[hops + 1];
+		for (int u = v, i = hops; i >= 0; u = parent[u], i--) {
+			path[i] = u;
+		}
+		return path;
+	}
+
+	/**
+	 * Get the shortest path from the source to a location
+	 * @param location The location of a vertex
+	 * @return The intersections from the source to location, or null if
+	 *   location was not reached or is not a vertex
+	 */
+	public List<GeographicPoint> pathTo(GeographicPoint location)
+	{
+		int v = graph.getId(location);
+		return v < 0 ? null : graph.toPoints(pathTo(v));
+	}
+}
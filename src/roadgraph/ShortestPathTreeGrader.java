@@ -0,0 +1,230 @@
+/**
+ * Checks shortest path trees and isochrones against Dijkstra
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for ShortestPathTree and IsochroneBuilder.  A tree of the whole
+ * graph must hold the distance Dijkstra finds to every vertex, with a
+ * path of that length back to the source.  A tree cut at a radius must
+ * hold exactly the vertices within it, closest first, and one built
+ * around closed roads must avoid them.  The isochrones of a tree must
+ * cover every vertex within their band, and grow with the band.
+ *
+ */
+public class ShortestPathTreeGrader extends Grader
+{
+	private static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map"};
+
+	private static final int SOURCES = 5;
+
+	private static final double CELL_SIZE = 0.05;
+
+	public ShortestPathTreeGrader()
+	{
+		super(4 * (MAP_FILES.length + 1));
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new ShortestPathTreeGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		for (String map : MAP_FILES) {
+			runTest(load(map), "MAP: " + map);
+		}
+		runTest(grid(24), "MAP: Grid of 24 by 24 intersections");
+	}
+
+	// The four tests on one map
+	private void runTest(MapGraph map, String desc)
+	{
+		section(desc);
+		CSRGraph g = map.getCSRGraph();
+		Random random = new Random(g.fingerprint());
+		SearchContext ctx = new SearchContext();
+
+		check(SOURCES + " trees of the whole graph", () -> {
+			for (int k = 0; k < SOURCES; k++) {
+				int source = random.nextInt(g.getNumVertices());
+				String error = judge(g, null, CSRSearch.shortestPathTree(g, source,
+						Double.POSITIVE_INFINITY, ctx, null));
+				if (error != null) {
+					return error;
+				}
+			}
+			return null;
+		});
+
+		check(SOURCES + " trees cut at a radius", () -> {
+			for (int k = 0; k < SOURCES; k++) {
+				int source = random.nextInt(g.getNumVertices());
+				String error = judge(g, null, CSRSearch.shortestPathTree(g, source,
+						medianDistance(g, source, ctx), ctx, null));
+				if (error != null) {
+					return error;
+				}
+			}
+			return null;
+		});
+
+		check(SOURCES + " trees around closed roads", () -> {
+			BitSet closed = new BitSet(g.getNumEdges());
+			for (int e : new RoadClosures(g).longestEdges(g.getNumEdges() / 20 + 1)) {
+				closed.set(e);
+			}
+			for (int k = 0; k < g.getNumEdges() / 20; k++) {
+				closed.set(random.nextInt(g.getNumEdges()));
+			}
+			for (int k = 0; k < SOURCES; k++) {
+				int source = random.nextInt(g.getNumVertices());
+				String error = judge(g, closed, CSRSearch.shortestPathTree(g, source,
+						Double.POSITIVE_INFINITY, ctx, closed));
+				if (error != null) {
+					return error;
+				}
+			}
+			return null;
+		});
+
+		check(SOURCES + " sets of isochrones", () -> {
+			IsochroneBuilder builder = new IsochroneBuilder(CELL_SIZE);
+			for (int k = 0; k < SOURCES; k++) {
+				int source = random.nextInt(g.getNumVertices());
+				double radius = medianDistance(g, source, ctx);
+				double[] bands = {radius / 3, 2 * radius / 3, radius};
+				ShortestPathTree tree = CSRSearch.shortestPathTree(g, source, radius, ctx, null);
+				String error = judgeIsochrones(tree, bands, builder.build(tree, bands));
+				if (error != null) {
+					return error;
+				}
+			}
+			return null;
+		});
+	}
+
+	// Compare a tree with Dijkstra from its source, within its radius
+	private static String judge(CSRGraph g, BitSet closed, ShortestPathTree tree)
+	{
+		int source = tree.getSource();
+		double radius = tree.getMaxDistance();
+		SearchContext ctx = new SearchContext();
+		CSRSearch.dijkstra(g, source, -1, ctx, closed, (x) -> {});
+		String from = "In the tree from " + source + ", ";
+
+		int reached = 0;
+		for (int v = 0; v < g.getNumVertices(); v++) {
+			double expected = ctx.getDistance(v);
+			if (expected > radius || Double.isInfinite(expected)) {
+				if (tree.getParent(v) != -1 || !Double.isInfinite(tree.getDistance(v))) {
+					return from + v + " is " + expected + " km away but was reached.";
+				}
+				continue;
+			}
+			reached++;
+			String error = DijkstraEquivalenceGrader.checkPath(from + "the path", g, source, v, expected,
+					tree.pathTo(v));
+			if (error == null) {
+				error = DijkstraEquivalenceGrader.checkDistance(from + "the", source, v, expected,
+						tree.getDistance(v));
+			}
+			if (error == null && closed != null && usesClosed(g, closed, tree.pathTo(v))) {
+				error = from + "the path to " + v + " takes a closed road.";
+			}
+			if (error != null) {
+				return error;
+			}
+		}
+
+		int[] order = tree.getReachedVertices();
+		if (order.length != reached || tree.getReachedCount() != reached) {
+			return from + order.length + " vertices were reached; expected " + reached + ".";
+		}
+		for (int i = 1; i < order.length; i++) {
+			if (tree.getDistance(order[i]) < tree.getDistance(order[i - 1])) {
+				return from + order[i] + " is listed after the farther " + order[i - 1] + ".";
+			}
+		}
+		return null;
+	}
+
+	// Whether some step of a path can only be taken on a closed road; the
+	// tree keeps vertices, so any open edge between the two will do
+	private static boolean usesClosed(CSRGraph g, BitSet closed, int[] path)
+	{
+		for (int i = 0; i + 1 < path.length; i++) {
+			boolean open = false;
+			for (int e = g.firstEdge(path[i]); e < g.endEdge(path[i]); e++) {
+				if (g.getTarget(e) == path[i + 1] && !closed.get(e)) {
+					open = true;
+				}
+			}
+			if (!open) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Every vertex within a band must be inside it, and the areas must
+	// not shrink as the bands grow
+	private static String judgeIsochrones(ShortestPathTree tree, double[] bands,
+			List<IsochroneBuilder.Isochrone> isochrones)
+	{
+		String from = "Around " + tree.getSource() + ", ";
+		if (isochrones.size() != bands.length) {
+			return from + isochrones.size() + " isochrones were built for " + bands.length + " bands.";
+		}
+		CSRGraph g = tree.getGraph();
+		for (int b = 0; b < bands.length; b++) {
+			IsochroneBuilder.Isochrone iso = isochrones.get(b);
+			if (b > 0 && iso.getArea() < isochrones.get(b - 1).getArea()) {
+				return from + "the " + bands[b] + " km isochrone is smaller than the "
+						+ bands[b - 1] + " km one.";
+			}
+			for (int v : tree.getReachedVertices()) {
+				if (tree.getDistance(v) <= bands[b] && !inside(iso.getRings(), g.getPoint(v))) {
+					return from + v + " is " + tree.getDistance(v) + " km away but outside the "
+							+ bands[b] + " km isochrone.";
+				}
+			}
+		}
+		return null;
+	}
+
+	// Even-odd test over all the rings, so that holes count as outside
+	private static boolean inside(List<List<GeographicPoint>> rings, GeographicPoint p)
+	{
+		boolean in = false;
+		for (List<GeographicPoint> ring : rings) {
+			for (int i = 0, j = ring.size() - 1; i < ring.size(); j = i++) {
+				GeographicPoint a = ring.get(i);
+				GeographicPoint b = ring.get(j);
+				if ((a.getY() > p.getY()) != (b.getY() > p.getY())
+						&& p.getX() < a.getX() + (p.getY() - a.getY()) * (b.getX() - a.getX()) / (b.getY() - a.getY())) {
+					in = !in;
+				}
+			}
+		}
+		return in;
+	}
+
+	// The distance from source within which half the reachable vertices lie
+	private static double medianDistance(CSRGraph g, int source, SearchContext ctx)
+	{
+		ShortestPathTree all = CSRSearch.shortestPathTree(g, source, Double.POSITIVE_INFINITY, ctx, null);
+		int[] order = all.getReachedVertices();
+		return all.getDistance(order[order.length / 2]);
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Checks transit node routes against Dijkstra
+ */
+package roadgraph;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for transit node routing.  Most random queries are long and go
+ * through the table, a few are local.  The table only knows the edge
+ * lengths, so RoutingEngine falls back to another search around closed
+ * roads and with changed weights, and must still agree with Dijkstra.
+ *
+ */
+public class TransitNodeGrader extends DijkstraEquivalenceGrader
+{
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new TransitNodeGrader());
+	}
+
+	@Override
+	protected Technique prepare(CSRGraph g)
+	{
+		TransitNodeRouting tnr = new TransitNodeRouting(new ContractionHierarchy(g),
+				ForkJoinPool.commonPool());
+		SearchContext forward = new SearchContext();
+		SearchContext backward = new SearchContext();
+		return new Technique("Transit node",
+				(start, goal) -> tnr.route(start, goal, forward, backward, (x) -> {}),
+				(start, goal) -> tnr.distance(start, goal, forward, backward));
+	}
+
+	@Override
+	protected Technique engine(RoutingEngine engine, RoadClosures.Snapshot closures)
+	{
+		return new Technique("Engine", (start, goal) -> engine.route(start, goal,
+				RoutingEngine.Algorithm.TRANSIT_NODE_ROUTING, closures).getVertexIds(), null);
+	}
+}
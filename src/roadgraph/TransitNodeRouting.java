@@ -0,0 +1,319 @@
+/**
+ * Transit-node routing on top of a contraction hierarchy
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Transit-node routing (TNR) for long queries.  Every long shortest path
+ * passes through one of a few important vertices, the transit nodes,
+ * taken here as the highest ranked vertices of a ContractionHierarchy.
+ * The distances between all pairs of transit nodes are kept in a table,
+ * and every vertex keeps its access nodes: the transit nodes its upward
+ * search reaches before any other, in each direction, with their
+ * distances.  A long query is then a lookup over the access node pairs
+ * of its two ends,
+ *
+ *   d(s, t) = min over a, b of d(s, a) + table[a][b] + d(b, t)
+ *
+ * which settles no vertices at all.
+ *
+ * This only holds when the highest vertex of the shortest path is a
+ * transit node.  The upward searches that find the access nodes stop at
+ * transit nodes, so otherwise the two search spaces share a vertex that
+ * is not one.  The locality filter keeps the bounding box of each search
+ * space and calls a query local when the boxes of its start and goal
+ * overlap; local queries fall back to the hierarchy.  The filter may
+ * call some long queries local, never the other way round, so every
+ * answer is exact.
+ *
+ * Like the hierarchy, this is built for the edge lengths; closures and
+ * edge weights are not applied.
+ *
+ */
+public final class TransitNodeRouting
+{
+	private final ContractionHierarchy ch;
+	private final CSRGraph graph;
+	/** transit[i] is the vertex id of transit node i */
+	private final int[] transit;
+	/** transitIndex[v] is i if v is transit node i, otherwise -1 */
+	private final int[] transitIndex;
+	/** table[i * k + j] is the distance from transit node i to transit node j */
+	private final double[] table;
+	/** The access nodes of v are at offsets[v] .. offsets[v+1]-1: the
+	 * transit node numbers and the distances from v (forward) or to v
+	 * (backward) */
+	private final int[] fwdOffsets;
+	private final int[] fwdAccess;
+	private final double[] fwdDistances;
+	private final int[] bwdOffsets;
+	private final int[] bwdAccess;
+	private final double[] bwdDistances;
+	/** South, west, north, east corners of the search space of each
+	 * vertex below the transit nodes, four values per vertex */
+	private final double[] fwdBox;
+	private final double[] bwdBox;
+
+	/**
+	 * Choose 4 sqrt(n) transit nodes and compute the table and access
+	 * nodes; on the maps of this project that leaves a few queries in a
+	 * hundred local
+	 * @param ch The hierarchy of the graph
+	 * @param pool The threads to compute with
+	 */
+	public TransitNodeRouting(ContractionHierarchy ch, ForkJoinPool pool)
+	{
+		this(ch, (int) Math.ceil(4 * Math.sqrt(ch.getGraph().numVertices)), pool);
+	}
+
+	/**
+	 * Choose the transit nodes and compute the table and access nodes
+	 * @param ch The hierarchy of the graph
+	 * @param transitCount The number of transit nodes; more make more
+	 *   queries long and the table larger
+	 * @param pool The threads to compute with
+	 */
+	public TransitNodeRouting(ContractionHierarchy ch, int transitCount, ForkJoinPool pool)
+	{
+		this.ch = ch;
+		this.graph = ch.getGraph();
+		int n = graph.numVertices;
+		int k = Math.max(0, Math.min(transitCount, n));
+		transit = new int[k];
+		transitIndex = new int[n];
+		Arrays.fill(transitIndex, -1);
+		for (int v = 0; v < n; v++) {
+			int top = n - 1 - ch.getRank(v);
+			if (top < k) {
+				transit[top] = v;
+				transitIndex[v] = top;
+			}
+		}
+
+		double[][] rows = DistanceMatrix.withHierarchy(ch, transit, transit, QueueType.FOUR_ARY_HEAP,
+				pool);
+		table = new double[k * k];
+		for (int i = 0; i < k; i++) {
+			System.arraycopy(rows[i], 0, table, i * k, k);
+		}
+
+		int[][] fwdNodes = new int[n][];
+		double[][] fwdDist = new double[n][];
+		int[][] bwdNodes = new int[n][];
+		double[][] bwdDist = new double[n][];
+		fwdBox = new double[4 * n];
+		bwdBox = new double[4 * n];
+		ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			IntStream.range(0, n).parallel().forEach(v -> {
+				SearchContext ctx = contexts.get();
+				accessNodes(v, true, ctx, fwdNodes, fwdDist, fwdBox);
+				accessNodes(v, false, ctx, bwdNodes, bwdDist, bwdBox);
+			});
+		}));
+		fwdOffsets = new int[n + 1];
+		bwdOffsets = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			fwdOffsets[v + 1] = fwdOffsets[v] + fwdNodes[v].length;
+			bwdOffsets[v + 1] = bwdOffsets[v] + bwdNodes[v].length;
+		}
+		fwdAccess = new int[fwdOffsets[n]];
+		fwdDistances = new double[fwdOffsets[n]];
+		bwdAccess = new int[bwdOffsets[n]];
+		bwdDistances = new double[bwdOffsets[n]];
+		for (int v = 0; v < n; v++) {
+			System.arraycopy(fwdNodes[v], 0, fwdAccess, fwdOffsets[v], fwdNodes[v].length);
+			System.arraycopy(fwdDist[v], 0, fwdDistances, fwdOffsets[v], fwdDist[v].length);
+			System.arraycopy(bwdNodes[v], 0, bwdAccess, bwdOffsets[v], bwdNodes[v].length);
+			System.arraycopy(bwdDist[v], 0, bwdDistances, bwdOffsets[v], bwdDist[v].length);
+		}
+	}
+
+	// Search upward from v without going past transit nodes, keeping the
+	// transit nodes reached that no other one lies on the way to, and
+	// the box around the other settled vertices
+	private void accessNodes(int v, boolean up, SearchContext ctx, int[][] nodes,
+			double[][] distances, double[] box)
+	{
+		ContractionHierarchy.IntList settled = ch.upwardSweep(v, up, ctx, transitIndex);
+		int k = transit.length;
+		int[] found = new int[settled.size];
+		double[] dist = new double[settled.size];
+		int count = 0;
+		double south = Double.POSITIVE_INFINITY, west = Double.POSITIVE_INFINITY;
+		double north = Double.NEGATIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < settled.size; i++) {
+			int u = settled.items[i];
+			if (transitIndex[u] >= 0) {
+				found[count] = transitIndex[u];
+				dist[count++] = ctx.getDistance(u);
+			} else {
+				south = Math.min(south, graph.latitudes[u]);
+				north = Math.max(north, graph.latitudes[u]);
+				west = Math.min(west, graph.longitudes[u]);
+				east = Math.max(east, graph.longitudes[u]);
+			}
+		}
+		box[4 * v] = south;
+		box[4 * v + 1] = west;
+		box[4 * v + 2] = north;
+		box[4 * v + 3] = east;
+
+		// Drop a when another access node b is no farther by way of b
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			boolean dominated = false;
+			for (int j = 0; j < count && !dominated; j++) {
+				if (j != i) {
+					double via = up ? table[found[j] * k + found[i]] : table[found[i] * k + found[j]];
+					// Ties go to the lower position, so two nodes never drop each other
+					dominated = dist[j] + via < dist[i] || (dist[j] + via == dist[i] && j < i);
+				}
+			}
+			if (!dominated) {
+				found[kept] = found[i];
+				dist[kept++] = dist[i];
+			}
+		}
+		nodes[v] = Arrays.copyOf(found, kept);
+		distances[v] = Arrays.copyOf(dist, kept);
+	}
+
+	/**
+	 * Get the hierarchy the transit nodes were chosen from
+	 * @return The contraction hierarchy
+	 */
+	public ContractionHierarchy getContractionHierarchy()
+	{
+		return ch;
+	}
+
+	/**
+	 * Get the graph this was built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the transit nodes
+	 * @return A copy of their vertex ids, most important first
+	 */
+	public int[] getTransitNodes()
+	{
+		return transit.clone();
+	}
+
+	/**
+	 * Get the number of forward access nodes of a vertex
+	 * @param v The vertex id
+	 * @return The number of transit nodes v leaves the neighbourhood by
+	 */
+	public int getAccessNodeCount(int v)
+	{
+		return fwdOffsets[v + 1] - fwdOffsets[v];
+	}
+
+	/**
+	 * Apply the locality filter
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @return true if the query must be answered with a local search,
+	 *   false if the transit node table gives the distance
+	 */
+	public boolean isLocal(int start, int goal)
+	{
+		return fwdBox[4 * start] <= bwdBox[4 * goal + 2] && bwdBox[4 * goal] <= fwdBox[4 * start + 2]
+				&& fwdBox[4 * start + 1] <= bwdBox[4 * goal + 3]
+				&& bwdBox[4 * goal + 1] <= fwdBox[4 * start + 3];
+	}
+
+	/**
+	 * Find the length of the shortest path between two vertices
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of a local search from start
+	 * @param backward The scratch state of a local search from goal
+	 * @return The distance in km, or infinity if goal cannot be reached
+	 */
+	public double distance(int start, int goal, SearchContext forward, SearchContext backward)
+	{
+		if (isLocal(start, goal)) {
+			return ch.distance(start, goal, forward, backward);
+		}
+		return tableDistance(start, goal, null);
+	}
+
+	// The shortest distance over the access nodes, putting the best
+	// pair of transit nodes in via when it is not null
+	private double tableDistance(int start, int goal, int[] via)
+	{
+		int k = transit.length;
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = fwdOffsets[start]; i < fwdOffsets[start + 1]; i++) {
+			int row = fwdAccess[i] * k;
+			for (int j = bwdOffsets[goal]; j < bwdOffsets[goal + 1]; j++) {
+				double d = fwdDistances[i] + table[row + bwdAccess[j]] + bwdDistances[j];
+				if (d < best) {
+					best = d;
+					if (via != null) {
+						via[0] = transit[fwdAccess[i]];
+						via[1] = transit[bwdAccess[j]];
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find the shortest path between two vertices.  A long query takes the
+	 * best pair of access nodes from the table and fills in the three
+	 * legs with hierarchy searches; a local query is one hierarchy search.
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param forward The scratch state of the forward searches, which is
+	 *   left holding the number of vertices settled by all of them
+	 * @param backward The scratch state of the backward searches
+	 * @param nodeSearched A hook for visualization, called for every settled vertex
+	 * @return The vertex ids of the shortest path, or null if there is none
+	 */
+	public int[] route(int start, int goal, SearchContext forward, SearchContext backward,
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		if (isLocal(start, goal)) {
+			return ch.route(start, goal, forward, backward, nodeSearched);
+		}
+		int[] via = new int[2];
+		if (tableDistance(start, goal, via) == Double.POSITIVE_INFINITY) {
+			forward.reset(graph.numVertices);
+			return null;
+		}
+		int[] legs = {start, via[0], via[1], goal};
+		ContractionHierarchy.IntList path = new ContractionHierarchy.IntList();
+		path.add(start);
+		int settled = 0;
+		for (int i = 0; i < 3; i++) {
+			int[] leg = ch.route(legs[i], legs[i + 1], forward, backward, nodeSearched);
+			settled += forward.getSettledCount();
+			for (int j = 1; j < leg.length; j++) {
+				path.add(leg[j]);
+			}
+		}
+		forward.reset(graph.numVertices);
+		forward.addSettled(settled);
+		return Arrays.copyOf(path.items, path.size);
+	}
+}
@@ -0,0 +1,356 @@
+/**
+ * Spatial index over the vertices of a CSRGraph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A k-d tree over the intersections of a CSRGraph.  It answers nearest
+ * vertex, k nearest and within-radius queries for arbitrary coordinates,
+ * so a client position can be snapped to the road graph.
+ *
+ * The tree is stored implicitly: the vertices are permuted so that every
+ * subtree is a contiguous range whose middle element is its splitting
+ * vertex, and each range remembers its bounding box.  Distances are the
+ * same great circle distances GeographicPoint.distance computes.  A
+ * subtree is skipped when the shortest possible distance to its bounding
+ * box is already too long.  That bound comes from the haversine formula
+ * with the smallest latitude and longitude gaps to the box and the
+ * smallest cosine of latitude inside it, so it is never too large and no
+ * answer is lost.
+ *
+ */
+public final class VertexIndex
+{
+	/** Radius of the earth in km, as used by GeographicPoint.distance */
+	private static final double R = 6373;
+	/** Ranges of at most this many vertices are scanned rather than split */
+	private static final int LEAF_SIZE = 8;
+
+	private final CSRGraph graph;
+	/** Vertex ids in tree order, and their coordinates in radians */
+	private final int[] ids;
+	private final double[] lat;
+	private final double[] lon;
+	private final double[] cosLat;
+	/** Bounding box of the range whose middle is i, in radians */
+	private final double[] minLat;
+	private final double[] maxLat;
+	private final double[] minLon;
+	private final double[] maxLon;
+
+	/**
+	 * Build the index
+	 * @param g The graph whose vertices to index
+	 */
+	public VertexIndex(CSRGraph g)
+	{
+		graph = g;
+		int n = g.getNumVertices();
+		ids = new int[n];
+		lat = new double[n];
+		lon = new double[n];
+		cosLat = new double[n];
+		minLat = new double[n];
+		maxLat = new double[n];
+		minLon = new double[n];
+		maxLon = new double[n];
+		for (int v = 0; v < n; v++) {
+			ids[v] = v;
+			lat[v] = Math.toRadians(g.getLatitude(v));
+			lon[v] = Math.toRadians(g.getLongitude(v));
+		}
+		build(0, n);
+		for (int i = 0; i < n; i++) {
+			cosLat[i] = Math.cos(lat[i]);
+		}
+	}
+
+	// Arrange positions lo..hi-1 into a subtree and record its bounding box
+	private void build(int lo, int hi)
+	{
+		if (lo >= hi) {
+			return;
+		}
+		double latLo = Double.POSITIVE_INFINITY, latHi = Double.NEGATIVE_INFINITY;
+		double lonLo = Double.POSITIVE_INFINITY, lonHi = Double.NEGATIVE_INFINITY;
+		for (int i = lo; i < hi; i++) {
+			latLo = Math.min(latLo, lat[i]);
+			latHi = Math.max(latHi, lat[i]);
+			lonLo = Math.min(lonLo, lon[i]);
+			lonHi = Math.max(lonHi, lon[i]);
+		}
+		int mid = (lo + hi) >>> 1;
+		minLat[mid] = latLo;
+		maxLat[mid] = latHi;
+		minLon[mid] = lonLo;
+		maxLon[mid] = lonHi;
+		if (hi - lo <= LEAF_SIZE) {
+			return;
+		}
+		// Split across the longer side of the box, measured on the ground
+		double cos = Math.cos((latLo + latHi) / 2);
+		boolean byLat = latHi - latLo >= (lonHi - lonLo) * cos;
+		select(lo, hi, mid, byLat);
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	// Quickselect: put the k-th smallest position of lo..hi-1 at k, smaller
+	// ones before it and larger ones after it
+	private void select(int lo, int hi, int k, boolean byLat)
+	{
+		double[] key = byLat ? lat : lon;
+		int left = lo;
+		int right = hi - 1;
+		while (left < right) {
+			double pivot = key[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (key[i] < pivot) i++;
+				while (key[j] > pivot) j--;
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				right = j;
+			}
+			else if (k >= i) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j)
+	{
+		int id = ids[i]; ids[i] = ids[j]; ids[j] = id;
+		double d = lat[i]; lat[i] = lat[j]; lat[j] = d;
+		d = lon[i]; lon[i] = lon[j]; lon[j] = d;
+	}
+
+	/**
+	 * Get the graph this index was built for
+	 * @return The graph
+	 */
+	public CSRGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Find the vertex closest to a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @return The id of the closest vertex (the smallest id among equally
+	 *   close ones), or -1 if the graph has no vertices
+	 */
+	public int nearestVertex(double latitude, double longitude)
+	{
+		int[] nearest = kNearest(latitude, longitude, 1);
+		return nearest.length == 0 ? -1 : nearest[0];
+	}
+
+	/**
+	 * Find the k vertices closest to a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @param k The number of vertices wanted
+	 * @return The ids of the min(k, n) closest vertices, closest first
+	 */
+	public int[] kNearest(double latitude, double longitude, int k)
+	{
+		Query q = new Query(latitude, longitude, Math.min(k, ids.length), Double.POSITIVE_INFINITY);
+		search(q, 0, ids.length);
+		return q.sortedIds();
+	}
+
+	/**
+	 * Find every vertex within a distance of a location
+	 * @param latitude The latitude of the location
+	 * @param longitude The longitude of the location
+	 * @param radius The distance in km
+	 * @return The ids of the vertices at most radius km away, closest first
+	 */
+	public int[] withinRadius(double latitude, double longitude, double radius)
+	{
+		Query q = new Query(latitude, longitude, Integer.MAX_VALUE, radius);
+		search(q, 0, ids.length);
+		return q.sortedIds();
+	}
+
+	// Visit the subtree in positions lo..hi-1, nearer half first
+	private void search(Query q, int lo, int hi)
+	{
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		if (boxDistance(q, mid) > q.bound()) {
+			return;
+		}
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				q.offer(ids[i], distance(q, i));
+			}
+			return;
+		}
+		q.offer(ids[mid], distance(q, mid));
+		int leftMid = (lo + mid) >>> 1;
+		int rightMid = (mid + 1 + hi) >>> 1;
+		boolean leftFirst = mid - lo == 0 || (hi - mid - 1 > 0
+				&& boxDistance(q, leftMid) <= boxDistance(q, rightMid));
+		if (leftFirst) {
+			search(q, lo, mid);
+			search(q, mid + 1, hi);
+		}
+		else {
+			search(q, mid + 1, hi);
+			search(q, lo, mid);
+		}
+	}
+
+	// Great circle distance in km from the query to position i
+	private static double haversine(double sinHalfDLat, double cosProduct, double sinHalfDLon)
+	{
+		double a = sinHalfDLat * sinHalfDLat + cosProduct * sinHalfDLon * sinHalfDLon;
+		return 2 * R * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	private double distance(Query q, int i)
+	{
+		return haversine(Math.sin((lat[i] - q.lat) / 2), q.cosLat * cosLat[i],
+				Math.sin((lon[i] - q.lon) / 2));
+	}
+
+	// A lower bound on the distance from the query to any vertex in the
+	// bounding box stored at position i
+	private double boxDistance(Query q, int i)
+	{
+		double dLat = Math.max(0, Math.max(minLat[i] - q.lat, q.lat - maxLat[i]));
+		double dLon = Math.max(0, Math.max(minLon[i] - q.lon, q.lon - maxLon[i]));
+		dLon = Math.min(dLon, 2 * Math.PI - dLon);
+		if (dLat == 0 && dLon == 0) {
+			return 0;
+		}
+		double minCos = Math.max(0, Math.min(Math.cos(minLat[i]), Math.cos(maxLat[i])));
+		return haversine(Math.sin(dLat / 2), q.cosLat * minCos, Math.sin(dLon / 2));
+	}
+
+	// The state of one query: the best candidates found so far, kept in a
+	// max-heap on (distance, id) when the number wanted is bounded
+	private static final class Query
+	{
+		final double lat;
+		final double lon;
+		final double cosLat;
+		final int k;
+		final double radius;
+		int size;
+		int[] heapIds;
+		double[] heapDist;
+
+		Query(double latitude, double longitude, int k, double radius)
+		{
+			this.lat = Math.toRadians(latitude);
+			this.lon = Math.toRadians(longitude);
+			this.cosLat = Math.cos(this.lat);
+			this.k = k;
+			this.radius = radius;
+			int capacity = Math.max(1, Math.min(k, 16));
+			heapIds = new int[capacity];
+			heapDist = new double[capacity];
+		}
+
+		// Subtrees farther than this cannot contribute
+		double bound()
+		{
+			if (size < k) {
+				return radius;
+			}
+			return Math.min(radius, heapDist[0]);
+		}
+
+		void offer(int id, double dist)
+		{
+			if (dist > radius || k == 0) {
+				return;
+			}
+			if (size < k) {
+				if (size == heapIds.length) {
+					heapIds = Arrays.copyOf(heapIds, size * 2);
+					heapDist = Arrays.copyOf(heapDist, size * 2);
+				}
+				heapIds[size] = id;
+				heapDist[size] = dist;
+				siftUp(size++);
+			}
+			else if (before(dist, id, heapDist[0], heapIds[0])) {
+				heapIds[0] = id;
+				heapDist[0] = dist;
+				siftDown(0);
+			}
+		}
+
+		private static boolean before(double d1, int id1, double d2, int id2)
+		{
+			return d1 < d2 || (d1 == d2 && id1 < id2);
+		}
+
+		private void siftUp(int i)
+		{
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (!before(heapDist[parent], heapIds[parent], heapDist[i], heapIds[i])) {
+					return;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i)
+		{
+			while (true) {
+				int largest = i;
+				for (int c = 2 * i + 1; c <= 2 * i + 2 && c < size; c++) {
+					if (before(heapDist[largest], heapIds[largest], heapDist[c], heapIds[c])) {
+						largest = c;
+					}
+				}
+				if (largest == i) {
+					return;
+				}
+				swap(i, largest);
+				i = largest;
+			}
+		}
+
+		private void swap(int i, int j)
+		{
+			int id = heapIds[i]; heapIds[i] = heapIds[j]; heapIds[j] = id;
+			double d = heapDist[i]; heapDist[i] = heapDist[j]; heapDist[j] = d;
+		}
+
+		// The candidates, closest first
+		int[] sortedIds()
+		{
+			int[] result = new int[size];
+			for (int i = size - 1; i >= 0; i--) {
+				result[i] = heapIds[0];
+				heapIds[0] = heapIds[i];
+				heapDist[0] = heapDist[i];
+				size = i;
+				siftDown(0);
+			}
+			return result;
+		}
+	}
+}
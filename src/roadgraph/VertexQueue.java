@@ -0,0 +1,55 @@
+/**
+ * Priority queue of vertex ids used by the searches
+ */
+package roadgraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * A min priority queue over the vertex ids 0..n-1 of a graph.  A vertex
+ * is in the queue at most once: pushing it again with a smaller key
+ * lowers its key in place (decrease-key), so the queue never grows past
+ * the number of vertices and stale entries never have to be skipped.
+ *
+ */
+public interface VertexQueue
+{
+	/**
+	 * Empty the queue and make room for vertex ids below numVertices
+	 * @param numVertices The number of vertices of the graph to search
+	 */
+	void reset(int numVertices);
+
+	/**
+	 * Whether the queue is empty
+	 * @return true if there is nothing left to poll
+	 */
+	boolean isEmpty();
+
+	/**
+	 * Add a vertex, or lower its key if it is already queued
+	 * @param v The vertex id
+	 * @param key The new key, which must not be larger than a key
+	 *   already queued for v
+	 */
+	void push(int v, double key);
+
+	/**
+	 * Get the smallest key in the queue
+	 * @return The key of the vertex pollMin would return
+	 */
+	double minKey();
+
+	/**
+	 * Remove the vertex with the smallest key
+	 * @return Its vertex id
+	 */
+	int pollMin();
+
+	/**
+	 * Whether a vertex is currently queued
+	 * @param v The vertex id
+	 * @return true if v is in the queue
+	 */
+	boolean contains(int v);
+}
@@ -7,18 +7,28 @@
 package util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
@@ -28,6 +38,8 @@ import roadgraph.MapGraph;
 
 public class GraphLoader 
 {
+	// Size in bytes of the pieces a road file is cut into for parsing in parallel
+	private static final int CHUNK_SIZE = 1 << 16;
 	
 	/** 
 	 * 	 * The file contains data lines as follows:
@@ -127,6 +139,9 @@ public class GraphLoader
 	 * This method will collapse the points so that only intersections 
 	 * are represented as nodes in the graph.
 	 * 
+	 * A file ending in .snapshot is read as a binary snapshot written 
+	 * by GraphSnapshot instead, which skips the parsing and collapsing.
+	 * 
 	 * @param filename The file containing the road data, in the format 
 	 *   described.
 	 * @param map The graph to load the map into.  The graph is
@@ -138,22 +153,54 @@ public class GraphLoader
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
 			Set<GeographicPoint> intersectionsToLoad)
 	{
-		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
-		
-        // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
-		for (GeographicPoint pt : intersections) {
-			map.addVertex(pt);
-			if (intersectionsToLoad != null) {
-				intersectionsToLoad.add(pt);
+		loadRoadMap(filename, map, segments, intersectionsToLoad, ForkJoinPool.commonPool());
+	}
+
+	
+	/**	  
+	 *  Read in a file specifying a map, as above, running the parallel
+	 *  phases of loading (parsing, finding the intersections and tracing 
+	 *  the edges) in the given pool.  The graph and segments loaded are 
+	 *  the same whatever the number of threads.
+	 * 
+	 * @param filename The file containing the road data.
+	 * @param map The graph to load the map into.
+	 * @param segments If not null, receives the road segments.
+	 * @param intersectionsToLoad If not null, receives the intersections.
+	 * @param pool The threads to load with.
+	 */
+	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad, ForkJoinPool pool)
+	{
+		if (filename.endsWith(GraphSnapshot.FILE_SUFFIX)) {
+			try {
+				GraphSnapshot.load(filename, map, segments, intersectionsToLoad);
+			} catch (IOException e) {
+				System.err.println("Problem loading snapshot file: " + filename);
+				e.printStackTrace();
 			}
-			nodes.add(pt);
+			return;
 		}
-		
-		
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		// Parallel streams started from inside the pool run on its threads
+		pool.invoke(ForkJoinTask.adapt(() -> {
+			Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
+	        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+	        		buildPointMapOneWay(filename);
+			
+	        // Add the nodes to the graph
+			List<GeographicPoint> intersections = findIntersections(pointMap);
+			for (GeographicPoint pt : intersections) {
+				map.addVertex(pt);
+				if (intersectionsToLoad != null) {
+					intersectionsToLoad.add(pt);
+				}
+				nodes.add(pt);
+			}
+			
+			
+			addEdgesAndSegments(intersections, nodes, pointMap, map, segments);
+		}));
 	}
 
 	
@@ -325,29 +372,25 @@ public class GraphLoader
 	
 	// Once you have built the pointMap and added the Nodes, 
 	// add the edges and build the road segments if the segments
-	// map is not null.
-	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes, 
+	// map is not null.  The edges of every node are traced in parallel,
+	// then added to the graph in the order of the nodes list.
+	private static void addEdgesAndSegments(List<GeographicPoint> order,
+			Collection<GeographicPoint> nodes, 
 			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
 			MapGraph map, 
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
 	{
-	
-		// Now we need to add the edges
-		// This is the tricky part
-		for (GeographicPoint pt : nodes) {
-			// Trace the node to its next node, building up the points 
-			// on the edge as you go.
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
-			for (RoadLineInfo info : outgoing) {
-				HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-				used.add(pt);
-				
-				List<GeographicPoint> pointsOnEdge = 
-						findPointsOnEdge(pointMap, info, nodes);
-				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
-				double length = getRoadLength(pt, end, pointsOnEdge);
-				map.addEdge(pt, end, info.roadName, info.roadType, length);
+		GeographicPoint[] ordered = order.toArray(new GeographicPoint[order.size()]);
+		TracedEdge[][] traced = new TracedEdge[ordered.length][];
+		IntStream.range(0, ordered.length).parallel()
+				.forEach(i -> traced[i] = traceEdges(ordered[i], pointMap, nodes));
+
+		for (TracedEdge[] edgesOfNode : traced) {
+			for (TracedEdge edge : edgesOfNode) {
+				GeographicPoint pt = edge.start;
+				GeographicPoint end = edge.end;
+				RoadLineInfo info = edge.info;
+				map.addEdge(pt, end, info.roadName, info.roadType, edge.length);
 
 				// If the segments variable is not null, then we 
 				// save the road geometry
@@ -358,8 +401,8 @@ public class GraphLoader
 						segs = new HashSet<RoadSegment>();
 						segments.put(pt,segs);
 					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
-							info.roadName, info.roadType, length);
+					RoadSegment seg = new RoadSegment(pt, end, edge.pointsOnEdge, 
+							info.roadName, info.roadType, edge.length);
 					segs.add(seg);
 					segs = segments.get(end);
 					if (segs == null) {
@@ -371,6 +414,45 @@ public class GraphLoader
 			}
 		}
 	}
+
+	// Trace every road leaving a node to the next node, building up the
+	// points on the edge as you go.  Only reads the point map.
+	private static TracedEdge[] traceEdges(GeographicPoint pt,
+			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+			Collection<GeographicPoint> nodes)
+	{
+		LinkedList<RoadLineInfo> outgoing = pointMap.get(pt).get(0);
+		TracedEdge[] traced = new TracedEdge[outgoing.size()];
+		int i = 0;
+		for (RoadLineInfo info : outgoing) {
+			List<GeographicPoint> pointsOnEdge = 
+					findPointsOnEdge(pointMap, info, nodes);
+			GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
+			double length = getRoadLength(pt, end, pointsOnEdge);
+			traced[i++] = new TracedEdge(pt, end, pointsOnEdge, info, length);
+		}
+		return traced;
+	}
+
+	// An edge found by traceEdges, waiting to be added to the graph
+	private static class TracedEdge
+	{
+		final GeographicPoint start;
+		final GeographicPoint end;
+		final List<GeographicPoint> pointsOnEdge;
+		final RoadLineInfo info;
+		final double length;
+
+		TracedEdge(GeographicPoint start, GeographicPoint end,
+				List<GeographicPoint> pointsOnEdge, RoadLineInfo info, double length)
+		{
+			this.start = start;
+			this.end = end;
+			this.pointsOnEdge = pointsOnEdge;
+			this.info = info;
+			this.length = length;
+		}
+	}
 			
 	
 	// Calculate the length of this road segment taking into account all of the 
@@ -453,129 +535,228 @@ public class GraphLoader
 	// (1 road in and 1 road out, which are the reverse of each other)
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
+	// The points are checked in parallel and returned sorted by latitude,
+	// then longitude, so the order does not depend on the hash map.
 	private static List<GeographicPoint> 
 	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
+		List<GeographicPoint> intersections = pointMap.entrySet().parallelStream()
+				.filter(entry -> isIntersection(entry.getValue()))
+				.map(entry -> entry.getKey())
+				.sorted(Comparator.comparingDouble(GeographicPoint::getX)
+						.thenComparingDouble(GeographicPoint::getY))
+				.collect(Collectors.toList());
+		return intersections;
+	}
+
+	// Whether a point with these roads in and out is an intersection
+	private static boolean isIntersection(List<LinkedList<RoadLineInfo>> roadsInAndOut) {
 		// Now find the intersections.  These are roads that do not have
 		// Exactly 1 or 2 roads coming in and out, where the roads in
 		// match the roads out.
-		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
-		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
-			
-			boolean isNode = true;
-			
-			if (roadsIn.size() == 1 && roadsOut.size() == 1) {
-				// If these are the reverse of each other, then this is
-				// and intersection (dead end)
-				if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
-						roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
-						&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
-					isNode = false;
-				}
+		LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
+		LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
+		
+		boolean isNode = true;
+		
+		if (roadsIn.size() == 1 && roadsOut.size() == 1) {
+			// If these are the reverse of each other, then this is
+			// and intersection (dead end)
+			if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
+					roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
+					&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
+				isNode = false;
 			}
-			if (roadsIn.size() == 2 && roadsOut.size() == 2) {
-				// If all the road segments have the same name, 
-				// And there are two pairs of reversed nodes, then 
-				// this is not an intersection because the roads pass
-				// through.
-			
-				String name = roadsIn.get(0).roadName;
-				boolean sameName = true;
-				for (RoadLineInfo info : roadsIn) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
+		}
+		if (roadsIn.size() == 2 && roadsOut.size() == 2) {
+			// If all the road segments have the same name, 
+			// And there are two pairs of reversed nodes, then 
+			// this is not an intersection because the roads pass
+			// through.
+		
+			String name = roadsIn.get(0).roadName;
+			boolean sameName = true;
+			for (RoadLineInfo info : roadsIn) {
+				if (!info.roadName.equals(name)) {
+					sameName = false;
 				}
-				for (RoadLineInfo info : roadsOut) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
+			}
+			for (RoadLineInfo info : roadsOut) {
+				if (!info.roadName.equals(name)) {
+					sameName = false;
 				}
+			}
+			
+			RoadLineInfo in1 = roadsIn.get(0);
+			RoadLineInfo in2 = roadsIn.get(1);
+			RoadLineInfo out1 = roadsOut.get(0);
+			RoadLineInfo out2 = roadsOut.get(1);
+	
+			boolean passThrough = false;
+			if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
+					(in1.isReverse(out2) && in2.isReverse(out1))) {
 				
-				RoadLineInfo in1 = roadsIn.get(0);
-				RoadLineInfo in2 = roadsIn.get(1);
-				RoadLineInfo out1 = roadsOut.get(0);
-				RoadLineInfo out2 = roadsOut.get(1);
-		
-				boolean passThrough = false;
-				if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
-						(in1.isReverse(out2) && in2.isReverse(out1))) {
-					
-					passThrough = true;
-				} 
-				
-				if (sameName && passThrough) {
-					isNode = false;
-				} 
-
+				passThrough = true;
 			} 
-			if (isNode) {
-				intersections.add(pt);
-			}
-		}
-		return intersections;
+			
+			if (sameName && passThrough) {
+				isNode = false;
+			} 
+
+		} 
+		return isNode;
 	}
 		
 	// Build the map from points to lists of lists of lines.
 	// The map returned is indexed by a GeographicPoint.  The values
 	// are lists of length two where each entry in the list is a list.
 	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
+	// stores the incoming roads.
+	//
+	// The file is cut into chunks at line breaks and the chunks are
+	// parsed and added to the map in parallel.  Each list is then sorted
+	// by line number, so it holds the roads in file order no matter how
+	// the threads ran.
 	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
 	buildPointMapOneWay(String filename)
 	{
-		BufferedReader reader = null;
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+		ConcurrentHashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
+				new ConcurrentHashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
 		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
-            while ((nextLine = reader.readLine()) != null) {
-            	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
-            }
-            reader.close();
-        } catch (IOException e) {
+			byte[] bytes = Files.readAllBytes(Paths.get(filename));
+			int[] bounds = chunkBounds(bytes);
+			int[] linesBefore = new int[bounds.length];
+			IntStream.range(1, bounds.length).parallel()
+					.forEach(i -> linesBefore[i] = countLines(bytes, bounds[i - 1], bounds[i]));
+			for (int i = 1; i < bounds.length; i++) {
+				linesBefore[i] += linesBefore[i - 1];
+			}
+			ConcurrentHashMap<String,String> names = new ConcurrentHashMap<String,String>();
+			RoadLineInfo[][] chunks = new RoadLineInfo[bounds.length - 1][];
+			IntStream.range(0, chunks.length).parallel().forEach(i -> chunks[i] =
+					parseChunk(bytes, bounds[i], bounds[i + 1], linesBefore[i], names));
+
+			int[] firstLine = new int[chunks.length];
+			for (int i = 1; i < chunks.length; i++) {
+				firstLine[i] = firstLine[i - 1] + chunks[i - 1].length;
+			}
+			IntStream.range(0, chunks.length).parallel().forEach(i -> {
+				for (int j = 0; j < chunks[i].length; j++) {
+					chunks[i][j].index = firstLine[i] + j;
+					addToPointsMapOneWay(chunks[i][j], pointMap);
+				}
+			});
+			pointMap.values().parallelStream().forEach(inAndOut -> {
+				inAndOut.get(0).sort(Comparator.comparingInt(info -> info.index));
+				inAndOut.get(1).sort(Comparator.comparingInt(info -> info.index));
+			});
+        } catch (IOException | UncheckedIOException e) {
             System.err.println("Problem loading dictionary file: " + filename);
             e.printStackTrace();
         }
 		
-		return pointMap;
+		return new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>(pointMap);
 	}
 
+	// Cut the file into pieces of about CHUNK_SIZE bytes that end just
+	// after a line break; returns the offsets where the pieces start, and
+	// the length of the file
+	private static int[] chunkBounds(byte[] bytes)
+	{
+		List<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(0);
+		int next = CHUNK_SIZE;
+		while (next < bytes.length) {
+			while (next < bytes.length && bytes[next] != '\n' && bytes[next] != '\r') {
+				next++;
+			}
+			// Keep \r\n together
+			if (next + 1 < bytes.length && bytes[next] == '\r' && bytes[next + 1] == '\n') {
+				next++;
+			}
+			next++;
+			if (next < bytes.length) {
+				bounds.add(next);
+			}
+			next += CHUNK_SIZE;
+		}
+		bounds.add(bytes.length);
+		int[] result = new int[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	// Count the line terminators in bytes[start..end), \r\n as one, the
+	// way RoadLineTokenizer numbers lines
+	private static int countLines(byte[] bytes, int start, int end)
+	{
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\n') {
+				count++;
+			}
+			else if (bytes[i] == '\r') {
+				count++;
+				if (i + 1 < end && bytes[i + 1] == '\n') {
+					i++;
+				}
+			}
+		}
+		return count;
+	}
 
-	// Add the next line read from the file to the points map.
+	// Parse the lines in bytes[start..end), which follow firstLine lines
+	// of the file, sharing road names and types through names
+	private static RoadLineInfo[] parseChunk(byte[] bytes, int start, int end, int firstLine,
+			ConcurrentHashMap<String,String> names)
+	{
+		List<RoadLineInfo> lines = new ArrayList<RoadLineInfo>();
+		try {
+			RoadLineTokenizer tokenizer = new RoadLineTokenizer(
+					new ByteArrayInputStream(bytes, start, end - start), firstLine, names);
+			RoadLineInfo line;
+			while ((line = tokenizer.next()) != null) {
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return lines.toArray(new RoadLineInfo[lines.size()]);
+	}
+
+
+	// Add the next line read from the file to the points map.  Safe to
+	// call from several threads at once.
 	private static void 
 	addToPointsMapOneWay(RoadLineInfo line,
-						HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
+						ConcurrentHashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
 	{
-		List<LinkedList<RoadLineInfo>> pt1Infos = map.get(line.point1);
-		if (pt1Infos == null) {
-			pt1Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point1, pt1Infos);
+		List<RoadLineInfo> outgoing = map.computeIfAbsent(line.point1, GraphLoader::newInAndOut).get(0);
+		synchronized (outgoing) {
+			outgoing.add(line);
 		}
-		List<RoadLineInfo> outgoing = pt1Infos.get(0);
-		outgoing.add(line);
 		
-		List<LinkedList<RoadLineInfo>> pt2Infos = map.get(line.point2);
-		if (pt2Infos == null) {
-			pt2Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point2, pt2Infos);
+		List<RoadLineInfo> incoming = map.computeIfAbsent(line.point2, GraphLoader::newInAndOut).get(1);
+		synchronized (incoming) {
+			incoming.add(line);
 		}
-		List<RoadLineInfo> incoming = pt2Infos.get(1);
-		incoming.add(line);
 		
 	}
+
+	// The empty lists of roads out of and into a point
+	private static List<LinkedList<RoadLineInfo>> newInAndOut(GeographicPoint pt)
+	{
+		List<LinkedList<RoadLineInfo>> inAndOut = new ArrayList<LinkedList<RoadLineInfo>>(2);
+		inAndOut.add(new LinkedList<RoadLineInfo>());
+		inAndOut.add(new LinkedList<RoadLineInfo>());
+		return inAndOut;
+	}
 	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
+	// Split the input string into the line information.  The loader now
+	// uses RoadLineTokenizer; this is kept as the reference TokenizerGrader
+	// and util.TokenizerBenchmark in the benchmarks module check it against.
+	static RoadLineInfo splitInputString(String input)
 	{	
 		
 		ArrayList<String> tokens = new ArrayList<String>();
@@ -615,106 +796,9 @@ public class GraphLoader
 		GraphLoader.createIntersectionsFile("data/maps/YOURFILE.map", 
 					                         "data/intersections/YOURFILE.intersections");
 
-	}
-	
-}	
-	
+		// To load maps faster, convert them to binary snapshots with
+		// util.GraphSnapshot, which takes the map file as its argument.
 
-// A class to store information about the lines in the road files.
-class RoadLineInfo
-{
-	GeographicPoint point1;
-	GeographicPoint point2;
-	
-	String roadName;
-	String roadType;
-	
-	/** Create a new RoadLineInfo object to store information about the line 
-	 * read from the file
-	 * @param p1 One of the points
-	 * @param p2 The other point
-	 * @param roadName The name of the road
-	 * @param roadType The type of the road
-	 */
-	RoadLineInfo(GeographicPoint p1, GeographicPoint p2, String roadName, String roadType) 
-	{
-		point1 = p1;
-		point2 = p2;
-		this.roadName = roadName;
-		this.roadType = roadType;
-	}
-	
-	
-	/** Get the other point from this roadLineInfo */
-	public GeographicPoint getOtherPoint(GeographicPoint pt)
-	{
-		if (pt == null) throw new IllegalArgumentException();
-		if (pt.equals(point1)) {
-			return point2;
-		}
-		else if (pt.equals(point2)) {
-			return point1;
-		}
-		else throw new IllegalArgumentException();
-	}
-	
-	/** Two RoadLineInfo objects are considered equal if they have the same
-	 * two points and the same roadName and roadType.
-	 */
-	public boolean equals(Object o)
-	{
-		if (o == null || !(o instanceof RoadLineInfo))
-		{
-			return false;
-		}
-		RoadLineInfo info = (RoadLineInfo)o;
-		return info.point1.equals(this.point1) && info.point2.equals(this.point2)  &&
-				info.roadType.equals(this.roadType) && info.roadName.equals(this.roadName);
-				
-	}
-	
-	/** Calculate the hashCode based on the hashCodes of the two points
-	 * @return The hashcode for this object.
-	 */
-	public int hashCode()
-	{
-		return point1.hashCode() + point2.hashCode();
-		
 	}
 	
-	/** Returns whether these segments are part of the same road in terms of
-	 * road name and road type.
-	 * @param info The RoadLineInfo to compare against.
-	 * @return true if these represent the same road, false otherwise.
-	 */
-	public boolean sameRoad(RoadLineInfo info)
-	{
-		return info.roadName.equals(this.roadName) && info.roadType.equals(this.roadType);
-	}
-	
-	/** Return a copy of this LineInfo in the other direction */
-	public RoadLineInfo getReverseCopy()
-	{
-		return new RoadLineInfo(this.point2, this.point1, this.roadName, this.roadType);
-	}
-	
-	/** Return true if this road is the same segment as other, but in reverse
-	 *   Otherwise return false.
-	 */
-	public boolean isReverse(RoadLineInfo other)
-	{
-		return this.point1.equals(other.point2) && this.point2.equals(other.point1) &&
-				this.roadName.equals(other.roadName) && this.roadType.equals(other.roadType);
-	}
-	
-	/** Return the string representation of this LineInfo. */
-	public String toString()
-	{
-		return this.point1 + " " + this.point2 + " " + this.roadName + " " + this.roadType;
-		
-	}
-	
-	
-	
-	
 }
@@ -0,0 +1,428 @@
+/**
+ * @author Abraham Ferrero
+ *
+ * Reads and writes road maps in a compact binary form, so that a map
+ * does not have to be parsed and collapsed into intersections from its
+ * text .map file every time it is loaded.
+ */
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.CSRGraph;
+import roadgraph.MapGraph;
+
+/**
+ * A snapshot holds the graph after the intersections have been found:
+ * the vertices, the edges in compressed sparse row order, their lengths,
+ * a table of road names and types, and the geometry of every road
+ * segment.  All numbers are big-endian:
+ *
+ * <pre>
+ *   int    magic "RGSN", int version
+ *   int    vertices n, int edges m, int strings s, int segments k
+ *   n x    double lat, double lon
+ *   n+1 x  int edge offset
+ *   m x    int target, double length, int road name, int road type
+ *   s x    int byte count, UTF-8 bytes
+ *   k x    int start vertex, int end vertex, int road name, int road type,
+ *          double length, int point count, (double lat, double lon) per point
+ * </pre>
+ *
+ * Loading maps the file into memory with FileChannel.map, so the
+ * operating system's page cache is shared by every JVM that loads the
+ * same snapshot.  The coordinates and offsets are copied out in bulk
+ * through typed views of the mapping and become the CSRGraph of the
+ * loaded map directly, without the sorting and hashing of building it
+ * from the nodes.  The MapNode and MapEdge objects are still created,
+ * since the rest of MapGraph works on them.  Sizes and indices are
+ * checked as the file is read, so a truncated or damaged snapshot is
+ * reported with an IOException.
+ */
+public class GraphSnapshot
+{
+	/** "RGSN" */
+	private static final int MAGIC = 0x5247534e;
+	private static final int VERSION = 1;
+	/** Bytes before the vertices, and in each edge record */
+	private static final int HEADER_BYTES = 24;
+	private static final int EDGE_BYTES = 20;
+	/** Bytes of a segment record before its points */
+	private static final int SEGMENT_BYTES = 28;
+	/** Extension of snapshot files, which GraphLoader.loadRoadMap recognizes */
+	public static final String FILE_SUFFIX = ".snapshot";
+
+	private GraphSnapshot() {}
+
+	/**
+	 * Get the name of the snapshot of a map file: the .map extension is
+	 * replaced by .snapshot.
+	 * @param mapFile The name of the text map file
+	 * @return The name of its snapshot file
+	 */
+	public static String snapshotFileFor(String mapFile)
+	{
+		if (mapFile.endsWith(".map")) {
+			return mapFile.substring(0, mapFile.length() - 4) + FILE_SUFFIX;
+		}
+		return mapFile + FILE_SUFFIX;
+	}
+
+	/**
+	 * Choose the file to load a map from: its snapshot if there is one
+	 * that is at least as new as the map file, otherwise the map file.
+	 * @param mapFile The name of the text map file
+	 * @return The name of the file to pass to GraphLoader.loadRoadMap
+	 */
+	public static String freshestFile(String mapFile)
+	{
+		File map = new File(mapFile);
+		File snapshot = new File(snapshotFileFor(mapFile));
+		if (snapshot.isFile() && snapshot.lastModified() >= map.lastModified()) {
+			return snapshot.getPath();
+		}
+		return mapFile;
+	}
+
+	/**
+	 * Convert a text map file to a snapshot
+	 * @param mapFile The text map file to read
+	 * @param snapshotFile The snapshot file to write
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	public static void convert(String mapFile, String snapshotFile) throws IOException
+	{
+		MapGraph map = new MapGraph();
+		HashMap<GeographicPoint,HashSet<RoadSegment>> segments =
+				new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+		GraphLoader.loadRoadMap(mapFile, map, segments, null);
+		write(map, segments, snapshotFile);
+	}
+
+	/**
+	 * Write a loaded map to a snapshot
+	 * @param map The graph
+	 * @param segments The road segments loaded with the graph, or null
+	 * @param snapshotFile The snapshot file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(MapGraph map, HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			String snapshotFile) throws IOException
+	{
+		CSRGraph g = map.getCSRGraph();
+		int n = g.getNumVertices();
+		int m = g.getNumEdges();
+
+		// Every segment is in the sets of both of its end points; list it once
+		List<RoadSegment> distinct = new ArrayList<RoadSegment>();
+		if (segments != null) {
+			for (int v = 0; v < n; v++) {
+				HashSet<RoadSegment> segs = segments.get(g.getPoint(v));
+				if (segs == null) {
+					continue;
+				}
+				for (RoadSegment seg : segs) {
+					if (seg.getStartPoint().equals(g.getPoint(v))) {
+						distinct.add(seg);
+					}
+				}
+			}
+		}
+
+		HashMap<String,Integer> stringIds = new HashMap<String,Integer>();
+		List<String> strings = new ArrayList<String>();
+		int[] names = new int[m];
+		int[] types = new int[m];
+		for (int e = 0; e < m; e++) {
+			names[e] = intern(g.getRoadName(e), stringIds, strings);
+			types[e] = intern(g.getRoadType(e), stringIds, strings);
+		}
+		for (RoadSegment seg : distinct) {
+			intern(seg.getRoadName(), stringIds, strings);
+			intern(seg.getRoadType(), stringIds, strings);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(snapshotFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(n);
+			out.writeInt(m);
+			out.writeInt(strings.size());
+			out.writeInt(distinct.size());
+			for (int v = 0; v < n; v++) {
+				out.writeDouble(g.getLatitude(v));
+				out.writeDouble(g.getLongitude(v));
+			}
+			for (int v = 0; v < n; v++) {
+				out.writeInt(g.firstEdge(v));
+			}
+			out.writeInt(m);
+			for (int e = 0; e < m; e++) {
+				out.writeInt(g.getTarget(e));
+				out.writeDouble(g.getLength(e));
+				out.writeInt(names[e]);
+				out.writeInt(types[e]);
+			}
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			for (RoadSegment seg : distinct) {
+				out.writeInt(g.getId(seg.getStartPoint()));
+				out.writeInt(g.getId(seg.getEndPoint()));
+				out.writeInt(stringIds.get(seg.getRoadName()));
+				out.writeInt(stringIds.get(seg.getRoadType()));
+				out.writeDouble(seg.getLength());
+				List<GeographicPoint> points = seg.getGeometryPoints();
+				out.writeInt(points.size());
+				for (GeographicPoint p : points) {
+					out.writeDouble(p.getX());
+					out.writeDouble(p.getY());
+				}
+			}
+		}
+	}
+
+	// Return the index of s in the string table, adding it if needed
+	private static int intern(String s, HashMap<String,Integer> stringIds, List<String> strings)
+	{
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Load a snapshot into a graph, the same way GraphLoader.loadRoadMap
+	 * loads a text map file.  When the graph starts out empty it is also
+	 * given the CSR form read from the file, so getCSRGraph does not have
+	 * to build it.
+	 * @param snapshotFile The snapshot file to read
+	 * @param map The graph to load the map into
+	 * @param segments If not null, receives the road segments at every
+	 *   intersection
+	 * @param intersectionsToLoad If not null, receives the intersections
+	 * @throws IOException If the file cannot be read, is not a snapshot,
+	 *   or is truncated or damaged
+	 */
+	public static void load(String snapshotFile, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersectionsToLoad) throws IOException
+	{
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.limit() < HEADER_BYTES || in.getInt(0) != MAGIC) {
+			throw new IOException(snapshotFile + " is not a graph snapshot");
+		}
+		int version = in.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(snapshotFile + " has version " + version
+					+ ", expected " + VERSION);
+		}
+		int n = in.getInt(8);
+		int m = in.getInt(12);
+		int numStrings = in.getInt(16);
+		int numSegments = in.getInt(20);
+		// The vertices and edges have a fixed size; the strings and
+		// segments after them are checked as they are read
+		long fixed = HEADER_BYTES + 16L * n + 4L * (n + 1) + (long) EDGE_BYTES * m;
+		if (n < 0 || m < 0 || numStrings < 0 || numSegments < 0 || in.limit() < fixed) {
+			throw damaged(snapshotFile);
+		}
+		boolean wasEmpty = map.getNumVertices() == 0;
+
+		// The coordinates and offsets are read in bulk through views of the
+		// mapping; the edge records interleave ints and doubles
+		int at = HEADER_BYTES;
+		double[] coordinates = new double[2 * n];
+		slice(in, at, 16 * n).asDoubleBuffer().get(coordinates);
+		at += 16 * n;
+		int[] offsets = new int[n + 1];
+		slice(in, at, 4 * (n + 1)).asIntBuffer().get(offsets);
+		at += 4 * (n + 1);
+		int[] targets = new int[m];
+		double[] lengths = new double[m];
+		int[] names = new int[m];
+		int[] types = new int[m];
+		for (int e = 0; e < m; e++, at += EDGE_BYTES) {
+			targets[e] = in.getInt(at);
+			lengths[e] = in.getDouble(at + 4);
+			names[e] = in.getInt(at + 12);
+			types[e] = in.getInt(at + 16);
+		}
+		in.position(at);
+		String[] strings = new String[numStrings];
+		for (int i = 0; i < numStrings; i++) {
+			int count = count(in, 1, snapshotFile);
+			byte[] bytes = new byte[count];
+			in.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		GeographicPoint[] points = new GeographicPoint[n];
+		for (int v = 0; v < n; v++) {
+			points[v] = new GeographicPoint(coordinates[2 * v], coordinates[2 * v + 1]);
+		}
+		CSRGraph g;
+		try {
+			g = CSRGraph.fromArrays(points, offsets, targets, lengths, names, types, strings);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(snapshotFile + " is damaged: " + e.getMessage());
+		}
+
+		for (int v = 0; v < n; v++) {
+			if (!map.addVertex(points[v]) && wasEmpty) {
+				throw new IOException(snapshotFile + " is damaged: " + points[v] + " is listed twice");
+			}
+			if (intersectionsToLoad != null) {
+				intersectionsToLoad.add(points[v]);
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				map.addEdge(points[v], points[targets[e]], strings[names[e]], strings[types[e]],
+						lengths[e]);
+			}
+		}
+
+		for (int i = 0; i < numSegments; i++) {
+			if (in.remaining() < SEGMENT_BYTES) {
+				throw damaged(snapshotFile);
+			}
+			int start = in.getInt();
+			int end = in.getInt();
+			int name = in.getInt();
+			int type = in.getInt();
+			double length = in.getDouble();
+			if (start < 0 || start >= n || end < 0 || end >= n || name < 0 || name >= numStrings
+					|| type < 0 || type >= numStrings) {
+				throw damaged(snapshotFile);
+			}
+			int count = count(in, 16, snapshotFile);
+			List<GeographicPoint> geometry = new ArrayList<GeographicPoint>(count);
+			for (int j = 0; j < count; j++) {
+				geometry.add(new GeographicPoint(in.getDouble(), in.getDouble()));
+			}
+			if (segments != null) {
+				RoadSegment seg = new RoadSegment(points[start], points[end], geometry,
+						strings[name], strings[type], length);
+				addSegment(segments, points[start], seg);
+				addSegment(segments, points[end], seg);
+			}
+		}
+		if (in.hasRemaining()) {
+			throw damaged(snapshotFile);
+		}
+
+		if (wasEmpty) {
+			map.setCSRGraph(g);
+		}
+	}
+
+	// Read a count of items of the given size that must all fit in what is
+	// left of the file
+	private static int count(ByteBuffer in, int itemBytes, String snapshotFile) throws IOException
+	{
+		if (in.remaining() < 4) {
+			throw damaged(snapshotFile);
+		}
+		int count = in.getInt();
+		if (count < 0 || (long) count * itemBytes > in.remaining()) {
+			throw damaged(snapshotFile);
+		}
+		return count;
+	}
+
+	private static ByteBuffer slice(ByteBuffer in, int at, int bytes)
+	{
+		ByteBuffer slice = in.duplicate();
+		slice.position(at).limit(at + bytes);
+		return slice.slice();
+	}
+
+	private static IOException damaged(String snapshotFile)
+	{
+		return new IOException(snapshotFile + " is truncated or damaged");
+	}
+
+	private static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			GeographicPoint pt, RoadSegment seg)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(pt, segs);
+		}
+		segs.add(seg);
+	}
+
+	/**
+	 * Convert text map files to snapshots.
+	 *
+	 * With no arguments every map listed in data/maps/mapfiles.list is
+	 * converted.  With one argument that map file is converted to the
+	 * snapshot next to it, and with two the second names the snapshot.
+	 * @param args The files to convert
+	 * @throws IOException If a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		List<String[]> jobs = new ArrayList<String[]>();
+		if (args.length == 0) {
+			for (String line : java.nio.file.Files.readAllLines(Paths.get("data/maps/mapfiles.list"))) {
+				if (!line.trim().isEmpty()) {
+					String mapFile = "data/maps/" + line.trim();
+					jobs.add(new String[] {mapFile, snapshotFileFor(mapFile)});
+				}
+			}
+		}
+		else {
+			jobs.add(new String[] {args[0], args.length > 1 ? args[1] : snapshotFileFor(args[0])});
+		}
+
+		for (String[] job : jobs) {
+			long time = System.nanoTime();
+			convert(job[0], job[1]);
+			long convertTime = System.nanoTime() - time;
+
+			time = System.nanoTime();
+			MapGraph map = new MapGraph();
+			GraphLoader.loadRoadMap(job[0], map, new HashMap<GeographicPoint,HashSet<RoadSegment>>(), null);
+			long textTime = System.nanoTime() - time;
+			time = System.nanoTime();
+			map = new MapGraph();
+			load(job[1], map, new HashMap<GeographicPoint,HashSet<RoadSegment>>(), null);
+			long snapshotTime = System.nanoTime() - time;
+
+			System.out.printf("%s -> %s (%d vertices, %d edges): converted in %.1f ms, "
+					+ "loads in %.1f ms instead of %.1f ms%n", job[0], job[1],
+					map.getNumVertices(), map.getNumEdges(), convertTime / 1e6,
+					snapshotTime / 1e6, textTime / 1e6);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Checks that graph snapshots load back the map they were written from
+ */
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.CSRGraphGrader;
+import roadgraph.Grader;
+import roadgraph.MapGraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for GraphSnapshot.  Every bundled map is loaded from its text
+ * file, written to a snapshot and loaded back.  The CSR form read from
+ * the snapshot must be the one built from the text file slot by slot,
+ * and must match the nodes created from the snapshot; the intersections
+ * and road segments must be the same too.  A snapshot cut short must be
+ * refused with an IOException.
+ *
+ */
+public class GraphSnapshotGrader extends Grader
+{
+	/** The map files in data/maps */
+	static final String[] MAP_FILES = {"ucsd.map", "utc.map", "hollywood_small.map",
+			"hollywood_large.map", "newbury_verysmall.map", "newbury_small.map",
+			"san_diego.map", "new_york.map"};
+
+	public GraphSnapshotGrader()
+	{
+		super(MAP_FILES.length + 1);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new GraphSnapshotGrader());
+	}
+
+	@Override
+	protected void runTests() throws IOException
+	{
+		File file = File.createTempFile("grader", GraphSnapshot.FILE_SUFFIX);
+		file.deleteOnExit();
+
+		section("SNAPSHOTS: Round trip of every map");
+		for (String map : MAP_FILES) {
+			check(map, () -> roundTrip("data/maps/" + map, file.getPath()));
+		}
+
+		section("SNAPSHOTS: Damaged files");
+		check("Truncated snapshot is refused", () -> truncated("data/maps/ucsd.map", file.getPath()));
+	}
+
+	// Write a map to a snapshot, load it back and compare
+	private static String roundTrip(String mapFile, String snapshotFile) throws IOException
+	{
+		MapGraph text = new MapGraph();
+		HashMap<GeographicPoint,HashSet<RoadSegment>> textSegments =
+				new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+		HashSet<GeographicPoint> textIntersections = new HashSet<GeographicPoint>();
+		GraphLoader.loadRoadMap(mapFile, text, textSegments, textIntersections);
+		GraphSnapshot.write(text, textSegments, snapshotFile);
+
+		MapGraph snapshot = new MapGraph();
+		HashMap<GeographicPoint,HashSet<RoadSegment>> snapshotSegments =
+				new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+		HashSet<GeographicPoint> snapshotIntersections = new HashSet<GeographicPoint>();
+		GraphSnapshot.load(snapshotFile, snapshot, snapshotSegments, snapshotIntersections);
+
+		String error = CSRGraphGrader.compare(text.getCSRGraph(), snapshot.getCSRGraph());
+		if (error == null) {
+			error = CSRGraphGrader.judge(snapshot, snapshot.getCSRGraph());
+		}
+		if (error == null && !snapshotIntersections.equals(textIntersections)) {
+			error = "The snapshot has " + snapshotIntersections.size() + " intersections; expected "
+					+ textIntersections.size() + ".";
+		}
+		if (error == null) {
+			error = compareSegments(textSegments, snapshotSegments);
+		}
+		return error;
+	}
+
+	// Cut a snapshot in half; loading it must fail with an IOException
+	private static String truncated(String mapFile, String snapshotFile) throws IOException
+	{
+		GraphSnapshot.convert(mapFile, snapshotFile);
+		try (RandomAccessFile out = new RandomAccessFile(snapshotFile, "rw")) {
+			out.setLength(out.length() / 2);
+		}
+		try {
+			GraphSnapshot.load(snapshotFile, new MapGraph(), null, null);
+			return "A snapshot cut in half was loaded.";
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/** Compare the road segments of two loads of a map.
+	 * @param expected The segments at every intersection, as they should be
+	 * @param actual The segments to check
+	 * @return The first difference, or null if they are the same
+	 */
+	static String compareSegments(Map<GeographicPoint,HashSet<RoadSegment>> expected,
+			Map<GeographicPoint,HashSet<RoadSegment>> actual)
+	{
+		if (!actual.keySet().equals(expected.keySet())) {
+			return "Segments are listed at " + actual.size() + " points; expected " + expected.size() + ".";
+		}
+		for (GeographicPoint p : expected.keySet()) {
+			List<String> a = describe(actual.get(p));
+			List<String> b = describe(expected.get(p));
+			if (!a.equals(b)) {
+				return "The segments at " + p + " are " + a + "; expected " + b + ".";
+			}
+		}
+		return null;
+	}
+
+	// The segments at a point, with their geometry, in a fixed order
+	private static List<String> describe(HashSet<RoadSegment> segments)
+	{
+		List<String> list = new ArrayList<String>();
+		for (RoadSegment seg : segments) {
+			list.add(seg.getStartPoint() + " to " + seg.getEndPoint() + " on " + seg.getRoadName()
+					+ " (" + seg.getRoadType() + "), " + seg.getLength() + " km through "
+					+ seg.getGeometryPoints());
+		}
+		Collections.sort(list);
+		return list;
+	}
+}
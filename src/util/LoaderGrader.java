@@ -0,0 +1,88 @@
+/**
+ * Checks that parallel map loading does not depend on the threads
+ */
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.CSRGraphGrader;
+import roadgraph.Grader;
+import roadgraph.MapGraph;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for the parallel loading in GraphLoader.  Every bundled map is
+ * loaded on one thread and on several, twice each, and every load must
+ * give the same graph slot by slot, the same intersections and the same
+ * road segments.
+ *
+ */
+public class LoaderGrader extends Grader
+{
+	private static final int[] THREADS = {1, 4, 1, 4};
+
+	public LoaderGrader()
+	{
+		super(GraphSnapshotGrader.MAP_FILES.length);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new LoaderGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		section("LOADER: Loads on 1 and 4 threads");
+		for (String map : GraphSnapshotGrader.MAP_FILES) {
+			check(map, () -> judge("data/maps/" + map));
+		}
+	}
+
+	// Load a map with each number of threads and compare every load with
+	// the first
+	private static String judge(String mapFile)
+	{
+		MapGraph first = null;
+		HashMap<GeographicPoint,HashSet<RoadSegment>> firstSegments = null;
+		HashSet<GeographicPoint> firstIntersections = null;
+		for (int threads : THREADS) {
+			MapGraph map = new MapGraph();
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments =
+					new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+			HashSet<GeographicPoint> intersections = new HashSet<GeographicPoint>();
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				GraphLoader.loadRoadMap(mapFile, map, segments, intersections, pool);
+			}
+			finally {
+				pool.shutdown();
+			}
+			if (first == null) {
+				first = map;
+				firstSegments = segments;
+				firstIntersections = intersections;
+				continue;
+			}
+
+			String error = CSRGraphGrader.compare(first.getCSRGraph(), map.getCSRGraph());
+			if (error == null && !intersections.equals(firstIntersections)) {
+				error = "Found " + intersections.size() + " intersections; expected "
+						+ firstIntersections.size() + ".";
+			}
+			if (error == null) {
+				error = GraphSnapshotGrader.compareSegments(firstSegments, segments);
+			}
+			if (error != null) {
+				return "On " + threads + " threads: " + error;
+			}
+		}
+		return null;
+	}
+}
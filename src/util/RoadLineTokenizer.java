@@ -0,0 +1,366 @@
+/**
+ * @author Abraham Ferrero
+ *
+ * A streaming reader for the lines of a .map road file.
+ */
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import geography.GeographicPoint;
+
+/**
+ * Reads the lines of a road file, in the format
+ *
+ *   lat1 lon1 lat2 lon2 "road name" roadType
+ *
+ * straight from the bytes of the file.  Tokens are split exactly like
+ * the regular expression [^\s"']+|"([^"]*)" that GraphLoader used to
+ * compile for every line: runs of characters other than white space and
+ * quotes, or double-quoted strings.  Numbers are parsed without building
+ * Strings, and road names and types go through a dictionary so each
+ * distinct name is decoded and allocated once.  Tokenizers reading parts
+ * of the same file at once can share their names through a concurrent
+ * map, so every part hands out the same String for the same name.
+ *
+ * Coordinates whose digits fit in 53 bits and that have no exponent
+ * (all the bundled maps) are computed as mantissa / 10^decimals.  Both
+ * numbers are exact doubles, so this is one correctly rounded division
+ * and gives exactly what Double.parseDouble would.  Anything else falls back to Double.parseDouble.
+ */
+class RoadLineTokenizer
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Mantissas above this are not exact in a double */
+	private static final long MAX_EXACT = 1L << 53;
+	/** Powers of ten that are exact in a double */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private final InputStream in;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	/** The unread bytes are buf[pos] .. buf[limit-1] */
+	private int pos;
+	private int limit;
+	private boolean eof;
+	private int lineNumber;
+
+	/** Start and end offsets in buf of the tokens of the current line */
+	private final int[] tokenStart = new int[6];
+	private final int[] tokenEnd = new int[6];
+
+	/** Open addressing table from the bytes of a name to its String */
+	private byte[][] dictKeys = new byte[256][];
+	private String[] dictValues = new String[256];
+	private int dictSize;
+	/** Names shared with other tokenizers of the same file, or null */
+	private final ConcurrentMap<String,String> shared;
+
+	/**
+	 * Create a tokenizer reading from a stream.  The stream is not closed.
+	 * @param in The bytes of the road file
+	 */
+	RoadLineTokenizer(InputStream in)
+	{
+		this(in, 0, null);
+	}
+
+	/**
+	 * Create a tokenizer reading part of a road file from a stream.  The
+	 * stream is not closed.
+	 * @param in The bytes of the part, which starts at the beginning of a line
+	 * @param firstLine The number of lines in the file before the part,
+	 *   so errors report line numbers in the file
+	 * @param shared The road names and types found so far by every
+	 *   tokenizer of the file, each mapped to itself, or null
+	 */
+	RoadLineTokenizer(InputStream in, int firstLine, ConcurrentMap<String,String> shared)
+	{
+		this.in = in;
+		this.lineNumber = firstLine;
+		this.shared = shared;
+	}
+
+	/**
+	 * Read the next line of the file.  Blank lines are skipped.
+	 * @return The line, or null at the end of the file
+	 * @throws IOException If the stream cannot be read, or a line has
+	 *   fewer than six fields
+	 */
+	RoadLineInfo next() throws IOException
+	{
+		while (true) {
+			int end = findLineEnd();
+			if (end < 0) {
+				return null;
+			}
+			lineNumber++;
+			int count = tokenize(pos, end);
+			RoadLineInfo line = null;
+			if (count >= 6) {
+				double lat1 = parseDouble(0);
+				double lon1 = parseDouble(1);
+				double lat2 = parseDouble(2);
+				double lon2 = parseDouble(3);
+				line = new RoadLineInfo(new GeographicPoint(lat1, lon1),
+						new GeographicPoint(lat2, lon2),
+						intern(tokenStart[4], tokenEnd[4]), intern(tokenStart[5], tokenEnd[5]));
+			}
+			else if (count > 0) {
+				throw new IOException("Line " + lineNumber + " has " + count
+						+ " fields instead of 6");
+			}
+			// The tokens point into buf, so only move on once they are used
+			pos = end;
+			skipLineTerminator();
+			if (line != null) {
+				return line;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of lines read so far, including blank ones
+	 * @return The line number of the last line returned
+	 */
+	int getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	// Make sure a whole line is in the buffer and return the offset of its
+	// terminator (or of the end of the data), or -1 at the end of the file
+	private int findLineEnd() throws IOException
+	{
+		int scan = pos;
+		while (true) {
+			for (; scan < limit; scan++) {
+				byte b = buf[scan];
+				if (b == '\n' || b == '\r') {
+					return scan;
+				}
+			}
+			if (eof) {
+				return pos < limit ? limit : -1;
+			}
+			// Keep the partial line and read more after it
+			int kept = limit - pos;
+			if (kept == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			else {
+				System.arraycopy(buf, pos, buf, 0, kept);
+			}
+			scan -= pos;
+			pos = 0;
+			limit = kept;
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read < 0) {
+				eof = true;
+			}
+			else {
+				limit += read;
+			}
+		}
+	}
+
+	// Step over \n, \r or \r\n.  The \n after a \r may not have been read yet.
+	private void skipLineTerminator() throws IOException
+	{
+		if (pos == limit) {
+			return;
+		}
+		if (buf[pos++] == '\r') {
+			if (pos == limit && !eof) {
+				limit = 0;
+				pos = 0;
+				int read = in.read(buf, 0, buf.length);
+				if (read < 0) {
+					eof = true;
+					return;
+				}
+				limit = read;
+			}
+			if (pos < limit && buf[pos] == '\n') {
+				pos++;
+			}
+		}
+	}
+
+	// Split buf[start..end) into tokens and return how many there are;
+	// only the first six are recorded
+	private int tokenize(int start, int end)
+	{
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == '"') {
+				int close = i + 1;
+				while (close < end && buf[close] != '"') {
+					close++;
+				}
+				if (close < end) {
+					count = addToken(count, i + 1, close);
+					i = close + 1;
+					continue;
+				}
+				// An unmatched quote is skipped, as by the regular expression
+				i++;
+			}
+			else if (isSeparator(b)) {
+				i++;
+			}
+			else {
+				int tokenEndAt = i + 1;
+				while (tokenEndAt < end && !isSeparator(buf[tokenEndAt]) && buf[tokenEndAt] != '"') {
+					tokenEndAt++;
+				}
+				count = addToken(count, i, tokenEndAt);
+				i = tokenEndAt;
+			}
+		}
+		return count;
+	}
+
+	private int addToken(int count, int start, int end)
+	{
+		if (count < tokenStart.length) {
+			tokenStart[count] = start;
+			tokenEnd[count] = end;
+		}
+		return count + 1;
+	}
+
+	// White space as matched by \s, and the single quote, end unquoted tokens
+	private static boolean isSeparator(byte b)
+	{
+		return b == ' ' || b == '\t' || b == 0x0B || b == '\f' || b == '\'';
+	}
+
+	// Parse a token as a double
+	private double parseDouble(int token)
+	{
+		int i = tokenStart[token];
+		int end = tokenEnd[token];
+		boolean negative = false;
+		if (i < end && buf[i] == '-') {
+			negative = true;
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		for (; i < end; i++) {
+			byte b = buf[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (point) {
+					fractionDigits++;
+				}
+				if (mantissa > MAX_EXACT) {
+					return slowParseDouble(token);
+				}
+			}
+			else if (b == '.' && !point) {
+				point = true;
+			}
+			else {
+				return slowParseDouble(token);
+			}
+		}
+		if (digits == 0 || fractionDigits >= POW10.length) {
+			return slowParseDouble(token);
+		}
+		double value = mantissa / POW10[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	private double slowParseDouble(int token)
+	{
+		return Double.parseDouble(new String(buf, tokenStart[token],
+				tokenEnd[token] - tokenStart[token], StandardCharsets.UTF_8));
+	}
+
+	// Look the bytes buf[start..end) up in the dictionary, adding them if new
+	private String intern(int start, int end)
+	{
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buf[i];
+		}
+		int mask = dictKeys.length - 1;
+		int slot = mix(hash) & mask;
+		while (dictKeys[slot] != null) {
+			if (sameBytes(dictKeys[slot], start, end)) {
+				return dictValues[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		byte[] key = Arrays.copyOfRange(buf, start, end);
+		String value = new String(key, StandardCharsets.UTF_8);
+		if (shared != null) {
+			String known = shared.putIfAbsent(value, value);
+			if (known != null) {
+				value = known;
+			}
+		}
+		dictKeys[slot] = key;
+		dictValues[slot] = value;
+		if (++dictSize * 2 > dictKeys.length) {
+			growDictionary();
+		}
+		return value;
+	}
+
+	// Whether key holds exactly the bytes buf[start..end)
+	private boolean sameBytes(byte[] key, int start, int end)
+	{
+		if (key.length != end - start) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != buf[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void growDictionary()
+	{
+		byte[][] oldKeys = dictKeys;
+		String[] oldValues = dictValues;
+		dictKeys = new byte[oldKeys.length * 2][];
+		dictValues = new String[oldKeys.length * 2];
+		int mask = dictKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = mix(Arrays.hashCode(oldKeys[i])) & mask;
+				while (dictKeys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				dictKeys[slot] = oldKeys[i];
+				dictValues[slot] = oldValues[i];
+			}
+		}
+	}
+
+	// Spread the bits of a hash code so the low bits index the table well
+	private static int mix(int h)
+	{
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
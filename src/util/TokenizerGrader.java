@@ -0,0 +1,116 @@
+/**
+ * Checks the streaming tokenizer against the regular expression parser
+ */
+package util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import roadgraph.Grader;
+
+/**
+ * @author Abraham Ferrero
+ *
+ * Grader for RoadLineTokenizer.  Every line of every bundled map, and of
+ * a file of unusual but valid lines, must come out of the tokenizer as
+ * the RoadLineInfo GraphLoader.splitInputString makes of it, with
+ * coordinates equal to the last bit.  A line with too few fields must be
+ * reported with an IOException.
+ *
+ */
+public class TokenizerGrader extends Grader
+{
+	/** Lines the bundled maps do not have: other white space, quotes,
+	 * exponents, signs, long mantissas and a Windows line end */
+	private static final String UNUSUAL =
+			"32.8\t-117.2  32.9   -117.3 \"Main Street\" residential\n"
+			+ "\n"
+			+ "  3.28e1 -1.172E2 +32.90 -117.30 \"\" \"primary link\"\r\n"
+			+ "32.123456789012345678 -117.98765432109876543 0.1 -0 O'Neil tertiary\n"
+			+ "-0.0 .5 5. 1e-3 \"Calle 'Real'\" secondary\n"
+			+ "12345678901234567890.5 1 2 3 \"\u00dcn\u00efc\u00f6d\u00e9 Stra\u00dfe\" motorway";
+
+	public TokenizerGrader()
+	{
+		super(GraphSnapshotGrader.MAP_FILES.length + 2);
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		grade(new TokenizerGrader());
+	}
+
+	@Override
+	protected void runTests()
+	{
+		section("TOKENIZER: Every line of every map");
+		for (String map : GraphSnapshotGrader.MAP_FILES) {
+			check(map, () -> compare(Files.readAllBytes(Paths.get("data/maps/" + map))));
+		}
+
+		section("TOKENIZER: Other input");
+		check("Unusual but valid lines", () -> compare(UNUSUAL.getBytes(StandardCharsets.UTF_8)));
+
+		check("Line with five fields is refused", () -> {
+			byte[] bytes = "32.8 -117.2 32.9 -117.3 residential\n".getBytes(StandardCharsets.UTF_8);
+			try {
+				new RoadLineTokenizer(new ByteArrayInputStream(bytes)).next();
+				return "A line with five fields was read.";
+			}
+			catch (IOException e) {
+				return null;
+			}
+		});
+	}
+
+	// Read the lines of a file with the regular expression and with the
+	// tokenizer, and compare them one by one
+	private static String compare(byte[] bytes) throws IOException
+	{
+		List<RoadLineInfo> expected = new ArrayList<RoadLineInfo>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+		String nextLine;
+		while ((nextLine = reader.readLine()) != null) {
+			if (!nextLine.trim().isEmpty()) {
+				expected.add(GraphLoader.splitInputString(nextLine));
+			}
+		}
+
+		RoadLineTokenizer tokenizer = new RoadLineTokenizer(new ByteArrayInputStream(bytes));
+		for (int i = 0; i < expected.size(); i++) {
+			RoadLineInfo line = tokenizer.next();
+			if (line == null) {
+				return "The tokenizer stopped after " + i + " lines; expected " + expected.size() + ".";
+			}
+			if (!same(line, expected.get(i))) {
+				return "Line " + (i + 1) + " was read as " + line + "; expected " + expected.get(i) + ".";
+			}
+		}
+		if (tokenizer.next() != null) {
+			return "The tokenizer read more than the " + expected.size() + " lines there are.";
+		}
+		return null;
+	}
+
+	// Equal fields, with the coordinates compared bit for bit so that -0
+	// and 0 differ
+	private static boolean same(RoadLineInfo a, RoadLineInfo b)
+	{
+		return a.roadName.equals(b.roadName) && a.roadType.equals(b.roadType)
+				&& sameBits(a.point1.getX(), b.point1.getX()) && sameBits(a.point1.getY(), b.point1.getY())
+				&& sameBits(a.point2.getX(), b.point2.getX()) && sameBits(a.point2.getY(), b.point2.getY());
+	}
+
+	private static boolean sameBits(double a, double b)
+	{
+		return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+	}
+}